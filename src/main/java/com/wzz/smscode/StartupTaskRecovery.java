@@ -1,7 +1,7 @@
 package com.wzz.smscode;
 
-import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.wzz.smscode.entity.NumberRecord;
+import com.wzz.smscode.service.NumberRecordActiveService;
 import com.wzz.smscode.service.NumberRecordService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -10,6 +10,7 @@ import org.springframework.boot.ApplicationRunner;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
+import java.util.Comparator;
 import java.util.List;
 
 @Component
@@ -19,24 +20,37 @@ public class StartupTaskRecovery implements ApplicationRunner {
     @Autowired
     private NumberRecordService numberRecordService;
 
+    @Autowired
+    private NumberRecordActiveService numberRecordActiveService;
+
     @Override
     public void run(ApplicationArguments args) {
         log.info(">>> 系统启动，开始扫描异常中断的取码任务...");
+        try {
+            // 先与历史表校对一次进行中订单表，宕机前未提交的变更、手工改库都在这里修正
+            numberRecordActiveService.reconcile();
+        } catch (Exception e) {
+            log.error(">>> 进行中订单表校对失败", e);
+        }
 
         long lastId = 0L; // 游标，记录上一批次最大的ID
         int batchSize = 100; // 每批次处理500条
         int totalProcessed = 0;
 
         while (true) {
-            LambdaQueryWrapper<NumberRecord> wrapper = new LambdaQueryWrapper<NumberRecord>()
-                    .in(NumberRecord::getStatus, 0, 1)
-                    .gt(NumberRecord::getId, lastId) // 核心：游标条件
-                    .orderByAsc(NumberRecord::getId) // 核心：必须按ID排序
-                    .last("LIMIT " + batchSize);     // 核心：限制条数
-            List<NumberRecord> records = numberRecordService.list(wrapper);
-            if (records.isEmpty()) {
+            // 按ID游标从进行中订单表取ID，再按主键回查完整记录
+            List<Long> ids = numberRecordActiveService.listOngoingIds(lastId, batchSize);
+            if (ids.isEmpty()) {
                 break;
             }
+            lastId = ids.get(ids.size() - 1);
+            List<NumberRecord> records = numberRecordService.listByIds(ids).stream()
+                    .filter(record -> record.getStatus() != null && record.getStatus() < 2)
+                    .sorted(Comparator.comparing(NumberRecord::getId))
+                    .toList();
+            if (records.isEmpty()) {
+                continue;
+            }
             log.info(">>> [任务恢复] 本批次扫描到 {} 条中断任务，正在重新调度...", records.size());
             for (NumberRecord record : records) {
                 try {
@@ -44,7 +58,6 @@ public class StartupTaskRecovery implements ApplicationRunner {
                 } catch (Exception e) {
                     log.error(">>> 恢复任务 [{}] 失败", record.getId(), e);
                 }
-                lastId = record.getId();
             }
             totalProcessed += records.size();
             try {
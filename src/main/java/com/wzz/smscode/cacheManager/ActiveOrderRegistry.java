@@ -0,0 +1,141 @@
+package com.wzz.smscode.cacheManager;
+
+import com.wzz.smscode.entity.NumberRecord;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 在途订单登记表（本地内存）
+ * <p>
+ * 取码轮询期间的订单按记录ID登记在这里，保存订单状态和释放标记。
+ * 成功/退款/释放等状态变化由业务代码在事务提交后主动写入，轮询线程只读 volatile 字段判断是否停止，
+ * 不再每次轮询都查询 number_record。
+ * 为兼容多节点部署（状态可能在其他节点被修改），每个订单按 verify-interval 低频回库校验一次。
+ * </p>
+ */
+@Slf4j
+@Component
+public class ActiveOrderRegistry {
+
+    @Value("${sms.active-order.verify-interval-ms:30000}")
+    private long verifyIntervalMs = 30000;
+
+    private final Map<Long, ActiveOrder> activeOrders = new ConcurrentHashMap<>();
+
+    /**
+     * 登记进入取码中的订单
+     */
+    public void register(NumberRecord record) {
+        ActiveOrder order = new ActiveOrder(record.getStatus(), Integer.valueOf(1).equals(record.getIsReleased()));
+        activeOrders.put(record.getId(), order);
+    }
+
+    /**
+     * 轮询结束后移除
+     */
+    public void remove(Long recordId) {
+        activeOrders.remove(recordId);
+    }
+
+    /**
+     * 判断轮询是否应该停止：订单不在登记表、状态已不是取码中(1)或号码已释放
+     *
+     * @param loader 回库校验时加载最新记录，只在超过校验间隔时调用
+     */
+    public boolean shouldStop(Long recordId, Supplier<NumberRecord> loader) {
+        ActiveOrder order = activeOrders.get(recordId);
+        if (order == null) {
+            return true;
+        }
+        if (order.isStopped()) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        if (loader != null && now - order.verifiedAt >= verifyIntervalMs) {
+            order.verifiedAt = now;
+            NumberRecord current = loader.get();
+            if (current == null) {
+                order.status = -1;
+            } else {
+                order.status = current.getStatus();
+                order.released = Integer.valueOf(1).equals(current.getIsReleased());
+            }
+        }
+        return order.isStopped();
+    }
+
+    public boolean isReleased(Long recordId) {
+        ActiveOrder order = activeOrders.get(recordId);
+        return order != null && order.released;
+    }
+
+    /**
+     * 订单状态变更（成功/超时退款/批量退款等），在当前事务提交后生效
+     */
+    public void markStatusAfterCommit(Long recordId, Integer status) {
+        if (recordId == null || status == null) {
+            return;
+        }
+        runAfterCommit(() -> {
+            ActiveOrder order = activeOrders.get(recordId);
+            if (order != null) {
+                order.status = status;
+            }
+        });
+    }
+
+    /**
+     * 号码已释放，在当前事务提交后生效（无事务时立即生效）
+     */
+    public void markReleasedAfterCommit(Long recordId) {
+        if (recordId == null) {
+            return;
+        }
+        runAfterCommit(() -> {
+            ActiveOrder order = activeOrders.get(recordId);
+            if (order != null) {
+                order.released = true;
+            }
+        });
+    }
+
+    public int size() {
+        return activeOrders.size();
+    }
+
+    private void runAfterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private static final class ActiveOrder {
+        private volatile int status;
+        private volatile boolean released;
+        private volatile long verifiedAt;
+
+        private ActiveOrder(Integer status, boolean released) {
+            this.status = status == null ? 0 : status;
+            this.released = released;
+            this.verifiedAt = System.currentTimeMillis();
+        }
+
+        private boolean isStopped() {
+            return status != 1 || released;
+        }
+    }
+}
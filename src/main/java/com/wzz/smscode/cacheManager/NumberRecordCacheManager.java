@@ -2,7 +2,6 @@ package com.wzz.smscode.cacheManager;
 
 
 import com.wzz.smscode.entity.NumberRecord;
-import com.wzz.smscode.entity.Project;
 import com.wzz.smscode.entity.User;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -23,12 +22,10 @@ public class NumberRecordCacheManager {
 
     // 前缀定义
     private static final String PREFIX_USER = "sms:user:name:";
-    private static final String PREFIX_PROJECT = "sms:project:cfg:";
     private static final String PREFIX_RECORD = "sms:record:phone:";
 
     // 过期时间定义
     private static final long USER_EXPIRE = 24; // 24小时，用户信息
-    private static final long PROJECT_EXPIRE = 15; // 15分钟  项目缓存
     private static final long RECORD_EXPIRE = 5; // 5秒，号码记录
 
     // --- 用户缓存 ---
@@ -46,27 +43,7 @@ public class NumberRecordCacheManager {
         redisTemplate.delete(PREFIX_USER + userName);
     }
 
-    // --- 项目配置缓存 ---
-
-    public void cacheProject(String projectId, Integer lineId, Project project) {
-        if (project == null) return;
-        String key = PREFIX_PROJECT + projectId + ":" + lineId;
-        redisTemplate.opsForValue().set(key, project, PROJECT_EXPIRE, TimeUnit.MINUTES);
-    }
-
-    public Project getProject(String projectId, Integer lineId) {
-        String key = PREFIX_PROJECT + projectId + ":" + lineId;
-        return (Project) redisTemplate.opsForValue().get(key);
-    }
-
-    /**
-     * 清除项目缓存
-     */
-    public void evictProject(String projectId, Integer lineId) {
-        if (projectId == null || lineId == null) return;
-        String key = PREFIX_PROJECT + projectId + ":" + lineId;
-        redisTemplate.delete(key);
-    }
+    // 项目配置缓存见 ProjectConfigCache（本地 + Redis 两级）
 
     // --- 号码记录缓存 (核心) ---
 
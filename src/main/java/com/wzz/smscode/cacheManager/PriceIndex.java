@@ -0,0 +1,352 @@
+package com.wzz.smscode.cacheManager;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.wzz.smscode.entity.PriceTemplateItem;
+import com.wzz.smscode.mapper.PriceTemplateItemMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 价格模板项内存索引（写时复制）
+ * <p>
+ * 全量 price_template_item 按 templateId 分组，组内按 (projectId, lineId) 排序存成两个 long 数组，
+ * 查找是一次 HashMap 读加一次二分查找，不再执行 selectOne ... LIMIT 1。
+ * 索引整体不可变，变更后在后台重新构建一份新快照，再通过 volatile 引用一次性替换。
+ * </p>
+ * <p>
+ * 模板/模板项/价格同步相关的写操作调用 {@link #markChanged()}：事务提交后递增本地“脏版本”、
+ * 触发后台重建，递增 Redis 中的全局变更代数，并通过 Redis 发布/订阅通知其它节点同样重建。
+ * 发布/订阅至多投递一次，各节点每隔 generation-check-ms 读取一次变更代数，比本地见过的更大即说明漏收了通知，随即重建。
+ * 快照版本落后于脏版本期间（以及启动后首次构建完成前）查询直接回落到数据库，保证提交后立即读到新价格。
+ * 返回的模板项在多个线程之间共享，调用方只能读取。
+ * </p>
+ */
+@Slf4j
+@Component
+public class PriceIndex implements MessageListener {
+
+    private static final String CHANNEL = "sms:price:index:changed";
+    private static final String GENERATION_KEY = "sms:price:index:generation";
+    private static final String SEPARATOR = "|";
+
+    /**
+     * 索引未就绪时 find 的返回值，调用方需回落到数据库
+     */
+    public static final PriceTemplateItem MISS = new PriceTemplateItem();
+
+    @Autowired
+    private PriceTemplateItemMapper priceTemplateItemMapper;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final AtomicLong dirtyVersion = new AtomicLong(0);
+    private final AtomicLong seenGeneration = new AtomicLong(0);
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean(false);
+    private final ExecutorService rebuildExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "price-index-rebuild");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile Snapshot snapshot;
+
+    @PostConstruct
+    public void subscribe() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CHANNEL));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildOnStartup() {
+        // 先记下当前代数，首次构建已包含此前的全部变更
+        Long generation = readGeneration();
+        if (generation != null) {
+            seen(generation);
+        }
+        scheduleRebuild();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        rebuildExecutor.shutdownNow();
+    }
+
+    /**
+     * 查询模板中某个项目线路的价格配置
+     *
+     * @return 索引可用时返回索引结果（可能为 null 表示未配置）；索引未就绪或已过期时返回 {@link #MISS}
+     */
+    public PriceTemplateItem find(Long templateId, String projectId, Integer lineId) {
+        Snapshot current = snapshot;
+        if (current == null || current.version < dirtyVersion.get()
+                || templateId == null || lineId == null) {
+            return MISS;
+        }
+        long numericProjectId;
+        try {
+            numericProjectId = Long.parseLong(projectId);
+        } catch (NumberFormatException e) {
+            return MISS;
+        }
+        TemplatePrices prices = current.templates.get(templateId);
+        return prices == null ? null : prices.find(numericProjectId, lineId);
+    }
+
+    /**
+     * 价格配置已变更：当前事务提交后重建本地索引并通知其它节点
+     */
+    public void markChanged() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // 同一事务内多次标记只注册一次
+            if (TransactionSynchronizationManager.hasResource(this)) {
+                return;
+            }
+            TransactionSynchronizationManager.bindResource(this, Boolean.TRUE);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    onChanged(true);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(PriceIndex.this);
+                }
+            });
+        } else {
+            onChanged(true);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int index = body.indexOf(SEPARATOR);
+        String sender = index < 0 ? body : body.substring(0, index);
+        if (nodeId.equals(sender)) {
+            return;
+        }
+        if (index >= 0) {
+            try {
+                seen(Long.parseLong(body.substring(index + 1)));
+            } catch (NumberFormatException ignored) {
+                // 代数缺失时只按通知重建
+            }
+        }
+        onChanged(false);
+    }
+
+    /**
+     * 兜底：全局变更代数大于本地见过的代数时说明漏收了变更通知，重建本地索引
+     */
+    @Scheduled(fixedDelayString = "${sms.price-index.generation-check-ms:10000}",
+            initialDelayString = "${sms.price-index.generation-check-ms:10000}")
+    public void checkGeneration() {
+        Long generation = readGeneration();
+        if (generation != null && seen(generation)) {
+            log.info("价格索引检测到漏收的变更通知（全局代数 {}），重建本地索引", generation);
+            onChanged(false);
+        }
+    }
+
+    public boolean isReady() {
+        return version() >= 0;
+    }
+
+    /**
+     * 当前可用快照的版本号，索引未就绪或已过期时返回 -1；依赖价格的派生缓存可据此判断是否需要重算
+     */
+    public long version() {
+        Snapshot current = snapshot;
+        return current != null && current.version >= dirtyVersion.get() ? current.version : -1;
+    }
+
+    private void onChanged(boolean publish) {
+        Long generation = null;
+        if (publish) {
+            // 先递增代数再重建：代数不大于返回值的变更都已提交，本次重建一定能读到
+            try {
+                generation = stringRedisTemplate.opsForValue().increment(GENERATION_KEY);
+                if (generation != null) {
+                    seen(generation);
+                }
+            } catch (Exception e) {
+                log.warn("价格索引变更代数递增失败: {}", e.getMessage());
+            }
+        }
+        dirtyVersion.incrementAndGet();
+        scheduleRebuild();
+        if (publish) {
+            try {
+                stringRedisTemplate.convertAndSend(CHANNEL, generation == null ? nodeId : nodeId + SEPARATOR + generation);
+            } catch (Exception e) {
+                log.warn("价格索引变更广播失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    private Long readGeneration() {
+        try {
+            String value = stringRedisTemplate.opsForValue().get(GENERATION_KEY);
+            return value == null ? 0L : Long.parseLong(value);
+        } catch (Exception e) {
+            log.warn("读取价格索引变更代数失败: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 记录见过的代数
+     *
+     * @return 是否比此前见过的更新
+     */
+    private boolean seen(long generation) {
+        long previous = seenGeneration.getAndAccumulate(generation, Math::max);
+        return generation > previous;
+    }
+
+    /**
+     * 合并重建请求：同一时间最多一个重建任务，重建期间又有变更则再重建一轮
+     */
+    private void scheduleRebuild() {
+        if (!rebuildScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        rebuildExecutor.execute(() -> {
+            boolean succeeded = false;
+            try {
+                long target;
+                do {
+                    target = dirtyVersion.get();
+                    rebuild(target);
+                } while (dirtyVersion.get() != target);
+                succeeded = true;
+            } catch (Exception e) {
+                log.error("价格索引重建失败，查询回落到数据库，等待下一次变更时重试", e);
+            } finally {
+                rebuildScheduled.set(false);
+            }
+            // 处理在退出循环与释放标记之间到达的变更
+            if (succeeded && snapshot.version < dirtyVersion.get()) {
+                scheduleRebuild();
+            }
+        });
+    }
+
+    void rebuild(long version) {
+        long startTime = System.currentTimeMillis();
+        List<PriceTemplateItem> items = priceTemplateItemMapper.selectList(new LambdaQueryWrapper<PriceTemplateItem>()
+                .select(PriceTemplateItem::getId, PriceTemplateItem::getTemplateId, PriceTemplateItem::getProjectId,
+                        PriceTemplateItem::getProjectName, PriceTemplateItem::getLineId, PriceTemplateItem::getPrice,
+                        PriceTemplateItem::getCostPrice, PriceTemplateItem::getMinPrice, PriceTemplateItem::getMaxPrice,
+                        PriceTemplateItem::getProjectTableId));
+        snapshot = build(version, items);
+        log.info("价格索引重建完成: 模板数={}, 配置项数={}, 耗时={}ms",
+                snapshot.templates.size(), items.size(), System.currentTimeMillis() - startTime);
+    }
+
+    static Snapshot build(long version, List<PriceTemplateItem> items) {
+        Map<Long, List<PriceTemplateItem>> byTemplate = new HashMap<>();
+        for (PriceTemplateItem item : items) {
+            if (item.getTemplateId() == null || item.getProjectId() == null || item.getLineId() == null) {
+                continue;
+            }
+            byTemplate.computeIfAbsent(item.getTemplateId(), k -> new ArrayList<>()).add(item);
+        }
+        Map<Long, TemplatePrices> templates = new HashMap<>(byTemplate.size() * 2);
+        byTemplate.forEach((templateId, list) -> templates.put(templateId, new TemplatePrices(list)));
+        return new Snapshot(version, templates);
+    }
+
+    static final class Snapshot {
+        private final long version;
+        private final Map<Long, TemplatePrices> templates;
+
+        private Snapshot(long version, Map<Long, TemplatePrices> templates) {
+            this.version = version;
+            this.templates = templates;
+        }
+    }
+
+    /**
+     * 单个模板内的价格项，按 (projectId, lineId) 升序排列
+     */
+    static final class TemplatePrices {
+        private final long[] projectIds;
+        private final long[] lineIds;
+        private final PriceTemplateItem[] items;
+
+        private TemplatePrices(List<PriceTemplateItem> source) {
+            List<PriceTemplateItem> sorted = new ArrayList<>(source);
+            // 与原 selectOne ... LIMIT 1 一致，同一项目线路出现重复配置时取 id 最小的一条
+            sorted.sort(Comparator.comparingLong(PriceTemplateItem::getProjectId)
+                    .thenComparingLong(PriceTemplateItem::getLineId)
+                    .thenComparing(PriceTemplateItem::getId, Comparator.nullsLast(Comparator.naturalOrder())));
+            List<PriceTemplateItem> unique = new ArrayList<>(sorted.size());
+            for (PriceTemplateItem item : sorted) {
+                PriceTemplateItem last = unique.isEmpty() ? null : unique.get(unique.size() - 1);
+                if (last == null || !last.getProjectId().equals(item.getProjectId()) || !last.getLineId().equals(item.getLineId())) {
+                    unique.add(item);
+                }
+            }
+            int size = unique.size();
+            this.projectIds = new long[size];
+            this.lineIds = new long[size];
+            this.items = new PriceTemplateItem[size];
+            for (int i = 0; i < size; i++) {
+                PriceTemplateItem item = unique.get(i);
+                projectIds[i] = item.getProjectId();
+                lineIds[i] = item.getLineId();
+                items[i] = item;
+            }
+        }
+
+        PriceTemplateItem find(long projectId, long lineId) {
+            int low = 0;
+            int high = projectIds.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = projectIds[mid] != projectId
+                        ? Long.compare(projectIds[mid], projectId)
+                        : Long.compare(lineIds[mid], lineId);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return items[mid];
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.wzz.smscode.cacheManager;
+
+import com.wzz.smscode.entity.Project;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 项目配置两级缓存
+ * <p>
+ * L1 为本机内存中已解析好的 Project 快照，命中时只是一次 Map 读取，不再查库，也不再反序列化五个 ApiConfig JSON 列；
+ * L2 为 Redis，快照附带版本号，版本号与 Redis 中的 {@code sms:project:ver:*} 计数器不一致时视为过期。
+ * 缓存中的快照不直接交给调用方，每次读取返回一份 {@link Project#copy()}，调用方修改返回对象不会影响其他线程。
+ * </p>
+ * <p>
+ * 项目配置变更（后台修改、筛选开关自动关闭、删除）调用 {@link #invalidate}：
+ * 事务提交后递增版本号、删除 L2 并通过 Redis 发布/订阅通知所有节点清理 L1。
+ * 提交之前该项目处于“失效中”状态，期间的读取直接查库且不回填缓存，避免把未提交或旧的数据写进缓存。
+ * L1 另有一个兜底过期时间，防止订阅消息丢失时长期使用旧配置。
+ * </p>
+ */
+@Slf4j
+@Component
+public class ProjectConfigCache implements MessageListener {
+
+    private static final String CHANNEL = "sms:project:invalidate";
+    private static final String PREFIX_SNAPSHOT = "sms:project:snap:";
+    private static final String PREFIX_VERSION = "sms:project:ver:";
+    private static final String SEPARATOR = "|";
+    private static final long SNAPSHOT_EXPIRE_MINUTES = 15;
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${sms.project-cache.l1-ttl-seconds:300}")
+    private long l1TtlSeconds = 300;
+
+    private final Map<String, LocalEntry> localCache = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> localVersions = new ConcurrentHashMap<>();
+    private final Map<String, Integer> pendingInvalidations = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void subscribe() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CHANNEL));
+    }
+
+    /**
+     * 读取项目配置：L1 -> L2 -> loader(数据库)
+     *
+     * @param loader 缓存未命中时从数据库加载，可能返回 null
+     */
+    public Project get(String projectId, Integer lineId, Supplier<Project> loader) {
+        if (projectId == null || lineId == null) {
+            return loader.get();
+        }
+        String key = buildKey(projectId, String.valueOf(lineId));
+        LocalEntry entry = localCache.get(key);
+        long now = System.currentTimeMillis();
+        if (entry != null && now < entry.expireAt) {
+            return entry.project.copy();
+        }
+        if (pendingInvalidations.containsKey(key)) {
+            return loader.get();
+        }
+        long localVersion = versionOf(key).get();
+        Project project = loadFromRedisOrDb(key, loader);
+        if (project == null) {
+            return null;
+        }
+        LocalEntry fresh = new LocalEntry(project, now + TimeUnit.SECONDS.toMillis(l1TtlSeconds));
+        // 加载期间发生过失效则放弃回填，版本比较和写入在同一个桶锁内完成
+        localCache.compute(key, (k, old) ->
+                versionOf(k).get() == localVersion && !pendingInvalidations.containsKey(k) ? fresh : old);
+        return project.copy();
+    }
+
+    /**
+     * 项目配置已变更：当前事务提交后递增版本号、删除 L2 并广播，所有节点清理 L1
+     */
+    public void invalidate(String projectId, String lineId) {
+        if (projectId == null || lineId == null) {
+            return;
+        }
+        String key = buildKey(projectId, lineId);
+        pendingInvalidations.merge(key, 1, Integer::sum);
+        evictLocal(key);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    complete(key, status == STATUS_COMMITTED);
+                }
+            });
+        } else {
+            complete(key, true);
+        }
+    }
+
+    public void invalidate(String projectId, Integer lineId) {
+        invalidate(projectId, lineId == null ? null : String.valueOf(lineId));
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int index = body.lastIndexOf(SEPARATOR);
+        if (index <= 0) {
+            return;
+        }
+        evictLocal(body.substring(0, index));
+    }
+
+    public int size() {
+        return localCache.size();
+    }
+
+    private void complete(String key, boolean committed) {
+        try {
+            if (committed) {
+                publishInvalidation(key);
+            }
+        } finally {
+            pendingInvalidations.computeIfPresent(key, (k, count) -> count <= 1 ? null : count - 1);
+            evictLocal(key);
+        }
+    }
+
+    private void publishInvalidation(String key) {
+        try {
+            Long version = stringRedisTemplate.opsForValue().increment(PREFIX_VERSION + key);
+            redisTemplate.delete(PREFIX_SNAPSHOT + key);
+            stringRedisTemplate.convertAndSend(CHANNEL, key + SEPARATOR + version);
+        } catch (Exception e) {
+            log.warn("项目配置缓存失效广播失败 key={}: {}", key, e.getMessage());
+        }
+    }
+
+    private Project loadFromRedisOrDb(String key, Supplier<Project> loader) {
+        long redisVersion;
+        try {
+            List<Object> values = redisTemplate.opsForValue()
+                    .multiGet(Arrays.asList(PREFIX_VERSION + key, PREFIX_SNAPSHOT + key));
+            redisVersion = parseVersion(values == null ? null : values.get(0));
+            Object cached = values == null ? null : values.get(1);
+            if (cached instanceof ProjectSnapshot snapshot && snapshot.getVersion() == redisVersion
+                    && snapshot.getProject() != null) {
+                return snapshot.getProject();
+            }
+        } catch (Exception e) {
+            log.warn("读取项目配置 L2 缓存失败 key={}，直接查库: {}", key, e.getMessage());
+            return loader.get();
+        }
+        Project project = loader.get();
+        if (project != null) {
+            try {
+                redisTemplate.opsForValue().set(PREFIX_SNAPSHOT + key, new ProjectSnapshot(redisVersion, project),
+                        SNAPSHOT_EXPIRE_MINUTES, TimeUnit.MINUTES);
+            } catch (Exception e) {
+                log.warn("写入项目配置 L2 缓存失败 key={}: {}", key, e.getMessage());
+            }
+        }
+        return project;
+    }
+
+    private void evictLocal(String key) {
+        localCache.compute(key, (k, old) -> {
+            versionOf(k).incrementAndGet();
+            return null;
+        });
+    }
+
+    private AtomicLong versionOf(String key) {
+        return localVersions.computeIfAbsent(key, k -> new AtomicLong());
+    }
+
+    private static long parseVersion(Object value) {
+        if (value instanceof Number number) {
+            return number.longValue();
+        }
+        if (value instanceof String text) {
+            try {
+                return Long.parseLong(text.trim());
+            } catch (NumberFormatException ignored) {
+                return 0L;
+            }
+        }
+        return 0L;
+    }
+
+    private static String buildKey(String projectId, String lineId) {
+        return projectId + ":" + lineId;
+    }
+
+    private static final class LocalEntry {
+        private final Project project;
+        private final long expireAt;
+
+        private LocalEntry(Project project, long expireAt) {
+            this.project = project;
+            this.expireAt = expireAt;
+        }
+    }
+
+    /**
+     * L2 中保存的带版本号的项目快照
+     */
+    public static class ProjectSnapshot {
+        private long version;
+        private Project project;
+
+        public ProjectSnapshot() {
+        }
+
+        public ProjectSnapshot(long version, Project project) {
+            this.version = version;
+            this.project = project;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public Project getProject() {
+            return project;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.wzz.smscode.cacheManager;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.wzz.smscode.entity.NumberRecord;
+import com.wzz.smscode.mapper.NumberRecordMapper;
+import com.wzz.smscode.util.ScalableBloomFilter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 项目维度的手机号查重索引
+ * <p>
+ * 每个 projectId 一个可扩容布隆过滤器，启动时流式扫描 number_record 重建。
+ * 过滤器判定“不存在”时直接放行（绝大多数新号码走这条路径，纯内存计算），
+ * 判定“可能存在”时再用 (project_id, phone_number) 联合索引查库确认。
+ * 重建完成前一律返回“可能存在”，保持原来的查库行为。
+ * 其它节点新增的号码由定时追平写入本地过滤器：每隔 catch-up-interval-ms 从已索引的最大ID往前回退
+ * catch-up-overlap 条开始扫描新记录（回退用于覆盖ID较小但提交较晚的事务）。
+ * 追平之前本地过滤器会漏掉其它节点刚取到的号码，所以本地判定不存在时只当作“可能是新号码”，
+ * 再查一次 Redis 中的近期新增标记确认：每个节点取到号码时写入该标记，保留 recent-ttl-seconds，覆盖追平周期；
+ * Redis 不可用时按“可能存在”处理，回落到查库。
+ * </p>
+ */
+@Slf4j
+@Component
+public class ProjectPhoneDedupIndex {
+
+    private static final String PREFIX_RECENT = "sms:dedup:recent:";
+
+    @Autowired
+    private NumberRecordMapper numberRecordMapper;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${sms.dedup.initial-capacity:65536}")
+    private long initialCapacity = 65536;
+
+    @Value("${sms.dedup.fpp:0.001}")
+    private double fpp = 0.001;
+
+    @Value("${sms.dedup.rebuild-batch-size:5000}")
+    private int rebuildBatchSize = 5000;
+
+    @Value("${sms.dedup.catch-up-overlap:2000}")
+    private long catchUpOverlap = 2000;
+
+    @Value("${sms.dedup.recent-ttl-seconds:60}")
+    private long recentTtlSeconds = 60;
+
+    private final Map<String, ScalableBloomFilter> filters = new ConcurrentHashMap<>();
+    private final ReentrantLock scanLock = new ReentrantLock();
+    private volatile boolean ready = false;
+    private volatile long indexedUpTo = 0L;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildOnStartup() {
+        Thread.ofVirtual().name("phone-dedup-rebuild").start(this::rebuild);
+    }
+
+    /**
+     * 号码是否可能已存在于该项目；返回 false 时一定不存在
+     */
+    public boolean mightContain(String projectId, String phoneNumber) {
+        if (!ready) {
+            return true;
+        }
+        ScalableBloomFilter filter = filters.get(projectId);
+        if (filter != null && filter.mightContain(ScalableBloomFilter.keyOf(phoneNumber))) {
+            return true;
+        }
+        return recentlyAdded(projectId, phoneNumber);
+    }
+
+    /**
+     * 记录新取到的号码：写入本地过滤器和 Redis 近期新增标记
+     * <p>
+     * 标记在事务提交前写入，其它节点在本节点提交之前也能看到；事务回滚留下的标记只会让调用方多查一次库。
+     * </p>
+     */
+    public void add(String projectId, String phoneNumber) {
+        if (!StringUtils.hasText(projectId) || !StringUtils.hasText(phoneNumber)) {
+            return;
+        }
+        addLocal(projectId, phoneNumber);
+        try {
+            stringRedisTemplate.opsForValue().set(recentKey(projectId, phoneNumber), "1",
+                    recentTtlSeconds, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            log.warn("查重索引写入近期新增标记失败 project={}, phone={}: {}", projectId, phoneNumber, e.getMessage());
+        }
+    }
+
+    /**
+     * 流式扫描 number_record 重建全部过滤器
+     */
+    public void rebuild() {
+        long startTime = System.currentTimeMillis();
+        scanLock.lock();
+        try {
+            long total = scan(0L);
+            ready = true;
+            log.info("手机号查重索引重建完成: 项目数={}, 记录数={}, 耗时={}ms",
+                    filters.size(), total, System.currentTimeMillis() - startTime);
+        } catch (Exception e) {
+            log.error("手机号查重索引重建失败，继续使用数据库查重", e);
+        } finally {
+            scanLock.unlock();
+        }
+    }
+
+    /**
+     * 追平其它节点新增的号码：从已索引的最大ID往前回退一段重新扫描
+     */
+    @Scheduled(fixedDelayString = "${sms.dedup.catch-up-interval-ms:10000}",
+            initialDelayString = "${sms.dedup.catch-up-interval-ms:10000}")
+    public void catchUp() {
+        if (!ready || !scanLock.tryLock()) {
+            return;
+        }
+        try {
+            scan(Math.max(0L, indexedUpTo - catchUpOverlap));
+        } catch (Exception e) {
+            log.warn("手机号查重索引追平失败，下个周期重试: {}", e.getMessage());
+        } finally {
+            scanLock.unlock();
+        }
+    }
+
+    /**
+     * 按ID顺序扫描 fromId 之后的记录写入过滤器
+     *
+     * @return 扫描的记录数
+     */
+    private long scan(long fromId) {
+        long lastId = fromId;
+        long total = 0L;
+        while (true) {
+            List<NumberRecord> batch = numberRecordMapper.selectList(new LambdaQueryWrapper<NumberRecord>()
+                    .select(NumberRecord::getId, NumberRecord::getProjectId, NumberRecord::getPhoneNumber)
+                    .gt(NumberRecord::getId, lastId)
+                    .orderByAsc(NumberRecord::getId)
+                    .last("LIMIT " + rebuildBatchSize));
+            if (batch.isEmpty()) {
+                break;
+            }
+            for (NumberRecord record : batch) {
+                if (StringUtils.hasText(record.getProjectId()) && StringUtils.hasText(record.getPhoneNumber())) {
+                    addLocal(record.getProjectId(), record.getPhoneNumber());
+                }
+            }
+            lastId = batch.get(batch.size() - 1).getId();
+            total += batch.size();
+        }
+        if (lastId > indexedUpTo) {
+            indexedUpTo = lastId;
+        }
+        return total;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 本地未命中时确认号码是否刚被其它节点取到，Redis 异常时按可能存在处理
+     */
+    private boolean recentlyAdded(String projectId, String phoneNumber) {
+        try {
+            return Boolean.TRUE.equals(stringRedisTemplate.hasKey(recentKey(projectId, phoneNumber)));
+        } catch (Exception e) {
+            log.warn("查重索引读取近期新增标记失败，回落到查库 project={}, phone={}: {}",
+                    projectId, phoneNumber, e.getMessage());
+            return true;
+        }
+    }
+
+    private static String recentKey(String projectId, String phoneNumber) {
+        return PREFIX_RECENT + projectId + ":" + phoneNumber;
+    }
+
+    private void addLocal(String projectId, String phoneNumber) {
+        filters.computeIfAbsent(projectId, k -> new ScalableBloomFilter(initialCapacity, fpp))
+                .put(ScalableBloomFilter.keyOf(phoneNumber));
+    }
+}
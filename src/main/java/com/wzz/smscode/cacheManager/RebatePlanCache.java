@@ -0,0 +1,210 @@
+package com.wzz.smscode.cacheManager;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 代理链返点计划缓存
+ * <p>
+ * 按 (消费用户, projectId, lineId) 缓存该用户向上的代理链：每一级的代理ID、用户名及其拿货价，
+ * 结算时只需按顺序做减法即可得到各级返点，不再逐级 getById + getPriceConfig。
+ * </p>
+ * <p>
+ * 失效规则：
+ * 1. 计划记录构建时价格索引 {@link PriceIndex} 的版本，价格索引版本变化（任何模板项变更）后自动视为过期；
+ * 价格索引未就绪时不缓存。
+ * 2. 用户上级/模板/用户名变更或删除用户时调用 {@link #invalidateAll()}，事务提交后清空并通过 Redis 通知其它节点。
+ * </p>
+ */
+@Slf4j
+@Component
+public class RebatePlanCache implements MessageListener {
+
+    private static final String CHANNEL = "sms:rebate:plan:invalidate";
+
+    @Autowired
+    private PriceIndex priceIndex;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${sms.rebate-plan.max-entries:50000}")
+    private int maxEntries = 50000;
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Map<String, RebatePlan> plans = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    @PostConstruct
+    public void subscribe() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CHANNEL));
+    }
+
+    /**
+     * 获取返点计划，未命中或已过期时用 builder 构建
+     *
+     * @return builder 返回 null（消费用户不存在）时返回 null，不缓存
+     */
+    public RebatePlan get(Long userId, String projectId, Integer lineId, Supplier<RebatePlan> builder) {
+        long priceVersion = priceIndex.version();
+        if (priceVersion < 0) {
+            return builder.get();
+        }
+        String key = userId + ":" + projectId + ":" + lineId;
+        RebatePlan cached = plans.get(key);
+        if (cached != null && cached.priceVersion == priceVersion) {
+            return cached;
+        }
+        long currentGeneration = generation.get();
+        RebatePlan built = builder.get();
+        if (built == null) {
+            return null;
+        }
+        RebatePlan plan = built.withPriceVersion(priceVersion);
+        if (plans.size() >= maxEntries) {
+            plans.clear();
+        }
+        // 构建期间发生过失效则不回填
+        plans.compute(key, (k, old) -> generation.get() == currentGeneration ? plan : old);
+        return plan;
+    }
+
+    /**
+     * 代理关系或模板分配发生变化：当前事务提交后清空全部计划并通知其它节点
+     */
+    public void invalidateAll() {
+        clearLocal();
+        Runnable publish = () -> {
+            clearLocal();
+            try {
+                stringRedisTemplate.convertAndSend(CHANNEL, nodeId);
+            } catch (Exception e) {
+                log.warn("返点计划缓存失效广播失败: {}", e.getMessage());
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    publish.run();
+                }
+            });
+        } else {
+            publish.run();
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        if (!nodeId.equals(new String(message.getBody(), StandardCharsets.UTF_8))) {
+            clearLocal();
+        }
+    }
+
+    public int size() {
+        return plans.size();
+    }
+
+    private void clearLocal() {
+        generation.incrementAndGet();
+        plans.clear();
+    }
+
+    /**
+     * 一条代理链返点计划，levels 从直属上级开始向上排列
+     */
+    public static final class RebatePlan {
+        private final String consumerUserName;
+        private final List<Level> levels;
+        private final long priceVersion;
+
+        public RebatePlan(String consumerUserName, List<Level> levels) {
+            this(consumerUserName, levels, -1);
+        }
+
+        private RebatePlan(String consumerUserName, List<Level> levels, long priceVersion) {
+            this.consumerUserName = consumerUserName;
+            this.levels = Collections.unmodifiableList(levels);
+            this.priceVersion = priceVersion;
+        }
+
+        private RebatePlan withPriceVersion(long version) {
+            return new RebatePlan(consumerUserName, levels, version);
+        }
+
+        public String getConsumerUserName() {
+            return consumerUserName;
+        }
+
+        public List<Level> getLevels() {
+            return levels;
+        }
+    }
+
+    /**
+     * 代理链中的一级：上级代理及其拿货价，childUserName 为其直属下级（用于流水备注），
+     * topLevel 表示该代理没有上级（顶层代理，延迟结算模式下其返点走待结算流水）
+     */
+    public static final class Level {
+        private final Long agentId;
+        private final String agentUserName;
+        private final String childUserName;
+        private final BigDecimal price;
+        private final boolean topLevel;
+
+        public Level(Long agentId, String agentUserName, String childUserName, BigDecimal price) {
+            this(agentId, agentUserName, childUserName, price, false);
+        }
+
+        public Level(Long agentId, String agentUserName, String childUserName, BigDecimal price, boolean topLevel) {
+            this.agentId = agentId;
+            this.agentUserName = agentUserName;
+            this.childUserName = childUserName;
+            this.price = price;
+            this.topLevel = topLevel;
+        }
+
+        public Long getAgentId() {
+            return agentId;
+        }
+
+        public String getAgentUserName() {
+            return agentUserName;
+        }
+
+        public String getChildUserName() {
+            return childUserName;
+        }
+
+        public BigDecimal getPrice() {
+            return price;
+        }
+
+        public boolean isTopLevel() {
+            return topLevel;
+        }
+    }
+}
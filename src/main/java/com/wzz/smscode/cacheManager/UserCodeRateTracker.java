@@ -0,0 +1,316 @@
+package com.wzz.smscode.cacheManager;
+
+import com.wzz.smscode.mapper.NumberRecordMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 用户滑动窗口回码率统计
+ * <p>
+ * 每个用户维护一个按分钟分桶的有序队列（只保存有取号记录的分钟），桶内记录该分钟取号数和其中成功取码数，
+ * 并维护窗口内的合计值，getNumber 准入检查只需淘汰过期桶后做一次除法。
+ * 取码成功计入订单取号时间所在的分钟桶，口径与原来按 get_number_time 过滤的 SQL 一致。
+ * </p>
+ * <p>
+ * 用户首次检查时从 number_record 按分钟聚合加载一次，之后由订单创建/完成事件（事务提交后）增量维护；
+ * 每隔 resync-minutes 在后台重新加载一次，用于修正多节点部署时其他节点产生的订单以及删除记录等带来的偏差。
+ * 加载前先发布窗口（重新加载时挂在旧窗口上同步接收事件），加载期间到达的事件暂存，快照载入后再合并，不会丢失。
+ * </p>
+ * <p>
+ * 窗口按整分钟对齐：统计的是 [当前分钟 - windowMinutes, 当前时刻]，
+ * 比原 SQL 的 [当前时刻 - windowMinutes, 当前时刻] 最多多算起点那一分钟里更早的几十秒。
+ * </p>
+ */
+@Slf4j
+@Component
+public class UserCodeRateTracker {
+
+    @Autowired
+    private NumberRecordMapper numberRecordMapper;
+
+    @Value("${sms.code-rate.resync-minutes:10}")
+    private long resyncMinutes = 10;
+
+    private final Map<Long, UserWindow> windows = new ConcurrentHashMap<>();
+
+    /**
+     * 计算用户在最近 windowMinutes 分钟内的回码率，无取号记录时返回 1.0
+     */
+    public double getCodeRate(Long userId, int windowMinutes) {
+        return getCodeRate(userId, windowMinutes, LocalDateTime.now());
+    }
+
+    double getCodeRate(Long userId, int windowMinutes, LocalDateTime now) {
+        long nowMinute = toMinute(now);
+        UserWindow window = windows.get(userId);
+        if (window == null || window.windowMinutes < windowMinutes) {
+            window = load(userId, windowMinutes, now);
+        } else {
+            window.awaitLoaded();
+            if (nowMinute - window.loadedMinute >= resyncMinutes) {
+                scheduleResync(userId, window, now);
+            }
+        }
+        return window.rate(nowMinute - windowMinutes);
+    }
+
+    /**
+     * 订单创建（取号成功扣费落库）
+     */
+    public void recordCreated(Long userId, LocalDateTime getNumberTime) {
+        afterCommit(() -> apply(userId, getNumberTime, 1, 0));
+    }
+
+    /**
+     * 订单成功取码
+     */
+    public void recordCodeReceived(Long userId, LocalDateTime getNumberTime) {
+        afterCommit(() -> apply(userId, getNumberTime, 0, 1));
+    }
+
+    /**
+     * 已成功的订单被作废（例如管理员批量退款）
+     */
+    public void recordCodeReverted(Long userId, LocalDateTime getNumberTime) {
+        afterCommit(() -> apply(userId, getNumberTime, 0, -1));
+    }
+
+    /**
+     * 清理长时间没有活动的用户窗口
+     */
+    @Scheduled(fixedDelayString = "${sms.code-rate.cleanup-interval-ms:600000}")
+    public void evictIdleWindows() {
+        long nowMinute = toMinute(LocalDateTime.now());
+        windows.entrySet().removeIf(entry -> entry.getValue().isIdle(nowMinute));
+    }
+
+    public int size() {
+        return windows.size();
+    }
+
+    void apply(Long userId, LocalDateTime getNumberTime, int getDelta, int codeDelta) {
+        if (userId == null || getNumberTime == null) {
+            return;
+        }
+        // 未加载过的用户不维护，首次检查时会从数据库加载
+        UserWindow window = windows.get(userId);
+        if (window != null) {
+            long minute = toMinute(getNumberTime);
+            window.add(minute, getDelta, codeDelta);
+            UserWindow shadow = window.shadow;
+            if (shadow != null) {
+                shadow.add(minute, getDelta, codeDelta);
+            }
+        }
+    }
+
+    private UserWindow load(Long userId, int windowMinutes, LocalDateTime now) {
+        UserWindow window = new UserWindow(windowMinutes, toMinute(now));
+        windows.put(userId, window);
+        try {
+            window.finishLoad(selectSnapshot(userId, windowMinutes, now));
+        } catch (RuntimeException e) {
+            windows.remove(userId, window);
+            window.failLoad(e);
+            throw e;
+        }
+        return window;
+    }
+
+    private void scheduleResync(Long userId, UserWindow current, LocalDateTime now) {
+        if (!current.resyncing.compareAndSet(false, true)) {
+            return;
+        }
+        Thread.ofVirtual().name("code-rate-resync-" + userId).start(() -> {
+            UserWindow fresh = new UserWindow(current.windowMinutes, toMinute(now));
+            // 旧窗口在替换前收到的事件同时记入新窗口
+            current.shadow = fresh;
+            try {
+                fresh.finishLoad(selectSnapshot(userId, current.windowMinutes, now));
+                windows.replace(userId, current, fresh);
+            } catch (Exception e) {
+                current.shadow = null;
+                current.resyncing.set(false);
+                log.warn("用户 {} 回码率窗口重新加载失败: {}", userId, e.getMessage());
+            }
+        });
+    }
+
+    private List<long[]> selectSnapshot(Long userId, int windowMinutes, LocalDateTime now) {
+        LocalDateTime windowStart = now.truncatedTo(ChronoUnit.MINUTES).minusMinutes(windowMinutes);
+        List<Map<String, Object>> rows = numberRecordMapper.selectUserMinuteCodeStats(userId, windowStart);
+        List<long[]> snapshot = new ArrayList<>(rows.size());
+        for (Map<String, Object> row : rows) {
+            Object bucketTime = row.get("bucketTime");
+            if (!(bucketTime instanceof LocalDateTime time)) {
+                continue;
+            }
+            snapshot.add(new long[]{toMinute(time), toLong(row.get("getCount")), toLong(row.get("codeCount"))});
+        }
+        return snapshot;
+    }
+
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    static long toMinute(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) / 60;
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number number ? number.longValue() : 0L;
+    }
+
+    /**
+     * 单个用户的分钟桶队列，按分钟升序
+     */
+    static final class UserWindow {
+        private final int windowMinutes;
+        private final long loadedMinute;
+        private final AtomicBoolean resyncing = new AtomicBoolean(false);
+        private final CompletableFuture<Void> loaded = new CompletableFuture<>();
+        private final ArrayDeque<long[]> buckets = new ArrayDeque<>();
+        /**
+         * 快照载入前到达的事件
+         */
+        private List<long[]> pending = new ArrayList<>();
+        /**
+         * 重新加载中的新窗口，替换前同步接收事件
+         */
+        private volatile UserWindow shadow;
+        private long totalGet;
+        private long totalCode;
+        private long lastActiveMinute;
+
+        UserWindow(int windowMinutes, long loadedMinute) {
+            this.windowMinutes = windowMinutes;
+            this.loadedMinute = loadedMinute;
+            this.lastActiveMinute = loadedMinute;
+        }
+
+        synchronized void add(long minute, int getDelta, int codeDelta) {
+            if (pending != null) {
+                pending.add(new long[]{minute, getDelta, codeDelta});
+                return;
+            }
+            addLoaded(minute, getDelta, codeDelta);
+        }
+
+        /**
+         * 载入数据库快照并合并期间暂存的事件；按分钟合并后升序写入，跨分钟乱序的事件也能落到自己的桶里
+         */
+        void finishLoad(List<long[]> snapshot) {
+            synchronized (this) {
+                TreeMap<Long, long[]> merged = new TreeMap<>();
+                for (List<long[]> source : List.of(snapshot, pending)) {
+                    for (long[] event : source) {
+                        long[] bucket = merged.computeIfAbsent(event[0], m -> new long[]{m, 0, 0});
+                        bucket[1] += event[1];
+                        bucket[2] += event[2];
+                    }
+                }
+                pending = null;
+                merged.values().forEach(bucket -> addLoaded(bucket[0], bucket[1], bucket[2]));
+            }
+            loaded.complete(null);
+        }
+
+        void failLoad(Throwable error) {
+            loaded.completeExceptionally(error);
+        }
+
+        void awaitLoaded() {
+            loaded.join();
+        }
+
+        private void addLoaded(long minute, long getDelta, long codeDelta) {
+            lastActiveMinute = Math.max(lastActiveMinute, minute);
+            long[] last = buckets.peekLast();
+            if (last == null || minute > last[0]) {
+                if (getDelta <= 0 && codeDelta <= 0) {
+                    return;
+                }
+                buckets.addLast(new long[]{minute, getDelta, codeDelta});
+            } else {
+                long[] bucket = findBucket(minute);
+                if (bucket == null) {
+                    // 对应的取号分钟已滑出窗口，忽略
+                    return;
+                }
+                bucket[1] += getDelta;
+                bucket[2] += codeDelta;
+            }
+            totalGet += getDelta;
+            totalCode += codeDelta;
+        }
+
+        synchronized double rate(long windowStartMinute) {
+            while (!buckets.isEmpty() && buckets.peekFirst()[0] < windowStartMinute) {
+                long[] expired = buckets.pollFirst();
+                totalGet -= expired[1];
+                totalCode -= expired[2];
+            }
+            if (totalGet <= 0) {
+                return 1.0D;
+            }
+            return BigDecimal.valueOf(Math.max(totalCode, 0))
+                    .divide(BigDecimal.valueOf(totalGet), 4, RoundingMode.HALF_UP)
+                    .doubleValue();
+        }
+
+        synchronized boolean isIdle(long nowMinute) {
+            return nowMinute - lastActiveMinute > windowMinutes;
+        }
+
+        /**
+         * 查找该分钟所在的桶；事务提交顺序可能让跨分钟的事件乱序到达，此时并入紧邻的较新桶，误差不超过一分钟
+         */
+        private long[] findBucket(long minute) {
+            long[] first = buckets.peekFirst();
+            if (first == null || minute < first[0]) {
+                return null;
+            }
+            // 取码通常发生在取号后几分钟内，从队尾向前找
+            long[] candidate = null;
+            Iterator<long[]> iterator = buckets.descendingIterator();
+            while (iterator.hasNext()) {
+                long[] bucket = iterator.next();
+                if (bucket[0] < minute) {
+                    break;
+                }
+                candidate = bucket;
+            }
+            return candidate;
+        }
+    }
+}
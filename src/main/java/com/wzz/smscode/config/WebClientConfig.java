@@ -1,5 +1,8 @@
 package com.wzz.smscode.config;
 
+import com.wzz.smscode.util.UrlSecurityUtil;
+import com.wzz.smscode.util.ValidatedAddressResolverGroup;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
@@ -16,10 +19,19 @@ public class WebClientConfig {
         // 配置HTTP客户端，设置连接超时等
         HttpClient httpClient = HttpClient.create()
                 .responseTimeout(Duration.ofSeconds(60)) // 响应超时
-                .option(io.netty.channel.ChannelOption.CONNECT_TIMEOUT_MILLIS, 10000); // 连接超时
+                .option(io.netty.channel.ChannelOption.CONNECT_TIMEOUT_MILLIS, 10000) // 连接超时
+                .resolver(ValidatedAddressResolverGroup.INSTANCE); // 复用 URL 校验时缓存的解析结果
 
         return WebClient.builder()
                 .clientConnector(new ReactorClientHttpConnector(httpClient))
                 .build();
     }
-}
\ No newline at end of file
+
+    /**
+     * 域名解析缓存指标（命中率、各域名解析耗时）
+     */
+    @Bean
+    public MeterBinder dnsCacheMetrics() {
+        return UrlSecurityUtil.dnsCache();
+    }
+}
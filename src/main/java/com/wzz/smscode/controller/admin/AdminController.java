@@ -40,6 +40,8 @@ import org.springframework.util.CollectionUtils;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
 
+import reactor.core.publisher.Mono;
+
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalDateTime;
@@ -1256,23 +1258,24 @@ public class AdminController {
      * @return 操作结果
      */
     @PostMapping("/project/Balance")
-    public Result<?> projectBalance(@RequestBody PublicDTO updateDTO) {
+    public Mono<Result<?>> projectBalance(@RequestBody PublicDTO updateDTO) {
         if (updateDTO.getProjectId() == null || updateDTO.getLineId() == null) {
-            return Result.error("查询参数不能为空");
+            return Mono.just(Result.error("查询参数不能为空"));
         }
+        Project project;
         try {
-            Project project = projectService.getProject(updateDTO.getProjectId(), Integer.valueOf(updateDTO.getLineId()));
-            if (project == null) {
-                return Result.error("项目不存在");
-            }
-            String blance = smsApiService.getApiBalance(project, null);
-            if (blance == null) {
-                return Result.error("余额为空");
-            }
-            return Result.success(blance);
+            project = projectService.getProject(updateDTO.getProjectId(), Integer.valueOf(updateDTO.getLineId()));
         } catch (BusinessException e) {
-            return Result.error(e.getMessage());
+            return Mono.just(Result.error(e.getMessage()));
+        }
+        if (project == null) {
+            return Mono.just(Result.error("项目不存在"));
         }
+        // 余额查询走非阻塞链路，等待上游响应期间不占用请求线程
+        return smsApiService.getApiBalanceAsync(project)
+                .<Result<?>>map(Result::success)
+                .defaultIfEmpty(Result.error("余额为空"))
+                .onErrorResume(BusinessException.class, e -> Mono.<Result<?>>just(Result.error(e.getMessage())));
     }
     /**
      * 管理员-获取用户线路统计数据
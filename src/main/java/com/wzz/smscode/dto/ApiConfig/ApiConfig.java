@@ -1,7 +1,13 @@
 package com.wzz.smscode.dto.ApiConfig;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.wzz.smscode.dto.RequestDTO.KeyValue;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -17,4 +23,23 @@ public class ApiConfig {
     private List<KeyValue> formBody = new ArrayList<>();
     private List<ExtractRule> extractRules = new ArrayList<>();
     private List<KeyValue> preHooks = new ArrayList<>(); // 前置变量设置
+
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private transient volatile CompiledApiConfig compiled;
+
+    /**
+     * 预编译的请求模板，首次使用时编译；配置视为不可变，修改字段后需使用新实例
+     */
+    public CompiledApiConfig compiled() {
+        CompiledApiConfig result = compiled;
+        if (result == null) {
+            result = new CompiledApiConfig(this);
+            compiled = result;
+        }
+        return result;
+    }
 }
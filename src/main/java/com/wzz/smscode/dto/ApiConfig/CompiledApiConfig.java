@@ -0,0 +1,106 @@
+package com.wzz.smscode.dto.ApiConfig;
+
+import com.jayway.jsonpath.JsonPath;
+import com.wzz.smscode.dto.RequestDTO.KeyValue;
+import com.wzz.smscode.util.JsonExtractor;
+import com.wzz.smscode.util.VariableTemplate;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link ApiConfig} 的预编译形式：URL、参数、请求头、请求体中的 {{变量}} 全部编译为 {@link VariableTemplate}，
+ * 提取规则的 JsonPath 预先编译，响应体只解析一次后依次读取。
+ * 每个 ApiConfig 实例只编译一次（见 {@link ApiConfig#compiled()}），项目配置变更后缓存中换成新实例即重新编译。
+ */
+public final class CompiledApiConfig {
+
+    private final List<Field> preHooks;
+    private final VariableTemplate url;
+    private final List<Field> params;
+    private final List<Field> headers;
+    private final VariableTemplate jsonBody;
+    private final List<Field> formBody;
+    private final List<Extraction> extractions;
+
+    CompiledApiConfig(ApiConfig config) {
+        this.preHooks = compile(config.getPreHooks(), false);
+        this.url = VariableTemplate.compile(config.getUrl());
+        this.params = compile(config.getParams(), true);
+        this.headers = compile(config.getHeaders(), true);
+        this.jsonBody = StringUtils.hasText(config.getJsonBody()) ? VariableTemplate.compile(config.getJsonBody()) : null;
+        this.formBody = compile(config.getFormBody(), false);
+        this.extractions = compileRules(config.getExtractRules());
+    }
+
+    private static List<Extraction> compileRules(List<ExtractRule> rules) {
+        if (rules == null || rules.isEmpty()) {
+            return List.of();
+        }
+        List<Extraction> extractions = new ArrayList<>(rules.size());
+        for (ExtractRule rule : rules) {
+            extractions.add(new Extraction(rule.getTargetVariable(), rule.getJsonPath(), JsonExtractor.compile(rule.getJsonPath())));
+        }
+        return List.copyOf(extractions);
+    }
+
+    private static List<Field> compile(List<KeyValue> items, boolean requireKey) {
+        if (items == null || items.isEmpty()) {
+            return List.of();
+        }
+        List<Field> fields = new ArrayList<>(items.size());
+        for (KeyValue item : items) {
+            if (!requireKey || StringUtils.hasText(item.getKey())) {
+                fields.add(new Field(item.getKey(), VariableTemplate.compile(item.getValue())));
+            }
+        }
+        return List.copyOf(fields);
+    }
+
+    public List<Field> getPreHooks() {
+        return preHooks;
+    }
+
+    public VariableTemplate getUrl() {
+        return url;
+    }
+
+    /**
+     * 已过滤掉 key 为空的参数
+     */
+    public List<Field> getParams() {
+        return params;
+    }
+
+    /**
+     * 已过滤掉 key 为空的请求头
+     */
+    public List<Field> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * 未配置 JSON 请求体时为 null
+     */
+    public VariableTemplate getJsonBody() {
+        return jsonBody;
+    }
+
+    public List<Field> getFormBody() {
+        return formBody;
+    }
+
+    public List<Extraction> getExtractions() {
+        return extractions;
+    }
+
+    public record Field(String key, VariableTemplate value) {
+    }
+
+    /**
+     * 提取规则；表达式为空或语法错误时 path 为 null，按提取失败处理
+     */
+    public record Extraction(String targetVariable, String expression, JsonPath path) {
+    }
+}
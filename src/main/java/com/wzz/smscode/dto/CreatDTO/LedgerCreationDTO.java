@@ -1,12 +1,16 @@
 package com.wzz.smscode.dto.CreatDTO;
 
 import com.wzz.smscode.enums.FundType;
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 import java.math.BigDecimal;
 
 @Data
 @Builder
+@NoArgsConstructor
+@AllArgsConstructor
 public class LedgerCreationDTO {
     /**
      * 用户id
@@ -28,6 +28,7 @@ public class ProjectMutationDTO {
     private String responseSelectNumberApiField;
     private Integer codeTimeout;
     private Integer codeMaxAttempts;
+    private Integer codePollIntervalMs;
     private BigDecimal costPrice;
     private BigDecimal priceMax;
     private BigDecimal priceMin;
@@ -35,6 +35,7 @@ import java.time.LocalDateTime;
 @Index(name = "idx_user_id", columns = {"user_id"}, comment = "用户ID索引")
 @Index(name = "idx_phone_number", columns = {"phone_number"}, comment = "手机号索引，便于反向追踪")
 @Index(name = "idx_get_number_time", columns = {"get_number_time"}, comment = "取号时间索引，便于按时间查询")
+@Index(name = "idx_project_phone", columns = {"project_id", "phone_number"}, comment = "项目+手机号联合索引，用于取号查重")
 public class NumberRecord extends BaseEntity {
 
     // 主键 id (对应 number_id) 从 BaseEntity 继承
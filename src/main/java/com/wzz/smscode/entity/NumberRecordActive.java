@@ -0,0 +1,60 @@
+package com.wzz.smscode.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.wzz.smscode.annotation.ColumnComment;
+import com.wzz.smscode.annotation.Index;
+import com.wzz.smscode.annotation.TableComment;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 进行中订单表（热表）
+ * <p>
+ * 只保存状态为 0(待取码) / 1(取码中) 的订单的查询列，订单完成（状态变为 2/3/4）时在同一事务中删除，
+ * 表内通常只有几千行。按状态筛选进行中订单的热路径（线路并发计数、启动恢复、释放号码查找）
+ * 先查本表再按主键回查 number_record，不再扫描全量历史表。
+ * 注意：此类未继承BaseEntity，主键直接使用 number_record 的ID。
+ * </p>
+ * 对应数据库表：number_record_active
+ */
+@Data
+@TableName("number_record_active")
+@TableComment("进行中订单表")
+@Index(name = "idx_project_line", columns = {"project_id", "line_id"}, comment = "线路在途订单计数")
+@Index(name = "idx_user_phone", columns = {"user_id", "phone_number"}, comment = "按用户和号码查找进行中订单")
+public class NumberRecordActive {
+
+    @ColumnComment("订单记录ID（number_record.id）")
+    @TableId(value = "record_id", type = IdType.INPUT)
+    private Long recordId;
+
+    @ColumnComment("用户ID")
+    @TableField("user_id")
+    private Long userId;
+
+    @ColumnComment("项目ID")
+    @TableField("project_id")
+    private String projectId;
+
+    @ColumnComment("线路ID")
+    @TableField("line_id")
+    private Integer lineId;
+
+    @ColumnComment("手机号码")
+    @TableField("phone_number")
+    private String phoneNumber;
+
+    @ColumnComment("状态（0-待取码, 1-取码中）")
+    @TableField("status")
+    private Integer status;
+
+    @ColumnComment("取号时间")
+    @TableField("get_number_time")
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime getNumberTime;
+}
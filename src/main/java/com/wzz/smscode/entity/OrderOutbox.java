@@ -0,0 +1,87 @@
+package com.wzz.smscode.entity;
+
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableName;
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.wzz.smscode.annotation.*;
+import com.wzz.smscode.common.BaseEntity;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+import java.time.LocalDateTime;
+
+/**
+ * 订单事务外发表（Transactional Outbox）
+ * <p>
+ * 订单状态流转时，与状态更新在同一事务内写入需要在提交后执行的副作用（资金变动、统计、返点、风控、缓存、释放号码），
+ * 由 OrderOutboxService 在提交后异步投递；进程在提交后崩溃时由定时任务补投。
+ * </p>
+ * 对应数据库表：order_outbox
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+@TableName("order_outbox")
+@TableComment("订单事务外发表")
+@Index(name = "idx_status_next", columns = {"status", "next_attempt_time"}, comment = "补投扫描")
+@Index(name = "idx_record_id", columns = {"record_id"}, comment = "按订单查询外发事件")
+public class OrderOutbox extends BaseEntity {
+
+    public static final int STATUS_PENDING = 0;
+    public static final int STATUS_DONE = 1;
+    /**
+     * 失败次数达到上限：保留在表中，在事务中执行的事件（资金、统计、风控）每天重新投递一轮
+     */
+    public static final int STATUS_DEAD = 2;
+    /**
+     * 已认领：事务外执行的事件正在处理，认领到期未完成时可被再次认领
+     */
+    public static final int STATUS_CLAIMED = 3;
+
+    @ColumnComment("订单记录ID")
+    @TableField("record_id")
+    private Long recordId;
+
+    /**
+     * 见 {@link com.wzz.smscode.enums.OutboxEventType}
+     */
+    @ColumnComment("事件类型")
+    @TableField("event_type")
+    @ColumnType("VARCHAR(32)")
+    private String eventType;
+
+    /**
+     * 事件发生时的订单结果：1-成功，0-失败/超时
+     */
+    @ColumnComment("订单结果（1-成功, 0-失败/超时）")
+    @TableField("success")
+    @DefaultValue("0")
+    private Integer success;
+
+    @ColumnComment("状态（0-待投递, 1-已完成, 2-失败待重投, 3-已认领）")
+    @TableField("status")
+    @DefaultValue("0")
+    private Integer status;
+
+    @ColumnComment("已失败次数")
+    @TableField("attempts")
+    @DefaultValue("0")
+    private Integer attempts;
+
+    /**
+     * 事件参数（JSON），订单资金变动事件存放资金变动
+     */
+    @ColumnComment("事件参数（JSON）")
+    @TableField("payload")
+    @ColumnType("TEXT")
+    private String payload;
+
+    @ColumnComment("下次补投时间")
+    @TableField("next_attempt_time")
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime nextAttemptTime;
+
+    @ColumnComment("最近一次失败原因")
+    @TableField("last_error")
+    @ColumnType("VARCHAR(512)")
+    private String lastError;
+}
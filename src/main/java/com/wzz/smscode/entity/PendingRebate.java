@@ -0,0 +1,89 @@
+package com.wzz.smscode.entity;
+
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableName;
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.wzz.smscode.annotation.*;
+import com.wzz.smscode.common.BaseEntity;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * 待结算返点流水（只追加）
+ * <p>
+ * 延迟结算模式下，每笔成功订单给每一级上级代理产生的返点先写入本表，
+ * 由后台结算任务按代理汇总后一次性入账，并把结算生成的账本ID回写到 ledger_id，
+ * 任意一条汇总账本都能追溯到组成它的每一笔订单返点。
+ * </p>
+ * 对应数据库表：pending_rebate
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+@TableName("pending_rebate")
+@TableComment("待结算返点流水表")
+@Index(name = "idx_status_agent", columns = {"status", "agent_id"}, comment = "按代理拉取待结算返点")
+@Index(name = "idx_ledger_id", columns = {"ledger_id"}, comment = "由汇总账本反查明细")
+@Index(name = "idx_record_id", columns = {"record_id"}, comment = "由订单反查返点")
+public class PendingRebate extends BaseEntity {
+
+    public static final int STATUS_PENDING = 0;
+    public static final int STATUS_SETTLED = 1;
+    public static final int STATUS_VOID = 2;
+
+    @ColumnComment("收款代理ID")
+    @TableField("agent_id")
+    private Long agentId;
+
+    @ColumnComment("返点金额")
+    @TableField("amount")
+    private BigDecimal amount;
+
+    @ColumnComment("来源订单记录ID")
+    @TableField("record_id")
+    private Long recordId;
+
+    @ColumnComment("消费用户ID")
+    @TableField("consumer_user_id")
+    private Long consumerUserId;
+
+    @ColumnComment("项目ID")
+    @TableField("project_id")
+    private String projectId;
+
+    @ColumnComment("线路ID")
+    @TableField("line_id")
+    private Integer lineId;
+
+    @ColumnComment("手机号码")
+    @TableField("phone_number")
+    private String phoneNumber;
+
+    @ColumnComment("验证码")
+    @TableField("code")
+    private String code;
+
+    @ColumnComment("明细备注")
+    @TableField("remark")
+    @ColumnType("VARCHAR(512)")
+    private String remark;
+
+    /**
+     * 0-待结算, 1-已结算, 2-作废（代理已不存在）
+     */
+    @ColumnComment("状态（0-待结算, 1-已结算, 2-作废）")
+    @TableField("status")
+    @DefaultValue("0")
+    private Integer status;
+
+    @ColumnComment("结算生成的汇总账本ID")
+    @TableField("ledger_id")
+    private Long ledgerId;
+
+    @ColumnComment("结算时间")
+    @TableField("settle_time")
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime settleTime;
+}
@@ -29,7 +29,7 @@ import java.time.LocalDateTime;
 @EqualsAndHashCode(callSuper = true)
 @TableName(value = "project", autoResultMap = true)
 @TableComment("项目表")
-public class Project extends BaseEntity {
+public class Project extends BaseEntity implements Cloneable {
 
     // --- 基础信息 ---
 
@@ -135,6 +135,13 @@ public class Project extends BaseEntity {
     @TableField("code_max_attempts")
     private Integer codeMaxAttempts;
 
+    /**
+     * 取码轮询间隔（毫秒），为空时按渠道默认值（通用接口 1000，AES 接口 3000）
+     */
+    @ColumnComment("取码轮询间隔（毫秒）")
+    @TableField("code_poll_interval_ms")
+    private Integer codePollIntervalMs;
+
     /**
      * 项目成本价（平台获取号码的成本）
      */
@@ -188,6 +195,41 @@ public class Project extends BaseEntity {
     @DefaultValue("0")
     private Boolean enableFilter;
 
+    /**
+     * 该项目线路同时进行中（待取码/取码中）的订单上限，0 表示不限制；
+     * 空表示未配置，按 sms.inflight.default-limits 兜底（保留原来项目105-线路1 的 150 上限），其余线路不限制
+     * 由 ProjectConcurrencyLimiter 通过 Redis 计数信号量在各节点间共享
+     */
+    @ColumnComment("最大在途订单数(0-不限制, 空-按默认配置)")
+    @TableField("max_in_flight")
+    private Integer maxInFlight;
+
+    /**
+     * 取号时同时筛查的候选号码数，1 表示逐个尝试
+     * 筛选通过率低的项目调大此值，可显著降低取号耗时，但会增加上游取号和筛选接口的调用量
+     */
+    @ColumnComment("取号并发候选数(1-逐个尝试)")
+    @TableField("acquire_parallelism")
+    @DefaultValue("1")
+    private Integer acquireParallelism;
+
+    /**
+     * 预筛号码池容量上限，0 表示不启用
+     * 后台预先取号并完成查重和筛选，取号时直接从池中取；实际容量按近期需求自适应，不超过此值
+     */
+    @ColumnComment("预筛号码池容量上限(0-不启用)")
+    @TableField("warm_pool_size")
+    @DefaultValue("0")
+    private Integer warmPoolSize;
+
+    /**
+     * 预筛号码在池中的最长保留时间（秒），超时未被取走则释放回上游
+     */
+    @ColumnComment("预筛号码池号码保留时间(秒)")
+    @TableField("warm_pool_ttl_seconds")
+    @DefaultValue("120")
+    private Integer warmPoolTtlSeconds;
+
     /**
      * 筛选API所需的ID或密钥
      */
@@ -445,4 +487,15 @@ public class Project extends BaseEntity {
     @DefaultValue("12")
     private BigDecimal banDurationHours; // 改为 BigDecimal 类型
 
+    /**
+     * 复制一份项目配置，供项目配置缓存给每个调用方返回独立对象。
+     * 浅拷贝：各个 ApiConfig 仍与缓存共享，只能读取。
+     */
+    public Project copy() {
+        try {
+            return (Project) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
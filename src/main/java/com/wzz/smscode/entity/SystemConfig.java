@@ -147,6 +147,29 @@ public class SystemConfig implements Serializable {
     @DefaultValue("300")
     private Integer filterErrorLimit;
 
+    /**
+     * 筛选结果缓存：“可用（新号）”结果的缓存秒数，0 表示不缓存
+     */
+    @ColumnComment("筛选通过结果缓存秒数(0=不缓存)")
+    @TableField("filter_pass_cache_seconds")
+    @DefaultValue("0")
+    private Integer filterPassCacheSeconds;
+
+    /**
+     * 筛选结果缓存：“不可用”结果的缓存秒数，0 表示不缓存
+     */
+    @ColumnComment("筛选未通过结果缓存秒数(0=不缓存)")
+    @TableField("filter_reject_cache_seconds")
+    @DefaultValue("0")
+    private Integer filterRejectCacheSeconds;
+
+    /**
+     * 按筛选类型单独设置缓存秒数，格式：类型:通过秒数:未通过秒数，多个用逗号分隔，例如 1001:60:86400,1002:0:3600
+     */
+    @ColumnComment("按筛选类型的缓存秒数(类型:通过:未通过,逗号分隔)")
+    @TableField("filter_cache_type_ttls")
+    private String filterCacheTypeTtls;
+
     /**
      * 用户能够删除几天前的数据(账单和号码记录通用)
      */
@@ -10,6 +10,7 @@ import lombok.Data;
 import lombok.EqualsAndHashCode;
 
 import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 
 /**
@@ -126,6 +127,14 @@ public class User extends BaseEntity {
     @DefaultValue("0.0")
     private Double totalCodeRate;
 
+    /**
+     * 每日统计所属日期，增量更新时据此懒惰地完成跨天清零
+     */
+    @ColumnComment("每日统计所属日期")
+    @TableField("stats_date")
+    @ColumnType("DATE")
+    private LocalDate statsDate;
+
     /**
      * 上级用户ID。顶级管理员该值可为空或0。
      */
@@ -0,0 +1,46 @@
+package com.wzz.smscode.enums;
+
+import lombok.Getter;
+
+/**
+ * 订单事务外发事件类型（order_outbox.event_type 存枚举名）
+ */
+@Getter
+public enum OutboxEventType {
+    /**
+     * 刷新订单缓存并清理用户缓存（认领后在事务外执行，至少一次）
+     */
+    CACHE_REFRESH("刷新订单缓存", false),
+    /**
+     * 用户取码成功统计（与出队标记同一事务，恰好一次）
+     */
+    CODE_STATS("取码统计", true),
+    /**
+     * 上级代理返点（与出队标记同一事务，恰好一次）
+     */
+    REBATE("代理返点", true),
+    /**
+     * 线路风控滑动窗口计数（按订单ID去重）
+     */
+    RISK_SCORE("风控计数", true),
+    /**
+     * 调用上游接口释放手机号（认领后在事务外执行，至少一次；上游返回失败时重试）
+     */
+    PROVIDER_RELEASE("释放手机号", false),
+    /**
+     * 订单扣费/退款：提交后由账本组提交写入器落账，未落账时补投直接落账（不关联订单，参数在 payload 中）
+     */
+    ORDER_LEDGER("订单资金变动", true);
+
+    private final String description;
+
+    /**
+     * 是否与出队标记在同一数据库事务中执行；否则先认领事件，在事务外执行（不占用数据库连接）
+     */
+    private final boolean transactional;
+
+    OutboxEventType(String description, boolean transactional) {
+        this.description = description;
+        this.transactional = transactional;
+    }
+}
@@ -0,0 +1,74 @@
+package com.wzz.smscode.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.wzz.smscode.entity.NumberRecordActive;
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+
+import java.util.List;
+
+@Mapper
+public interface NumberRecordActiveMapper extends BaseMapper<NumberRecordActive> {
+
+    @Update("UPDATE number_record_active SET status = #{status} WHERE record_id = #{recordId}")
+    int updateStatus(@Param("recordId") Long recordId, @Param("status") int status);
+
+    @Select("SELECT COUNT(*) FROM number_record_active WHERE project_id = #{projectId} AND line_id = #{lineId}")
+    long countByProjectLine(@Param("projectId") String projectId, @Param("lineId") Integer lineId);
+
+    @Select("SELECT record_id FROM number_record_active WHERE record_id > #{afterId} ORDER BY record_id LIMIT #{limit}")
+    List<Long> selectIdsAfter(@Param("afterId") long afterId, @Param("limit") int limit);
+
+    @Select("""
+            SELECT record_id FROM number_record_active
+            WHERE user_id = #{userId} AND phone_number = #{phoneNumber} AND project_id = #{projectId}
+            ORDER BY record_id DESC LIMIT 1
+            """)
+    Long selectIdByUserPhone(@Param("userId") Long userId,
+                             @Param("phoneNumber") String phoneNumber,
+                             @Param("projectId") String projectId);
+
+    @Select("SELECT COUNT(*) FROM number_record_active WHERE user_id = #{userId}")
+    long countByUser(@Param("userId") Long userId);
+
+    /**
+     * 读取历史表某段ID内的进行中订单（普通一致性读，不对历史表加锁），用于校对补齐
+     */
+    @Select("""
+            SELECT id AS record_id, user_id, project_id, line_id, phone_number, status, get_number_time
+            FROM number_record
+            WHERE status IN (0, 1) AND id > #{afterId} AND id <= #{toId}
+            """)
+    List<NumberRecordActive> selectOngoingRecords(@Param("afterId") long afterId, @Param("toId") long toId);
+
+    /**
+     * 批量补齐进行中订单，已存在的跳过
+     */
+    @Insert("""
+            <script>
+            INSERT IGNORE INTO number_record_active (record_id, user_id, project_id, line_id, phone_number, status, get_number_time)
+            VALUES
+            <foreach collection="records" item="r" separator=",">
+                (#{r.recordId}, #{r.userId}, #{r.projectId}, #{r.lineId}, #{r.phoneNumber}, #{r.status}, #{r.getNumberTime})
+            </foreach>
+            </script>
+            """)
+    int insertIgnoreBatch(@Param("records") List<NumberRecordActive> records);
+
+    /**
+     * 删除历史表中已完成或已删除的订单
+     */
+    @Delete("""
+            DELETE a FROM number_record_active a
+            LEFT JOIN number_record r ON r.id = a.record_id
+            WHERE r.id IS NULL OR r.status NOT IN (0, 1)
+            """)
+    int deleteFinished();
+
+    @Select("SELECT COALESCE(MAX(id), 0) FROM number_record")
+    long selectMaxRecordId();
+}
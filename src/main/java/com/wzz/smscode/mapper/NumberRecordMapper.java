@@ -9,6 +9,7 @@ import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -18,6 +19,54 @@ public interface NumberRecordMapper extends BaseMapper<NumberRecord> {
     @Select("SELECT * FROM number_record WHERE id = #{id} FOR UPDATE")
     NumberRecord selectByIdForUpdate(@Param("id") Long id);
 
+    /**
+     * 按用户聚合当天（get_number_time 不早于 startOfToday）的取号/取码数，走取号时间索引只扫描当天的订单，
+     * 用于校对用户表中的每日增量计数
+     */
+    @Select("""
+            SELECT
+                user_id AS userId,
+                COUNT(*) AS dailyGetCount,
+                SUM(CASE WHEN status = 2 AND code IS NOT NULL AND code <> '' THEN 1 ELSE 0 END) AS dailyCodeCount
+            FROM number_record
+            WHERE get_number_time >= #{startOfToday}
+            GROUP BY user_id
+            """)
+    List<Map<String, Object>> selectDailyUserStats(@Param("startOfToday") LocalDateTime startOfToday);
+
+    /**
+     * 按用户聚合 (afterUserId, toUserId] 区间内用户的全部取号/取码数，走用户ID索引分批扫描，
+     * 用于校对用户表中的累计计数
+     */
+    @Select("""
+            SELECT
+                user_id AS userId,
+                COUNT(*) AS totalGetCount,
+                SUM(CASE WHEN status = 2 AND code IS NOT NULL AND code <> '' THEN 1 ELSE 0 END) AS totalCodeCount
+            FROM number_record
+            WHERE user_id > #{afterUserId} AND user_id <= #{toUserId}
+            GROUP BY user_id
+            """)
+    List<Map<String, Object>> selectTotalUserStats(@Param("afterUserId") Long afterUserId,
+                                                   @Param("toUserId") Long toUserId);
+
+    /**
+     * 按分钟聚合用户在窗口内的取号数与成功取码数，用于初始化滑动窗口回码率
+     */
+    @Select("""
+            SELECT
+                MIN(get_number_time) AS bucketTime,
+                COUNT(*) AS getCount,
+                SUM(CASE WHEN status = 2 AND code IS NOT NULL AND code <> '' THEN 1 ELSE 0 END) AS codeCount
+            FROM number_record
+            WHERE user_id = #{userId}
+                AND get_number_time >= #{windowStart}
+            GROUP BY DATE_FORMAT(get_number_time, '%Y%m%d%H%i')
+            ORDER BY bucketTime
+            """)
+    List<Map<String, Object>> selectUserMinuteCodeStats(@Param("userId") Long userId,
+                                                        @Param("windowStart") LocalDateTime windowStart);
+
     @Select("""
             <script>
             SELECT
@@ -0,0 +1,110 @@
+package com.wzz.smscode.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.wzz.smscode.entity.OrderOutbox;
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Mapper
+public interface OrderOutboxMapper extends BaseMapper<OrderOutbox> {
+
+    /**
+     * 到期待投递的事件，以及认领到期仍未完成的事件
+     */
+    @Select("SELECT * FROM order_outbox WHERE status IN (0, 3) AND next_attempt_time <= #{now} ORDER BY id LIMIT #{limit}")
+    List<OrderOutbox> selectDue(@Param("now") LocalDateTime now, @Param("limit") int limit);
+
+    /**
+     * 标记完成，只有仍处于待投递状态时才更新；与事件处理放在同一事务中，返回 0 表示已被其它线程/节点处理
+     */
+    @Update("UPDATE order_outbox SET status = 1, update_time = NOW() WHERE id = #{id} AND status = 0")
+    int markDone(@Param("id") Long id);
+
+    /**
+     * 认领事务外执行的事件：待投递或认领已到期时才能认领成功，认领期间补投任务不会再取到它
+     */
+    @Update("""
+            UPDATE order_outbox SET status = 3, next_attempt_time = #{leaseUntil}, update_time = NOW()
+            WHERE id = #{id} AND (status = 0 OR (status = 3 AND next_attempt_time <= #{now}))
+            """)
+    int claim(@Param("id") Long id, @Param("now") LocalDateTime now, @Param("leaseUntil") LocalDateTime leaseUntil);
+
+    /**
+     * 已认领的事件处理成功后标记完成
+     */
+    @Update("UPDATE order_outbox SET status = 1, update_time = NOW() WHERE id = #{id} AND status = 3")
+    int completeClaimed(@Param("id") Long id);
+
+    /**
+     * 失败次数达到上限的指定类型事件重新转为待投递
+     */
+    @Update("""
+            <script>
+            UPDATE order_outbox SET status = 0, attempts = 0, next_attempt_time = NOW(), update_time = NOW()
+            WHERE status = 2 AND event_type IN
+            <foreach collection="types" item="type" open="(" separator="," close=")">
+                #{type}
+            </foreach>
+            LIMIT #{limit}
+            </script>
+            """)
+    int reviveDead(@Param("types") Collection<String> types, @Param("limit") int limit);
+
+    /**
+     * 锁定仍待投递的事件并返回其ID；账本组提交写入器在落账事务中据此跳过已由补投处理的资金变动
+     */
+    @Select("""
+            <script>
+            SELECT id FROM order_outbox WHERE status = 0 AND id IN
+            <foreach collection="ids" item="id" open="(" separator="," close=")">
+                #{id}
+            </foreach>
+            FOR UPDATE
+            </script>
+            """)
+    List<Long> lockPending(@Param("ids") Collection<Long> ids);
+
+    /**
+     * 批量标记完成，与 {@link #lockPending} 在同一事务中执行
+     */
+    @Update("""
+            <script>
+            UPDATE order_outbox SET status = 1, update_time = NOW()
+            WHERE status = 0 AND id IN
+            <foreach collection="ids" item="id" open="(" separator="," close=")">
+                #{id}
+            </foreach>
+            </script>
+            """)
+    int markDoneBatch(@Param("ids") Collection<Long> ids);
+
+    /**
+     * 记录一次失败并安排下次补投，失败次数达到上限后转为失败状态（保留在表中）
+     */
+    @Update("""
+            UPDATE order_outbox
+            SET attempts = attempts + 1,
+                last_error = #{error},
+                next_attempt_time = #{nextAttemptTime},
+                status = IF(attempts >= #{maxAttempts}, 2, 0),
+                update_time = NOW()
+            WHERE id = #{id} AND status IN (0, 3)
+            """)
+    int markRetry(@Param("id") Long id,
+                  @Param("error") String error,
+                  @Param("nextAttemptTime") LocalDateTime nextAttemptTime,
+                  @Param("maxAttempts") int maxAttempts);
+
+    /**
+     * 清理已完成的历史事件
+     */
+    @Delete("DELETE FROM order_outbox WHERE status = 1 AND update_time < #{before} LIMIT #{limit}")
+    int deleteDoneBefore(@Param("before") LocalDateTime before, @Param("limit") int limit);
+}
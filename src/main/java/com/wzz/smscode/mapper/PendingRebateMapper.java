@@ -0,0 +1,43 @@
+package com.wzz.smscode.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.wzz.smscode.entity.PendingRebate;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Mapper
+public interface PendingRebateMapper extends BaseMapper<PendingRebate> {
+
+    /**
+     * 有待结算返点的代理ID
+     */
+    @Select("SELECT DISTINCT agent_id FROM pending_rebate WHERE status = 0 LIMIT #{limit}")
+    List<Long> selectPendingAgentIds(@Param("limit") int limit);
+
+    /**
+     * 锁定某代理的一批待结算返点（必须在事务中调用），多节点同时结算时由行锁保证不会重复入账
+     */
+    @Select("SELECT * FROM pending_rebate WHERE agent_id = #{agentId} AND status = 0 ORDER BY id LIMIT #{limit} FOR UPDATE")
+    List<PendingRebate> selectPendingForUpdate(@Param("agentId") Long agentId, @Param("limit") int limit);
+
+    /**
+     * 标记为已结算/作废并回写汇总账本ID，只更新仍处于待结算状态的行
+     */
+    @Update("""
+            <script>
+            UPDATE pending_rebate SET status = #{status}, ledger_id = #{ledgerId}, settle_time = #{settleTime}
+            WHERE status = 0 AND id IN
+            <foreach collection="ids" item="id" open="(" separator="," close=")">#{id}</foreach>
+            </script>
+            """)
+    int markSettled(@Param("ids") Collection<Long> ids,
+                    @Param("status") int status,
+                    @Param("ledgerId") Long ledgerId,
+                    @Param("settleTime") LocalDateTime settleTime);
+}
@@ -5,6 +5,13 @@ import com.wzz.smscode.entity.User;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 
 @Mapper
 public interface UserMapper extends BaseMapper<User> {
@@ -17,6 +24,38 @@ public interface UserMapper extends BaseMapper<User> {
     @Select("SELECT * FROM user WHERE id = #{id} FOR UPDATE")
     User selectByIdForUpdate(Long id);
 
+    /**
+     * 条件扣减余额：余额不足时不更新（返回 0），扣减与校验在同一条语句中原子完成
+     * @param updateTime 与自动填充一致的北京时间，不使用数据库时区的 NOW()
+     */
+    @Update("UPDATE user SET balance = balance - #{amount}, update_time = #{updateTime} WHERE id = #{id} AND balance >= #{amount}")
+    int debitBalance(@Param("id") Long id, @Param("amount") BigDecimal amount, @Param("updateTime") LocalDateTime updateTime);
+
+    /**
+     * 增加余额
+     * @param updateTime 与自动填充一致的北京时间，不使用数据库时区的 NOW()
+     */
+    @Update("UPDATE user SET balance = balance + #{amount}, update_time = #{updateTime} WHERE id = #{id}")
+    int creditBalance(@Param("id") Long id, @Param("amount") BigDecimal amount, @Param("updateTime") LocalDateTime updateTime);
+
+    /**
+     * 只读取用户名和余额；在同一事务中紧跟 debitBalance/creditBalance 调用时读到的是本事务更新后的余额
+     */
+    @Select("SELECT id, user_name, balance FROM user WHERE id = #{id}")
+    User selectBalanceById(@Param("id") Long id);
+
+    /**
+     * 批量查询并锁定多个用户行，按ID升序加锁，避免多条返点链交叉时死锁
+     */
+    @Select("""
+            <script>
+            SELECT * FROM user WHERE id IN
+            <foreach collection="ids" item="id" open="(" separator="," close=")">#{id}</foreach>
+            ORDER BY id FOR UPDATE
+            </script>
+            """)
+    List<User> selectByIdsForUpdate(@Param("ids") Collection<Long> ids);
+
 
     /**
      * 根据用户名查询并施加行级排他锁（悲观锁）
@@ -24,4 +63,28 @@ public interface UserMapper extends BaseMapper<User> {
      */
     @Select("SELECT * FROM user WHERE user_name = #{userName} FOR UPDATE")
     User selectByUserNameForUpdate(@Param("userName") String userName);
+
+    /**
+     * 原子增量更新用户取号/取码统计
+     * stats_date 是更早的日期时先把每日计数清零再累加（懒惰跨天），回码率按更新后的计数重新计算。
+     * stats_date 为空（增量统计上线前的老数据）时不清零，保留全量重算得到的计数，由校对任务重算并补上日期。
+     * 注意 MySQL 单表 UPDATE 按从左到右的顺序赋值，后面的表达式引用的是已更新的列值。
+     */
+    @Update("""
+            UPDATE user SET
+                daily_get_count = IF(stats_date IS NULL OR stats_date = #{today}, IFNULL(daily_get_count, 0), 0) + #{dailyGetDelta},
+                daily_code_count = IF(stats_date IS NULL OR stats_date = #{today}, IFNULL(daily_code_count, 0), 0) + #{dailyCodeDelta},
+                total_get_count = IFNULL(total_get_count, 0) + #{getDelta},
+                total_code_count = IFNULL(total_code_count, 0) + #{codeDelta},
+                stats_date = #{today},
+                daily_code_rate = IF(daily_get_count > 0, ROUND(daily_code_count / daily_get_count, 2), 0),
+                total_code_rate = IF(total_get_count > 0, ROUND(total_code_count / total_get_count, 2), 0)
+            WHERE id = #{userId}
+            """)
+    int applyStatsDelta(@Param("userId") Long userId,
+                        @Param("getDelta") int getDelta,
+                        @Param("dailyGetDelta") int dailyGetDelta,
+                        @Param("codeDelta") int codeDelta,
+                        @Param("dailyCodeDelta") int dailyCodeDelta,
+                        @Param("today") LocalDate today);
 }
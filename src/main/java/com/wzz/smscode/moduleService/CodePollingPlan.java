@@ -0,0 +1,42 @@
+package com.wzz.smscode.moduleService;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * 某个订单的取码轮询计划，由 SmsApiService 按项目渠道生成，交给 CodePollingScheduler 执行
+ */
+@Data
+@Builder
+public class CodePollingPlan {
+
+    public static final String CHANNEL_SPECIAL = "special";
+
+    /** 渠道名称：outsideOrder / aes / special / generic */
+    private String channel;
+
+    /** 首次请求前的等待时间（毫秒） */
+    private long initialDelayMs;
+
+    /** 未获取到验证码时的轮询间隔（毫秒） */
+    private long intervalMs;
+
+    /** 请求异常时的重试间隔（毫秒） */
+    private long errorIntervalMs;
+
+    /** 总超时时长（毫秒） */
+    private long timeoutMs;
+
+    /** 最大尝试次数，0 表示不限制 */
+    private int maxAttempts;
+
+    /** 单次取码动作 */
+    private CodePollingScheduler.Attempt attempt;
+
+    /**
+     * 特殊API渠道：只请求一次，请求异常时走特殊接口异常回退
+     */
+    public boolean isSpecial() {
+        return CHANNEL_SPECIAL.equals(channel);
+    }
+}
@@ -0,0 +1,309 @@
+package com.wzz.smscode.moduleService;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 验证码轮询调度器（哈希时间轮）
+ * <p>
+ * 所有在途订单的轮询任务都挂在同一个时间轮上，由单个 tick 线程推进，
+ * 到期的任务再交给有界的工作线程执行一次取码请求，执行完后按项目配置的间隔重新挂回时间轮。
+ * 这样在途订单只占用一个任务对象，不再为每个订单常驻一个 sleep 的虚拟线程。
+ * </p>
+ */
+@Slf4j
+@Component
+public class CodePollingScheduler {
+
+    /**
+     * 单次取码动作，返回验证码；返回空表示本次未获取到
+     */
+    @FunctionalInterface
+    public interface Attempt {
+        String tryOnce() throws Exception;
+    }
+
+    /**
+     * 轮询结束回调，在工作线程中执行
+     */
+    @FunctionalInterface
+    public interface Callback {
+        /**
+         * @param error 结果为 {@link Outcome#ERROR} 时最后一次请求抛出的异常，其余情况为 null
+         */
+        void onFinish(Outcome outcome, String code, Exception error);
+    }
+
+    public enum Outcome {
+        /** 获取到验证码 */
+        SUCCESS,
+        /** 超时或达到最大尝试次数 */
+        TIMEOUT,
+        /** 达到最大尝试次数且最后一次请求抛出异常 */
+        ERROR,
+        /** 被取消（号码释放、订单已被其他途径处理等） */
+        CANCELLED
+    }
+
+    @Value("${sms.polling.tick-ms:100}")
+    private long tickMs = 100;
+
+    @Value("${sms.polling.wheel-size:512}")
+    private int wheelSize = 512;
+
+    @Value("${sms.polling.max-concurrency:512}")
+    private int maxConcurrency = 512;
+
+    private final Map<Long, PollingTask> activeTasks = new ConcurrentHashMap<>();
+    private final Queue<PollingTask> pendingTasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    private Queue<PollingTask>[] wheel;
+    private int mask;
+    private long currentTick;
+    private Semaphore workerPermits;
+    private ExecutorService workers;
+    private Thread tickerThread;
+    private volatile boolean running;
+
+    @PostConstruct
+    @SuppressWarnings("unchecked")
+    public void start() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        int size = Integer.highestOneBit(Math.max(wheelSize, 16) - 1) << 1;
+        this.wheel = new Queue[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        this.mask = size - 1;
+        this.workerPermits = new Semaphore(Math.max(maxConcurrency, 1));
+        this.workers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("code-poll-", 0).factory());
+        this.running = true;
+        this.tickerThread = Thread.ofPlatform().daemon().name("code-poll-wheel").start(this::runTicker);
+        log.info("验证码轮询时间轮已启动: tick={}ms, 槽位={}, 最大并发={}", tickMs, size, maxConcurrency);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (tickerThread != null) {
+            tickerThread.interrupt();
+        }
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+        // 未完成的订单仍保持取码中状态，重启后由 StartupTaskRecovery 重新调度
+        log.info("验证码轮询时间轮已停止，在途任务数: {}", activeTasks.size());
+    }
+
+    /**
+     * 注册一个订单的轮询任务
+     *
+     * @param orderId        订单（号码记录）ID，同一订单重复注册会被忽略
+     * @param initialDelayMs 首次执行前的等待时间
+     * @param intervalMs     未获取到验证码时的轮询间隔
+     * @param errorIntervalMs 请求异常时的重试间隔
+     * @param timeoutMs      总超时时长（从注册开始计算）
+     * @param maxAttempts    最大尝试次数，0 表示不限制
+     * @param attempt        单次取码动作
+     * @param stopCondition  每次执行前检查的外部终止条件，可为空
+     * @param callback       结束回调
+     * @return 是否注册成功
+     */
+    public boolean schedule(Long orderId, long initialDelayMs, long intervalMs, long errorIntervalMs,
+                            long timeoutMs, int maxAttempts, Attempt attempt,
+                            BooleanSupplier stopCondition, Callback callback) {
+        if (!started.get()) {
+            start();
+        }
+        long now = System.nanoTime();
+        PollingTask task = new PollingTask(orderId, Math.max(intervalMs, tickMs), Math.max(errorIntervalMs, tickMs),
+                now + TimeUnit.MILLISECONDS.toNanos(timeoutMs), maxAttempts, attempt, stopCondition, callback);
+        if (activeTasks.putIfAbsent(orderId, task) != null) {
+            log.info("记录[{}] 已在轮询队列中，忽略重复注册", orderId);
+            return false;
+        }
+        enqueue(task, initialDelayMs);
+        return true;
+    }
+
+    /**
+     * 取消订单的轮询任务，任务会在下一次到期时以 CANCELLED 结束
+     */
+    public boolean cancel(Long orderId) {
+        PollingTask task = activeTasks.get(orderId);
+        if (task == null) {
+            return false;
+        }
+        task.cancelled = true;
+        return true;
+    }
+
+    public boolean isActive(Long orderId) {
+        return activeTasks.containsKey(orderId);
+    }
+
+    public int getActiveCount() {
+        return activeTasks.size();
+    }
+
+    private void enqueue(PollingTask task, long delayMs) {
+        task.dueAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(delayMs, 0));
+        pendingTasks.offer(task);
+    }
+
+    private void runTicker() {
+        long tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        long nextTickAt = System.nanoTime() + tickNanos;
+        while (running) {
+            try {
+                long sleepNanos = nextTickAt - System.nanoTime();
+                if (sleepNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                }
+                transferPending(nextTickAt, tickNanos);
+                expireBucket(wheel[(int) (currentTick & mask)]);
+                currentTick++;
+                nextTickAt += tickNanos;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Throwable t) {
+                log.error("验证码轮询时间轮推进异常", t);
+            }
+        }
+    }
+
+    /**
+     * 把新注册/重新挂载的任务放入对应槽位，只在 tick 线程中调用
+     */
+    private void transferPending(long tickAt, long tickNanos) {
+        PollingTask task;
+        while ((task = pendingTasks.poll()) != null) {
+            long ticks = Math.max((task.dueAt - tickAt + tickNanos - 1) / tickNanos, 0);
+            task.remainingRounds = ticks / wheel.length;
+            wheel[(int) ((currentTick + ticks) & mask)].offer(task);
+        }
+    }
+
+    private void expireBucket(Queue<PollingTask> bucket) {
+        Iterator<PollingTask> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            PollingTask task = iterator.next();
+            if (task.remainingRounds > 0) {
+                task.remainingRounds--;
+                continue;
+            }
+            iterator.remove();
+            if (!workerPermits.tryAcquire()) {
+                // 工作线程已满，顺延到下一个 tick，避免阻塞时间轮
+                task.dueAt = 0;
+                pendingTasks.offer(task);
+                continue;
+            }
+            try {
+                workers.execute(() -> {
+                    try {
+                        runOnce(task);
+                    } finally {
+                        workerPermits.release();
+                    }
+                });
+            } catch (Exception e) {
+                workerPermits.release();
+                log.warn("记录[{}] 轮询任务提交失败: {}", task.orderId, e.getMessage());
+            }
+        }
+    }
+
+    private void runOnce(PollingTask task) {
+        if (task.cancelled || (task.stopCondition != null && task.stopCondition.getAsBoolean())) {
+            finish(task, Outcome.CANCELLED, null);
+            return;
+        }
+        if (System.nanoTime() - task.deadline >= 0) {
+            finish(task, Outcome.TIMEOUT, null);
+            return;
+        }
+        task.attempts++;
+        long nextDelay = task.intervalMs;
+        Exception error = null;
+        try {
+            String code = task.attempt.tryOnce();
+            if (StringUtils.hasText(code)) {
+                finish(task, task.cancelled ? Outcome.CANCELLED : Outcome.SUCCESS, code);
+                return;
+            }
+        } catch (Exception e) {
+            log.warn("记录[{}] 第 {} 次轮询异常: {}", task.orderId, task.attempts, e.getMessage());
+            nextDelay = task.errorIntervalMs;
+            error = e;
+        }
+        if (task.maxAttempts > 0 && task.attempts >= task.maxAttempts) {
+            finish(task, error != null ? Outcome.ERROR : Outcome.TIMEOUT, null, error);
+            return;
+        }
+        long remainingMs = TimeUnit.NANOSECONDS.toMillis(task.deadline - System.nanoTime());
+        enqueue(task, Math.min(nextDelay, Math.max(remainingMs, 0)));
+    }
+
+    private void finish(PollingTask task, Outcome outcome, String code) {
+        finish(task, outcome, code, null);
+    }
+
+    private void finish(PollingTask task, Outcome outcome, String code, Exception error) {
+        activeTasks.remove(task.orderId, task);
+        try {
+            task.callback.onFinish(outcome, code, error);
+        } catch (Exception e) {
+            log.error("记录[{}] 轮询结束回调异常, outcome={}", task.orderId, outcome, e);
+        }
+    }
+
+    private static final class PollingTask {
+        private final Long orderId;
+        private final long intervalMs;
+        private final long errorIntervalMs;
+        private final long deadline;
+        private final int maxAttempts;
+        private final Attempt attempt;
+        private final BooleanSupplier stopCondition;
+        private final Callback callback;
+        private volatile boolean cancelled;
+        private volatile long dueAt;
+        // 以下字段只在 tick 线程或独占执行该任务的工作线程中访问
+        private long remainingRounds;
+        private int attempts;
+
+        private PollingTask(Long orderId, long intervalMs, long errorIntervalMs, long deadline, int maxAttempts,
+                            Attempt attempt, BooleanSupplier stopCondition, Callback callback) {
+            this.orderId = orderId;
+            this.intervalMs = intervalMs;
+            this.errorIntervalMs = errorIntervalMs;
+            this.deadline = deadline;
+            this.maxAttempts = maxAttempts;
+            this.attempt = attempt;
+            this.stopCondition = stopCondition;
+            this.callback = callback;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.wzz.smscode.moduleService;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * 号码筛选服务器池
+ * <p>
+ * 服务器列表来自 {@code sms.filter.servers}。每台服务器记录成功请求耗时的指数滑动平均、错误率滑动平均以及最近若干次耗时，
+ * 请求时按 “平均耗时 × (1 + 错误率 × 4)” 从低到高排序：首选服务器超过其 p95 耗时（限定在上下限之间）仍未返回，
+ * 或者首选服务器直接失败时，向第二台服务器发起对冲请求，两者取先返回的结果；两者都失败再依次尝试其余服务器。
+ * 输掉对冲被取消的请求把已耗时间作为一次慢样本计入（只在比当前平均更慢时），慢服务器的耗时统计不会停留在变慢之前。
+ * </p>
+ * <p>
+ * 连续失败达到阈值或错误率过高的服务器被摘除一段时间，到期后进入探测状态：排在健康服务器之后参与请求，
+ * 成功即恢复，失败则摘除时间翻倍（有上限）。全部服务器都被摘除时仍按摘除到期先后尝试，不会直接放弃。
+ * </p>
+ */
+@Slf4j
+@Component
+public class FilterServerPool {
+
+    private static final double EWMA_ALPHA = 0.2;
+    private static final int LATENCY_WINDOW = 100;
+    private static final int MIN_LATENCY_SAMPLES = 10;
+    private static final double EJECT_ERROR_RATE = 0.5;
+    private static final int MIN_ERROR_SAMPLES = 5;
+
+    @Value("${sms.filter.servers:https://h6-haha.bubble89.shop}")
+    private String servers = "https://h6-haha.bubble89.shop";
+
+    @Value("${sms.filter.request-timeout-ms:50000}")
+    private long requestTimeoutMs = 50000;
+
+    @Value("${sms.filter.hedge-min-delay-ms:500}")
+    private long hedgeMinDelayMs = 500;
+
+    @Value("${sms.filter.hedge-max-delay-ms:20000}")
+    private long hedgeMaxDelayMs = 20000;
+
+    @Value("${sms.filter.eject-consecutive-failures:3}")
+    private int ejectConsecutiveFailures = 3;
+
+    @Value("${sms.filter.eject-ms:30000}")
+    private long ejectMs = 30000;
+
+    @Value("${sms.filter.eject-max-ms:300000}")
+    private long ejectMaxMs = 300000;
+
+    private final Map<String, ServerHealth> health = new ConcurrentHashMap<>();
+
+    public List<String> getServers() {
+        if (!StringUtils.hasText(servers)) {
+            return List.of();
+        }
+        return Arrays.stream(servers.split(","))
+                .map(String::trim)
+                .filter(StringUtils::hasText)
+                .toList();
+    }
+
+    /**
+     * 在服务器池上执行一次请求：按健康度选择服务器，慢请求对冲到第二台，失败依次尝试其余服务器
+     *
+     * @param request 针对某台服务器的请求，失败时应发出错误信号；只有传输失败才算服务器失败，
+     *                服务器返回的内容为空或无法解析属于筛选结论，应在调用方拿到结果后处理
+     * @return 第一个成功的结果；全部失败返回空
+     */
+    public <T> Mono<T> execute(Function<String, Mono<T>> request) {
+        return Mono.defer(() -> {
+            List<ServerHealth> ranked = rank();
+            if (ranked.isEmpty()) {
+                return Mono.empty();
+            }
+            ServerHealth primary = ranked.get(0);
+            if (ranked.size() == 1) {
+                return attempt(primary, request).onErrorResume(e -> Mono.empty());
+            }
+            ServerHealth secondary = ranked.get(1);
+            Sinks.Empty<Void> primaryFailed = Sinks.empty();
+            long hedgeDelayMs = hedgeDelayMs(primary);
+            Mono<T> first = attempt(primary, request).doOnError(e -> primaryFailed.tryEmitEmpty());
+            Mono<T> hedge = Mono.firstWithSignal(Mono.delay(Duration.ofMillis(hedgeDelayMs)).then(), primaryFailed.asMono())
+                    .then(Mono.defer(() -> {
+                        log.info("[NUMBER-FILTER-TRACE] 服务器 [{}] {}ms 未返回或失败，对冲请求服务器 [{}]",
+                                primary.server, hedgeDelayMs, secondary.server);
+                        return attempt(secondary, request);
+                    }));
+            List<ServerHealth> rest = ranked.subList(2, ranked.size());
+            return Mono.firstWithValue(first, hedge)
+                    .onErrorResume(e -> Flux.fromIterable(rest)
+                            .concatMapDelayError(server -> attempt(server, request).onErrorResume(ex -> Mono.empty()))
+                            .next());
+        });
+    }
+
+    private <T> Mono<T> attempt(ServerHealth server, Function<String, Mono<T>> request) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            // firstWithValue 胜出时会取消全部其它来源，包括已经失败的，只有仍在途的才按取消计
+            AtomicBoolean settled = new AtomicBoolean();
+            return request.apply(server.server)
+                    .timeout(Duration.ofMillis(requestTimeoutMs))
+                    .switchIfEmpty(Mono.error(new IllegalStateException("筛选服务器未返回结果")))
+                    .doOnNext(value -> {
+                        settled.set(true);
+                        recordSuccess(server, (System.nanoTime() - start) / 1_000_000);
+                    })
+                    .doOnError(e -> {
+                        settled.set(true);
+                        recordFailure(server, e);
+                    })
+                    .doOnCancel(() -> {
+                        if (settled.compareAndSet(false, true)) {
+                            recordCancelled(server, (System.nanoTime() - start) / 1_000_000);
+                        }
+                    });
+        });
+    }
+
+    /**
+     * 按健康度排序：健康服务器按得分升序，摘除到期的服务器（探测）排在其后；没有可用服务器时退回到全部服务器
+     */
+    List<ServerHealth> rank() {
+        long now = System.currentTimeMillis();
+        List<ServerHealth> healthy = new ArrayList<>();
+        List<ServerHealth> probing = new ArrayList<>();
+        List<ServerHealth> ejected = new ArrayList<>();
+        for (String server : getServers()) {
+            ServerHealth state = health.computeIfAbsent(server, ServerHealth::new);
+            if (state.ejectedUntil == 0) {
+                healthy.add(state);
+            } else if (state.ejectedUntil <= now) {
+                probing.add(state);
+            } else {
+                ejected.add(state);
+            }
+        }
+        healthy.sort(Comparator.comparingDouble(ServerHealth::score));
+        List<ServerHealth> ranked = new ArrayList<>(healthy);
+        ranked.addAll(probing);
+        if (ranked.isEmpty()) {
+            ejected.sort(Comparator.comparingLong(state -> state.ejectedUntil));
+            ranked.addAll(ejected);
+        }
+        return ranked;
+    }
+
+    long hedgeDelayMs(ServerHealth server) {
+        long p95 = server.latencyPercentile(0.95);
+        if (p95 < 0) {
+            return hedgeMaxDelayMs;
+        }
+        return Math.max(hedgeMinDelayMs, Math.min(hedgeMaxDelayMs, p95));
+    }
+
+    private void recordSuccess(ServerHealth server, long latencyMs) {
+        synchronized (server) {
+            server.ewmaLatencyMs = server.latencyCount == 0 ? latencyMs
+                    : server.ewmaLatencyMs * (1 - EWMA_ALPHA) + latencyMs * EWMA_ALPHA;
+            server.errorRate = server.errorRate * (1 - EWMA_ALPHA);
+            server.samples++;
+            server.consecutiveFailures = 0;
+            server.addLatency(latencyMs);
+            if (server.ejectedUntil != 0) {
+                log.info("筛选服务器 [{}] 探测成功，恢复使用", server.server);
+                server.ejectedUntil = 0;
+                server.currentEjectMs = 0;
+            }
+        }
+    }
+
+    /**
+     * 被取消的请求只知道耗时下界，比当前平均耗时快的不计入，避免把平均拉低
+     */
+    private void recordCancelled(ServerHealth server, long elapsedMs) {
+        synchronized (server) {
+            if (server.latencyCount > 0 && elapsedMs <= server.ewmaLatencyMs) {
+                return;
+            }
+            server.ewmaLatencyMs = server.latencyCount == 0 ? elapsedMs
+                    : server.ewmaLatencyMs * (1 - EWMA_ALPHA) + elapsedMs * EWMA_ALPHA;
+            server.addLatency(elapsedMs);
+        }
+    }
+
+    private void recordFailure(ServerHealth server, Throwable e) {
+        synchronized (server) {
+            server.errorRate = server.errorRate * (1 - EWMA_ALPHA) + EWMA_ALPHA;
+            server.samples++;
+            server.consecutiveFailures++;
+            boolean probing = server.ejectedUntil != 0;
+            boolean sick = server.consecutiveFailures >= ejectConsecutiveFailures
+                    || (server.samples >= MIN_ERROR_SAMPLES && server.errorRate >= EJECT_ERROR_RATE);
+            if (probing || sick) {
+                server.currentEjectMs = server.currentEjectMs == 0 ? ejectMs : Math.min(ejectMaxMs, server.currentEjectMs * 2);
+                server.ejectedUntil = System.currentTimeMillis() + server.currentEjectMs;
+                log.warn("筛选服务器 [{}] 摘除 {}ms: 连续失败={}, 错误率={}, 最近错误={}", server.server, server.currentEjectMs,
+                        server.consecutiveFailures, String.format("%.2f", server.errorRate), e.getMessage());
+            }
+        }
+    }
+
+    ServerHealth healthOf(String server) {
+        return health.computeIfAbsent(server, ServerHealth::new);
+    }
+
+    static final class ServerHealth {
+        private final String server;
+        private final long[] latencies = new long[LATENCY_WINDOW];
+        private int latencyCursor;
+        private int latencyCount;
+        private long samples;
+        private double ewmaLatencyMs;
+        private double errorRate;
+        private int consecutiveFailures;
+        private volatile long ejectedUntil;
+        private long currentEjectMs;
+
+        ServerHealth(String server) {
+            this.server = server;
+        }
+
+        private void addLatency(long latencyMs) {
+            latencies[latencyCursor] = latencyMs;
+            latencyCursor = (latencyCursor + 1) % LATENCY_WINDOW;
+            latencyCount = Math.min(latencyCount + 1, LATENCY_WINDOW);
+        }
+
+        synchronized double score() {
+            // 没有样本的服务器得分为 0，优先获得流量以建立统计
+            return ewmaLatencyMs * (1 + errorRate * 4);
+        }
+
+        synchronized long latencyPercentile(double percentile) {
+            int count = latencyCount;
+            if (count < MIN_LATENCY_SAMPLES) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            return sorted[Math.min(count - 1, (int) Math.ceil(percentile * count) - 1)];
+        }
+
+        boolean isEjected() {
+            return ejectedUntil > System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.wzz.smscode.moduleService;
+
+import com.wzz.smscode.entity.SystemConfig;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 号码筛选结果缓存
+ * <p>
+ * 同一个手机号在共用同一筛选类型（selectNumberApiRequestValue）的多个项目线路上会被反复筛选，
+ * 这里按 (类型, 手机号) 缓存筛选服务器给出的结论，通过与未通过分别设置过期时间（未通过的结论通常可以缓存得更久）。
+ * 只缓存筛选服务器实际返回的结论，请求失败导致的“不可用”不缓存。
+ * </p>
+ * <p>
+ * 过期时间来自系统配置：filter_pass_cache_seconds / filter_reject_cache_seconds 为默认值，
+ * filter_cache_type_ttls 可按类型覆盖。条目数超过上限时先清理过期条目，仍超限则整体清空。
+ * 筛选卡密变更后旧结论全部作废。命中/未命中次数注册为指标 sms.filter.verdict.cache。
+ * </p>
+ */
+@Slf4j
+@Component
+public class FilterVerdictCache {
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Value("${sms.filter-cache.max-entries:200000}")
+    private int maxEntries = 200000;
+
+    private final Map<String, Verdict> verdicts = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private volatile String currentCard;
+    private volatile String parsedTypeTtlsSource;
+    private volatile Map<String, long[]> parsedTypeTtls = Collections.emptyMap();
+
+    @PostConstruct
+    public void registerMetrics() {
+        if (meterRegistry == null) {
+            return;
+        }
+        FunctionCounter.builder("sms.filter.verdict.cache", hits, LongAdder::sum)
+                .tag("result", "hit").description("号码筛选结果缓存命中次数").register(meterRegistry);
+        FunctionCounter.builder("sms.filter.verdict.cache", misses, LongAdder::sum)
+                .tag("result", "miss").description("号码筛选结果缓存未命中次数").register(meterRegistry);
+        Gauge.builder("sms.filter.verdict.cache.size", verdicts, Map::size)
+                .description("号码筛选结果缓存条目数").register(meterRegistry);
+    }
+
+    /**
+     * 查询缓存的筛选结论
+     *
+     * @return true 可用，false 不可用，null 未命中
+     */
+    public Boolean get(SystemConfig config, String type, String phone) {
+        if (!isEnabled(config)) {
+            return null;
+        }
+        checkCard(config.getFilterApiKey());
+        Verdict verdict = verdicts.get(keyOf(type, phone));
+        if (verdict == null || System.currentTimeMillis() >= verdict.expireAt) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return verdict.available;
+    }
+
+    /**
+     * 记录筛选服务器返回的结论
+     */
+    public void put(SystemConfig config, String type, String phone, boolean available) {
+        if (!isEnabled(config)) {
+            return;
+        }
+        long[] ttls = ttlsFor(config, type);
+        long ttlSeconds = available ? ttls[0] : ttls[1];
+        if (ttlSeconds <= 0) {
+            return;
+        }
+        checkCard(config.getFilterApiKey());
+        long now = System.currentTimeMillis();
+        if (verdicts.size() >= maxEntries) {
+            verdicts.values().removeIf(verdict -> verdict.expireAt <= now);
+            if (verdicts.size() >= maxEntries) {
+                log.info("号码筛选结果缓存已满({})，整体清空", verdicts.size());
+                verdicts.clear();
+            }
+        }
+        verdicts.put(keyOf(type, phone), new Verdict(available, now + TimeUnit.SECONDS.toMillis(ttlSeconds)));
+    }
+
+    public double hitRatio() {
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    public int size() {
+        return verdicts.size();
+    }
+
+    private boolean isEnabled(SystemConfig config) {
+        return positive(config.getFilterPassCacheSeconds()) || positive(config.getFilterRejectCacheSeconds())
+                || StringUtils.hasText(config.getFilterCacheTypeTtls());
+    }
+
+    private void checkCard(String card) {
+        String previous = currentCard;
+        if (previous != null && !previous.equals(card)) {
+            verdicts.clear();
+        }
+        currentCard = card;
+    }
+
+    private long[] ttlsFor(SystemConfig config, String type) {
+        String source = config.getFilterCacheTypeTtls();
+        if (!Objects.equals(source, parsedTypeTtlsSource)) {
+            try {
+                parsedTypeTtls = parseTypeTtls(source);
+            } catch (IllegalArgumentException e) {
+                log.warn("筛选类型缓存秒数配置无效，忽略: {}", e.getMessage());
+                parsedTypeTtls = Collections.emptyMap();
+            }
+            parsedTypeTtlsSource = source;
+        }
+        long[] override = parsedTypeTtls.get(type);
+        if (override != null) {
+            return override;
+        }
+        return new long[]{valueOf(config.getFilterPassCacheSeconds()), valueOf(config.getFilterRejectCacheSeconds())};
+    }
+
+    /**
+     * 解析按类型的缓存秒数配置：类型:通过秒数:未通过秒数，多个用逗号分隔
+     *
+     * @throws IllegalArgumentException 格式不正确
+     */
+    public static Map<String, long[]> parseTypeTtls(String source) {
+        if (!StringUtils.hasText(source)) {
+            return Collections.emptyMap();
+        }
+        Map<String, long[]> result = new HashMap<>();
+        for (String item : source.split("[,，]")) {
+            if (!StringUtils.hasText(item)) {
+                continue;
+            }
+            String[] parts = item.trim().split(":");
+            if (parts.length != 3 || !StringUtils.hasText(parts[0])) {
+                throw new IllegalArgumentException("筛选类型缓存秒数格式应为 类型:通过秒数:未通过秒数，错误项: " + item);
+            }
+            try {
+                long pass = Long.parseLong(parts[1].trim());
+                long reject = Long.parseLong(parts[2].trim());
+                if (pass < 0 || reject < 0) {
+                    throw new IllegalArgumentException("筛选类型缓存秒数不能为负数，错误项: " + item);
+                }
+                result.put(parts[0].trim(), new long[]{pass, reject});
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("筛选类型缓存秒数必须为整数，错误项: " + item);
+            }
+        }
+        return result;
+    }
+
+    private static boolean positive(Integer value) {
+        return value != null && value > 0;
+    }
+
+    private static long valueOf(Integer value) {
+        return value == null ? 0 : value;
+    }
+
+    private static String keyOf(String type, String phone) {
+        return type + ":" + phone;
+    }
+
+    private record Verdict(boolean available, long expireAt) {
+    }
+}
@@ -0,0 +1,425 @@
+package com.wzz.smscode.moduleService;
+
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import com.wzz.smscode.cacheManager.NumberRecordCacheManager;
+import com.wzz.smscode.dto.CreatDTO.LedgerCreationDTO;
+import com.wzz.smscode.entity.User;
+import com.wzz.smscode.entity.UserLedger;
+import com.wzz.smscode.exception.BusinessException;
+import com.wzz.smscode.mapper.OrderOutboxMapper;
+import com.wzz.smscode.mapper.UserMapper;
+import com.wzz.smscode.service.UserLedgerService;
+import com.wzz.smscode.service.UserService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 账本组提交写入器（LMAX Disruptor）
+ * <p>
+ * 订单扣费/退款不再在调用方事务里逐条“锁用户行 -> 更新余额 -> 插入账本”，而是发布到环形队列，
+ * 由单个消费线程把同一批次内的事件合并到一个独立事务中：按ID顺序一次锁定涉及的全部用户，
+ * 在内存中依次计算每笔的变更前后余额，再用 JDBC 批量语句写回余额并批量插入账本（rewriteBatchedStatements 合并为多值 INSERT）。
+ * </p>
+ * <p>
+ * 交接语义：同步提交 {@link #submit} 阻塞到所在批次提交成功才返回新余额，提交失败或余额不足则抛出异常，供没有调用方事务的场景使用。
+ * 调用方在事务中（订单事务）时，资金变动先作为外发事件 ORDER_LEDGER 随订单事务写入 order_outbox，
+ * 订单提交后才经 {@link #submitCommitted} 发布到本写入器，落账的同一事务中把事件标记完成；订单回滚则不会落账。
+ * 本写入器未能落账（写入失败、进程崩溃）时，事件由 OrderOutboxService 补投直接落账。
+ * 订单已提交的资金变动不再因余额不足被拒绝，余额检查在订单事务中进行：已提交余额减去本节点在途扣费（{@link #reserve}）。
+ * </p>
+ */
+@Slf4j
+@Component
+public class LedgerGroupCommitWriter {
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    private OrderOutboxMapper orderOutboxMapper;
+
+    @Autowired
+    @Lazy
+    private UserService userService;
+
+    @Autowired
+    @Lazy
+    private UserLedgerService userLedgerService;
+
+    @Autowired
+    @Lazy
+    private NumberRecordCacheManager numberRecordCacheManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${sms.ledger.group-commit.enabled:false}")
+    private boolean enabled = false;
+
+    @Value("${sms.ledger.group-commit.ring-size:4096}")
+    private int ringSize = 4096;
+
+    @Value("${sms.ledger.group-commit.max-batch-size:500}")
+    private int maxBatchSize = 500;
+
+    @Value("${sms.ledger.group-commit.wait-timeout-ms:10000}")
+    private long waitTimeoutMs = 10000;
+
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    /**
+     * 已随订单事务提交或正在提交、尚未落账的扣费，按用户汇总
+     */
+    private final Map<Long, BigDecimal> inFlightDebits = new ConcurrentHashMap<>();
+    private Disruptor<LedgerEvent> disruptor;
+    private RingBuffer<LedgerEvent> ringBuffer;
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled || !started.compareAndSet(false, true)) {
+            return;
+        }
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        int size = Integer.highestOneBit(Math.max(ringSize, 64) - 1) << 1;
+        this.disruptor = new Disruptor<>(LedgerEvent::new, size,
+                Thread.ofPlatform().daemon().name("ledger-group-commit").factory(),
+                ProducerType.MULTI, new BlockingWaitStrategy());
+        this.disruptor.handleEventsWith(new BatchingHandler());
+        this.ringBuffer = disruptor.start();
+        log.info("账本组提交写入器已启动: 队列容量={}, 最大批次={}", size, maxBatchSize);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (disruptor != null) {
+            // 等待队列中已发布的事件全部落库
+            disruptor.shutdown();
+            log.info("账本组提交写入器已停止");
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled && ringBuffer != null;
+    }
+
+    /**
+     * 提交一笔资金变动并等待其所在批次落库
+     *
+     * @return 变更后余额
+     * @throws BusinessException 用户不存在、余额不足、写入失败或等待超时
+     */
+    public BigDecimal submit(LedgerCreationDTO request) {
+        CompletableFuture<BigDecimal> future = publish(request, null);
+        try {
+            return future.get(waitTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof BusinessException businessException) {
+                throw businessException;
+            }
+            throw new BusinessException("账本写入失败: " + (cause == null ? e.getMessage() : cause.getMessage()));
+        } catch (TimeoutException e) {
+            throw new BusinessException("账本写入超时");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BusinessException("账本写入被中断");
+        }
+    }
+
+    /**
+     * 订单事务中预留一笔资金变动：扣费时已提交余额减去本节点在途扣费不足以支付则拒绝
+     *
+     * @param balance 用户已提交的余额
+     * @return 预计变更后余额（在途扣费全部落账后）
+     * @throws BusinessException 余额不足
+     */
+    public BigDecimal reserve(LedgerCreationDTO request, BigDecimal balance) {
+        BigDecimal amount = request.getAmount();
+        if (request.getLedgerType() == 1) {
+            return balance.subtract(inFlightDebits.getOrDefault(request.getUserId(), BigDecimal.ZERO)).add(amount);
+        }
+        BigDecimal[] expected = new BigDecimal[1];
+        inFlightDebits.compute(request.getUserId(), (userId, pending) -> {
+            BigDecimal reserved = pending == null ? amount : pending.add(amount);
+            if (balance.compareTo(reserved) < 0) {
+                throw new BusinessException("用户 " + userId + " 余额不足");
+            }
+            expected[0] = balance.subtract(reserved);
+            return reserved;
+        });
+        return expected[0];
+    }
+
+    /**
+     * 释放 {@link #reserve} 预留的扣费（订单回滚，或资金变动已落账/交给补投）
+     */
+    public void unreserve(LedgerCreationDTO request) {
+        if (request.getLedgerType() == 1) {
+            return;
+        }
+        inFlightDebits.computeIfPresent(request.getUserId(), (userId, pending) -> {
+            BigDecimal left = pending.subtract(request.getAmount());
+            return left.signum() > 0 ? left : null;
+        });
+    }
+
+    /**
+     * 订单事务提交后发布已写入外发表的资金变动，不等待落库；允许余额为负（订单已提交，必须落账）。
+     * 落账事务中外发事件标记完成，事件已被补投处理过时跳过；未能落账时事件留给补投。
+     *
+     * @param outboxEventId 随订单事务写入的 ORDER_LEDGER 外发事件
+     */
+    public void submitCommitted(LedgerCreationDTO request, Long outboxEventId) {
+        CompletableFuture<BigDecimal> future;
+        try {
+            future = publish(request, outboxEventId);
+        } catch (RuntimeException e) {
+            unreserve(request);
+            log.warn("资金变动（外发事件 {}）发布失败，等待补投: {}", outboxEventId, e.getMessage());
+            return;
+        }
+        future.whenComplete((balance, error) -> {
+            unreserve(request);
+            if (error != null) {
+                log.warn("资金变动（外发事件 {}）落账失败，等待补投: {}", outboxEventId, error.getMessage());
+            }
+        });
+    }
+
+    private CompletableFuture<BigDecimal> publish(LedgerCreationDTO request, Long outboxEventId) {
+        if (!isEnabled()) {
+            throw new IllegalStateException("账本组提交写入器未启用");
+        }
+        CompletableFuture<BigDecimal> future = new CompletableFuture<>();
+        ringBuffer.publishEvent((event, sequence, req, eventId, result) -> {
+            event.request = req;
+            event.outboxEventId = eventId;
+            event.future = result;
+        }, request, outboxEventId, future);
+        return future;
+    }
+
+    /**
+     * 积累事件直到一批结束（消费者追上生产者）或达到最大批次后统一落库
+     */
+    private final class BatchingHandler implements EventHandler<LedgerEvent> {
+        private final List<PendingWrite> batch = new ArrayList<>();
+
+        @Override
+        public void onEvent(LedgerEvent event, long sequence, boolean endOfBatch) {
+            batch.add(new PendingWrite(event.request, event.future, event.outboxEventId));
+            event.clear();
+            if (endOfBatch || batch.size() >= maxBatchSize) {
+                List<PendingWrite> writes = new ArrayList<>(batch);
+                batch.clear();
+                flush(writes);
+            }
+        }
+    }
+
+    void flush(List<PendingWrite> writes) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> writeBatch(writes));
+            complete(writes);
+        } catch (Exception e) {
+            if (writes.size() == 1) {
+                writes.get(0).future.completeExceptionally(e);
+                return;
+            }
+            // 整批失败时逐条重试，避免一笔异常数据拖累同批的其它订单
+            log.warn("账本批量写入失败，逐条重试 {} 笔: {}", writes.size(), e.getMessage());
+            for (PendingWrite write : writes) {
+                write.reset();
+                flush(List.of(write));
+            }
+        }
+    }
+
+    /**
+     * 在一个事务中写入一批事件；被拒绝的事件（用户不存在、余额不足）记下原因，提交后与成功的事件一起通知调用方。
+     * 关联外发事件的资金变动先锁定事件，已由补投落账的跳过，落账的与事件完成标记一起提交。
+     */
+    private void writeBatch(List<PendingWrite> writes) {
+        List<Long> eventIds = new ArrayList<>();
+        for (PendingWrite write : writes) {
+            if (write.outboxEventId != null) {
+                eventIds.add(write.outboxEventId);
+            }
+        }
+        Set<Long> pendingEventIds = eventIds.isEmpty() ? Set.of() : new HashSet<>(orderOutboxMapper.lockPending(eventIds));
+        Set<Long> userIds = new TreeSet<>();
+        for (PendingWrite write : writes) {
+            if (write.outboxEventId != null && !pendingEventIds.contains(write.outboxEventId)) {
+                write.skipped = true;
+                continue;
+            }
+            userIds.add(write.request.getUserId());
+        }
+        if (userIds.isEmpty()) {
+            return;
+        }
+        Map<Long, User> lockedUsers = userMapper.selectByIdsForUpdate(userIds).stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+
+        LocalDateTime now = LocalDateTime.now();
+        Map<Long, BigDecimal> balances = new LinkedHashMap<>();
+        List<PendingWrite> accepted = new ArrayList<>(writes.size());
+        List<UserLedger> ledgers = new ArrayList<>(writes.size());
+        for (PendingWrite write : writes) {
+            if (write.skipped) {
+                continue;
+            }
+            LedgerCreationDTO request = write.request;
+            User user = lockedUsers.get(request.getUserId());
+            if (user == null) {
+                write.rejection = new BusinessException("用户不存在: " + request.getUserId());
+                continue;
+            }
+            BigDecimal balanceBefore = balances.getOrDefault(user.getId(), user.getBalance());
+            BigDecimal balanceAfter = request.getLedgerType() == 1
+                    ? balanceBefore.add(request.getAmount())
+                    : balanceBefore.subtract(request.getAmount());
+            // 订单已提交的资金变动必须落账
+            if (balanceAfter.signum() < 0 && write.outboxEventId == null) {
+                write.rejection = new BusinessException("用户 " + request.getUserId() + " 余额不足");
+                continue;
+            }
+            balances.put(user.getId(), balanceAfter);
+
+            UserLedger ledger = new UserLedger();
+            ledger.setUserId(user.getId());
+            ledger.setUserName(user.getUserName());
+            ledger.setPrice(request.getAmount());
+            ledger.setLedgerType(request.getLedgerType());
+            ledger.setBalanceBefore(balanceBefore);
+            ledger.setBalanceAfter(balanceAfter);
+            ledger.setFundType(request.getFundType().getCode());
+            ledger.setTimestamp(now);
+            ledger.setRemark(request.getRemark());
+            ledger.setPhoneNumber(request.getPhoneNumber());
+            ledger.setCode(request.getCode());
+            ledger.setLineId(request.getLineId());
+            ledger.setProjectId(request.getProjectId());
+            ledgers.add(ledger);
+            write.balanceAfter = balanceAfter;
+            write.userName = user.getUserName();
+            accepted.add(write);
+        }
+        if (accepted.isEmpty()) {
+            return;
+        }
+
+        List<User> balanceUpdates = new ArrayList<>(balances.size());
+        balances.forEach((userId, balance) -> {
+            User update = new User();
+            update.setId(userId);
+            update.setBalance(balance);
+            balanceUpdates.add(update);
+        });
+        if (!userService.updateBatchById(balanceUpdates, maxBatchSize)) {
+            throw new BusinessException("批量更新用户余额失败");
+        }
+        if (!userLedgerService.saveBatch(ledgers, maxBatchSize)) {
+            throw new BusinessException("批量写入账本失败");
+        }
+        List<Long> doneEventIds = new ArrayList<>();
+        for (PendingWrite write : accepted) {
+            if (write.outboxEventId != null) {
+                doneEventIds.add(write.outboxEventId);
+            }
+        }
+        if (!doneEventIds.isEmpty()) {
+            orderOutboxMapper.markDoneBatch(doneEventIds);
+        }
+    }
+
+    private void complete(List<PendingWrite> writes) {
+        Set<String> userNames = new HashSet<>();
+        for (PendingWrite write : writes) {
+            if (write.rejection == null && write.userName != null) {
+                userNames.add(write.userName);
+            }
+        }
+        for (String userName : userNames) {
+            try {
+                numberRecordCacheManager.evictUser(userName);
+            } catch (Exception e) {
+                log.warn("清理用户缓存失败 user={}: {}", userName, e.getMessage());
+            }
+        }
+        for (PendingWrite write : writes) {
+            if (write.rejection != null) {
+                write.future.completeExceptionally(write.rejection);
+            } else {
+                write.future.complete(write.balanceAfter);
+            }
+        }
+    }
+
+    /**
+     * 环形队列中的槽位，对象被复用
+     */
+    static final class LedgerEvent {
+        private LedgerCreationDTO request;
+        private CompletableFuture<BigDecimal> future;
+        private Long outboxEventId;
+
+        private void clear() {
+            request = null;
+            future = null;
+            outboxEventId = null;
+        }
+    }
+
+    static final class PendingWrite {
+        private final LedgerCreationDTO request;
+        private final CompletableFuture<BigDecimal> future;
+        private final Long outboxEventId;
+        private BigDecimal balanceAfter;
+        private String userName;
+        private BusinessException rejection;
+        private boolean skipped;
+
+        PendingWrite(LedgerCreationDTO request, CompletableFuture<BigDecimal> future, Long outboxEventId) {
+            this.request = request;
+            this.future = future;
+            this.outboxEventId = outboxEventId;
+        }
+
+        private void reset() {
+            balanceAfter = null;
+            userName = null;
+            rejection = null;
+            skipped = false;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.wzz.smscode.moduleService;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.AbstractClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+
+/**
+ * 把 {@link OkHttpClient} 接到 RestTemplate 上的请求工厂
+ * <p>
+ * 请求体先缓存在内存中，执行时一次性交给 OkHttp（上游接口的请求体都很小）。
+ * 替代 Spring 已标记为待移除的 OkHttp3ClientHttpRequestFactory。
+ * </p>
+ */
+class OkHttpClientRequestFactory implements ClientHttpRequestFactory {
+
+    private final OkHttpClient client;
+
+    OkHttpClientRequestFactory(OkHttpClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) {
+        return new OkHttpClientRequest(client, uri, httpMethod);
+    }
+
+    private static final class OkHttpClientRequest extends AbstractClientHttpRequest {
+        private final OkHttpClient client;
+        private final URI uri;
+        private final HttpMethod method;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+
+        private OkHttpClientRequest(OkHttpClient client, URI uri, HttpMethod method) {
+            this.client = client;
+            this.uri = uri;
+            this.method = method;
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return method;
+        }
+
+        @Override
+        public URI getURI() {
+            return uri;
+        }
+
+        @Override
+        protected OutputStream getBodyInternal(HttpHeaders headers) {
+            return body;
+        }
+
+        @Override
+        protected ClientHttpResponse executeInternal(HttpHeaders headers) throws IOException {
+            byte[] content = body.toByteArray();
+            RequestBody requestBody = null;
+            if (content.length > 0 || method == HttpMethod.POST || method == HttpMethod.PUT
+                    || method == HttpMethod.PATCH) {
+                String contentType = headers.getFirst(HttpHeaders.CONTENT_TYPE);
+                requestBody = RequestBody.create(content,
+                        StringUtils.hasText(contentType) ? MediaType.parse(contentType) : null);
+            }
+            Request.Builder builder = new Request.Builder().url(uri.toURL()).method(method.name(), requestBody);
+            headers.forEach((name, values) -> values.forEach(value -> builder.addHeader(name, value)));
+            return new OkHttpClientResponse(client.newCall(builder.build()).execute());
+        }
+    }
+
+    private static final class OkHttpClientResponse implements ClientHttpResponse {
+        private final Response response;
+        private HttpHeaders headers;
+
+        private OkHttpClientResponse(Response response) {
+            this.response = response;
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() {
+            return HttpStatusCode.valueOf(response.code());
+        }
+
+        @Override
+        public String getStatusText() {
+            return response.message();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            if (headers == null) {
+                HttpHeaders converted = new HttpHeaders();
+                response.headers().toMultimap().forEach(converted::addAll);
+                headers = converted;
+            }
+            return headers;
+        }
+
+        @Override
+        public InputStream getBody() {
+            ResponseBody body = response.body();
+            return body == null ? InputStream.nullInputStream() : body.byteStream();
+        }
+
+        @Override
+        public void close() {
+            response.close();
+        }
+    }
+}
@@ -7,11 +7,9 @@ import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.util.UriComponentsBuilder;
-import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.net.URI;
-import java.time.Duration;
 import java.util.List;
 
 
@@ -25,22 +23,26 @@ import java.util.List;
 public class PhoneNumberFilterService {
 
     private final WebClient webClient; // 从WebClientConfig注入
+    private final FilterServerPool filterServerPool;
 
     public List<String> getServerList() {
-        return List.of(
-                "https://h6-haha.bubble89.shop"
-        );
+        return filterServerPool.getServers();
+    }
+
+    public FilterServerPool getFilterServerPool() {
+        return filterServerPool;
     }
 
     /**
      * 根据提供的参数检查手机号码的状态。
-     * 此方法会轮询所有预设的服务器，直到获得一个成功的响应，并返回解码后的'state'字段内容。
+     * 请求通过筛选服务器池发出：按健康度选择服务器，慢请求对冲到第二台，失败依次尝试其余服务器，返回第一个响应中的'state'字段内容。
+     * 响应为空或无法解析时返回 -4（无效响应，按不可用处理），不计为服务器失败。
      *
      * @param card API所需的认证令牌。
      * @param type  项目或渠道的ID。
      * @param phone 需要检查的手机号码。
      * @return 返回一个 Mono<String>，其中包含API响应中解码后的'state'字段值。
-     *         如果所有服务器都请求失败或响应格式不正确，则返回一个空的 Mono。
+     *         如果所有服务器都请求失败，则返回一个空的 Mono。
      */
     public Mono<Integer> checkPhoneNumberState(String card, String type, String phone, String countryCode) {
         if (!StringUtils.hasText(card) || !StringUtils.hasText(type) || !StringUtils.hasText(phone)) {
@@ -48,33 +50,25 @@ public class PhoneNumberFilterService {
             return Mono.error(new IllegalArgumentException("card, type, and Phone must not be empty."));
         }
 
-        List<String> servers = getServerList();
-        if (servers.isEmpty()) {
+        if (getServerList().isEmpty()) {
             log.warn("号码筛选服务器列表为空，无法执行请求。");
             return Mono.empty();
         }
 
-        // 使用响应式编程风格轮询服务器
-        return Flux.fromIterable(servers)
-                .concatMapDelayError(serverIp -> {
-                    // 为当前服务器构建请求URI
-                    URI requestUri = buildRequestUri(serverIp, phone, card, type, countryCode);
-                    log.info("正在向服务器 [{}] 发送号码筛选请求，号码: [{}]...", serverIp, phone);
-
-                    // 发起异步请求
-                    return webClient.get()
-                            .uri(requestUri)
-                            .retrieve()
-                            .bodyToMono(String.class)
-                            .timeout(Duration.ofSeconds(50)) // 设置超时
-                            .flatMap(responseBody -> {
-                                log.info("服务器 [{}] 响应: {}", serverIp, responseBody);
-                                return parseStateFromResponse(responseBody);
-                            })
-                            .doOnError(e -> log.warn("访问服务器 [{}] 失败: {}. 正在尝试下一个...", serverIp, e.getMessage()))
-                            .onErrorResume(e -> Mono.empty()); // 如果当前服务器请求失败，切换到下一个
-                })
-                .next(); // 只取第一个成功解析出的 'state' 结果
+        return filterServerPool.execute(serverIp -> {
+            // 为当前服务器构建请求URI
+            URI requestUri = buildRequestUri(serverIp, phone, card, type, countryCode);
+            log.info("正在向服务器 [{}] 发送号码筛选请求，号码: [{}]...", serverIp, phone);
+
+            // 发起异步请求
+            return webClient.get()
+                    .uri(requestUri)
+                    .retrieve()
+                    .bodyToMono(String.class)
+                    .defaultIfEmpty("")
+                    .doOnNext(responseBody -> log.info("服务器 [{}] 响应: {}", serverIp, responseBody))
+                    .doOnError(e -> log.warn("访问服务器 [{}] 失败: {}. 正在尝试下一个...", serverIp, e.getMessage()));
+        }).map(this::parseStateFromResponseInt);
     }
 
     public Mono<String> checkPhoneNumberStateText(String card, String type, String phone, String countryCode) {
@@ -83,29 +77,27 @@ public class PhoneNumberFilterService {
             return Mono.error(new IllegalArgumentException("card, type, and Phone must not be empty."));
         }
 
-        List<String> servers = getServerList();
-        if (servers.isEmpty()) {
+        if (getServerList().isEmpty()) {
             log.warn("号码筛选服务器列表为空，无法执行请求。");
             return Mono.empty();
         }
 
-        return Flux.fromIterable(servers)
-                .concatMapDelayError(serverIp -> {
-                    URI requestUri = buildRequestUri(serverIp, phone, card, type, countryCode);
-                    log.info("正在向服务器 [{}] 发送号码筛选请求，号码: [{}]...", serverIp, phone);
-                    return webClient.get()
-                            .uri(requestUri)
-                            .retrieve()
-                            .bodyToMono(String.class)
-                            .timeout(Duration.ofSeconds(50))
-                            .flatMap(responseBody -> {
-                                log.info("服务器 [{}] 响应: {}", serverIp, responseBody);
-                                return parseStateTextFromResponse(responseBody);
-                            })
-                            .doOnError(e -> log.warn("访问服务器 [{}] 失败: {}. 正在尝试下一个...", serverIp, e.getMessage()))
-                            .onErrorResume(e -> Mono.empty());
-                })
-                .next();
+        return filterServerPool.execute(serverIp -> {
+            URI requestUri = buildRequestUri(serverIp, phone, card, type, countryCode);
+            log.info("正在向服务器 [{}] 发送号码筛选请求，号码: [{}]...", serverIp, phone);
+            return webClient.get()
+                    .uri(requestUri)
+                    .retrieve()
+                    .bodyToMono(String.class)
+                    .defaultIfEmpty("")
+                    .doOnNext(responseBody -> log.info("服务器 [{}] 响应: {}", serverIp, responseBody))
+                    .doOnError(e -> log.warn("访问服务器 [{}] 失败: {}. 正在尝试下一个...", serverIp, e.getMessage()));
+        }).flatMap(responseBody -> parseStateTextFromResponse(responseBody)
+                // 响应无效按不可用处理，不计为服务器失败
+                .onErrorResume(e -> {
+                    log.warn("号码筛选响应无效: {}", e.getMessage());
+                    return Mono.just(convertStatusToLegacyText(-4));
+                }));
     }
 
     /**
@@ -124,36 +116,6 @@ public class PhoneNumberFilterService {
         return builder.build().toUri();
     }
 
-    /**
-     * 从新版API响应JSON中解析出'state'字段的值。
-     * 因为新版可能返回多个账号状态，此处做拼接返回。
-     *
-     * @param responseBody API返回的JSON字符串。
-     * @return 返回包含解码后'states'值的 int。
-     */
-    private Mono<Integer> parseStateFromResponse(String responseBody) {
-        if (!StringUtils.hasText(responseBody)) {
-            log.warn("API响应体为空，无法解析。");
-            return Mono.error(new IllegalArgumentException("API响应体为空，无法解析"));
-        }
-
-        try {
-            Object codeObj = JsonPath.parse(responseBody).read("$.code");
-            if (!isSuccessCode(codeObj)) {
-                return Mono.error(new IllegalArgumentException("API返回的code不是成功码(0/200), 响应无效。响应: " + responseBody));
-            }
-            Integer status = extractStatus(responseBody);
-            if (status == null) {
-                return Mono.error(new IllegalArgumentException("API返回的status响应无效。响应: "+ responseBody));
-            }
-
-            return Mono.just(status);
-
-        } catch (Exception e) {
-            return Mono.error(new IllegalArgumentException("解析API响应JSON失败，响应体: "+ responseBody+"错误:"+ e.getMessage()));
-        }
-    }
-
     public Mono<String> parseStateTextFromResponse(String responseBody) {
         if (!StringUtils.hasText(responseBody)) {
             log.warn("API响应体为空，无法解析。");
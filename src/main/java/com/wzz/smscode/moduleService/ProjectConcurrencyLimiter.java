@@ -0,0 +1,331 @@
+package com.wzz.smscode.moduleService;
+
+import com.wzz.smscode.entity.NumberRecordActive;
+import com.wzz.smscode.entity.Project;
+import com.wzz.smscode.service.NumberRecordActiveService;
+import com.wzz.smscode.service.ProjectService;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 项目线路在途订单并发限制（Redis 分布式计数信号量）
+ * <p>
+ * 每个项目线路一个 ZSET：成员为许可，分值为租约到期时间。取号前申请一个临时许可（成员为随机令牌，租约覆盖取号+筛选耗时），
+ * 订单落库提交后把令牌换成订单ID成员（租约覆盖订单完整生命周期），订单进入终态（成功/超时/作废）时提交后释放。
+ * 申请时先清理已过期的租约，再与 {@link Project#getMaxInFlight()} 比较，整个过程在一个 Lua 脚本中原子完成。
+ * </p>
+ * <p>
+ * 上限取 {@link Project#getMaxInFlight()}；该列为空（未配置）时按 sms.inflight.default-limits 兜底，格式为“项目ID-线路ID:上限”，逗号分隔，
+ * 默认保留原来硬编码的项目105-线路1 上限 150，管理员在项目上填写后（含 0 不限制）以项目配置为准。
+ * 本地快速路径：不限制的项目线路不访问 Redis；某线路被拒绝后在短时间内直接本地拒绝，本节点释放许可时立即解除。
+ * Redis 不可用时回落为统计进行中订单表，不阻断取号。
+ * 泄漏检测：定时任务检查各线路中已绑定订单的许可，订单已不在进行中订单表（进程在终态前崩溃、释放消息丢失）则回收。
+ * </p>
+ */
+@Slf4j
+@Component
+public class ProjectConcurrencyLimiter {
+
+    private static final String KEY_PREFIX = "sms:inflight:";
+    private static final String ORDER_MEMBER_PREFIX = "r:";
+
+    /**
+     * KEYS[1]=线路键 ARGV[1]=当前时间 ARGV[2]=上限 ARGV[3]=租约到期时间 ARGV[4]=令牌 ARGV[5]=键过期毫秒
+     * 返回申请后的在途数，被拒绝时返回 -(当前在途数) - 1
+     */
+    private static final DefaultRedisScript<Long> ACQUIRE_SCRIPT = new DefaultRedisScript<>("""
+            redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', ARGV[1])
+            local n = redis.call('ZCARD', KEYS[1])
+            if n >= tonumber(ARGV[2]) then
+                return -n - 1
+            end
+            redis.call('ZADD', KEYS[1], ARGV[3], ARGV[4])
+            redis.call('PEXPIRE', KEYS[1], ARGV[5])
+            return n + 1
+            """, Long.class);
+
+    /**
+     * KEYS[1]=线路键 ARGV[1]=令牌 ARGV[2]=订单成员 ARGV[3]=租约到期时间 ARGV[4]=键过期毫秒
+     */
+    private static final DefaultRedisScript<Long> BIND_SCRIPT = new DefaultRedisScript<>("""
+            redis.call('ZREM', KEYS[1], ARGV[1])
+            redis.call('ZADD', KEYS[1], ARGV[3], ARGV[2])
+            redis.call('PEXPIRE', KEYS[1], ARGV[4])
+            return 1
+            """, Long.class);
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private NumberRecordActiveService numberRecordActiveService;
+
+    @Autowired
+    @Lazy
+    private ProjectService projectService;
+
+    @Value("${sms.inflight.acquire-lease-ms:300000}")
+    private long acquireLeaseMs = 300000;
+
+    @Value("${sms.inflight.order-lease-ms:3600000}")
+    private long orderLeaseMs = 3600000;
+
+    @Value("${sms.inflight.local-reject-ms:200}")
+    private long localRejectMs = 200;
+
+    @Value("${sms.inflight.default-limits:105-1:150}")
+    private String defaultLimits = "105-1:150";
+
+    private final Map<String, Long> saturatedUntil = new ConcurrentHashMap<>();
+    private Map<String, Integer> defaultLimitByLine = Map.of();
+
+    @PostConstruct
+    public void init() {
+        Map<String, Integer> parsed = new HashMap<>();
+        if (StringUtils.hasText(defaultLimits)) {
+            for (String entry : defaultLimits.split(",")) {
+                int index = entry.lastIndexOf(':');
+                if (index <= 0) {
+                    continue;
+                }
+                try {
+                    parsed.put(entry.substring(0, index).trim(), Integer.parseInt(entry.substring(index + 1).trim()));
+                } catch (NumberFormatException e) {
+                    log.warn("忽略无效的默认在途上限配置: {}", entry);
+                }
+            }
+        }
+        defaultLimitByLine = Map.copyOf(parsed);
+    }
+
+    /**
+     * 项目线路实际生效的在途上限，0 表示不限制
+     */
+    public int limitOf(Project project) {
+        Integer limit = project.getMaxInFlight();
+        if (limit == null) {
+            limit = defaultLimitByLine.get(project.getProjectId() + "-" + project.getLineId());
+        }
+        return limit == null ? 0 : limit;
+    }
+
+    /**
+     * 申请一个在途许可
+     *
+     * @return 许可；项目线路不限制时返回 {@link Permit#UNLIMITED}；已达上限返回 null
+     */
+    public Permit tryAcquire(Project project) {
+        int limit = limitOf(project);
+        if (limit <= 0) {
+            return Permit.UNLIMITED;
+        }
+        String key = keyOf(project.getProjectId(), project.getLineId());
+        long now = System.currentTimeMillis();
+        Long until = saturatedUntil.get(key);
+        if (until != null && now < until) {
+            return null;
+        }
+        String token = UUID.randomUUID().toString();
+        Long result;
+        try {
+            result = stringRedisTemplate.execute(ACQUIRE_SCRIPT, List.of(key),
+                    String.valueOf(now), String.valueOf(limit), String.valueOf(now + acquireLeaseMs), token,
+                    String.valueOf(orderLeaseMs * 2));
+        } catch (Exception e) {
+            log.warn("在途许可申请失败，回落到数据库计数 key={}: {}", key, e.getMessage());
+            long ongoing = numberRecordActiveService.countOngoing(project.getProjectId(), Integer.valueOf(project.getLineId()));
+            return ongoing < limit ? new Permit(key, null, limit) : null;
+        }
+        if (result == null || result < 0) {
+            saturatedUntil.put(key, now + localRejectMs);
+            log.warn("项目{}-线路{} 在途订单已达上限: {}", project.getProjectId(), project.getLineId(), limit);
+            return null;
+        }
+        saturatedUntil.remove(key);
+        return new Permit(key, token, limit);
+    }
+
+    /**
+     * 订单已落库：当前事务提交后把临时许可转为订单许可；事务回滚时由调用方 {@link #release(Permit)}
+     */
+    public void bindAfterCommit(Permit permit, Long recordId) {
+        if (permit == null || permit.token == null || recordId == null) {
+            return;
+        }
+        permit.bound = true;
+        Runnable bind = () -> {
+            try {
+                stringRedisTemplate.execute(BIND_SCRIPT, List.of(permit.key), permit.token,
+                        ORDER_MEMBER_PREFIX + recordId, String.valueOf(System.currentTimeMillis() + orderLeaseMs),
+                        String.valueOf(orderLeaseMs * 2));
+            } catch (Exception e) {
+                // 临时许可会在租约到期后自动失效
+                log.warn("在途许可绑定订单失败 recordId={}: {}", recordId, e.getMessage());
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_COMMITTED) {
+                        bind.run();
+                    } else {
+                        permit.bound = false;
+                    }
+                }
+            });
+        } else {
+            bind.run();
+        }
+    }
+
+    /**
+     * 释放未绑定订单的临时许可（取号失败、下单事务回滚）
+     */
+    public void release(Permit permit) {
+        if (permit == null || permit.token == null || permit.bound) {
+            return;
+        }
+        removeMember(permit.key, permit.token);
+    }
+
+    /**
+     * 订单进入终态：当前事务提交后释放订单许可
+     * <p>
+     * 线路当前不限制时订单没有占用许可，直接跳过，不访问 Redis；
+     * 下单后才把上限改为不限制的线路上残留的许可由泄漏检测回收。
+     * </p>
+     */
+    public void releaseAfterCommit(String projectId, Integer lineId, Long recordId) {
+        if (projectId == null || lineId == null || recordId == null) {
+            return;
+        }
+        Project project = projectService.getProject(projectId, lineId);
+        if (project != null && limitOf(project) <= 0) {
+            return;
+        }
+        String key = keyOf(projectId, String.valueOf(lineId));
+        Runnable release = () -> removeMember(key, ORDER_MEMBER_PREFIX + recordId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    release.run();
+                }
+            });
+        } else {
+            release.run();
+        }
+    }
+
+    /**
+     * 泄漏检测：回收订单已不在进行中订单表的许可，同时清理过期租约
+     */
+    @Scheduled(fixedDelayString = "${sms.inflight.leak-check-interval-ms:60000}")
+    public void reclaimLeaked() {
+        List<String> keys = new ArrayList<>();
+        try (Cursor<String> cursor = stringRedisTemplate.scan(ScanOptions.scanOptions()
+                .match(KEY_PREFIX + "*").count(100).build())) {
+            cursor.forEachRemaining(keys::add);
+        } catch (Exception e) {
+            log.warn("在途许可泄漏检测失败: {}", e.getMessage());
+            return;
+        }
+        for (String key : keys) {
+            try {
+                reclaimKey(key);
+            } catch (Exception e) {
+                log.warn("在途许可泄漏检测失败 key={}: {}", key, e.getMessage());
+            }
+        }
+    }
+
+    void reclaimKey(String key) {
+        stringRedisTemplate.opsForZSet().removeRangeByScore(key, Double.NEGATIVE_INFINITY, System.currentTimeMillis());
+        Set<String> members = stringRedisTemplate.opsForZSet().range(key, 0, -1);
+        if (members == null || members.isEmpty()) {
+            return;
+        }
+        List<Long> recordIds = new ArrayList<>();
+        for (String member : members) {
+            if (member.startsWith(ORDER_MEMBER_PREFIX)) {
+                recordIds.add(Long.valueOf(member.substring(ORDER_MEMBER_PREFIX.length())));
+            }
+        }
+        if (recordIds.isEmpty()) {
+            return;
+        }
+        Set<Long> ongoing = new HashSet<>();
+        for (NumberRecordActive active : numberRecordActiveService.listByIds(recordIds)) {
+            ongoing.add(active.getRecordId());
+        }
+        List<String> leaked = new ArrayList<>();
+        for (Long recordId : recordIds) {
+            if (!ongoing.contains(recordId)) {
+                leaked.add(ORDER_MEMBER_PREFIX + recordId);
+            }
+        }
+        if (!leaked.isEmpty()) {
+            stringRedisTemplate.opsForZSet().remove(key, leaked.toArray());
+            saturatedUntil.remove(key);
+            log.warn("回收泄漏的在途许可 key={}, 数量={}", key, leaked.size());
+        }
+    }
+
+    private void removeMember(String key, String member) {
+        saturatedUntil.remove(key);
+        try {
+            stringRedisTemplate.opsForZSet().remove(key, member);
+        } catch (Exception e) {
+            // 由租约到期或泄漏检测回收
+            log.warn("在途许可释放失败 key={}, member={}: {}", key, member, e.getMessage());
+        }
+    }
+
+    private static String keyOf(String projectId, String lineId) {
+        return KEY_PREFIX + projectId + ":" + lineId;
+    }
+
+    /**
+     * 一次取号持有的在途许可；token 为空表示无需释放（未配置上限或回落到数据库计数）
+     */
+    public static final class Permit {
+        public static final Permit UNLIMITED = new Permit(null, null, 0);
+
+        private final String key;
+        private final String token;
+        private final int limit;
+        private volatile boolean bound;
+
+        private Permit(String key, String token, int limit) {
+            this.key = key;
+            this.token = token;
+            this.limit = limit;
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.wzz.smscode.moduleService;
+
+import com.wzz.smscode.exception.BusinessException;
+import com.wzz.smscode.util.UrlSecurityUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 特殊API、AES 特殊 API、外部抢单渠道共用的 HTTP 传输层
+ * <p>
+ * 默认（sms.provider-http.pooled=false）沿用原来的 HttpURLConnection 实现：连接、读取超时均为 150 秒，每次轮询各自建连。
+ * 开启后换成 OkHttp 连接池：
+ * 连接、读取、整体三个超时分别设置；每个上游 host 的并发请求数有上限，等待许可超过连接超时直接失败；
+ * 空闲连接超过 keep-alive 时长被回收；通过 {@link OkHttpClientRequestFactory} 接到 RestTemplate 上；
+ * 建连时通过 {@link UrlSecurityUtil#resolveNonPrivate(String)} 取地址，与请求前的 URL 校验使用同一份解析结果。
+ * </p>
+ * <p>
+ * 开启后按 host 注册指标：sms.provider.http.requests（耗时，按结果区分），
+ * sms.provider.http.connections（type=new 新建连接 / reused 复用连接），以及连接池连接数。
+ * 两种方式都经过 {@link UpstreamGuard} 的熔断；每 host 并发上限只有一层：连接池方式为 max-connections-per-host，
+ * 原方式为 UpstreamGuard 的 max-concurrent-per-host。
+ * </p>
+ */
+@Slf4j
+@Component
+public class ProviderHttpTransport {
+
+    private static final int LEGACY_TIMEOUT_MS = 150 * 1000;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Autowired(required = false)
+    private UpstreamGuard upstreamGuard;
+
+    @Value("${sms.provider-http.pooled:false}")
+    private boolean pooled = false;
+
+    @Value("${sms.provider-http.connect-timeout-ms:10000}")
+    private long connectTimeoutMs = 10000;
+
+    @Value("${sms.provider-http.read-timeout-ms:60000}")
+    private long readTimeoutMs = 60000;
+
+    @Value("${sms.provider-http.call-timeout-ms:150000}")
+    private long callTimeoutMs = 150000;
+
+    @Value("${sms.provider-http.max-connections-per-host:64}")
+    private int maxConnectionsPerHost = 64;
+
+    @Value("${sms.provider-http.max-idle-connections:32}")
+    private int maxIdleConnections = 32;
+
+    @Value("${sms.provider-http.keep-alive-seconds:60}")
+    private long keepAliveSeconds = 60;
+
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    private volatile RestTemplate restTemplate;
+    private volatile OkHttpClient client;
+
+    @PostConstruct
+    public synchronized void init() {
+        if (pooled) {
+            client = buildClient();
+            restTemplate = new RestTemplate(new OkHttpClientRequestFactory(client));
+            log.info("上游特殊接口使用连接池传输：每 host 并发上限 {}，空闲连接 {} 个/{} 秒", maxConnectionsPerHost,
+                    maxIdleConnections, keepAliveSeconds);
+        } else {
+            restTemplate = new RestTemplate(legacyFactory());
+        }
+        if (upstreamGuard != null) {
+            // 连接池方式已按 host 限制并发，隔离层只做熔断；原方式没有并发上限，由隔离层限制
+            restTemplate.getInterceptors().add(upstreamGuard.interceptor(!pooled));
+        }
+    }
+
+    /**
+     * 当前传输方式对应的 RestTemplate
+     */
+    public RestTemplate restTemplate() {
+        RestTemplate template = restTemplate;
+        if (template == null) {
+            init();
+            template = restTemplate;
+        }
+        return template;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        OkHttpClient current = client;
+        if (current != null) {
+            current.dispatcher().executorService().shutdown();
+            current.connectionPool().evictAll();
+        }
+    }
+
+    // 使用 SimpleClientHttpRequestFactory (基于 JDK HttpURLConnection) 比 Netty 更抗造
+    private static ClientHttpRequestFactory legacyFactory() {
+        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory() {
+            @Override
+            protected void prepareConnection(HttpURLConnection connection, String httpMethod) throws IOException {
+                super.prepareConnection(connection, httpMethod);
+                connection.setInstanceFollowRedirects(false);
+            }
+        };
+        factory.setConnectTimeout(LEGACY_TIMEOUT_MS);
+        factory.setReadTimeout(LEGACY_TIMEOUT_MS);
+        return factory;
+    }
+
+    OkHttpClient buildClient() {
+        OkHttpClient okHttpClient = new OkHttpClient.Builder()
+                .connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMs, TimeUnit.MILLISECONDS)
+                .writeTimeout(readTimeoutMs, TimeUnit.MILLISECONDS)
+                .callTimeout(callTimeoutMs, TimeUnit.MILLISECONDS)
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS))
+                .followRedirects(false)
+                .followSslRedirects(false)
+                .retryOnConnectionFailure(false)
+                .dns(ProviderHttpTransport::lookup)
+                .addInterceptor(this::intercept)
+                .eventListenerFactory(call -> new ReuseListener())
+                .build();
+        if (meterRegistry != null) {
+            ConnectionPool pool = okHttpClient.connectionPool();
+            Gauge.builder("sms.provider.http.pool", pool, ConnectionPool::connectionCount)
+                    .tag("state", "total").description("上游特殊接口连接池连接数").register(meterRegistry);
+            Gauge.builder("sms.provider.http.pool", pool, ConnectionPool::idleConnectionCount)
+                    .tag("state", "idle").description("上游特殊接口连接池空闲连接数").register(meterRegistry);
+        }
+        return okHttpClient;
+    }
+
+    private static List<InetAddress> lookup(String host) throws UnknownHostException {
+        try {
+            return List.of(UrlSecurityUtil.resolveNonPrivate(host));
+        } catch (BusinessException e) {
+            throw new UnknownHostException(host + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * 占用 host 并发许可，并在许可释放前读完响应体（上游返回的都是短文本），
+     * 这样记录的耗时就是完整的请求耗时。
+     */
+    private Response intercept(Interceptor.Chain chain) throws IOException {
+        Request request = chain.request();
+        String host = request.url().host();
+        Semaphore permits = hostPermits.computeIfAbsent(host, h -> new Semaphore(maxConnectionsPerHost));
+        try {
+            if (!permits.tryAcquire(connectTimeoutMs, TimeUnit.MILLISECONDS)) {
+                record(host, "rejected", 0);
+                throw new IOException("上游 " + host + " 并发请求已达上限 " + maxConnectionsPerHost);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待上游连接许可被中断");
+        }
+        long start = System.nanoTime();
+        String outcome = "error";
+        try {
+            Response response = chain.proceed(request);
+            ResponseBody body = response.body();
+            if (body == null) {
+                outcome = statusOutcome(response.code());
+                return response;
+            }
+            ResponseBody buffered = ResponseBody.create(body.bytes(), body.contentType());
+            outcome = statusOutcome(response.code());
+            return response.newBuilder().body(buffered).build();
+        } finally {
+            permits.release();
+            record(host, outcome, System.nanoTime() - start);
+        }
+    }
+
+    private static String statusOutcome(int code) {
+        return code < 400 ? "success" : code < 500 ? "client_error" : "server_error";
+    }
+
+    private void record(String host, String outcome, long nanos) {
+        if (meterRegistry == null) {
+            return;
+        }
+        Timer.builder("sms.provider.http.requests")
+                .tag("host", host)
+                .tag("outcome", outcome)
+                .description("上游特殊接口请求耗时")
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void countConnection(String host, boolean reused) {
+        if (meterRegistry == null) {
+            return;
+        }
+        Counter.builder("sms.provider.http.connections")
+                .tag("host", host)
+                .tag("type", reused ? "reused" : "new")
+                .description("上游特殊接口连接获取次数")
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * 单次请求的连接事件：获取连接前发生过建连即为新连接，否则为复用
+     */
+    private class ReuseListener extends EventListener {
+        private boolean connected;
+
+        @Override
+        public void connectStart(@NotNull Call call, @NotNull InetSocketAddress inetSocketAddress,
+                                 @NotNull Proxy proxy) {
+            connected = true;
+        }
+
+        @Override
+        public void connectionAcquired(@NotNull Call call, @NotNull Connection connection) {
+            countConnection(call.request().url().host(), !connected);
+            connected = false;
+        }
+    }
+}
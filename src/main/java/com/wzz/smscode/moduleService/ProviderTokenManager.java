@@ -0,0 +1,444 @@
+package com.wzz.smscode.moduleService;
+
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import com.wzz.smscode.entity.Project;
+import com.wzz.smscode.exception.BusinessException;
+import com.wzz.smscode.service.ProjectService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 上游接口 Token 管理（按项目线路）
+ * <p>
+ * Token 保存在本机内存，不再从调用方各自加载的 Project 快照里读取；首次使用时依次参考 Redis 中的共享 Token
+ * 和 project 表中的 auth_token_value / token_expiration_time（登录时间），取较新的一个。
+ * Token 超过有效期需要登录时，本机并发请求合并为一次登录（single-flight），其余请求等待同一结果；
+ * 多节点之间通过 Redis 锁保证同一时刻只有一个节点在登录，其他节点等待共享 Token 更新。
+ * </p>
+ * <p>
+ * 登录成功后写回数据库（仅供重启后恢复），同时写入 Redis 并通过发布/订阅推送给所有节点，
+ * 不再使项目配置缓存失效，其他节点也无需重新读取 project 行。
+ * 最近有请求的线路在到期前 refresh-ahead-minutes 由后台任务提前刷新，请求路径上基本不会遇到登录。
+ * </p>
+ */
+@Slf4j
+@Component
+public class ProviderTokenManager implements MessageListener {
+
+    private static final String CHANNEL = "sms:token:refresh";
+    private static final String PREFIX_TOKEN = "sms:token:";
+    private static final String PREFIX_LOCK = "sms:token:lock:";
+    private static final String SEPARATOR = "|";
+
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                return redis.call('DEL', KEYS[1])
+            end
+            return 0
+            """, Long.class);
+
+    @Autowired
+    @Lazy
+    private ModuleUtil moduleUtil;
+
+    @Autowired
+    @Lazy
+    private ProjectService projectService;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired(required = false)
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${sms.token.ttl-minutes:1440}")
+    private long ttlMinutes = 1440;
+
+    @Value("${sms.token.refresh-ahead-minutes:30}")
+    private long refreshAheadMinutes = 30;
+
+    @Value("${sms.token.idle-minutes:60}")
+    private long idleMinutes = 60;
+
+    @Value("${sms.token.wait-timeout-ms:30000}")
+    private long waitTimeoutMs = 30000;
+
+    @Value("${sms.token.lock-ms:60000}")
+    private long lockMs = 60000;
+
+    private final Map<String, TokenState> tokens = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<TokenState>> inflight = new ConcurrentHashMap<>();
+    private final Map<String, LineUsage> usages = new ConcurrentHashMap<>();
+    private final ExecutorService refreshExecutor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("token-refresh-", 0).factory());
+
+    @PostConstruct
+    public void subscribe() {
+        if (redisMessageListenerContainer != null) {
+            redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CHANNEL));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refreshExecutor.shutdownNow();
+    }
+
+    /**
+     * 获取可用 Token：未配置登录接口的线路直接使用项目中配置的 Token；已过期或不存在时登录（合并并发登录）
+     *
+     * @throws BusinessException 登录失败
+     */
+    public String getToken(Project project) {
+        if (!hasLoginConfig(project)) {
+            return project.getAuthTokenValue();
+        }
+        String key = keyOf(project);
+        usages.put(key, new LineUsage(project, System.currentTimeMillis()));
+        TokenState state = current(key, project);
+        if (state != null && !isExpired(state)) {
+            return state.token;
+        }
+        log.info("项目 [{} - {}] Token 不存在或已过期，准备执行登录...", project.getProjectName(), project.getLineId());
+        return refresh(project, state, false).token;
+    }
+
+    /**
+     * 是否需要登录才能拿到 Token（用于判断获取 Token 是否会发生网络请求）
+     */
+    public boolean needsLogin(Project project) {
+        if (!hasLoginConfig(project)) {
+            return false;
+        }
+        TokenState state = current(keyOf(project), project);
+        return state == null || isExpired(state);
+    }
+
+    /**
+     * 当前已知的 Token，不触发登录
+     */
+    public String peekToken(Project project) {
+        if (!hasLoginConfig(project)) {
+            return project.getAuthTokenValue();
+        }
+        TokenState state = current(keyOf(project), project);
+        return state == null ? project.getAuthTokenValue() : state.token;
+    }
+
+    /**
+     * 强制重新登录（手动登录），并发的强制登录同样只执行一次
+     */
+    public String forceRefresh(Project project) {
+        if (!hasLoginConfig(project)) {
+            throw new BusinessException("项目未配置登录接口，无法执行登录");
+        }
+        return refresh(project, current(keyOf(project), project), true).token;
+    }
+
+    /**
+     * 提前刷新：最近有请求且临近到期的线路在后台登录，其余节点通过订阅获得新 Token
+     */
+    @Scheduled(fixedDelayString = "${sms.token.refresh-check-ms:60000}")
+    public void refreshAhead() {
+        long now = System.currentTimeMillis();
+        long refreshAfter = TimeUnit.MINUTES.toMillis(Math.max(0, ttlMinutes - refreshAheadMinutes));
+        usages.forEach((key, usage) -> {
+            if (now - usage.lastUsedAt > TimeUnit.MINUTES.toMillis(idleMinutes)) {
+                usages.remove(key, usage);
+                return;
+            }
+            TokenState state = tokens.get(key);
+            if (state == null || now - state.issuedAt < refreshAfter || inflight.containsKey(key)) {
+                return;
+            }
+            refreshExecutor.execute(() -> {
+                try {
+                    Project project = reload(usage.project);
+                    if (hasLoginConfig(project)) {
+                        refresh(project, state, false);
+                    }
+                } catch (Exception e) {
+                    log.warn("项目 [{}] Token 提前刷新失败: {}", key, e.getMessage());
+                }
+            });
+        });
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        TokenState state = decode(new String(message.getBody(), StandardCharsets.UTF_8), true);
+        if (state != null) {
+            adopt(state.key, state);
+        }
+    }
+
+    /**
+     * 单飞刷新：同一线路同时只有一个登录在执行，其他调用等待其结果
+     */
+    TokenState refresh(Project project, TokenState stale, boolean force) {
+        String key = keyOf(project);
+        CompletableFuture<TokenState> future = new CompletableFuture<>();
+        CompletableFuture<TokenState> running = inflight.putIfAbsent(key, future);
+        if (running == null) {
+            try {
+                future.complete(doRefresh(project, key, stale, force));
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            } finally {
+                inflight.remove(key, future);
+            }
+            running = future;
+        }
+        try {
+            return running.get(waitTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof BusinessException businessException) {
+                throw businessException;
+            }
+            throw new BusinessException("接口登录失败：" + (cause == null ? e.getMessage() : cause.getMessage()));
+        } catch (TimeoutException e) {
+            throw new BusinessException("接口登录超时");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BusinessException("接口登录被中断");
+        }
+    }
+
+    private TokenState doRefresh(Project project, String key, TokenState stale, boolean force) {
+        if (!force) {
+            // 等待期间其他线程或节点可能已经刷新
+            TokenState latest = newer(tokens.get(key), readShared(key));
+            if (isNewer(latest, stale) && !isExpired(latest)) {
+                adopt(key, latest);
+                return latest;
+            }
+        }
+        String lockValue = UUID.randomUUID().toString();
+        boolean locked = tryLock(key, lockValue);
+        try {
+            if (!locked) {
+                TokenState remote = awaitRemote(key, stale);
+                if (remote != null) {
+                    return remote;
+                }
+                log.warn("项目 [{}] 等待其他节点登录超时，本节点自行登录", key);
+            }
+            TokenState fresh = login(project, key, stale);
+            adopt(key, fresh);
+            share(fresh);
+            return fresh;
+        } finally {
+            if (locked) {
+                unlock(key, lockValue);
+            }
+        }
+    }
+
+    private TokenState login(Project project, String key, TokenState stale) {
+        Map<String, String> context = new HashMap<>();
+        // 有些登录接口可能需要之前的Token作为参数（虽然少见），或者是其他固定参数
+        String previous = stale != null ? stale.token : project.getAuthTokenValue();
+        if (StringUtils.hasText(previous)) {
+            context.put("token", previous);
+        }
+        try {
+            log.info("开始执行项目 [{} - {}] 的登录...", project.getProjectName(), project.getLineId());
+            moduleUtil.executeApi(project.getLoginConfig(), context);
+        } catch (Exception e) {
+            log.error("项目 [{} - {}] 执行登录失败, 错误：{}", project.getProjectName(), project.getLineId(), e.getMessage());
+            throw new BusinessException("接口登录失败：" + e.getMessage());
+        }
+        String newToken = context.get("token");
+        if (!StringUtils.hasText(newToken)) {
+            log.warn("执行登录成功，但在 Context 中未获取到 'token' 变量，请检查提取规则配置！");
+            throw new BusinessException("登录接口执行成功但未提取到Token变量");
+        }
+        LocalDateTime tokenTime = LocalDateTime.now();
+        TokenState fresh = new TokenState(key, newToken, tokenTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        try {
+            // 只更新 Token 字段，供重启后恢复；其他节点通过 Redis 获得新 Token，不使项目配置缓存失效
+            LambdaUpdateWrapper<Project> wrapper = new LambdaUpdateWrapper<>();
+            wrapper.eq(Project::getId, project.getId())
+                    .set(Project::getAuthTokenValue, newToken)
+                    .set(Project::getTokenExpirationTime, tokenTime);
+            projectService.update(wrapper);
+        } catch (Exception e) {
+            log.warn("项目 [{}] Token 写回数据库失败: {}", key, e.getMessage());
+        }
+        log.info("项目 [{} - {}] 登录成功，Token 已更新", project.getProjectName(), project.getLineId());
+        return fresh;
+    }
+
+    private TokenState awaitRemote(String key, TokenState stale) {
+        long deadline = System.currentTimeMillis() + Math.min(waitTimeoutMs, lockMs);
+        while (System.currentTimeMillis() < deadline) {
+            TokenState latest = newer(tokens.get(key), readShared(key));
+            if (isNewer(latest, stale) && !isExpired(latest)) {
+                adopt(key, latest);
+                return latest;
+            }
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private TokenState current(String key, Project project) {
+        TokenState state = tokens.get(key);
+        if (state != null) {
+            return state;
+        }
+        TokenState seeded = newer(readShared(key), fromProject(key, project));
+        if (seeded != null) {
+            adopt(key, seeded);
+        }
+        return tokens.get(key);
+    }
+
+    private void adopt(String key, TokenState state) {
+        tokens.merge(key, state, (old, candidate) -> candidate.issuedAt >= old.issuedAt ? candidate : old);
+    }
+
+    private TokenState readShared(String key) {
+        try {
+            String value = stringRedisTemplate.opsForValue().get(PREFIX_TOKEN + key);
+            return value == null ? null : decode(key + SEPARATOR + value, false);
+        } catch (Exception e) {
+            log.warn("读取共享 Token 失败 key={}: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    private void share(TokenState state) {
+        String value = state.issuedAt + SEPARATOR + state.token;
+        try {
+            stringRedisTemplate.opsForValue().set(PREFIX_TOKEN + state.key, value, ttlMinutes * 2, TimeUnit.MINUTES);
+            stringRedisTemplate.convertAndSend(CHANNEL, state.key + SEPARATOR + value);
+        } catch (Exception e) {
+            log.warn("共享 Token 写入失败 key={}: {}", state.key, e.getMessage());
+        }
+    }
+
+    private boolean tryLock(String key, String value) {
+        try {
+            return Boolean.TRUE.equals(stringRedisTemplate.opsForValue()
+                    .setIfAbsent(PREFIX_LOCK + key, value, lockMs, TimeUnit.MILLISECONDS));
+        } catch (Exception e) {
+            // Redis 不可用时退化为仅本机合并
+            log.warn("Token 登录锁获取失败 key={}，仅在本机合并登录: {}", key, e.getMessage());
+            return true;
+        }
+    }
+
+    private void unlock(String key, String value) {
+        try {
+            stringRedisTemplate.execute(UNLOCK_SCRIPT, List.of(PREFIX_LOCK + key), value);
+        } catch (Exception e) {
+            // 锁会在 lock-ms 后自动过期
+            log.warn("Token 登录锁释放失败 key={}: {}", key, e.getMessage());
+        }
+    }
+
+    private Project reload(Project project) {
+        try {
+            Project latest = projectService.getProject(project.getProjectId(), Integer.valueOf(project.getLineId()));
+            return latest == null ? project : latest;
+        } catch (Exception e) {
+            return project;
+        }
+    }
+
+    private boolean isExpired(TokenState state) {
+        return System.currentTimeMillis() - state.issuedAt >= TimeUnit.MINUTES.toMillis(ttlMinutes);
+    }
+
+    private static TokenState fromProject(String key, Project project) {
+        if (!StringUtils.hasText(project.getAuthTokenValue()) || project.getTokenExpirationTime() == null) {
+            return null;
+        }
+        long issuedAt = project.getTokenExpirationTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return new TokenState(key, project.getAuthTokenValue(), issuedAt);
+    }
+
+    /**
+     * 解析 key|issuedAt|token
+     */
+    private static TokenState decode(String text, boolean fromChannel) {
+        if (text == null) {
+            return null;
+        }
+        String[] parts = text.split("\\|", 3);
+        if (parts.length != 3 || !StringUtils.hasText(parts[2])) {
+            return null;
+        }
+        try {
+            return new TokenState(parts[0], parts[2], Long.parseLong(parts[1]));
+        } catch (NumberFormatException e) {
+            if (fromChannel) {
+                log.warn("无法解析 Token 推送消息");
+            }
+            return null;
+        }
+    }
+
+    private static TokenState newer(TokenState a, TokenState b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        return b.issuedAt > a.issuedAt ? b : a;
+    }
+
+    private static boolean isNewer(TokenState candidate, TokenState stale) {
+        return candidate != null && (stale == null || candidate.issuedAt > stale.issuedAt);
+    }
+
+    private static boolean hasLoginConfig(Project project) {
+        return project.getLoginConfig() != null && StringUtils.hasText(project.getLoginConfig().getUrl());
+    }
+
+    private static String keyOf(Project project) {
+        return project.getProjectId() + ":" + project.getLineId();
+    }
+
+    record TokenState(String key, String token, long issuedAt) {
+    }
+
+    private record LineUsage(Project project, long lastUsedAt) {
+    }
+}
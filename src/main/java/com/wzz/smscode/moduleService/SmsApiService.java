@@ -14,14 +14,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.env.Environment;
 import org.springframework.http.*;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
-import org.springframework.web.client.RestTemplate;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.util.UriComponentsBuilder;
-import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 import java.net.URI;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
@@ -32,6 +30,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
 
 
@@ -50,6 +49,8 @@ public class SmsApiService {
     private static final String DEFAULT_SPECIAL_API_BASE_URL = "http://154.86.19.28:13588";
     private static final String DEFAULT_OUTSIDE_ORDER_API_BASE_URL = "http://8.134.82.224:8222";
     private static final int OUTSIDE_ORDER_FEEDBACK_MAX_ATTEMPTS = 5;
+    private static final JsonPath ACCOUNT_COUNT_PATH = JsonPath.compile("$.userinfo.account");
+    private static final JsonPath ACCOUNT_STATES_PATH = JsonPath.compile("$.userinfo.data[*].state");
     private final WebClient webClient; // 从WebClientConfig注入
     private final SystemConfigService systemConfigService;
     private final FilterErrorMonitorService filterErrorMonitorService;
@@ -57,30 +58,14 @@ public class SmsApiService {
     private final Environment environment;
     @Value("${sms.test.random-phone:false}")
     private boolean randomPhoneTestEnabled;
-    // 变量替换正则：匹配 {{variable}}
-    private static final Pattern VARIABLE_PATTERN = Pattern.compile("\\{\\{(.+?)}}");
     @Autowired
     private PhoneNumberFilterService phoneNumberFilterService;
-    /**
-     * 变量替换工具
-     * 将字符串中的 {{key}} 替换为 context 中的 value
-     */
-    private String replaceVariables(String input, Map<String, String> context) {
-        if (!StringUtils.hasText(input)) {
-            return input;
-        }
-        Matcher matcher = VARIABLE_PATTERN.matcher(input);
-        StringBuffer sb = new StringBuffer();
-        while (matcher.find()) {
-            String key = matcher.group(1).trim(); // 获取 {{ key }} 中的 key
-            String value = context.getOrDefault(key, ""); // 如果找不到，替换为空字符串，或者保留原样视需求而定
-            // 对 value 进行转义，防止 value 中包含 $ 导致报错
-            matcher.appendReplacement(sb, Matcher.quoteReplacement(value));
-        }
-        matcher.appendTail(sb);
-        return sb.toString();
-    }
 
+    @Autowired
+    private FilterVerdictCache filterVerdictCache;
+
+    @Autowired
+    private ProviderTokenManager providerTokenManager;
     /**
      * 第一步：获取手机号
      * 流程：
@@ -91,23 +76,9 @@ public class SmsApiService {
     public Map<String, String> getPhoneNumber(Project project, String... dynamicParams) {
         log.info("开始为项目 [{} - {}] 获取手机号", project.getProjectName(), project.getLineId());
 
-        if (isRandomPhoneTestEnabled()) {
-            return buildRandomPhoneContext(project);
-        }
-
-        if (Boolean.TRUE.equals(project.getOutsideOrderApiStatus())) {
-            log.info("执行外部抢单渠道取号: [{} - {}]", project.getProjectName(), project.getLineId());
-            return getPhoneNumberOutsideOrder(project);
-        }
-
-        if (Boolean.TRUE.equals(project.getAesSpecialApiStatus())) {
-            log.info("执行 AES 加密特殊接口获取手机号...");
-            return getPhoneNumberAesSpecial(project);
-        }
-
-        if (Boolean.TRUE.equals(project.getSpecialApiStatus())) {
-            log.info("开始为特殊api项目 [{} - {}] 执行获取手机号的特殊接口", project.getProjectName(), project.getLineId());
-            return getPhoneNumberSpecial(project);
+        Supplier<Map<String, String>> channel = nonGenericPhoneChannel(project);
+        if (channel != null) {
+            return channel.get();
         }
 
         // 1. 初始化上下文变量 (Context)
@@ -125,13 +96,71 @@ public class SmsApiService {
         }
         // 执行请求，executeApi 会将提取到的变量放入 context
         moduleUtil.executeApi(project.getGetNumberConfig(), context);
-        // 4. 检查结果
+        return requirePhone(context);
+    }
+
+    /**
+     * 获取手机号（非阻塞）
+     * 通用渠道全程走 {@link ModuleUtil#executeApiAsync}；特殊渠道仍是阻塞实现，放到 boundedElastic 上执行
+     */
+    public Mono<Map<String, String>> getPhoneNumberAsync(Project project, String... dynamicParams) {
+        log.info("开始为项目 [{} - {}] 获取手机号", project.getProjectName(), project.getLineId());
+
+        Supplier<Map<String, String>> channel = nonGenericPhoneChannel(project);
+        if (channel != null) {
+            return Mono.fromSupplier(channel).subscribeOn(Schedulers.boundedElastic());
+        }
+        return moduleUtil.getApiTokenAsync(project, dynamicParams)
+                .onErrorMap(e -> {
+                    log.error("项目 [{} - {}] 获取Token出现错误, 错误：{}", project.getProjectName(), project.getLineId(), e);
+                    return new BusinessException("接口登录失败，无法执行后续操作");
+                })
+                .flatMap(context -> {
+                    if (project.getGetNumberConfig() == null) {
+                        return Mono.error(new BusinessException("项目未配置获取手机号接口"));
+                    }
+                    return moduleUtil.executeApiAsync(project.getGetNumberConfig(), context);
+                })
+                .map(this::requirePhone);
+    }
+
+    /**
+     * 测试随机号、外部抢单、AES 加密、特殊接口渠道的取号实现；通用渠道返回 null
+     */
+    private Supplier<Map<String, String>> nonGenericPhoneChannel(Project project) {
+        if (isRandomPhoneTestEnabled()) {
+            return () -> buildRandomPhoneContext(project);
+        }
+
+        if (Boolean.TRUE.equals(project.getOutsideOrderApiStatus())) {
+            return () -> {
+                log.info("执行外部抢单渠道取号: [{} - {}]", project.getProjectName(), project.getLineId());
+                return getPhoneNumberOutsideOrder(project);
+            };
+        }
+
+        if (Boolean.TRUE.equals(project.getAesSpecialApiStatus())) {
+            return () -> {
+                log.info("执行 AES 加密特殊接口获取手机号...");
+                return getPhoneNumberAesSpecial(project);
+            };
+        }
+
+        if (Boolean.TRUE.equals(project.getSpecialApiStatus())) {
+            return () -> {
+                log.info("开始为特殊api项目 [{} - {}] 执行获取手机号的特殊接口", project.getProjectName(), project.getLineId());
+                return getPhoneNumberSpecial(project);
+            };
+        }
+        return null;
+    }
+
+    private Map<String, String> requirePhone(Map<String, String> context) {
         // 前端配置提取规则时，必须将手机号提取为 "phone"，ID提取为 "id" (约定优于配置)
         if (!context.containsKey("phone")) {
             log.error("获取手机号接口执行成功，但未提取到 phone 变量。当前Context: {}", context);
             throw new BusinessException("未获取到手机号，请尝试重新获取");
         }
-
         return context;
     }
 
@@ -172,14 +201,9 @@ public class SmsApiService {
         // 1. 初始化上下文变量 (Context)
         Map<String, String> context =null;
 
-        if (Boolean.TRUE.equals(project.getOutsideOrderApiStatus())) {
-            return "0";
-        }
-        if (Boolean.TRUE.equals(project.getSpecialApiStatus())) {
-            return getApiBalanceSpecial(project);
-        }
-        if (Boolean.TRUE.equals(project.getAesSpecialApiStatus())) {
-            return getApiBalanceAesSpecial(project);
+        Supplier<String> channel = nonGenericBalanceChannel(project);
+        if (channel != null) {
+            return channel.get();
         }
         try {
             context =moduleUtil.getApiToken(project, dynamicParams);
@@ -193,6 +217,45 @@ public class SmsApiService {
         }
         // 执行请求，executeApi 会将提取到的变量放入 context
         moduleUtil.executeApi(project.getGetBalanceConfig(), context);
+        return requireBalance(context);
+    }
+
+    /**
+     * 获取api的余额（非阻塞）
+     */
+    public Mono<String> getApiBalanceAsync(Project project, String... dynamicParams) {
+        Supplier<String> channel = nonGenericBalanceChannel(project);
+        if (channel != null) {
+            return Mono.fromSupplier(channel).subscribeOn(Schedulers.boundedElastic());
+        }
+        return moduleUtil.getApiTokenAsync(project, dynamicParams)
+                .onErrorMap(e -> {
+                    log.error("项目 [{} - {}] 获取Token出现错误, 错误：{}", project.getProjectName(), project.getLineId(), e);
+                    return new BusinessException("接口登录失败，无法执行后续操作");
+                })
+                .flatMap(context -> {
+                    if (project.getGetBalanceConfig() == null) {
+                        return Mono.error(new BusinessException("项目未配置获取余额接口"));
+                    }
+                    return moduleUtil.executeApiAsync(project.getGetBalanceConfig(), context);
+                })
+                .map(this::requireBalance);
+    }
+
+    private Supplier<String> nonGenericBalanceChannel(Project project) {
+        if (Boolean.TRUE.equals(project.getOutsideOrderApiStatus())) {
+            return () -> "0";
+        }
+        if (Boolean.TRUE.equals(project.getSpecialApiStatus())) {
+            return () -> getApiBalanceSpecial(project);
+        }
+        if (Boolean.TRUE.equals(project.getAesSpecialApiStatus())) {
+            return () -> getApiBalanceAesSpecial(project);
+        }
+        return null;
+    }
+
+    private String requireBalance(Map<String, String> context) {
         if (!context.containsKey("balance")) {
             log.error("获取余额接口执行成功，但未提取到 balance 变量。当前Context: {}", context);
             throw new BusinessException("未获取到余额，请检查提取规则配置");
@@ -202,72 +265,106 @@ public class SmsApiService {
 
     /**
      * 第二步：获取验证码
+     * 根据项目渠道生成轮询计划，实际的定时轮询由 CodePollingScheduler 统一调度
+     * 渠道优先级：外部抢单 -> AES 特殊 API -> 特殊 API -> 通用接口
      * @param project 项目配置
      * @param identifierParams 上一步获取到的所有变量 (包含 phone, id, token 等)
      */
-
-    public String getVerificationCode(Project project, Map<String, String> identifierParams , Supplier<Boolean> stopCondition) {
-
+    public CodePollingPlan buildCodePollingPlan(Project project, Map<String, String> identifierParams) {
+        long defaultTimeout = 5 * 60 * 1000L;
         if (Boolean.TRUE.equals(project.getOutsideOrderApiStatus())) {
             log.info("检测到外部抢单渠道，进入订单验证码轮询流程...");
-            return pollForOutsideOrderVerificationCode(project, identifierParams, stopCondition);
+            long timeout = project.getCodeTimeout() != null && project.getCodeTimeout() > 0
+                    ? project.getCodeTimeout() * 1000L
+                    : defaultTimeout;
+            long interval = project.getOutsideOrderPollIntervalMs() != null && project.getOutsideOrderPollIntervalMs() > 0
+                    ? project.getOutsideOrderPollIntervalMs()
+                    : 3000L;
+            return CodePollingPlan.builder()
+                    .channel("outsideOrder")
+                    .intervalMs(interval)
+                    .errorIntervalMs(interval)
+                    .timeoutMs(timeout)
+                    .attempt(() -> getVerificationCodeOutsideOrderOnce(project, identifierParams))
+                    .build();
         }
 
         if (Boolean.TRUE.equals(project.getAesSpecialApiStatus())) {
-            log.info("检测到开启 AES 特殊 API，进入 AES 轮询流程...");
-            return pollForAesVerificationCode(project, identifierParams, stopCondition);
+            log.info("检测到开启 AES 特殊 API，进入 AES 轮询流程，手机号: {}, 关联ID: {}",
+                    identifierParams.get("phone"), identifierParams.get("id"));
+            // AES 接口建议不要请求太频繁，间隔 3-5 秒
+            long interval = resolvePollInterval(project, 3000L);
+            return CodePollingPlan.builder()
+                    .channel("aes")
+                    .intervalMs(interval)
+                    .errorIntervalMs(Math.max(interval, 3000L))
+                    .timeoutMs(defaultTimeout)
+                    .attempt(() -> {
+                        String rawCodeOrSms = getVerificationCodeAesSpecial(project, identifierParams);
+                        if (StringUtils.hasText(rawCodeOrSms)) {
+                            // 使用正则提取 4-8 位数字
+                            Matcher matcher = Pattern.compile("\\d{4,8}").matcher(rawCodeOrSms);
+                            if (matcher.find()) {
+                                return matcher.group();
+                            }
+                        }
+                        return null;
+                    })
+                    .build();
         }
+
         if (Boolean.TRUE.equals(project.getSpecialApiStatus())) {
-            log.info("检测到开启  特殊 API，进入流程...");
-            return getVerificationCodeSpecial(project, identifierParams, false);
+            // 特殊API：等待 specialApiDelay 秒后只请求一次
+            int delaySeconds = project.getSpecialApiDelay() != null ? project.getSpecialApiDelay() : 30;
+            log.info("特殊API机制：{} 秒后请求验证码...", delaySeconds);
+            return CodePollingPlan.builder()
+                    .channel(CodePollingPlan.CHANNEL_SPECIAL)
+                    .initialDelayMs(delaySeconds * 1000L)
+                    .intervalMs(1000L)
+                    .errorIntervalMs(1000L)
+                    .timeoutMs(delaySeconds * 1000L + defaultTimeout)
+                    .maxAttempts(1)
+                    .attempt(() -> {
+                        String result = getVerificationCodeSpecial(project, identifierParams, true);
+                        return StringUtils.hasText(result) && !"NO".equalsIgnoreCase(result) ? result : null;
+                    })
+                    .build();
         }
         log.info("开始获取验证码，参数: {}", identifierParams);
 
         // 1. 准备上下文
         Map<String, String> context = new HashMap<>(identifierParams);
         // 确保 Token 存在
-        if (!context.containsKey("token") && StringUtils.hasText(project.getAuthTokenValue())) {
-            context.put("token", project.getAuthTokenValue());
+        String token = providerTokenManager.peekToken(project);
+        if (!context.containsKey("token") && StringUtils.hasText(token)) {
+            context.put("token", token);
         }
         ApiConfig config = project.getGetCodeConfig();
         if (config == null) {
             throw new BusinessException("项目未配置获取验证码接口");
         }
-
-        // 2. 轮询逻辑 (10分钟)
-        long startTime = System.currentTimeMillis();
-        long timeout = 5 * 60 * 1000L;
-        int attempts = 0;
-
-        // 只要当前时间减去开始时间小于超时时间，就继续轮询
-        while (System.currentTimeMillis() - startTime < timeout) {
-            if (stopCondition != null && stopCondition.get()) {
-                log.info("检测到外部终止条件（如：已通过其他途径获码或订单已关闭），停止轮询。");
-                throw new BusinessException("已获取验证码码或订单已关闭，请前往号码记录中查询");
-            }
-            attempts++;
-            try {
-                moduleUtil.executeApi(config, context);
-                String code = context.get("code"); // 约定提取变量名为 code
-                if (StringUtils.hasText(code) && !"null".equalsIgnoreCase(code.trim())) {
-                    if (code != null && code.matches("^\\d{4,8}$")) {
-                        log.info("成功获取验证码: {}, 耗时: {}ms", code, System.currentTimeMillis() - startTime);
+        long interval = resolvePollInterval(project, 1000L);
+        return CodePollingPlan.builder()
+                .channel("generic")
+                .intervalMs(interval)
+                .errorIntervalMs(Math.max(interval, 3000L))
+                .timeoutMs(defaultTimeout)
+                .attempt(() -> {
+                    context.remove("code");
+                    moduleUtil.executeApi(config, context);
+                    String code = context.get("code"); // 约定提取变量名为 code
+                    if (StringUtils.hasText(code) && !"null".equalsIgnoreCase(code.trim()) && code.matches("^\\d{4,8}$")) {
                         return code;
                     }
-                }
-                log.info("未获取到验证码，第 {} 次尝试，已耗时 {}ms...", attempts, System.currentTimeMillis() - startTime);
-                Thread.sleep(1000); // 3秒轮询一次
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new BusinessException("获取验证码被中断");
-            } catch (Exception e) {
-                log.warn("轮询中发生异常: {}", e.getMessage());
-                try { Thread.sleep(3000); } catch (InterruptedException ignored) {}
-            }
-        }
-        long totalTime = System.currentTimeMillis() - startTime;
-        log.error("获取验证码超时，总耗时: {}ms, 总尝试次数: {}", totalTime, attempts);
-        throw new BusinessException("获取验证码超时(5分钟未获取到)");
+                    return null;
+                })
+                .build();
+    }
+
+    private long resolvePollInterval(Project project, long defaultInterval) {
+        return project.getCodePollIntervalMs() != null && project.getCodePollIntervalMs() > 0
+                ? project.getCodePollIntervalMs()
+                : defaultInterval;
     }
 
 
@@ -293,23 +390,7 @@ public class SmsApiService {
             return false;
         }
         try {
-            Map<String, String> context = new HashMap<>(identifierParams);
-            // --- 核心改动：从项目配置中读取自定义的值 ---
-            String statusValue = isSuccess
-                    ? (StringUtils.hasText(project.getReleaseSuccessStatus()) ? project.getReleaseSuccessStatus() : "1")
-                    : (StringUtils.hasText(project.getReleaseFailStatus()) ? project.getReleaseFailStatus() : "0");
-            String msgValue = isSuccess
-                    ? (StringUtils.hasText(project.getReleaseSuccessMsg()) ? project.getReleaseSuccessMsg() : "success")
-                    : (StringUtils.hasText(project.getReleaseFailMsg()) ? project.getReleaseFailMsg() : "fail");
-            // 将自定义的值放入 context，用于替换 ApiRequestEditor 里的 {{releaseStatus}} 和 {{releaseMsg}}
-            context.put("releaseStatus", statusValue);
-            context.put("releaseMsg", msgValue);
-            // 注入 Token
-            Map<String, String> tokenContext = moduleUtil.getApiToken(project);
-            context.putAll(tokenContext);
-            // 执行请求
-            moduleUtil.executeApi(project.getDeletePhoneConfig(), context);
-            log.info("释放接口调用完成，状态值: {}, 消息内容: {}", statusValue, msgValue);
+            callReleaseApi(project, identifierParams, isSuccess);
             //todo 目前不使用通用的释放接口 默认直接返回fasle
             return false;
         } catch (Exception e) {
@@ -318,6 +399,55 @@ public class SmsApiService {
         }
     }
 
+    /**
+     * 释放手机号（订单外发事件使用）：释放失败时抛出异常以便重试，未配置释放接口时无需释放直接返回
+     *
+     * @throws BusinessException 上游释放失败
+     */
+    public void releasePhoneNumberOrFail(Project project, Map<String, String> identifierParams, boolean isSuccess) {
+        String id = identifierParams.get("id");
+        log.info("开始释放项目 [{}] 的手机号: {}, 关联ID: {}", project.getProjectName(), identifierParams.get("phone"), id);
+        boolean released;
+        if (Boolean.TRUE.equals(project.getOutsideOrderApiStatus())) {
+            String remark = isSuccess ? "" : identifierParams.getOrDefault("releaseMsg", "fail");
+            released = feedbackOutsideOrder(project, id, isSuccess, remark);
+        } else if (Boolean.TRUE.equals(project.getAesSpecialApiStatus())) {
+            released = releasePhoneNumberAesSpecial(project, id, isSuccess);
+        } else if (project.getDeletePhoneConfig() == null || project.getDeletePhoneConfig().getUrl() == null) {
+            log.debug("项目 [{}] 未配置释放手机号接口，无需释放", project.getProjectName());
+            return;
+        } else {
+            callReleaseApi(project, identifierParams, isSuccess);
+            released = true;
+        }
+        if (!released) {
+            throw new BusinessException("释放手机号失败: " + identifierParams.get("phone"));
+        }
+    }
+
+    /**
+     * 调用项目配置的通用释放接口，失败时抛出异常
+     */
+    private void callReleaseApi(Project project, Map<String, String> identifierParams, boolean isSuccess) {
+        Map<String, String> context = new HashMap<>(identifierParams);
+        // --- 核心改动：从项目配置中读取自定义的值 ---
+        String statusValue = isSuccess
+                ? (StringUtils.hasText(project.getReleaseSuccessStatus()) ? project.getReleaseSuccessStatus() : "1")
+                : (StringUtils.hasText(project.getReleaseFailStatus()) ? project.getReleaseFailStatus() : "0");
+        String msgValue = isSuccess
+                ? (StringUtils.hasText(project.getReleaseSuccessMsg()) ? project.getReleaseSuccessMsg() : "success")
+                : (StringUtils.hasText(project.getReleaseFailMsg()) ? project.getReleaseFailMsg() : "fail");
+        // 将自定义的值放入 context，用于替换 ApiRequestEditor 里的 {{releaseStatus}} 和 {{releaseMsg}}
+        context.put("releaseStatus", statusValue);
+        context.put("releaseMsg", msgValue);
+        // 注入 Token
+        Map<String, String> tokenContext = moduleUtil.getApiToken(project);
+        context.putAll(tokenContext);
+        // 执行请求
+        moduleUtil.executeApi(project.getDeletePhoneConfig(), context);
+        log.info("释放接口调用完成，状态值: {}, 消息内容: {}", statusValue, msgValue);
+    }
+
     /**
      *单次尝试获取验证码 (无轮询)
      * 用于用户手动刷新或状态检查
@@ -327,21 +457,9 @@ public class SmsApiService {
      * @return Optional<String>
      */
     public Optional<String> fetchVerificationCodeOnce(Project project, Map<String, String> identifierParams) {
-        if (Boolean.TRUE.equals(project.getOutsideOrderApiStatus())) {
-            String code = getVerificationCodeOutsideOrderOnce(project, identifierParams);
-            return Optional.ofNullable(code);
-        }
-
-         log.info("执行单次验证码获取, 参数: {}", identifierParams);
-
-        if (Boolean.TRUE.equals(project.getAesSpecialApiStatus())) {
-            String code = getVerificationCodeAesSpecial(project, identifierParams);
-            return Optional.ofNullable(code);
-        }
-
-        Map<String, String> context = new HashMap<>(identifierParams);
-        if (!context.containsKey("token") && StringUtils.hasText(project.getAuthTokenValue())) {
-            context.put("token", project.getAuthTokenValue());
+        Supplier<String> channel = nonGenericCodeChannel(project, identifierParams);
+        if (channel != null) {
+            return Optional.ofNullable(channel.get());
         }
 
         ApiConfig config = project.getGetCodeConfig();
@@ -349,20 +467,75 @@ public class SmsApiService {
             log.warn("项目未配置获取验证码接口");
             return Optional.empty();
         }
+        Map<String, String> context = codeContext(project, identifierParams);
         try {
             log.info("进入单次验证码获取，{}，{}",config,context);
             moduleUtil.executeApi(config, context);
-            String code = context.get("code");
-            if (StringUtils.hasText(code) && !"null".equalsIgnoreCase(code.trim())) {
-                log.info("单次获取成功: {}", code);
-                return Optional.of(code);
-            }
+            return extractCode(context);
         } catch (Exception e) {
             log.warn("单次获取验证码API执行异常: {}", e.getMessage());
         }
         return Optional.empty();
     }
 
+    /**
+     * 单次尝试获取验证码（非阻塞），语义同 {@link #fetchVerificationCodeOnce}：接口异常不向外抛出，结果为空
+     */
+    public Mono<Optional<String>> fetchVerificationCodeOnceAsync(Project project, Map<String, String> identifierParams) {
+        Supplier<String> channel = nonGenericCodeChannel(project, identifierParams);
+        if (channel != null) {
+            return Mono.fromSupplier(() -> Optional.ofNullable(channel.get())).subscribeOn(Schedulers.boundedElastic());
+        }
+
+        ApiConfig config = project.getGetCodeConfig();
+        if (config == null) {
+            log.warn("项目未配置获取验证码接口");
+            return Mono.just(Optional.empty());
+        }
+        Map<String, String> context = codeContext(project, identifierParams);
+        log.info("进入单次验证码获取，{}，{}",config,context);
+        return moduleUtil.executeApiAsync(config, context)
+                .map(this::extractCode)
+                .onErrorResume(e -> {
+                    log.warn("单次获取验证码API执行异常: {}", e.getMessage());
+                    return Mono.just(Optional.empty());
+                });
+    }
+
+    /**
+     * 外部抢单、AES 加密渠道的单次取码实现；通用渠道返回 null
+     */
+    private Supplier<String> nonGenericCodeChannel(Project project, Map<String, String> identifierParams) {
+        if (Boolean.TRUE.equals(project.getOutsideOrderApiStatus())) {
+            return () -> getVerificationCodeOutsideOrderOnce(project, identifierParams);
+        }
+
+        log.info("执行单次验证码获取, 参数: {}", identifierParams);
+
+        if (Boolean.TRUE.equals(project.getAesSpecialApiStatus())) {
+            return () -> getVerificationCodeAesSpecial(project, identifierParams);
+        }
+        return null;
+    }
+
+    private Map<String, String> codeContext(Project project, Map<String, String> identifierParams) {
+        Map<String, String> context = new HashMap<>(identifierParams);
+        String token = providerTokenManager.peekToken(project);
+        if (!context.containsKey("token") && StringUtils.hasText(token)) {
+            context.put("token", token);
+        }
+        return context;
+    }
+
+    private Optional<String> extractCode(Map<String, String> context) {
+        String code = context.get("code");
+        if (StringUtils.hasText(code) && !"null".equalsIgnoreCase(code.trim())) {
+            log.info("单次获取成功: {}", code);
+            return Optional.of(code);
+        }
+        return Optional.empty();
+    }
+
 
     /**
      * 调用外部API检查手机号码是否可用。
@@ -392,10 +565,14 @@ public class SmsApiService {
             log.info("项目 [{}] 配置错误：缺少必要的API card或type。", project.getProjectName());
             return Mono.error(new BusinessException("项目配置不完整，无法进行号码筛选"));
         }
-        //响应式服务器轮询与请求
-        return Flux.fromIterable(servers)
-                .concatMapDelayError(serverIp -> {
-
+        Boolean cachedVerdict = filterVerdictCache.get(systemConfig, type, phoneNumber);
+        if (cachedVerdict != null) {
+            log.info("[NUMBER-FILTER-TRACE] 项目ID: {} | 线路ID: {} | 手机号: {} - 命中筛选结果缓存: {}",
+                    projectId, type, phoneNumber, cachedVerdict ? "可用" : "不可用");
+            return Mono.just(cachedVerdict);
+        }
+        //通过筛选服务器池请求：按健康度选服务器，慢请求对冲到第二台，失败依次尝试其余服务器
+        return phoneNumberFilterService.getFilterServerPool().execute(serverIp -> {
                     // 为当前服务器构建请求
                     URI requestUri = phoneNumberFilterService.buildRequestUri(serverIp, phoneNumber, card, type, "86");
                     log.info("[NUMBER-FILTER-TRACE] 筛选请求：{}", requestUri);
@@ -406,28 +583,35 @@ public class SmsApiService {
                             .uri(requestUri)
                             .retrieve()
                             .bodyToMono(String.class)
-                            .timeout(Duration.ofSeconds(50)) // 根据建议设置45-60秒超时
-                            .flatMap(responseBody -> {
+                            // 服务器已响应但没有内容，按无效响应处理（不可用），不算服务器失败
+                            .defaultIfEmpty("")
+                            .doOnNext(responseBody -> {
                                 log.info("[NUMBER-FILTER-TRACE] 服务器 [{}] 响应: {}", serverIp, responseBody);
                                 log.info("[NUMBER-FILTER-TRACE] 项目ID: {} | 线路ID: {} | 手机号: {} - 接口响应内容: {}",
                                         projectId, type, phoneNumber, responseBody);
-                                boolean isAvailable = phoneNumberFilterService.parseStateFromResponseInt(responseBody)==0;
-                                if (!isAvailable) {
-                                    filterErrorMonitorService.recordFilterError(project, phoneNumber, responseBody,
-                                            FilterErrorMonitorService.ERROR_TYPE_RESPONSE_NOT_NEW, "筛选接口返回不是新号");
-                                } else {
-                                    filterErrorMonitorService.clearFilterError(project);
-                                }
-                                log.info("[NUMBER-FILTER-TRACE] 号码 [{}] 在服务器 [{}] 的筛选结果: {}", phoneNumber, serverIp, isAvailable ? "可用" : "不可用");
-                                return Mono.just(isAvailable);
                             })
                             .doOnError(e -> log.warn("[NUMBER-FILTER-TRACE] 项目ID: {} | 手机号: {} - 服务器 {} 请求异常: {}",
                                     projectId, phoneNumber, serverIp, e.getMessage()))
                             .doOnError(e -> filterErrorMonitorService.recordFilterError(project, phoneNumber, null,
-                                    FilterErrorMonitorService.ERROR_TYPE_REQUEST_ERROR, "筛选接口请求异常: " + e.getMessage()))
-                            .onErrorResume(e -> Mono.empty()); // 如果当前服务器请求失败，返回空Mono，以便concatMap继续处理下一个服务器
+                                    FilterErrorMonitorService.ERROR_TYPE_REQUEST_ERROR, "筛选接口请求异常: " + e.getMessage()));
+                })
+                // 结论只在最终选中的响应上处理，对冲时被取消的请求不会重复记录
+                .map(responseBody -> {
+                    int state = phoneNumberFilterService.parseStateFromResponseInt(responseBody);
+                    boolean isAvailable = state == 0;
+                    if (state >= 0) {
+                        // 只缓存筛选服务器给出的明确结论，响应无效(负数)不缓存
+                        filterVerdictCache.put(systemConfig, type, phoneNumber, isAvailable);
+                    }
+                    if (!isAvailable) {
+                        filterErrorMonitorService.recordFilterError(project, phoneNumber, responseBody,
+                                FilterErrorMonitorService.ERROR_TYPE_RESPONSE_NOT_NEW, "筛选接口返回不是新号");
+                    } else {
+                        filterErrorMonitorService.clearFilterError(project);
+                    }
+                    log.info("[NUMBER-FILTER-TRACE] 号码 [{}] 的筛选结果: {}", phoneNumber, isAvailable ? "可用" : "不可用");
+                    return isAvailable;
                 })
-                .next() // 只取第一个成功的结果
                 .defaultIfEmpty(false); // 如果所有服务器都尝试失败，则默认返回 false (不可用)
     }
 
@@ -441,7 +625,9 @@ public class SmsApiService {
             return false;
         }
         try {
-            Map<String, Object> responseJson = JsonPath.parse(responseBody).read("$");
+            // 响应体只解析一次，后续字段都在同一文档上读取
+            DocumentContext document = JsonPath.parse(responseBody);
+            Map<String, Object> responseJson = document.read("$");
 
             // 1. 检查 code 是否为 200
             Object codeObj = responseJson.get("code");
@@ -467,7 +653,7 @@ public class SmsApiService {
             // 2. 检查是否有账号数量 (account)
             Integer accountCount = null;
             try {
-                accountCount = JsonPath.parse(responseBody).read("$.userinfo.account");
+                accountCount = document.read(ACCOUNT_COUNT_PATH);
             } catch (Exception ignored) {}
 
             // 如果明确 account 为 0，说明没有任何账号绑定，视为新号，直接可用
@@ -479,7 +665,7 @@ public class SmsApiService {
             // 3. 提取所有的账号状态 (data 数组中的 state)
             List<String> states;
             try {
-                states = JsonPath.parse(responseBody).read("$.userinfo.data[*].state");
+                states = document.read(ACCOUNT_STATES_PATH);
                 log.info("[NUMBER-FILTER-TRACE] 提取到的状态列 ：{}",states);
             } catch (Exception e) {
                 states = Collections.emptyList();
@@ -562,18 +748,9 @@ public class SmsApiService {
 
     //--------------------特殊api----------------------------------
 
-    // 使用 SimpleClientHttpRequestFactory (基于 JDK HttpURLConnection) 比 Netty 更抗造
-    private final RestTemplate specialRestTemplate = new RestTemplate(new SimpleClientHttpRequestFactory() {{
-        setConnectTimeout(150*1000); // 连接超时 10秒
-        setReadTimeout(150*1000);    // 读取超时 60秒 (对应您之前设置的长时间等待)
-    }
-
-        @Override
-        protected void prepareConnection(java.net.HttpURLConnection connection, String httpMethod) throws java.io.IOException {
-            super.prepareConnection(connection, httpMethod);
-            connection.setInstanceFollowRedirects(false);
-        }
-    });
+    // 特殊API、AES 特殊 API、外部抢单渠道的请求都走这里（sms.provider-http.pooled 控制是否使用连接池）
+    @Autowired
+    private ProviderHttpTransport providerHttpTransport;
 
 
     /**
@@ -594,14 +771,13 @@ public class SmsApiService {
         String requestUrl = UrlSecurityUtil.requireNonPrivateHttpUrl(getSpecialApiBaseUrl(project) + "/GETPHONE").toString();
 
         try {
-            // 1. 设置请求头：Connection: close 明确告知服务器不保持连接
+            // 1. 设置请求头，连接是否复用由传输层决定
             HttpHeaders headers = new HttpHeaders();
-            headers.add("Connection", "Keep-Alive");
             headers.add("User-Agent", "Mozilla/5.0"); // 模拟浏览器
             HttpEntity<String> entity = new HttpEntity<>(headers);
 
             // 2. 发起请求 (阻塞式)
-            ResponseEntity<String> response = specialRestTemplate.exchange(
+            ResponseEntity<String> response = providerHttpTransport.restTemplate().exchange(
                     requestUrl,
                     HttpMethod.GET,
                     entity,
@@ -663,13 +839,12 @@ public class SmsApiService {
         try {
             // 1. 设置请求头
             HttpHeaders headers = new HttpHeaders();
-            headers.add("Connection", "close");
             headers.add("User-Agent", "Mozilla/5.0");
             HttpEntity<String> entity = new HttpEntity<>(headers);
 
             // 2. 发起请求
             // 注意：RestTemplate 直接传 String URL 不会自动过度转义特殊字符，适合这种 & 连接的 URL
-            ResponseEntity<String> response = specialRestTemplate.exchange(
+            ResponseEntity<String> response = providerHttpTransport.restTemplate().exchange(
                     fullUrl,
                     HttpMethod.GET,
                     entity,
@@ -706,10 +881,9 @@ public class SmsApiService {
 
         try {
             HttpHeaders headers = new HttpHeaders();
-            headers.add("Connection", "close");
             HttpEntity<String> entity = new HttpEntity<>(headers);
 
-            ResponseEntity<String> response = specialRestTemplate.exchange(
+            ResponseEntity<String> response = providerHttpTransport.restTemplate().exchange(
                     url,
                     HttpMethod.GET,
                     entity,
@@ -746,10 +920,9 @@ public class SmsApiService {
             }
             URI uri = builder.build().encode().toUri();
             HttpHeaders headers = new HttpHeaders();
-            headers.add("Connection", "close");
             headers.add("User-Agent", "Mozilla/5.0");
             HttpEntity<String> entity = new HttpEntity<>(headers);
-            ResponseEntity<String> response = specialRestTemplate.exchange(uri, HttpMethod.GET, entity, String.class);
+            ResponseEntity<String> response = providerHttpTransport.restTemplate().exchange(uri, HttpMethod.GET, entity, String.class);
             String body = response.getBody();
             log.info("外部抢单渠道响应: url={}, body={}", uri, body);
             if (!StringUtils.hasText(body)) {
@@ -851,43 +1024,6 @@ public class SmsApiService {
         return null;
     }
 
-    private String pollForOutsideOrderVerificationCode(Project project, Map<String, String> context, Supplier<Boolean> stopCondition) {
-        long startTime = System.currentTimeMillis();
-        long timeout = project.getCodeTimeout() != null && project.getCodeTimeout() > 0
-                ? project.getCodeTimeout() * 1000L
-                : 5 * 60 * 1000L;
-        long interval = project.getOutsideOrderPollIntervalMs() != null && project.getOutsideOrderPollIntervalMs() > 0
-                ? project.getOutsideOrderPollIntervalMs()
-                : 3000L;
-        int attempts = 0;
-        while (System.currentTimeMillis() - startTime < timeout) {
-            if (stopCondition != null && stopCondition.get()) {
-                throw new BusinessException("订单已关闭，停止查询验证码");
-            }
-            attempts++;
-            try {
-                String code = getVerificationCodeOutsideOrderOnce(project, context);
-                if (StringUtils.hasText(code)) {
-                    log.info("外部抢单渠道获取验证码成功: orderId={}, attempts={}", context.get("id"), attempts);
-                    return code;
-                }
-                Thread.sleep(interval);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new BusinessException("获取验证码被中断");
-            } catch (Exception e) {
-                log.warn("外部抢单渠道轮询验证码异常: orderId={}, err={}", context.get("id"), e.getMessage());
-                try {
-                    Thread.sleep(interval);
-                } catch (InterruptedException interruptedException) {
-                    Thread.currentThread().interrupt();
-                    throw new BusinessException("获取验证码被中断");
-                }
-            }
-        }
-        throw new BusinessException("获取验证码超时");
-    }
-
     public boolean feedbackOutsideOrder(Project project, String orderId, boolean success, String remark) {
         if (!StringUtils.hasText(orderId)) {
             return false;
@@ -961,8 +1097,7 @@ public class SmsApiService {
             HttpEntity<String> request = new HttpEntity<>(encryptedPayload, headers);
             log.info("发起 AES 特殊 API 请求: URL={}, Params={}.加密后的参数：{}", url, params,encryptedPayload);
 
-            // 使用 service 中已有的 specialRestTemplate
-            String encryptedResponse = specialRestTemplate.postForObject(url, request, String.class);
+            String encryptedResponse = providerHttpTransport.restTemplate().postForObject(url, request, String.class);
 
             if (!StringUtils.hasText(encryptedResponse)) {
                 return null;
@@ -1161,54 +1296,4 @@ public class SmsApiService {
         }
         return "0";
     }
-
-    /**
-     * AES 专用轮询逻辑
-     */
-    private String pollForAesVerificationCode(Project project, Map<String, String> context, Supplier<Boolean> stopCondition) {
-        long startTime = System.currentTimeMillis();
-        long timeout = 5 * 60 * 1000L; // 5分钟超时
-        int attempts = 0;
-
-        log.info("开始 AES 轮询，手机号: {}, 关联ID: {}", context.get("phone"), context.get("id"));
-
-        while (System.currentTimeMillis() - startTime < timeout) {
-            // 检查外部停止条件（比如用户在前端关闭了任务）
-            if (stopCondition != null && stopCondition.get()) {
-                log.info("检测到任务终止信号，停止 AES 轮询。");
-                throw new BusinessException("任务已关闭或手动停止");
-            }
-
-            attempts++;
-            try {
-                // 调用单次 AES 获取接口
-                String rawCodeOrSms = getVerificationCodeAesSpecial(project, context);
-                if (StringUtils.hasText(rawCodeOrSms)) {
-                    // 使用正则提取 4-8 位数字
-                    Matcher matcher = Pattern.compile("\\d{4,8}").matcher(rawCodeOrSms);
-                    if (matcher.find()) {
-                        String code = matcher.group();
-                        log.info("AES 轮询成功！第 {} 次尝试获取到验证码: {}, 耗时: {}ms",
-                                attempts, code, System.currentTimeMillis() - startTime);
-                        return code;
-                    }
-                }
-
-                log.info("AES 第 {} 次尝试未获码，已耗时 {}ms，准备下次重试...",
-                        attempts, System.currentTimeMillis() - startTime);
-
-                // AES 接口建议不要请求太频繁，间隔 3-5 秒
-                Thread.sleep(3000);
-
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new BusinessException("获取验证码被中断");
-            } catch (Exception e) {
-                log.warn("AES 轮询单次请求异常: {}", e.getMessage());
-                try { Thread.sleep(3000); } catch (InterruptedException ignored) {}
-            }
-        }
-        log.error("AES获取验证码超时");
-        throw new BusinessException("获取验证码超时（5分钟未获取到）");
-    }
 }
@@ -0,0 +1,370 @@
+package com.wzz.smscode.moduleService;
+
+import com.wzz.smscode.exception.BusinessException;
+import com.wzz.smscode.service.FilterErrorMonitorService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 上游接口隔离与熔断
+ * <p>
+ * 按上游 host 隔离：同一 host 的在途请求数超过 max-concurrent-per-host 时直接拒绝，
+ * 一条线路挂起不会把 WebClient 连接池和轮询线程全部占住。
+ * 熔断按 host 统计最近 window-size 次请求，样本不少于 min-calls 且失败率达到 failure-rate-percent 时熔断 open-ms 毫秒，
+ * 期间请求立即失败；到期后放行 half-open-probes 个探测请求，全部成功则恢复，任一失败重新熔断。
+ * </p>
+ * <p>
+ * 计为失败的情况：连接/读取异常、超时、5xx，以及耗时超过 slow-call-ms 的请求；
+ * 业务错误（BusinessException）与 4xx 不计入。熔断时在筛选错误通知列表中写入一条通知，恢复后删除。
+ * </p>
+ * <p>
+ * RestTemplate 渠道（特殊API、AES 特殊 API、外部抢单）经 {@link #interceptor(boolean)} 接入：
+ * 这些接口本来就允许长达 150 秒的等待，慢请求不计为失败；
+ * 传输层已按 host 限制并发（连接池方式）时不再占用这里的并发许可，每条请求只受一层上限约束。
+ * </p>
+ */
+@Slf4j
+@Component
+public class UpstreamGuard {
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Autowired(required = false)
+    @Lazy
+    private FilterErrorMonitorService filterErrorMonitorService;
+
+    @Value("${sms.upstream-guard.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${sms.upstream-guard.max-concurrent-per-host:200}")
+    private int maxConcurrentPerHost = 200;
+
+    @Value("${sms.upstream-guard.window-size:50}")
+    private int windowSize = 50;
+
+    @Value("${sms.upstream-guard.min-calls:20}")
+    private int minCalls = 20;
+
+    @Value("${sms.upstream-guard.failure-rate-percent:50}")
+    private int failureRatePercent = 50;
+
+    @Value("${sms.upstream-guard.slow-call-ms:30000}")
+    private long slowCallMs = 30000;
+
+    @Value("${sms.upstream-guard.open-ms:30000}")
+    private long openMs = 30000;
+
+    @Value("${sms.upstream-guard.half-open-probes:3}")
+    private int halfOpenProbes = 3;
+
+    private final Map<String, HostState> hosts = new ConcurrentHashMap<>();
+    private final ExecutorService noticeExecutor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("upstream-notice-", 0).factory());
+
+    enum CircuitState {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * 以隔离与熔断保护一次响应式调用；被拒绝时发出 BusinessException
+     */
+    public <T> Mono<T> protect(String host, Mono<T> call) {
+        if (!enabled || !StringUtils.hasText(host)) {
+            return call;
+        }
+        return Mono.defer(() -> {
+            Permit permit = acquire(host, true, slowCallMs);
+            return call.doOnSuccess(value -> permit.success())
+                    .doOnError(permit::failure)
+                    .doOnCancel(permit::cancel);
+        });
+    }
+
+    /**
+     * RestTemplate 拦截器：特殊API、AES 特殊 API、外部抢单渠道的请求经此接入，只熔断不计慢请求
+     *
+     * @param bulkhead 是否占用按 host 的并发许可；传输层自己限制了每 host 并发时传 false
+     */
+    public ClientHttpRequestInterceptor interceptor(boolean bulkhead) {
+        return (request, body, execution) -> intercept(request, body, execution, bulkhead);
+    }
+
+    private ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution,
+                                         boolean bulkhead) throws IOException {
+        String host = request.getURI().getHost();
+        if (!enabled || !StringUtils.hasText(host)) {
+            return execution.execute(request, body);
+        }
+        Permit permit = acquire(host, bulkhead, Long.MAX_VALUE);
+        try {
+            ClientHttpResponse response = execution.execute(request, body);
+            if (response.getStatusCode().is5xxServerError()) {
+                permit.complete(true);
+            } else {
+                permit.success();
+            }
+            return response;
+        } catch (IOException | RuntimeException e) {
+            permit.failure(e);
+            throw e;
+        }
+    }
+
+    CircuitState state(String host) {
+        HostState state = hosts.get(host.toLowerCase());
+        return state == null ? CircuitState.CLOSED : state.current();
+    }
+
+    /**
+     * @param bulkhead 是否占用并发许可
+     * @param slowMs   耗时达到该值的成功请求计为失败
+     */
+    Permit acquire(String host, boolean bulkhead, long slowMs) {
+        HostState state = hosts.computeIfAbsent(host.toLowerCase(), this::newHostState);
+        if (bulkhead && !state.bulkhead.tryAcquire()) {
+            reject(state, "bulkhead");
+            throw new BusinessException("上游接口 " + state.host + " 并发请求已达上限，请稍后重试");
+        }
+        Boolean probe = state.admit();
+        if (probe == null) {
+            if (bulkhead) {
+                state.bulkhead.release();
+            }
+            reject(state, "circuit_open");
+            throw new BusinessException("上游接口 " + state.host + " 暂时不可用（已熔断），请稍后重试");
+        }
+        return new Permit(state, probe, bulkhead, slowMs);
+    }
+
+    private HostState newHostState(String host) {
+        HostState state = new HostState(host);
+        if (meterRegistry != null) {
+            Gauge.builder("sms.upstream.circuit.state", state, s -> s.current().ordinal())
+                    .tag("host", host).description("上游接口熔断状态（0 关闭 1 熔断 2 半开）").register(meterRegistry);
+            Gauge.builder("sms.upstream.bulkhead.in-flight", state, s -> maxConcurrentPerHost - s.bulkhead.availablePermits())
+                    .tag("host", host).description("上游接口在途请求数").register(meterRegistry);
+        }
+        return state;
+    }
+
+    private void reject(HostState state, String reason) {
+        if (meterRegistry != null) {
+            Counter.builder("sms.upstream.rejected").tag("host", state.host).tag("reason", reason)
+                    .description("上游接口隔离/熔断拒绝次数").register(meterRegistry).increment();
+        }
+    }
+
+    private static boolean countsAsFailure(Throwable error) {
+        if (error instanceof BusinessException) {
+            return false;
+        }
+        if (error instanceof WebClientResponseException responseError) {
+            return responseError.getStatusCode().is5xxServerError();
+        }
+        return !(error instanceof HttpClientErrorException);
+    }
+
+    private void opened(HostState state, String reason) {
+        log.warn("上游接口 {} 熔断 {} 毫秒：{}", state.host, openMs, reason);
+        if (filterErrorMonitorService == null) {
+            return;
+        }
+        String message = String.format("上游接口 %s %s，已暂停请求 %d 秒后自动探测恢复", state.host, reason, openMs / 1000);
+        noticeExecutor.execute(() -> {
+            try {
+                filterErrorMonitorService.recordUpstreamCircuitOpen(state.host, message);
+            } catch (Exception e) {
+                log.warn("写入上游熔断通知失败：{}", e.getMessage());
+            }
+        });
+    }
+
+    private void closed(HostState state) {
+        log.info("上游接口 {} 探测成功，熔断恢复", state.host);
+        if (filterErrorMonitorService == null) {
+            return;
+        }
+        noticeExecutor.execute(() -> {
+            try {
+                filterErrorMonitorService.clearUpstreamCircuitNotice(state.host);
+            } catch (Exception e) {
+                log.warn("清理上游熔断通知失败：{}", e.getMessage());
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        noticeExecutor.shutdown();
+    }
+
+    /**
+     * 一次放行的请求；结果只上报一次
+     */
+    final class Permit {
+        private final HostState state;
+        private final boolean probe;
+        private final boolean bulkhead;
+        private final long slowMs;
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        Permit(HostState state, boolean probe, boolean bulkhead, long slowMs) {
+            this.state = state;
+            this.probe = probe;
+            this.bulkhead = bulkhead;
+            this.slowMs = slowMs;
+        }
+
+        void success() {
+            complete((System.nanoTime() - startNanos) / 1_000_000 >= slowMs);
+        }
+
+        void failure(Throwable error) {
+            complete(countsAsFailure(error));
+        }
+
+        void complete(boolean failed) {
+            if (done.compareAndSet(false, true)) {
+                release();
+                state.record(probe, failed);
+            }
+        }
+
+        void cancel() {
+            if (done.compareAndSet(false, true)) {
+                release();
+                state.cancelled(probe);
+            }
+        }
+
+        private void release() {
+            if (bulkhead) {
+                state.bulkhead.release();
+            }
+        }
+    }
+
+    final class HostState {
+        private final String host;
+        private final Semaphore bulkhead = new Semaphore(maxConcurrentPerHost);
+        private final boolean[] window = new boolean[windowSize];
+        private int windowIndex;
+        private int calls;
+        private int failures;
+        private CircuitState state = CircuitState.CLOSED;
+        private long openUntil;
+        private int probesInFlight;
+        private int probeSuccesses;
+
+        HostState(String host) {
+            this.host = host;
+        }
+
+        synchronized CircuitState current() {
+            return state;
+        }
+
+        /**
+         * @return false 正常放行，true 作为探测请求放行，null 拒绝
+         */
+        synchronized Boolean admit() {
+            if (state == CircuitState.OPEN) {
+                if (System.currentTimeMillis() < openUntil) {
+                    return null;
+                }
+                state = CircuitState.HALF_OPEN;
+                probesInFlight = 0;
+                probeSuccesses = 0;
+            }
+            if (state == CircuitState.HALF_OPEN) {
+                if (probesInFlight + probeSuccesses >= halfOpenProbes) {
+                    return null;
+                }
+                probesInFlight++;
+                return true;
+            }
+            return false;
+        }
+
+        void record(boolean probe, boolean failed) {
+            String openReason = null;
+            boolean recovered = false;
+            synchronized (this) {
+                if (probe) {
+                    probesInFlight--;
+                    if (state != CircuitState.HALF_OPEN) {
+                        return;
+                    }
+                    if (failed) {
+                        openReason = "探测请求失败";
+                        open();
+                    } else if (++probeSuccesses >= halfOpenProbes) {
+                        reset();
+                        recovered = true;
+                    }
+                } else if (state == CircuitState.CLOSED) {
+                    if (calls == window.length) {
+                        failures -= window[windowIndex] ? 1 : 0;
+                    } else {
+                        calls++;
+                    }
+                    window[windowIndex] = failed;
+                    failures += failed ? 1 : 0;
+                    windowIndex = (windowIndex + 1) % window.length;
+                    if (calls >= minCalls && failures * 100 >= failureRatePercent * calls) {
+                        openReason = String.format("最近 %d 次请求失败 %d 次", calls, failures);
+                        open();
+                    }
+                }
+            }
+            if (openReason != null) {
+                opened(this, openReason);
+            } else if (recovered) {
+                closed(this);
+            }
+        }
+
+        synchronized void cancelled(boolean probe) {
+            if (probe) {
+                probesInFlight--;
+            }
+        }
+
+        private void open() {
+            state = CircuitState.OPEN;
+            openUntil = System.currentTimeMillis() + openMs;
+        }
+
+        private void reset() {
+            state = CircuitState.CLOSED;
+            calls = 0;
+            failures = 0;
+            windowIndex = 0;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.wzz.smscode.moduleService;
+
+import com.wzz.smscode.entity.Project;
+import com.wzz.smscode.service.ProjectService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 预筛号码池（按项目线路）
+ * <p>
+ * 项目配置了 warm_pool_size 后，后台补充任务预先向上游取号，并完成格式校验、项目内查重和号码筛选，
+ * 放入本机内存池；{@code getNumber} 先从池中取，命中时省去上游取号和最长 60 秒的筛选请求。
+ * 池中号码超过 warm_pool_ttl_seconds 未被取走则通过释放接口还给上游（外部抢单渠道回调拒绝）。
+ * </p>
+ * <p>
+ * 池容量随需求自适应：每个补充周期统计取号请求数，按指数滑动平均估算每秒需求，
+ * 目标容量 = 需求 × 补充提前量（秒），上限为项目配置的 warm_pool_size；一段时间没有请求的线路目标降为 0，号码到期后自然归还。
+ * 池是本机的，不在节点之间共享；取出的号码在下单前仍会再做一次查重。
+ * </p>
+ */
+@Slf4j
+@Component
+public class WarmNumberPool {
+
+    @Autowired
+    @Lazy
+    private ProjectService projectService;
+
+    @Autowired
+    @Lazy
+    private SmsApiService smsApiService;
+
+    @Value("${sms.warm-pool.lead-seconds:30}")
+    private double leadSeconds = 30;
+
+    @Value("${sms.warm-pool.idle-seconds:600}")
+    private long idleSeconds = 600;
+
+    @Value("${sms.warm-pool.fill-interval-ms:1000}")
+    private long fillIntervalMs = 1000;
+
+    private static final double DEMAND_ALPHA = 0.3;
+
+    private final Map<String, LinePool> pools = new ConcurrentHashMap<>();
+    private final ExecutorService fillExecutor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("warm-pool-fill-", 0).factory());
+
+    /**
+     * 取号候选来源：对项目取一个号码并完成查重与筛选，未通过返回 null
+     */
+    private volatile Function<Project, Map<String, String>> candidateSource;
+
+    public void setCandidateSource(Function<Project, Map<String, String>> candidateSource) {
+        this.candidateSource = candidateSource;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        fillExecutor.shutdownNow();
+        pools.values().forEach(pool -> {
+            PooledNumber number;
+            while ((number = pool.numbers.pollFirst()) != null) {
+                giveBack(pool.project, number);
+            }
+        });
+    }
+
+    /**
+     * 从池中取一个预筛号码，并记录一次需求
+     *
+     * @return 号码标识（phone/id），池未启用或为空时返回 null
+     */
+    public Map<String, String> take(Project project) {
+        Integer maxSize = project.getWarmPoolSize();
+        if (maxSize == null || maxSize <= 0) {
+            return null;
+        }
+        LinePool pool = pools.computeIfAbsent(keyOf(project), k -> new LinePool(project));
+        pool.project = project;
+        pool.requests.incrementAndGet();
+        pool.lastRequestAt = System.currentTimeMillis();
+        long ttlMs = ttlMillis(project);
+        PooledNumber number;
+        while ((number = pool.numbers.pollFirst()) != null) {
+            if (System.currentTimeMillis() - number.acquiredAt < ttlMs) {
+                return number.identifier;
+            }
+            giveBack(project, number);
+        }
+        return null;
+    }
+
+    /**
+     * 补充周期：更新需求估算、归还过期号码、按缺口发起预取
+     */
+    @Scheduled(fixedDelayString = "${sms.warm-pool.fill-interval-ms:1000}")
+    public void refill() {
+        Function<Project, Map<String, String>> source = candidateSource;
+        if (source == null || pools.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, LinePool>> iterator = pools.entrySet().iterator();
+        while (iterator.hasNext()) {
+            LinePool pool = iterator.next().getValue();
+            Project latest = reload(pool.project);
+            pool.project = latest;
+            evictExpired(pool, now);
+            int target = targetSize(pool, now);
+            if (target == 0 && pool.numbers.isEmpty() && pool.filling.get() == 0
+                    && now - pool.lastRequestAt > TimeUnit.SECONDS.toMillis(idleSeconds)) {
+                iterator.remove();
+                continue;
+            }
+            int deficit = target - pool.numbers.size() - pool.filling.get();
+            for (int i = 0; i < deficit; i++) {
+                pool.filling.incrementAndGet();
+                fillExecutor.execute(() -> fillOne(pool, source));
+            }
+        }
+    }
+
+    int targetSize(LinePool pool, long now) {
+        Integer maxSize = pool.project.getWarmPoolSize();
+        int requests = pool.requests.getAndSet(0);
+        double perSecond = requests * 1000.0 / Math.max(fillIntervalMs, 1);
+        pool.demandPerSecond = pool.demandPerSecond * (1 - DEMAND_ALPHA) + perSecond * DEMAND_ALPHA;
+        if (maxSize == null || maxSize <= 0 || now - pool.lastRequestAt > TimeUnit.SECONDS.toMillis(idleSeconds)) {
+            return 0;
+        }
+        int target = (int) Math.ceil(pool.demandPerSecond * leadSeconds);
+        return Math.max(1, Math.min(maxSize, target));
+    }
+
+    private void fillOne(LinePool pool, Function<Project, Map<String, String>> source) {
+        try {
+            Project project = pool.project;
+            Map<String, String> identifier = source.apply(project);
+            if (identifier == null) {
+                return;
+            }
+            Integer maxSize = project.getWarmPoolSize();
+            if (maxSize == null || pool.numbers.size() >= maxSize) {
+                giveBack(project, new PooledNumber(identifier, System.currentTimeMillis()));
+                return;
+            }
+            pool.numbers.offerLast(new PooledNumber(identifier, System.currentTimeMillis()));
+        } catch (Exception e) {
+            log.warn("预筛号码池补充失败 key={}: {}", keyOf(pool.project), e.getMessage());
+        } finally {
+            pool.filling.decrementAndGet();
+        }
+    }
+
+    private void evictExpired(LinePool pool, long now) {
+        long ttlMs = ttlMillis(pool.project);
+        boolean disabled = pool.project.getWarmPoolSize() == null || pool.project.getWarmPoolSize() <= 0;
+        // 先进先出，队首最旧
+        PooledNumber head;
+        while ((head = pool.numbers.peekFirst()) != null && (disabled || now - head.acquiredAt >= ttlMs)) {
+            if (pool.numbers.remove(head)) {
+                giveBack(pool.project, head);
+            }
+        }
+    }
+
+    private void giveBack(Project project, PooledNumber number) {
+        Map<String, String> identifier = number.identifier;
+        try {
+            if (Boolean.TRUE.equals(project.getOutsideOrderApiStatus())) {
+                smsApiService.checkOutsideOrderPhone(project, identifier.get("id"), false);
+                return;
+            }
+            Map<String, String> context = new HashMap<>();
+            context.put("phone", identifier.get("phone"));
+            context.put("id", identifier.get("id"));
+            smsApiService.releasePhoneNumber(project, context, false);
+        } catch (Exception e) {
+            log.warn("预筛号码归还失败 phone={}: {}", identifier.get("phone"), e.getMessage());
+        }
+    }
+
+    private Project reload(Project project) {
+        try {
+            Project latest = projectService.getProject(project.getProjectId(), Integer.valueOf(project.getLineId()));
+            return latest == null ? project : latest;
+        } catch (Exception e) {
+            return project;
+        }
+    }
+
+    private static long ttlMillis(Project project) {
+        Integer ttlSeconds = project.getWarmPoolTtlSeconds();
+        return TimeUnit.SECONDS.toMillis(ttlSeconds == null || ttlSeconds <= 0 ? 120 : ttlSeconds);
+    }
+
+    private static String keyOf(Project project) {
+        return project.getProjectId() + ":" + project.getLineId();
+    }
+
+    static final class LinePool {
+        private volatile Project project;
+        private final ConcurrentLinkedDeque<PooledNumber> numbers = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger filling = new AtomicInteger();
+        private final AtomicInteger requests = new AtomicInteger();
+        private volatile long lastRequestAt = System.currentTimeMillis();
+        private volatile double demandPerSecond;
+
+        LinePool(Project project) {
+            this.project = project;
+        }
+    }
+
+    private record PooledNumber(Map<String, String> identifier, long acquiredAt) {
+    }
+}
@@ -1,7 +1,7 @@
 package com.wzz.smscode.service;
 
 import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
-import com.wzz.smscode.cacheManager.NumberRecordCacheManager;
+import com.wzz.smscode.cacheManager.ProjectConfigCache;
 import com.wzz.smscode.dto.FilterErrorDetailDTO;
 import com.wzz.smscode.dto.FilterErrorNoticeDTO;
 import com.wzz.smscode.entity.Project;
@@ -32,12 +32,13 @@ public class FilterErrorMonitorService {
     private static final String ERROR_DETAIL_KEY_PREFIX = "sms:filter:error:details:";
     private static final String NOTICE_KEY_PREFIX = "sms:filter:error:notice:";
     private static final String NOTICE_INDEX_KEY_PREFIX = "sms:filter:error:notice-index:";
+    private static final String CIRCUIT_NOTICE_ID_PREFIX = "circuit-";
     private static final long EXPIRE_HOURS = 24;
 
     private final RedisTemplate<String, Object> redisTemplate;
     private final SystemConfigService systemConfigService;
     private final ProjectService projectService;
-    private final NumberRecordCacheManager cacheManager;
+    private final ProjectConfigCache projectConfigCache;
 
     public void recordFilterError(Project project, String reason) {
         recordFilterError(project, null, null, ERROR_TYPE_RESPONSE_NOT_NEW, reason);
@@ -148,7 +149,7 @@ public class FilterErrorMonitorService {
         }
 
         Object noticeObj = redisTemplate.opsForValue().get(buildNoticeKey(noticeId));
-        if (!(noticeObj instanceof FilterErrorNoticeDTO notice)) {
+        if (!(noticeObj instanceof FilterErrorNoticeDTO notice) || notice.getProjectId() == null) {
             return List.of();
         }
 
@@ -167,6 +168,27 @@ public class FilterErrorMonitorService {
         return details;
     }
 
+    /**
+     * 上游接口熔断通知：与筛选错误通知放在同一个列表中，同一 host 只保留一条，熔断恢复后删除
+     */
+    public void recordUpstreamCircuitOpen(String host, String message) {
+        String noticeId = CIRCUIT_NOTICE_ID_PREFIX + host;
+        FilterErrorNoticeDTO notice = new FilterErrorNoticeDTO(
+                noticeId,
+                null,
+                null,
+                null,
+                null,
+                message,
+                LocalDateTime.now()
+        );
+        redisTemplate.opsForValue().set(buildNoticeKey(noticeId), notice, EXPIRE_HOURS, TimeUnit.HOURS);
+    }
+
+    public void clearUpstreamCircuitNotice(String host) {
+        redisTemplate.delete(buildNoticeKey(CIRCUIT_NOTICE_ID_PREFIX + host));
+    }
+
     private void closeProjectFilterAndNotify(Project project, Long count, int limit) {
         LambdaUpdateWrapper<Project> wrapper = new LambdaUpdateWrapper<>();
         wrapper.eq(Project::getProjectId, project.getProjectId())
@@ -174,20 +196,17 @@ public class FilterErrorMonitorService {
                 .eq(Project::getEnableFilter, true)
                 .set(Project::getEnableFilter, false);
 
+        // 传入的项目可能来自调用方的缓存读取，只修改副本
+        Project closed = project.copy();
         boolean updated = projectService.update(wrapper);
         if (updated) {
-            project.setEnableFilter(false);
-            try {
-                cacheManager.evictProject(project.getProjectId(), Integer.valueOf(project.getLineId()));
-            } catch (NumberFormatException e) {
-                log.warn("清理项目缓存失败，线路ID不是数字: projectId={}, lineId={}",
-                        project.getProjectId(), project.getLineId());
-            }
+            closed.setEnableFilter(false);
+            projectConfigCache.invalidate(closed.getProjectId(), closed.getLineId());
             log.warn("项目 {} 线路 {} 筛选错误次数超过阈值，已关闭项目筛选开关",
-                    project.getProjectId(), project.getLineId());
+                    closed.getProjectId(), closed.getLineId());
         }
 
-        createOrRefreshNotice(project);
+        createOrRefreshNotice(closed);
     }
 
     private void createOrRefreshNotice(Project project) {
@@ -0,0 +1,45 @@
+package com.wzz.smscode.service;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.wzz.smscode.entity.NumberRecord;
+import com.wzz.smscode.entity.NumberRecordActive;
+
+import java.util.List;
+
+/**
+ * 进行中订单热表维护与查询
+ */
+public interface NumberRecordActiveService extends IService<NumberRecordActive> {
+
+    /**
+     * 新订单入热表，必须与 number_record 插入处于同一事务
+     */
+    void track(NumberRecord record);
+
+    /**
+     * 订单状态变更：仍在进行中则更新状态，完成（2/3/4）则移出热表
+     */
+    void onStatusChanged(Long recordId, Integer status);
+
+    /**
+     * 某项目线路的在途订单数
+     */
+    long countOngoing(String projectId, Integer lineId);
+
+    /**
+     * 按ID游标分页获取进行中订单ID
+     */
+    List<Long> listOngoingIds(long afterId, int limit);
+
+    /**
+     * 查找用户某号码的进行中订单ID，不存在返回 null
+     */
+    Long findOngoingId(Long userId, String phoneNumber, String projectId);
+
+    boolean hasOngoing(Long userId);
+
+    /**
+     * 与历史表校对：补齐缺失的进行中订单，删除已完成的订单
+     */
+    void reconcile();
+}
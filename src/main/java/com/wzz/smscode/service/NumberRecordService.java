@@ -7,6 +7,7 @@ import com.wzz.smscode.dto.*;
 import com.wzz.smscode.dto.number.GetNumberResponseDTO;
 import com.wzz.smscode.dto.number.NumberDTO;
 import com.wzz.smscode.entity.NumberRecord;
+import com.wzz.smscode.moduleService.ProjectConcurrencyLimiter;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -27,7 +28,8 @@ public interface NumberRecordService extends IService<NumberRecord> {
     @Transactional(rollbackFor = Exception.class)
     GetNumberResponseDTO createOrderTransaction(Long userId, String projectId, Integer lineId,
                                                 BigDecimal price, BigDecimal costPrice,
-                                                Map<String, String> successfulIdentifier, String projectName, String source);
+                                                Map<String, String> successfulIdentifier, String projectName, String source,
+                                                ProjectConcurrencyLimiter.Permit permit);
 
     @Async("taskExecutor")
     void retrieveCode(Long numberId, String identifier);
@@ -0,0 +1,57 @@
+package com.wzz.smscode.service;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.wzz.smscode.dto.CreatDTO.LedgerCreationDTO;
+import com.wzz.smscode.entity.NumberRecord;
+import com.wzz.smscode.entity.OrderOutbox;
+import com.wzz.smscode.enums.OutboxEventType;
+
+/**
+ * 订单事务外发服务
+ */
+public interface OrderOutboxService extends IService<OrderOutbox> {
+
+    /**
+     * 在当前事务中写入订单的外发事件，事务提交后立即异步投递
+     *
+     * @param record  状态流转后的订单
+     * @param success 本次流转的结果
+     * @param types   需要执行的副作用
+     */
+    void enqueue(NumberRecord record, boolean success, OutboxEventType... types);
+
+    /**
+     * 在当前事务中写入一条订单资金变动事件（ORDER_LEDGER）；不立即投递，由调用方在提交后交给账本组提交写入器，
+     * 写入器未落账时由补投任务落账
+     *
+     * @param request 资金变动
+     * @return 事件ID
+     */
+    Long enqueueLedger(LedgerCreationDTO request);
+
+    /**
+     * 处理单个事务内执行的事件（{@link OutboxEventType#isTransactional()}）：与出队标记在同一事务中执行，事件已被处理过时直接返回
+     *
+     * @return 本次是否实际执行了处理
+     */
+    boolean handle(OrderOutbox event);
+
+    /**
+     * 补投到期的事件（提交后进程崩溃、投递失败等）
+     *
+     * @return 本次成功处理的事件数
+     */
+    int dispatchDue();
+
+    /**
+     * 清理已完成的历史事件
+     */
+    void purgeDone();
+
+    /**
+     * 失败次数达到上限的事务内事件（资金、统计、风控）重新转为待投递
+     *
+     * @return 重新投递的事件数
+     */
+    int reviveDead();
+}
@@ -0,0 +1,42 @@
+package com.wzz.smscode.service;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.wzz.smscode.dto.CreatDTO.LedgerCreationDTO;
+import com.wzz.smscode.entity.NumberRecord;
+import com.wzz.smscode.entity.PendingRebate;
+
+import java.util.List;
+
+/**
+ * 延迟返点结算服务
+ */
+public interface PendingRebateService extends IService<PendingRebate> {
+
+    /**
+     * 是否启用延迟结算模式（sms.rebate.settlement-mode=deferred）
+     */
+    boolean isDeferred();
+
+    /**
+     * 把返点追加到待结算流水，必须与订单成功处理处于同一事务
+     *
+     * @param rebates 返点入账请求（ledgerType=1）
+     * @param record  产生返点的成功订单
+     */
+    void appendAll(List<LedgerCreationDTO> rebates, NumberRecord record);
+
+    /**
+     * 结算单个代理的一批待结算返点：一次余额更新 + 一条汇总账本，并把账本ID回写到每条明细。
+     * 整个过程在一个事务内完成，失败时全部回滚，明细保持待结算状态等待下一轮。
+     *
+     * @return 本次结算的明细条数
+     */
+    int settleAgent(Long agentId);
+
+    /**
+     * 结算全部待结算返点（定时任务入口）
+     *
+     * @return 本次结算的明细条数
+     */
+    int settlePending();
+}
@@ -11,6 +11,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 import java.util.Date;
+import java.util.List;
 
 public interface UserLedgerService extends IService<UserLedger> {
 
@@ -26,6 +27,23 @@ public interface UserLedgerService extends IService<UserLedger> {
     @Transactional(rollbackFor = Exception.class) // 确保任何异常都会回滚事务
     BigDecimal createLedgerAndUpdateBalance(LedgerCreationDTO request);
 
+    /**
+     * 订单资金变动（取号扣费、超时退款等）：启用账本组提交时交给 LedgerGroupCommitWriter 合并写入，否则等同 createLedgerAndUpdateBalance。
+     * 启用且在调用方事务中时，资金变动在调用方提交后才落账，返回的是预计变更后余额。
+     */
+    BigDecimal createOrderLedger(LedgerCreationDTO request);
+
+    /**
+     * 在当前事务中直接落账一笔订单资金变动（允许余额为负），由订单外发事件 ORDER_LEDGER 补投调用
+     */
+    BigDecimal applyOrderLedger(LedgerCreationDTO request);
+
+    /**
+     * 批量入账：一次锁定涉及的全部用户，批量更新余额并批量写入流水（用于多级返点）
+     */
+    @Transactional(rollbackFor = Exception.class)
+    void createCreditLedgersInBatch(List<LedgerCreationDTO> requests);
+
     IPage<UserLedger> listSubordinateLedgers(String userName,Long agentId, Page<UserLedger> page, Long targetUserId, Date startTime, Date endTime, Integer fundType, Integer ledgerType);
 
     BigDecimal getTotalProfitByUserId(Long userId);
@@ -26,6 +26,7 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
 import java.util.List;
 
 public interface UserService extends IService<User> {
@@ -107,6 +108,25 @@ public interface UserService extends IService<User> {
 
     void updateUserStats(Long userId);
 
+    /**
+     * 按订单状态变化增量更新用户统计
+     * @param userId 用户ID
+     * @param getDelta 取号次数变化
+     * @param codeDelta 成功取码次数变化
+     * @param getNumberTime 订单取号时间，用于判断是否计入今日统计
+     */
+    void applyStatsDelta(Long userId, int getDelta, int codeDelta, LocalDateTime getNumberTime);
+
+    /**
+     * 后台校对：把用户表中的增量计数与 number_record 实际数据对齐
+     */
+    void reconcileUserStats();
+
+    /**
+     * 后台校对：把用户表中的累计计数与 number_record 的全部历史对齐
+     */
+    void reconcileUserTotals();
+
     /**
      * [新增] 处理多级代理业务返款
      * @param successfulRecord 成功扣费的号码记录
@@ -0,0 +1,117 @@
+package com.wzz.smscode.service.impl;
+
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.wzz.smscode.entity.NumberRecord;
+import com.wzz.smscode.entity.NumberRecordActive;
+import com.wzz.smscode.mapper.NumberRecordActiveMapper;
+import com.wzz.smscode.service.NumberRecordActiveService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * 进行中订单热表
+ * <p>
+ * number_record 作为历史表保存全部订单的完整数据，number_record_active 只保存进行中订单的查询列。
+ * 订单创建、开始取码、完成时与 number_record 的更新在同一事务中维护热表；
+ * 启动时和定时任务再与历史表校对一次，修正宕机、手工改库等导致的偏差。
+ * </p>
+ * <p>
+ * 校对用普通 SELECT 分段读取历史表中的进行中订单，再由应用批量 INSERT IGNORE 写入热表，不对历史表加共享锁。
+ * 订单状态只会向前推进，上次校对时最小的进行中订单ID之前不会再出现进行中订单，
+ * 所以只有启动时扫描全表，定时校对从该ID开始扫描到当前最大ID。
+ * </p>
+ */
+@Slf4j
+@Service
+public class NumberRecordActiveServiceImpl extends ServiceImpl<NumberRecordActiveMapper, NumberRecordActive> implements NumberRecordActiveService {
+
+    @Value("${sms.active-table.backfill-batch-size:50000}")
+    private long backfillBatchSize = 50000;
+
+    @Value("${sms.active-table.insert-batch-size:500}")
+    private int insertBatchSize = 500;
+
+    /**
+     * 下次校对的起始ID（不含），之前的订单都已完成
+     */
+    private volatile long scanFloor = 0;
+
+    @Override
+    public void track(NumberRecord record) {
+        NumberRecordActive active = new NumberRecordActive();
+        active.setRecordId(record.getId());
+        active.setUserId(record.getUserId());
+        active.setProjectId(record.getProjectId());
+        active.setLineId(record.getLineId());
+        active.setPhoneNumber(record.getPhoneNumber());
+        active.setStatus(record.getStatus());
+        active.setGetNumberTime(record.getGetNumberTime());
+        baseMapper.insert(active);
+    }
+
+    @Override
+    public void onStatusChanged(Long recordId, Integer status) {
+        if (recordId == null || status == null) {
+            return;
+        }
+        if (status >= 2) {
+            baseMapper.deleteById(recordId);
+        } else {
+            baseMapper.updateStatus(recordId, status);
+        }
+    }
+
+    @Override
+    public long countOngoing(String projectId, Integer lineId) {
+        return baseMapper.countByProjectLine(projectId, lineId);
+    }
+
+    @Override
+    public List<Long> listOngoingIds(long afterId, int limit) {
+        return baseMapper.selectIdsAfter(afterId, limit);
+    }
+
+    @Override
+    public Long findOngoingId(Long userId, String phoneNumber, String projectId) {
+        return baseMapper.selectIdByUserPhone(userId, phoneNumber, projectId);
+    }
+
+    @Override
+    public boolean hasOngoing(Long userId) {
+        return baseMapper.countByUser(userId) > 0;
+    }
+
+    @Override
+    @Scheduled(cron = "${sms.active-table.reconcile-cron:0 10 * * * ?}")
+    public synchronized void reconcile() {
+        long startTime = System.currentTimeMillis();
+        long maxId = baseMapper.selectMaxRecordId();
+        long fromId = scanFloor;
+        long lowestOngoing = -1;
+        int inserted = 0;
+        for (long afterId = fromId; afterId < maxId; afterId += backfillBatchSize) {
+            List<NumberRecordActive> ongoing = baseMapper.selectOngoingRecords(afterId, Math.min(afterId + backfillBatchSize, maxId));
+            if (ongoing.isEmpty()) {
+                continue;
+            }
+            if (lowestOngoing < 0) {
+                lowestOngoing = ongoing.stream().mapToLong(NumberRecordActive::getRecordId).min().getAsLong();
+            }
+            for (int i = 0; i < ongoing.size(); i += insertBatchSize) {
+                inserted += baseMapper.insertIgnoreBatch(ongoing.subList(i, Math.min(i + insertBatchSize, ongoing.size())));
+            }
+        }
+        scanFloor = lowestOngoing < 0 ? Math.max(fromId, maxId) : lowestOngoing - 1;
+        int deleted = baseMapper.deleteFinished();
+        if (inserted > 0 || deleted > 0) {
+            log.warn("进行中订单表校对: 扫描ID ({}, {}], 补齐 {} 条, 移除 {} 条, 耗时 {}ms", fromId, maxId, inserted, deleted,
+                    System.currentTimeMillis() - startTime);
+        } else {
+            log.info("进行中订单表校对完成，扫描ID ({}, {}]，无偏差，耗时 {}ms", fromId, maxId, System.currentTimeMillis() - startTime);
+        }
+    }
+}
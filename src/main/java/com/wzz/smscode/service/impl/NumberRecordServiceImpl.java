@@ -6,7 +6,10 @@ import com.baomidou.mybatisplus.core.metadata.IPage;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.repository.AbstractRepository;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.wzz.smscode.cacheManager.ActiveOrderRegistry;
 import com.wzz.smscode.cacheManager.NumberRecordCacheManager;
+import com.wzz.smscode.cacheManager.ProjectPhoneDedupIndex;
+import com.wzz.smscode.cacheManager.UserCodeRateTracker;
 import com.wzz.smscode.common.CommonResultDTO;
 import com.wzz.smscode.common.Constants;
 import com.wzz.smscode.dto.*;
@@ -15,14 +18,22 @@ import com.wzz.smscode.dto.number.GetNumberResponseDTO;
 import com.wzz.smscode.dto.number.NumberDTO;
 import com.wzz.smscode.entity.*;
 import com.wzz.smscode.enums.FundType;
+import com.wzz.smscode.enums.OutboxEventType;
 import com.wzz.smscode.exception.BusinessException;
 import com.wzz.smscode.mapper.NumberRecordMapper;
+import com.wzz.smscode.moduleService.CodePollingPlan;
+import com.wzz.smscode.moduleService.CodePollingScheduler;
 import com.wzz.smscode.moduleService.PhoneNumberFilterService;
+import com.wzz.smscode.moduleService.ProjectConcurrencyLimiter;
 import com.wzz.smscode.moduleService.SmsApiService;
+import com.wzz.smscode.moduleService.WarmNumberPool;
 import com.wzz.smscode.service.*;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
@@ -40,7 +51,14 @@ import java.time.LocalDateTime;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeParseException;
 import java.util.*;
-import java.util.function.Supplier;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -63,13 +81,48 @@ public class NumberRecordServiceImpl extends ServiceImpl<NumberRecordMapper, Num
     // 修改点 3: 建议此处也加上 @Lazy 避免初始化顺序问题
     @Autowired @Lazy private NumberRecordCacheManager cacheManager;
 
+    @Autowired private CodePollingScheduler codePollingScheduler;
+    @Autowired private ActiveOrderRegistry activeOrderRegistry;
+    @Autowired private UserCodeRateTracker userCodeRateTracker;
+    @Autowired private ProjectPhoneDedupIndex projectPhoneDedupIndex;
+    @Autowired @Lazy private OrderOutboxService orderOutboxService;
+    @Autowired private NumberRecordActiveService numberRecordActiveService;
+    @Autowired private ProjectConcurrencyLimiter projectConcurrencyLimiter;
+    @Autowired private WarmNumberPool warmNumberPool;
+
+    @Value("${sms.acquire.max-fan-out:8}")
+    private int maxAcquireFanOut = 8;
+
+    @Value("${sms.acquire.speculative-timeout-ms:60000}")
+    private long speculativeTimeoutMs = 60000;
+
+    private final ExecutorService acquireExecutor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("number-acquire-", 0).factory());
+
+    @PostConstruct
+    public void registerWarmPoolSource() {
+        warmNumberPool.setCandidateSource(project -> {
+            Candidate candidate = screenCandidate(project, project.getProjectId(), systemConfigService.getConfig(), 1, 1);
+            return candidate.status() == CandidateStatus.PASSED ? candidate.identifier() : null;
+        });
+    }
+
+    @PreDestroy
+    public void shutdownAcquireExecutor() {
+        acquireExecutor.shutdownNow();
+    }
+
 
     private static final Pattern PHONE_NUMBER_PATTERN = Pattern.compile("^1[3-9]\\d{9}$");
 
     /**
      * 检查指定的手机号是否已经存在于特定项目的记录中。
+     * 先查布隆过滤器，判定不存在直接返回；可能存在时再走 (project_id, phone_number) 联合索引确认。
      */
     private boolean isPhoneNumberExistsInProject(String projectId, String phoneNumber) {
+        if (!projectPhoneDedupIndex.mightContain(projectId, phoneNumber)) {
+            return false;
+        }
         long count = this.count(new LambdaQueryWrapper<NumberRecord>()
                 .eq(NumberRecord::getProjectId, projectId)
                 .eq(NumberRecord::getPhoneNumber, phoneNumber)
@@ -83,6 +136,24 @@ public class NumberRecordServiceImpl extends ServiceImpl<NumberRecordMapper, Num
         }
     }
 
+    /**
+     * 归还取到但不再使用的号码：外部抢单渠道回调拒绝，其它渠道调用释放接口
+     */
+    private void giveBackCandidate(Project project, Map<String, String> identifier) {
+        try {
+            if (Boolean.TRUE.equals(project.getOutsideOrderApiStatus())) {
+                smsApiService.checkOutsideOrderPhone(project, identifier.get("id"), false);
+                return;
+            }
+            Map<String, String> context = new HashMap<>();
+            context.put("phone", identifier.get("phone"));
+            context.put("id", identifier.get("id"));
+            smsApiService.releasePhoneNumber(project, context, false);
+        } catch (Exception e) {
+            log.warn("未选中的候选号码归还失败 phone={}: {}", identifier.get("phone"), e.getMessage());
+        }
+    }
+
     private boolean acceptOutsideOrderPhoneIfNeeded(Project project, Map<String, String> identifier) {
         if (!Boolean.TRUE.equals(project.getOutsideOrderApiStatus())) {
             return true;
@@ -90,32 +161,154 @@ public class NumberRecordServiceImpl extends ServiceImpl<NumberRecordMapper, Num
         return identifier != null && smsApiService.checkOutsideOrderPhone(project, identifier.get("id"), true);
     }
 
-    private double calculateUserCodeRateWithinMinutes(Long userId, Integer windowMinutes) {
-        int effectiveWindowMinutes = (windowMinutes == null || windowMinutes <= 0) ? 1440 : windowMinutes;
-        LocalDateTime windowStart = LocalDateTime.now().minusMinutes(effectiveWindowMinutes);
+    /**
+     * 候选号码的筛查结果，retryPauseMs 为逐个尝试模式下进行下一次尝试前的等待时间
+     */
+    private enum CandidateStatus {
+        PASSED(0), INVALID(500), DUPLICATE(200), FILTERED(200), FILTER_ERROR(0);
 
-        long totalGetCount = this.count(new LambdaQueryWrapper<NumberRecord>()
-                .eq(NumberRecord::getUserId, userId)
-                .ge(NumberRecord::getGetNumberTime, windowStart));
+        private final long retryPauseMs;
 
-        if (totalGetCount == 0) {
-            return 1.0D;
+        CandidateStatus(long retryPauseMs) {
+            this.retryPauseMs = retryPauseMs;
         }
+    }
 
-        long successCodeCount = this.count(new LambdaQueryWrapper<NumberRecord>()
-                .eq(NumberRecord::getUserId, userId)
-                .eq(NumberRecord::getStatus, 2)
-                .isNotNull(NumberRecord::getCode)
-                .ne(NumberRecord::getCode, "")
-                .ge(NumberRecord::getGetNumberTime, windowStart));
+    private record Candidate(CandidateStatus status, Map<String, String> identifier) {
+    }
 
-        return BigDecimal.valueOf(successCodeCount)
-                .divide(BigDecimal.valueOf(totalGetCount), 4, RoundingMode.HALF_UP)
-                .doubleValue();
+    /**
+     * 取一个候选号码并依次做格式校验、项目内查重、号码筛选；未通过的候选已按外部抢单渠道要求回调拒绝
+     *
+     * @throws BusinessException 上游取号接口返回业务错误
+     */
+    private Candidate screenCandidate(Project projectT, String projectId, SystemConfig config, int attempt, int maxAttempts) {
+        Map<String, String> currentIdentifier = smsApiService.getPhoneNumber(projectT);
+        String phone = (currentIdentifier != null) ? currentIdentifier.get("phone") : null;
+        boolean isValidPhone = StringUtils.hasText(phone) && PHONE_NUMBER_PATTERN.matcher(phone).matches();
+        if (!isValidPhone) {
+            rejectOutsideOrderPhoneIfNeeded(projectT, currentIdentifier);
+            log.warn("获取号码无效或格式不正确 (尝试 {}/{}): {}", attempt, maxAttempts, phone);
+            return new Candidate(CandidateStatus.INVALID, currentIdentifier);
+        }
+        if (isPhoneNumberExistsInProject(projectId, phone)) {
+            rejectOutsideOrderPhoneIfNeeded(projectT, currentIdentifier);
+            log.warn("号码 [{}] 已存在，重试...", phone);
+            return new Candidate(CandidateStatus.DUPLICATE, currentIdentifier);
+        }
+        if (config.getEnableNumberFiltering() && projectT.getEnableFilter()) {
+            try {
+                log.info("[NUMBER-FILTER-TRACE] 项目ID: {} | 线路ID: {} | 手机号: {} - 开始筛选流程",
+                        projectT.getId(), projectT.getSelectNumberApiRequestValue(), phone);
+                Boolean isAvailable = smsApiService.checkPhoneNumberAvailability(projectT, phone)
+                        .block(Duration.ofSeconds(60));
+                if (Boolean.TRUE.equals(isAvailable)) {
+                    log.info("[NUMBER-FILTER-TRACE] 项目ID: {} | 线路ID: {} | 手机号: {} - 筛选结果: [通过]",
+                            projectT.getId(), projectT.getSelectNumberApiRequestValue(), phone);
+                } else {
+                    rejectOutsideOrderPhoneIfNeeded(projectT, currentIdentifier);
+                    log.warn("[NUMBER-FILTER-TRACE] 项目ID: {} | 线路ID: {} | 手机号: {} - 筛选结果: [未通过]",
+                            projectT.getId(), projectT.getSelectNumberApiRequestValue(), phone);
+                    return new Candidate(CandidateStatus.FILTERED, currentIdentifier);
+                }
+            } catch (Exception e) {
+                rejectOutsideOrderPhoneIfNeeded(projectT, currentIdentifier);
+                log.error("[NUMBER-FILTER-TRACE] 项目ID: {} | 线路ID: {} | 手机号: {} - 筛选异常中断: {}",
+                        projectT.getId(), projectT.getSelectNumberApiRequestValue(), phone, e.getMessage());
+                log.error("筛选调用异常，视为筛选不通过", e);
+                return new Candidate(CandidateStatus.FILTER_ERROR, currentIdentifier);
+            }
+        }
+        return new Candidate(CandidateStatus.PASSED, currentIdentifier);
     }
 
+    /**
+     * 并发取号：同时筛查 fanOut 个候选号码，每结束一个未通过的候选就补发一个，直到累计 maxCandidates 个；
+     * 采用最先通过（且外部抢单渠道确认成功）的候选，其余候选（含超时时仍在筛查的）在后台等待结束，通过的归还上游
+     *
+     * @return 选中的号码标识，全部未通过或超时返回 null
+     * @throws BusinessException 没有候选通过且上游取号接口返回过业务错误
+     */
+    private Map<String, String> acquireSpeculatively(Project projectT, String projectId, SystemConfig config,
+                                                     int fanOut, int maxCandidates) throws InterruptedException {
+        CompletionService<Candidate> completionService = new ExecutorCompletionService<>(acquireExecutor);
+        int launched = 0;
+        int finished = 0;
+        BusinessException providerError = null;
+        for (; launched < Math.min(fanOut, maxCandidates); launched++) {
+            int attempt = launched + 1;
+            completionService.submit(() -> screenCandidate(projectT, projectId, config, attempt, maxCandidates));
+        }
+        long deadline = System.currentTimeMillis() + speculativeTimeoutMs;
+        try {
+            while (finished < launched) {
+                long remaining = deadline - System.currentTimeMillis();
+                Future<Candidate> future = remaining > 0 ? completionService.poll(remaining, TimeUnit.MILLISECONDS) : null;
+                if (future == null) {
+                    log.warn("并发取号超时({}ms)，已发起 {} 个候选，完成 {} 个", speculativeTimeoutMs, launched, finished);
+                    return null;
+                }
+                finished++;
+                Candidate candidate = null;
+                try {
+                    candidate = future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof BusinessException businessException) {
+                        providerError = businessException;
+                    } else {
+                        log.error("并发取号候选异常", e.getCause());
+                    }
+                }
+                if (candidate != null && candidate.status() == CandidateStatus.PASSED) {
+                    if (acceptOutsideOrderPhoneIfNeeded(projectT, candidate.identifier())) {
+                        log.info("并发取号成功: 第 {} 个完成的候选通过，共发起 {} 个", finished, launched);
+                        return candidate.identifier();
+                    }
+                    log.warn("外部抢单渠道手机号通过回调失败，订单ID: {}", candidate.identifier().get("id"));
+                }
+                // 上游已返回业务错误时不再补发
+                if (providerError == null && launched < maxCandidates) {
+                    int attempt = ++launched;
+                    completionService.submit(() -> screenCandidate(projectT, projectId, config, attempt, maxCandidates));
+                }
+            }
+        } finally {
+            discardRemaining(completionService, launched - finished, projectT);
+        }
+        if (providerError != null) {
+            throw providerError;
+        }
+        return null;
+    }
 
+    /**
+     * 后台等待未选中的候选结束，通过筛查的号码归还上游（外部抢单渠道回调拒绝，其它渠道释放号码）
+     */
+    private void discardRemaining(CompletionService<Candidate> completionService, int pending, Project projectT) {
+        if (pending <= 0) {
+            return;
+        }
+        acquireExecutor.execute(() -> {
+            for (int i = 0; i < pending; i++) {
+                try {
+                    Candidate candidate = completionService.take().get();
+                    if (candidate.status() == CandidateStatus.PASSED) {
+                        giveBackCandidate(projectT, candidate.identifier());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    log.debug("未选中的候选号码结束异常: {}", e.getMessage());
+                }
+            }
+        });
+    }
 
+    private double calculateUserCodeRateWithinMinutes(Long userId, Integer windowMinutes) {
+        int effectiveWindowMinutes = (windowMinutes == null || windowMinutes <= 0) ? 1440 : windowMinutes;
+        return userCodeRateTracker.getCodeRate(userId, effectiveWindowMinutes);
+    }
 
     /**
      * 恢复中断的任务
@@ -155,8 +348,8 @@ public class NumberRecordServiceImpl extends ServiceImpl<NumberRecordMapper, Num
         if (user.getStatus() != 0) {
             return GetNumberResponseDTO.error(-5, "用户已被禁用");
         }
-        double windowCodeRate = calculateUserCodeRateWithinMinutes(user.getId(), config.getBanCodeRateWindowMinutes());
-        if (config.getEnableBanMode() == 1 && windowCodeRate < config.getMinWindowCodeRate()) {
+        if (config.getEnableBanMode() == 1
+                && calculateUserCodeRateWithinMinutes(user.getId(), config.getBanCodeRateWindowMinutes()) < config.getMinWindowCodeRate()) {
             return GetNumberResponseDTO.error(Constants.ERROR_SYSTEM_ERROR, "回码率过低暂时封禁，请等待"+config.getBanCodeRateWindowMinutes()+"分钟");
         }
         String blacklist = user.getProjectBlacklist();
@@ -197,19 +390,26 @@ public class NumberRecordServiceImpl extends ServiceImpl<NumberRecordMapper, Num
             return GetNumberResponseDTO.error(Constants.ERROR_INSUFFICIENT_BALANCE, "余额不足");
         }
 
-        if ("105".equals(projectId) && Integer.valueOf(1).equals(lineId)) {
-            // 统计全库中该项目+该线路 处于 0(待取码) 或 1(取码中) 的记录数
-            long ongoingCount = this.count(new LambdaQueryWrapper<NumberRecord>()
-                    .eq(NumberRecord::getProjectId, "105")
-                    .eq(NumberRecord::getLineId, 1)
-                    .in(NumberRecord::getStatus, 0, 1)
-            );
-
-            if (ongoingCount >= 150) {
-                log.warn("项目105-线路1 并发量已达上限: {}", ongoingCount);
-                return GetNumberResponseDTO.error(Constants.ERROR_NO_NUMBER, "当前项目105-线路1 取号任务过多（限制150个），请稍后再试");
-            }
+        // 项目线路在途订单上限：取号前申请许可，订单提交后许可转给订单，其余情况在这里释放
+        ProjectConcurrencyLimiter.Permit permit = projectConcurrencyLimiter.tryAcquire(projectT);
+        if (permit == null) {
+            return GetNumberResponseDTO.error(Constants.ERROR_NO_NUMBER, "当前项目" + projectId + "-线路" + lineId
+                    + " 取号任务过多（限制" + projectConcurrencyLimiter.limitOf(projectT) + "个），请稍后再试");
+        }
+        try {
+            return fetchNumberAndCreateOrder(user, config, projectT, projectId, lineId, price, costPrice, source, permit);
+        } finally {
+            projectConcurrencyLimiter.release(permit);
         }
+    }
+
+    /**
+     * 向上游取号（含查重、筛选、外部渠道回调），成功后创建订单
+     */
+    private GetNumberResponseDTO fetchNumberAndCreateOrder(User user, SystemConfig config, Project projectT,
+                                                           String projectId, Integer lineId, BigDecimal price,
+                                                           BigDecimal costPrice, String source,
+                                                           ProjectConcurrencyLimiter.Permit permit) {
 //        boolean hasOngoingRecord = this.hasOngoingRecord(user.getId());
 
 //        if (!BalanceUtil.canGetNumber(user, hasOngoingRecord)) {
@@ -222,47 +422,42 @@ public class NumberRecordServiceImpl extends ServiceImpl<NumberRecordMapper, Num
         Map<String, String> successfulIdentifier = null;
         boolean numberFoundAndVerified = false;
 
-        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+        // 预筛号码池：已完成筛选的号码，下单前只需再确认查重和外部渠道
+        Map<String, String> pooled;
+        while (successfulIdentifier == null && (pooled = warmNumberPool.take(projectT)) != null) {
+            if (isPhoneNumberExistsInProject(projectId, pooled.get("phone"))) {
+                rejectOutsideOrderPhoneIfNeeded(projectT, pooled);
+                continue;
+            }
+            if (acceptOutsideOrderPhoneIfNeeded(projectT, pooled)) {
+                successfulIdentifier = pooled;
+                numberFoundAndVerified = true;
+            }
+        }
+
+        int fanOut = Math.max(1, Math.min(projectT.getAcquireParallelism() == null ? 1 : projectT.getAcquireParallelism(), maxAcquireFanOut));
+        if (!numberFoundAndVerified && fanOut > 1) {
             try {
-                Map<String, String> currentIdentifier = smsApiService.getPhoneNumber(projectT);
-                String phone = (currentIdentifier != null) ? currentIdentifier.get("phone") : null;
-                boolean isValidPhone = StringUtils.hasText(phone) && PHONE_NUMBER_PATTERN.matcher(phone).matches();
-                if (!isValidPhone) {
-                    rejectOutsideOrderPhoneIfNeeded(projectT, currentIdentifier);
-                    log.warn("获取号码无效或格式不正确 (尝试 {}/{}): {}", attempt, MAX_ATTEMPTS, phone);
-                    if (attempt < MAX_ATTEMPTS) Thread.sleep(500);
-                    continue;
-                }
-                if (isPhoneNumberExistsInProject(projectId, phone)) {
-                    rejectOutsideOrderPhoneIfNeeded(projectT, currentIdentifier);
-                    log.warn("号码 [{}] 已存在，重试...", phone);
-                    if (attempt < MAX_ATTEMPTS) Thread.sleep(200);
+                successfulIdentifier = acquireSpeculatively(projectT, projectId, config, fanOut, Math.max(MAX_ATTEMPTS, fanOut));
+                numberFoundAndVerified = successfulIdentifier != null;
+            } catch (BusinessException e) {
+                log.error("调用接口获取号码失败（并发取号），终止流程: {}", e.getMessage());
+                return GetNumberResponseDTO.error(Constants.ERROR_NO_CODE, "获取号码失败，请稍后再试！");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return GetNumberResponseDTO.error(Constants.ERROR_NO_CODE, "系统线程中断");
+            }
+        }
+
+        for (int attempt = 1; !numberFoundAndVerified && fanOut == 1 && attempt <= MAX_ATTEMPTS; attempt++) {
+            try {
+                Candidate candidate = screenCandidate(projectT, projectId, config, attempt, MAX_ATTEMPTS);
+                if (candidate.status() != CandidateStatus.PASSED) {
+                    long pause = candidate.status().retryPauseMs;
+                    if (attempt < MAX_ATTEMPTS && pause > 0) Thread.sleep(pause);
                     continue;
                 }
-                if (config.getEnableNumberFiltering() && projectT.getEnableFilter()) {
-                    try {
-                        log.info("[NUMBER-FILTER-TRACE] 项目ID: {} | 线路ID: {} | 手机号: {} - 开始筛选流程",
-                                projectT.getId(), projectT.getSelectNumberApiRequestValue(), phone);
-                        Boolean isAvailable = smsApiService.checkPhoneNumberAvailability(projectT, phone)
-                                .block(Duration.ofSeconds(60));
-                        if (Boolean.TRUE.equals(isAvailable)) {
-                            log.info("[NUMBER-FILTER-TRACE] 项目ID: {} | 线路ID: {} | 手机号: {} - 筛选结果: [通过]",
-                                    projectT.getId(), projectT.getSelectNumberApiRequestValue(), phone);
-                        } else {
-                            rejectOutsideOrderPhoneIfNeeded(projectT, currentIdentifier);
-                            log.warn("[NUMBER-FILTER-TRACE] 项目ID: {} | 线路ID: {} | 手机号: {} - 筛选结果: [未通过]",
-                                    projectT.getId(), projectT.getSelectNumberApiRequestValue(), phone);
-                            if (attempt < MAX_ATTEMPTS) Thread.sleep(200);
-                            continue;
-                        }
-                    } catch (Exception e) {
-                        rejectOutsideOrderPhoneIfNeeded(projectT, currentIdentifier);
-                        log.error("[NUMBER-FILTER-TRACE] 项目ID: {} | 线路ID: {} | 手机号: {} - 筛选异常中断: {}",
-                                projectT.getId(), projectT.getSelectNumberApiRequestValue(), phone, e.getMessage());
-                        log.error("筛选调用异常，视为筛选不通过", e);
-                        continue;
-                    }
-                }
+                Map<String, String> currentIdentifier = candidate.identifier();
                 if (!acceptOutsideOrderPhoneIfNeeded(projectT, currentIdentifier)) {
                     log.warn("外部抢单渠道手机号通过回调失败，订单ID: {}", currentIdentifier.get("id"));
                     if (attempt < MAX_ATTEMPTS) Thread.sleep(500);
@@ -294,7 +489,7 @@ public class NumberRecordServiceImpl extends ServiceImpl<NumberRecordMapper, Num
                     price,
                     costPrice,
                     successfulIdentifier,
-                    projectT.getProjectName(), source
+                    projectT.getProjectName(), source, permit
             );
         } catch (BusinessException e) {
             log.info("<getNumber> (<createOrderTransaction> {}/{})<出现异常错误>: {}", projectId, lineId, e.getMessage());
@@ -311,7 +506,8 @@ public class NumberRecordServiceImpl extends ServiceImpl<NumberRecordMapper, Num
     @Override
     public GetNumberResponseDTO createOrderTransaction(Long userId, String projectId, Integer lineId,
                                                        BigDecimal price, BigDecimal costPrice,
-                                                       Map<String, String> successfulIdentifier, String projectName, String source) {
+                                                       Map<String, String> successfulIdentifier, String projectName, String source,
+                                                       ProjectConcurrencyLimiter.Permit permit) {
         // 1. 扣费逻辑 (UserLedgerService 内部也会有事务，会加入到当前事务中)
         User user = userService.getById(userId);
         // 双重检查余额(可选)
@@ -329,7 +525,7 @@ public class NumberRecordServiceImpl extends ServiceImpl<NumberRecordMapper, Num
                 .projectId(projectId)
                 .build();
         // 执行扣款
-        BigDecimal newBalance = ledgerService.createLedgerAndUpdateBalance(deductionDto);
+        BigDecimal newBalance = ledgerService.createOrderLedger(deductionDto);
         // 2. 写入号码记录
         NumberRecord record = new NumberRecord();
         record.setUserId(userId);
@@ -348,6 +544,9 @@ public class NumberRecordServiceImpl extends ServiceImpl<NumberRecordMapper, Num
         record.setProjectName(projectName);
         record.setSource(source);
         this.save(record); // 落库
+        numberRecordActiveService.track(record);
+        projectConcurrencyLimiter.bindAfterCommit(permit, record.getId());
+        projectPhoneDedupIndex.add(projectId, record.getPhoneNumber());
         final Long recordId = record.getId();
         TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
             @Override
@@ -361,12 +560,14 @@ public class NumberRecordServiceImpl extends ServiceImpl<NumberRecordMapper, Num
         });
 
         // 4. 更新用户统计等其他操作
-        userService.updateUserStats(userId);
+        userService.applyStatsDelta(userId, 1, 0, record.getGetNumberTime());
+        userCodeRateTracker.recordCreated(userId, record.getGetNumberTime());
         return GetNumberResponseDTO.success("取号成功，请稍后查询验证码", successfulIdentifier.get("phone"), projectName);
     }
 
     /**
      * 异步轮询取码
+     * 只负责生成轮询计划并注册到时间轮，轮询本身由 CodePollingScheduler 统一调度，不再占用线程 sleep
      */
     @Async("taskExecutor")
     @Override
@@ -375,67 +576,90 @@ public class NumberRecordServiceImpl extends ServiceImpl<NumberRecordMapper, Num
         if (record == null || record.getStatus() >= 2) {
             return;
         }
+        if (codePollingScheduler.isActive(numberId)) {
+            log.info("记录[{}] 已在轮询中，跳过重复调度", numberId);
+            return;
+        }
         // 更新为取码中
         if (record.getStatus() == 0) {
             record.setStatus(1);
             record.setStartCodeTime(LocalDateTime.now());
             this.updateById(record);
+            numberRecordActiveService.onStatusChanged(numberId, 1);
         }
-        Project project = projectService.getProject(record.getProjectId(), record.getLineId());
-        Map<String, String> context = new HashMap<>();
-        context.put("phone", record.getPhoneNumber());
-        if (StringUtils.hasText(record.getApiPhoneId())) {
-            context.put("id", record.getApiPhoneId());
-        }
-        String result = null;
-        boolean isSuccess = false;
+        activeOrderRegistry.register(record);
+        // 交给轮询调度器之前出现异常时由这里移除登记，之后由轮询结束回调移除
+        boolean scheduled = false;
         try {
-            if (Boolean.TRUE.equals(project.getSpecialApiStatus())) {
+            Project project = projectService.getProject(record.getProjectId(), record.getLineId());
+            Map<String, String> context = new HashMap<>();
+            context.put("phone", record.getPhoneNumber());
+            if (StringUtils.hasText(record.getApiPhoneId())) {
+                context.put("id", record.getApiPhoneId());
+            }
+            CodePollingPlan plan;
+            try {
+                plan = smsApiService.buildCodePollingPlan(project, context);
+            } catch (Exception e) {
+                log.info("轮询获码异常: {}", e.getMessage());
+                finishRetrieval(record, false, false, null);
+                return;
+            }
+            boolean isSpecial = plan.isSpecial();
+            if (isSpecial) {
                 log.info("记录[{}] 进入特殊获码流程 (等待{}s -> 请求一次)", numberId, project.getSpecialApiDelay());
-                try {
-                    result = smsApiService.getVerificationCodeSpecial(project, context, false);
-                    if (StringUtils.hasText(result) && !result.equalsIgnoreCase("NO")) {
-                        isSuccess = true;
-                    } else {
-                        log.info("记录[{}] 特殊API返回无码或NO，准备退款", numberId);
-                        isSuccess = false;
-                    }
-                } catch (Exception e) {
-                    log.error("记录[{}] 特殊API请求发生异常: {}", numberId, e.getMessage());
-                    isSuccess = false; // 异常视为失败
-                    handleSpecialApiException(numberId, e, "getVerificationCodeSpecial");
-                    return;
-                }
-            }else {
-                // 每次循环都会执行这个 Lambda。如果数据库中状态变成了 2(成功) 或 3(失败)，则停止轮询
-                Supplier<Boolean> stopCondition = () -> {
-                    NumberRecord current = baseMapper.selectById(numberId);
-                    return current == null || current.getStatus() != 1 || Integer.valueOf(1).equals(current.getIsReleased());
-                };
-                // 传入停止条件
-                result = smsApiService.getVerificationCode(project, context, stopCondition);
-                // 检查退出原因
-                NumberRecord finalCheck = baseMapper.selectById(numberId);
-                if (finalCheck != null && Integer.valueOf(1).equals(finalCheck.getIsReleased())) {
-                    log.info("记录[{}] 检测到号码已释放，停止取码并进入退款流程。", numberId);
-                    isSuccess = false;
-                    result = null; // 确保进入退款逻辑
-                } else if (StringUtils.hasText(result) && !result.contains("等待")) {
-                    isSuccess = true;
-                }
             }
-        } catch (Exception e) {
-            log.info("轮询获码异常: {}", e.getMessage());
+            // 每次轮询前检查登记表：状态变成了 2(成功) 或 3(失败)，或号码已释放，则停止轮询
+            BooleanSupplier stopCondition = isSpecial ? null
+                    : () -> activeOrderRegistry.shouldStop(numberId, () -> baseMapper.selectById(numberId));
+            codePollingScheduler.schedule(numberId, plan.getInitialDelayMs(), plan.getIntervalMs(), plan.getErrorIntervalMs(),
+                    plan.getTimeoutMs(), plan.getMaxAttempts(), plan.getAttempt(), stopCondition,
+                    (outcome, code, error) -> {
+                        if (outcome == CodePollingScheduler.Outcome.SUCCESS) {
+                            finishRetrieval(record, isSpecial, true, code);
+                            return;
+                        }
+                        if (outcome == CodePollingScheduler.Outcome.ERROR && isSpecial) {
+                            log.error("记录[{}] 特殊API请求发生异常: {}", numberId, error.getMessage());
+                            try {
+                                handleSpecialApiException(numberId, error, "getVerificationCodeSpecial");
+                            } finally {
+                                activeOrderRegistry.remove(numberId);
+                            }
+                            return;
+                        }
+                        if (outcome == CodePollingScheduler.Outcome.CANCELLED) {
+                            log.info("记录[{}] 检测到订单已关闭或号码已释放，停止取码。", numberId);
+                        } else if (isSpecial) {
+                            log.info("记录[{}] 特殊API返回无码或NO，准备退款", numberId);
+                        } else {
+                            log.info("记录[{}] 获取验证码超时({}ms未获取到)", numberId, plan.getTimeoutMs());
+                        }
+                        finishRetrieval(record, isSpecial, false, null);
+                    });
+            scheduled = true;
+        } finally {
+            if (!scheduled) {
+                activeOrderRegistry.remove(numberId);
+            }
         }
+    }
+
+    /**
+     * 轮询结束后落库：成功则扣费返利，失败/超时/释放则退款
+     */
+    private void finishRetrieval(NumberRecord record, boolean isSpecial, boolean isSuccess, String result) {
         try {
             self.updateRecordAfterRetrieval(record, isSuccess, result);
         } catch (Exception e) {
-            if (Boolean.TRUE.equals(project.getSpecialApiStatus())) {
-                log.info("special api fallback update triggered, numberId={}, err={}", numberId, e.getMessage(), e);
-                handleSpecialApiException(numberId, e, "updateRecordAfterRetrieval");
+            if (isSpecial) {
+                log.info("special api fallback update triggered, numberId={}, err={}", record.getId(), e.getMessage(), e);
+                handleSpecialApiException(record.getId(), e, "updateRecordAfterRetrieval");
                 return;
             }
             throw e;
+        } finally {
+            activeOrderRegistry.remove(record.getId());
         }
     }
 
@@ -478,13 +702,7 @@ public class NumberRecordServiceImpl extends ServiceImpl<NumberRecordMapper, Num
         if (record.getStatus() ==1) {
             return CommonResultDTO.error(Constants.ERROR_NO_CODE,"后台正在取码中，请稍后...");
         }
-        Project project = cacheManager.getProject(projectId, Integer.valueOf(lineId));
-        if (project == null) {
-            project = projectService.getProject(record.getProjectId(), record.getLineId());
-            if (project != null) {
-                cacheManager.cacheProject(projectId, Integer.valueOf(lineId), project);
-            }
-        }
+        Project project = projectService.getProject(record.getProjectId(), record.getLineId());
 
         // ================== 特殊API ==================
         if (Boolean.TRUE.equals(project.getSpecialApiStatus())) {
@@ -558,10 +776,6 @@ public class NumberRecordServiceImpl extends ServiceImpl<NumberRecordMapper, Num
         if (latestRecord.getStatus() == 2 && StringUtils.hasText(latestRecord.getCode())) {
             return;
         }
-        // 获取项目实例，以便提取该线路设置的风控阈值
-        Project project = projectService.getProject(latestRecord.getProjectId(), latestRecord.getLineId());
-
-
         if (isSuccess && StringUtils.hasText(result)) {
             // --- 1. 成功逻辑 ---
             if (latestRecord.getCharged() == 2) {
@@ -580,7 +794,7 @@ public class NumberRecordServiceImpl extends ServiceImpl<NumberRecordMapper, Num
                         .lineId(latestRecord.getLineId())
                         .projectId(latestRecord.getProjectId())
                         .build();
-                BigDecimal newBalance = ledgerService.createLedgerAndUpdateBalance(reDeductDto);
+                BigDecimal newBalance = ledgerService.createOrderLedger(reDeductDto);
                 latestRecord.setBalanceAfter(newBalance);
                 latestRecord.setCharged(1);
             }
@@ -595,17 +809,10 @@ public class NumberRecordServiceImpl extends ServiceImpl<NumberRecordMapper, Num
             }
 
             this.updateById(latestRecord); // 更新数据库
-            cacheManager.cacheRecord(latestRecord);
-            cacheManager.evictUser(latestRecord.getUserName());
-
-            userService.updateUserStats(latestRecord.getUserId());
-            try {
-                userService.processRebates(latestRecord);
-            } catch (Exception e) {
-                log.error("代理返款失败，记录ID: {}", latestRecord.getId(), e);
-            }
-            // 【新增】：向 Redis 反馈一次该独立线路下接码成功
-            userProjectBanService.recordAttemptAndCheckBan(latestRecord.getUserId(), latestRecord.getProjectId(), latestRecord.getLineId(), latestRecord.getId(), true, project);
+            // 缓存刷新、统计、返点、风控计数、释放号码在提交后由外发事件异步执行
+            orderOutboxService.enqueue(latestRecord, true,
+                    OutboxEventType.CACHE_REFRESH, OutboxEventType.CODE_STATS, OutboxEventType.REBATE,
+                    OutboxEventType.RISK_SCORE, OutboxEventType.PROVIDER_RELEASE);
         } else {
             // --- 2. 失败/超时逻辑 ---
             if (latestRecord.getCharged() == 1) {
@@ -625,48 +832,26 @@ public class NumberRecordServiceImpl extends ServiceImpl<NumberRecordMapper, Num
                         .projectId(latestRecord.getProjectId())
                         .build();
 
-                BigDecimal balanceAfterRefund = ledgerService.createLedgerAndUpdateBalance(refundDto);
+                BigDecimal balanceAfterRefund = ledgerService.createOrderLedger(refundDto);
                 latestRecord.setBalanceAfter(balanceAfterRefund);
 
                 this.updateById(latestRecord); // 更新数据库
-                cacheManager.cacheRecord(latestRecord);
-                cacheManager.evictUser(latestRecord.getUserName());
-                userService.updateUserStats(latestRecord.getUserId());
-
-                // 【新增】：向 Redis 反馈一次该独立线路下退款（即未接码失败）
-                userProjectBanService.recordAttemptAndCheckBan(latestRecord.getUserId(), latestRecord.getProjectId(), latestRecord.getLineId(), latestRecord.getId(), false, project);
+                orderOutboxService.enqueue(latestRecord, false,
+                        OutboxEventType.CACHE_REFRESH, OutboxEventType.RISK_SCORE, OutboxEventType.PROVIDER_RELEASE);
+            } else {
+                orderOutboxService.enqueue(latestRecord, false, OutboxEventType.PROVIDER_RELEASE);
             }
         }
 
-        // --- 3. 释放手机号逻辑 ---
-        final String pId = latestRecord.getProjectId();
-        final Integer lId = latestRecord.getLineId();
-        final String phone = latestRecord.getPhoneNumber();
-        final String apiId = latestRecord.getApiPhoneId();
-        final boolean isFinalSuccess = (latestRecord.getStatus() == 2);
-
-        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
-            @Override
-            public void afterCommit() {
-                try {
-                    // 这里不需要改缓存，因为是外部 API 调用
-                    Project project = projectService.getProject(pId, lId);
-                    if (project != null) {
-                        Map<String, String> releaseContext = new HashMap<>();
-                        releaseContext.put("phone", phone);
-                        releaseContext.put("id", apiId);
-                        smsApiService.releasePhoneNumber(project, releaseContext, isFinalSuccess);
-                        log.info("订单处理结束，已按[{}]状态触发释放手机号: {}",
-                                isFinalSuccess ? "成功" : "失败/超时", phone);
-                    }
-                } catch (Exception e) {
-                    log.warn("事务提交后释放手机号异常(不影响主业务), phone: {}, err: {}", phone, e.getMessage());
-                }
-            }
-        });
+        numberRecordActiveService.onStatusChanged(latestRecord.getId(), latestRecord.getStatus());
+        if (latestRecord.getStatus() >= 2) {
+            projectConcurrencyLimiter.releaseAfterCommit(latestRecord.getProjectId(), latestRecord.getLineId(), latestRecord.getId());
+        }
+        activeOrderRegistry.markStatusAfterCommit(latestRecord.getId(), latestRecord.getStatus());
     }
 
 
+
     @Override
     public IPage<NumberDTO> listUserNumbers(Long userId, String password, Integer statusFilter, Date startTime, Date endTime, IPage<NumberRecord> page) {
         if (userService.authenticate(userId, password) == null) return null;
@@ -732,9 +917,7 @@ public class NumberRecordServiceImpl extends ServiceImpl<NumberRecordMapper, Num
     }
 
     private boolean hasOngoingRecord(Long userId) {
-        return this.count(new LambdaQueryWrapper<NumberRecord>()
-                .eq(NumberRecord::getUserId, userId)
-                .in(NumberRecord::getStatus, 0, 1)) > 0;
+        return numberRecordActiveService.hasOngoing(userId);
     }
 
     private void addCommonFilters(LambdaQueryWrapper<NumberRecord> wrapper, Integer status, Date start, Date end,
@@ -1331,9 +1514,17 @@ public class NumberRecordServiceImpl extends ServiceImpl<NumberRecordMapper, Num
                         .build();
 
                 ledgerService.createLedgerAndUpdateBalance(refundLedger);
+                if (record.getStatus() != null && record.getStatus() == 2 && StringUtils.hasText(record.getCode())) {
+                    // 已成功的记录被退款作废，回退成功取码计数
+                    userService.applyStatsDelta(record.getUserId(), 0, -1, record.getGetNumberTime());
+                    userCodeRateTracker.recordCodeReverted(record.getUserId(), record.getGetNumberTime());
+                }
                 record.setStatus(4);
                 record.setCharged(2);
                 record.setRemark(record.getRemark() + " [管理员批量退款]");
+                numberRecordActiveService.onStatusChanged(record.getId(), 4);
+                projectConcurrencyLimiter.releaseAfterCommit(record.getProjectId(), record.getLineId(), record.getId());
+                activeOrderRegistry.markStatusAfterCommit(record.getId(), 4);
                 recordsToUpdate.add(record);
                 successCount++;
             } catch (Exception e) {
@@ -1402,14 +1593,10 @@ public class NumberRecordServiceImpl extends ServiceImpl<NumberRecordMapper, Num
     public CommonResultDTO<String> releasePhoneNumber(String userName, String password, String phoneNumber, String projectId, String lineId, boolean isSuccess) {
         User user = userService.authenticateUserByUserName(userName, password);
         if (user == null) return CommonResultDTO.error(Constants.ERROR_AUTH_FAILED, "用户验证失败");
-        NumberRecord record = this.getOne(new LambdaQueryWrapper<NumberRecord>()
-                .eq(NumberRecord::getUserId, user.getId())
-                .eq(NumberRecord::getPhoneNumber, phoneNumber)
-                .eq(NumberRecord::getProjectId, projectId)
-                .in(NumberRecord::getStatus, 0, 1)
-                .last("LIMIT 1"));
+        Long ongoingId = numberRecordActiveService.findOngoingId(user.getId(), phoneNumber, projectId);
+        NumberRecord record = ongoingId == null ? null : this.getById(ongoingId);
 
-        if (record == null) {
+        if (record == null || record.getStatus() == null || record.getStatus() >= 2) {
             return CommonResultDTO.error(Constants.ERROR_SYSTEM_ERROR, "未找到进行中的订单或已处理");
         }
         // 1. 获取项目配置
@@ -1429,6 +1616,9 @@ public class NumberRecordServiceImpl extends ServiceImpl<NumberRecordMapper, Num
                         .set(NumberRecord::getIsReleased, 1)
                         .eq(NumberRecord::getId, record.getId())
                         .update();
+                // 立即结束该订单的轮询任务，进入退款流程
+                activeOrderRegistry.markReleasedAfterCommit(record.getId());
+                codePollingScheduler.cancel(record.getId());
                 log.info("号码 {} 释放成功，已标记数据库。", phoneNumber);
                 return CommonResultDTO.success("释放成功", phoneNumber);
             } else {
@@ -1455,6 +1645,9 @@ public class NumberRecordServiceImpl extends ServiceImpl<NumberRecordMapper, Num
         latestRecord.setStatus(3);
         latestRecord.setCodeReceivedTime(LocalDateTime.now());
         latestRecord.setErrorInfo(buildSpecialApiErrorInfo(stage, e));
+        numberRecordActiveService.onStatusChanged(numberId, 3);
+        projectConcurrencyLimiter.releaseAfterCommit(latestRecord.getProjectId(), latestRecord.getLineId(), numberId);
+        activeOrderRegistry.markStatusAfterCommit(numberId, 3);
 
         if (latestRecord.getCharged() == null || latestRecord.getCharged() == 0) {
             this.updateById(latestRecord);
@@ -1485,14 +1678,13 @@ public class NumberRecordServiceImpl extends ServiceImpl<NumberRecordMapper, Num
                 .projectId(latestRecord.getProjectId())
                 .build();
 
-        BigDecimal balanceAfterRefund = ledgerService.createLedgerAndUpdateBalance(refundDto);
+        BigDecimal balanceAfterRefund = ledgerService.createOrderLedger(refundDto);
         latestRecord.setCharged(2);
         latestRecord.setBalanceAfter(balanceAfterRefund);
 
         this.updateById(latestRecord);
         cacheManager.cacheRecord(latestRecord);
         cacheManager.evictUser(latestRecord.getUserName());
-        userService.updateUserStats(latestRecord.getUserId());
 
         log.info("特殊接口异常回退：已更新记录状态并完成退款, numberId={}, stage={}, status={}, charged={}",
                 numberId, stage, latestRecord.getStatus(), latestRecord.getCharged());
@@ -0,0 +1,347 @@
+package com.wzz.smscode.service.impl;
+
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wzz.smscode.cacheManager.NumberRecordCacheManager;
+import com.wzz.smscode.cacheManager.UserCodeRateTracker;
+import com.wzz.smscode.dto.CreatDTO.LedgerCreationDTO;
+import com.wzz.smscode.entity.NumberRecord;
+import com.wzz.smscode.entity.OrderOutbox;
+import com.wzz.smscode.entity.Project;
+import com.wzz.smscode.enums.OutboxEventType;
+import com.wzz.smscode.exception.BusinessException;
+import com.wzz.smscode.mapper.NumberRecordMapper;
+import com.wzz.smscode.mapper.OrderOutboxMapper;
+import com.wzz.smscode.moduleService.SmsApiService;
+import com.wzz.smscode.service.OrderOutboxService;
+import com.wzz.smscode.service.ProjectService;
+import com.wzz.smscode.service.UserLedgerService;
+import com.wzz.smscode.service.UserProjectBanService;
+import com.wzz.smscode.service.UserService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 订单事务外发（Transactional Outbox）
+ * <p>
+ * 订单状态流转事务只负责“锁订单 -> 资金变动 -> 更新状态 -> 写外发事件”，
+ * 统计、返点、风控计数、缓存刷新、释放号码都在提交后由本服务异步执行：
+ * 提交后立即在虚拟线程中按写入顺序投递；进程在提交后、投递前崩溃时，由定时任务扫描到期事件补投。
+ * </p>
+ * <p>
+ * 幂等：统计、返点、风控计数在一个事务中先 {@code markDone}（只有待投递状态才能更新成功）再执行处理，
+ * 数据库副作用与出队标记一起提交或回滚，恰好执行一次（风控计数按订单ID写入 ZSET，重复执行无副作用）；
+ * 缓存刷新和释放号码不占用数据库连接：先认领事件（认领有时限，进程崩溃后到期可再次认领），在事务外执行，成功后才标记完成，
+ * 上游释放失败同样按失败重试，至少执行一次。
+ * </p>
+ * <p>
+ * 失败次数达到上限的事件转为失败状态保留在表中，在事务中执行的事件（资金、统计、风控）每天重新投递一轮，不会被丢弃。
+ * </p>
+ * <p>
+ * 订单资金变动（ORDER_LEDGER）不关联订单：启用账本组提交时随订单事务写入，提交后由账本组提交写入器落账并标记完成，
+ * 写入器未能落账（写入失败、进程崩溃）时由补投任务直接落账。
+ * </p>
+ */
+@Slf4j
+@Service
+public class OrderOutboxServiceImpl extends ServiceImpl<OrderOutboxMapper, OrderOutbox> implements OrderOutboxService {
+
+    @Autowired
+    @Lazy
+    private OrderOutboxService self;
+
+    @Autowired
+    private NumberRecordMapper numberRecordMapper;
+
+    @Autowired
+    @Lazy
+    private UserService userService;
+
+    @Autowired
+    @Lazy
+    private ProjectService projectService;
+
+    @Autowired
+    @Lazy
+    private UserProjectBanService userProjectBanService;
+
+    @Autowired
+    @Lazy
+    private SmsApiService smsApiService;
+
+    @Autowired
+    @Lazy
+    private UserLedgerService userLedgerService;
+
+    @Autowired
+    @Lazy
+    private NumberRecordCacheManager numberRecordCacheManager;
+
+    @Autowired
+    @Lazy
+    private UserCodeRateTracker userCodeRateTracker;
+
+    @Value("${sms.outbox.recovery-delay-ms:30000}")
+    private long recoveryDelayMs = 30000;
+
+    @Value("${sms.outbox.max-attempts:20}")
+    private int maxAttempts = 20;
+
+    @Value("${sms.outbox.batch-size:200}")
+    private int batchSize = 200;
+
+    @Value("${sms.outbox.retain-days:3}")
+    private int retainDays = 3;
+
+    @Value("${sms.outbox.claim-lease-ms:300000}")
+    private long claimLeaseMs = 300000;
+
+    private static final ObjectMapper PAYLOAD_MAPPER = new ObjectMapper();
+
+    private final ExecutorService dispatchExecutor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("order-outbox-", 0).factory());
+
+    @PreDestroy
+    public void shutdown() {
+        // 未投递的事件仍在表中，重启后由补投任务处理
+        dispatchExecutor.shutdownNow();
+    }
+
+    @Override
+    public void enqueue(NumberRecord record, boolean success, OutboxEventType... types) {
+        if (record == null || record.getId() == null || types.length == 0) {
+            return;
+        }
+        // 立即投递在提交后进行，补投任务只处理超过恢复延迟仍未完成的事件，避免两边同时处理
+        LocalDateTime recoverAt = LocalDateTime.now().plusNanos(recoveryDelayMs * 1_000_000L);
+        List<OrderOutbox> events = new ArrayList<>(types.length);
+        for (OutboxEventType type : types) {
+            OrderOutbox event = new OrderOutbox();
+            event.setRecordId(record.getId());
+            event.setEventType(type.name());
+            event.setSuccess(success ? 1 : 0);
+            event.setStatus(OrderOutbox.STATUS_PENDING);
+            event.setAttempts(0);
+            event.setNextAttemptTime(recoverAt);
+            baseMapper.insert(event);
+            events.add(event);
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    dispatchAsync(events);
+                }
+            });
+        } else {
+            dispatchAsync(events);
+        }
+    }
+
+    @Override
+    public Long enqueueLedger(LedgerCreationDTO request) {
+        OrderOutbox event = new OrderOutbox();
+        event.setEventType(OutboxEventType.ORDER_LEDGER.name());
+        event.setSuccess(0);
+        event.setStatus(OrderOutbox.STATUS_PENDING);
+        event.setAttempts(0);
+        try {
+            event.setPayload(PAYLOAD_MAPPER.writeValueAsString(request));
+        } catch (JsonProcessingException e) {
+            throw new BusinessException("订单资金变动事件序列化失败: " + e.getMessage());
+        }
+        // 提交后由账本组提交写入器落账，补投任务只处理超过恢复延迟仍未完成的事件
+        event.setNextAttemptTime(LocalDateTime.now().plusNanos(recoveryDelayMs * 1_000_000L));
+        baseMapper.insert(event);
+        return event.getId();
+    }
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public boolean handle(OrderOutbox event) {
+        if (baseMapper.markDone(event.getId()) != 1) {
+            return false;
+        }
+        if (OutboxEventType.ORDER_LEDGER.name().equals(event.getEventType())) {
+            applyLedger(event);
+            return true;
+        }
+        apply(event);
+        return true;
+    }
+
+    /**
+     * 事务外执行的事件：认领成功后处理，成功才标记完成，失败时由调用方记录重试
+     */
+    private boolean handleClaimed(OrderOutbox event) {
+        LocalDateTime now = LocalDateTime.now();
+        if (baseMapper.claim(event.getId(), now, now.plusNanos(claimLeaseMs * 1_000_000L)) != 1) {
+            return false;
+        }
+        apply(event);
+        baseMapper.completeClaimed(event.getId());
+        return true;
+    }
+
+    private void apply(OrderOutbox event) {
+        NumberRecord record = numberRecordMapper.selectById(event.getRecordId());
+        if (record == null) {
+            log.warn("外发事件 {} 对应的订单 {} 已不存在，跳过", event.getId(), event.getRecordId());
+            return;
+        }
+        boolean success = Integer.valueOf(1).equals(event.getSuccess());
+        switch (OutboxEventType.valueOf(event.getEventType())) {
+            case CACHE_REFRESH -> {
+                numberRecordCacheManager.cacheRecord(record);
+                numberRecordCacheManager.evictUser(record.getUserName());
+            }
+            case CODE_STATS -> {
+                userService.applyStatsDelta(record.getUserId(), 0, 1, record.getGetNumberTime());
+                userCodeRateTracker.recordCodeReceived(record.getUserId(), record.getGetNumberTime());
+            }
+            case REBATE -> userService.processRebates(record);
+            case RISK_SCORE -> {
+                Project project = projectService.getProject(record.getProjectId(), record.getLineId());
+                userProjectBanService.recordAttemptAndCheckBan(record.getUserId(), record.getProjectId(),
+                        record.getLineId(), record.getId(), success, project);
+            }
+            case PROVIDER_RELEASE -> {
+                Project project = projectService.getProject(record.getProjectId(), record.getLineId());
+                if (project != null) {
+                    Map<String, String> releaseContext = new HashMap<>();
+                    releaseContext.put("phone", record.getPhoneNumber());
+                    releaseContext.put("id", record.getApiPhoneId());
+                    smsApiService.releasePhoneNumberOrFail(project, releaseContext, success);
+                    log.info("订单处理结束，已按[{}]状态释放手机号: {}",
+                            success ? "成功" : "失败/超时", record.getPhoneNumber());
+                }
+            }
+        }
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${sms.outbox.poll-interval-ms:5000}")
+    public int dispatchDue() {
+        int handled = 0;
+        while (true) {
+            List<OrderOutbox> due = baseMapper.selectDue(LocalDateTime.now(), batchSize);
+            if (due.isEmpty()) {
+                break;
+            }
+            for (OrderOutbox event : due) {
+                if (dispatch(event)) {
+                    handled++;
+                }
+            }
+            if (due.size() < batchSize) {
+                break;
+            }
+        }
+        if (handled > 0) {
+            log.info("订单外发事件补投完成: {} 条", handled);
+        }
+        return handled;
+    }
+
+    @Override
+    @Scheduled(cron = "${sms.outbox.purge-cron:0 15 4 * * ?}")
+    public void purgeDone() {
+        LocalDateTime before = LocalDateTime.now().minusDays(retainDays);
+        int total = 0;
+        int deleted;
+        do {
+            deleted = baseMapper.deleteDoneBefore(before, 5000);
+            total += deleted;
+        } while (deleted > 0);
+        log.info("已清理 {} 天前完成的订单外发事件: {} 条", retainDays, total);
+    }
+
+    @Override
+    @Scheduled(cron = "${sms.outbox.dead-retry-cron:0 45 4 * * ?}")
+    public int reviveDead() {
+        List<String> types = Arrays.stream(OutboxEventType.values())
+                .filter(OutboxEventType::isTransactional)
+                .map(Enum::name)
+                .toList();
+        int total = 0;
+        int revived;
+        do {
+            revived = baseMapper.reviveDead(types, 5000);
+            total += revived;
+        } while (revived > 0);
+        if (total > 0) {
+            log.warn("失败次数达到上限的订单外发事件已重新转为待投递: {} 条", total);
+        }
+        return total;
+    }
+
+    private void applyLedger(OrderOutbox event) {
+        LedgerCreationDTO request;
+        try {
+            request = PAYLOAD_MAPPER.readValue(event.getPayload(), LedgerCreationDTO.class);
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            throw new BusinessException("订单资金变动事件 " + event.getId() + " 参数无效: " + e.getMessage());
+        }
+        BigDecimal balance = userLedgerService.applyOrderLedger(request);
+        log.warn("账本组提交写入器未落账，已补投用户 {} 的资金变动（事件 {}），变更后余额: {}", request.getUserId(), event.getId(), balance);
+    }
+
+    private void dispatchAsync(List<OrderOutbox> events) {
+        try {
+            dispatchExecutor.execute(() -> events.forEach(this::dispatch));
+        } catch (Exception e) {
+            log.warn("订单外发事件提交投递失败，等待补投: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 投递单个事件，失败时记录并按指数退避安排补投
+     *
+     * @return 是否成功处理
+     */
+    private boolean dispatch(OrderOutbox event) {
+        try {
+            OutboxEventType type = OutboxEventType.valueOf(event.getEventType());
+            return type.isTransactional() ? self.handle(event) : handleClaimed(event);
+        } catch (Exception e) {
+            int attempts = event.getAttempts() == null ? 0 : event.getAttempts();
+            long delaySeconds = Math.min(1L << Math.min(attempts, 10), 600L);
+            String error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+            if (error.length() > 500) {
+                error = error.substring(0, 500);
+            }
+            try {
+                baseMapper.markRetry(event.getId(), error, LocalDateTime.now().plusSeconds(delaySeconds), maxAttempts);
+            } catch (Exception markError) {
+                log.error("记录外发事件 {} 失败次数异常: {}", event.getId(), markError.getMessage());
+            }
+            if (attempts + 1 >= maxAttempts) {
+                log.error("订单外发事件 {}（订单 {}，类型 {}）已失败 {} 次，转为失败状态等待重新投递或人工处理: {}",
+                        event.getId(), event.getRecordId(), event.getEventType(), attempts + 1, error);
+            } else {
+                log.warn("订单外发事件 {}（订单 {}，类型 {}）处理失败，{} 秒后重试: {}",
+                        event.getId(), event.getRecordId(), event.getEventType(), delaySeconds, error);
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.wzz.smscode.service.impl;
+
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.wzz.smscode.cacheManager.NumberRecordCacheManager;
+import com.wzz.smscode.dto.CreatDTO.LedgerCreationDTO;
+import com.wzz.smscode.entity.NumberRecord;
+import com.wzz.smscode.entity.PendingRebate;
+import com.wzz.smscode.entity.User;
+import com.wzz.smscode.entity.UserLedger;
+import com.wzz.smscode.enums.FundType;
+import com.wzz.smscode.exception.BusinessException;
+import com.wzz.smscode.mapper.PendingRebateMapper;
+import com.wzz.smscode.mapper.UserLedgerMapper;
+import com.wzz.smscode.mapper.UserMapper;
+import com.wzz.smscode.service.PendingRebateService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.CollectionUtils;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 延迟返点结算
+ * <p>
+ * 顶层代理承接了其下所有订单的返点，立即结算时每笔成功订单都要锁一次同一行 user 记录，
+ * 高并发下该行成为热点。延迟结算模式下这部分返点先写入只追加的 pending_rebate 表（插入不争抢行锁），
+ * 再由后台任务按代理汇总：一个事务内锁定一批明细、一次更新余额、写一条汇总账本，
+ * 并把账本ID回写到每条明细，汇总金额始终等于其关联明细之和，可逐笔审计。
+ * </p>
+ * <p>
+ * 结算事务中途失败（包括进程崩溃）时整体回滚，明细仍为待结算状态，下一轮重新结算；
+ * 明细只会从待结算状态被标记一次，不会重复入账。
+ * </p>
+ */
+@Slf4j
+@Service
+public class PendingRebateServiceImpl extends ServiceImpl<PendingRebateMapper, PendingRebate> implements PendingRebateService {
+
+    private static final String MODE_DEFERRED = "deferred";
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    private UserLedgerMapper userLedgerMapper;
+
+    @Autowired
+    @Lazy
+    private NumberRecordCacheManager numberRecordCacheManager;
+
+    @Autowired
+    @Lazy
+    private PendingRebateService self;
+
+    @Value("${sms.rebate.settlement-mode:immediate}")
+    private String settlementMode = "immediate";
+
+    @Value("${sms.rebate.settle-batch-size:1000}")
+    private int settleBatchSize = 1000;
+
+    @Value("${sms.rebate.settle-agent-batch-size:200}")
+    private int settleAgentBatchSize = 200;
+
+    @Override
+    public boolean isDeferred() {
+        return MODE_DEFERRED.equalsIgnoreCase(settlementMode);
+    }
+
+    @Override
+    public void appendAll(List<LedgerCreationDTO> rebates, NumberRecord record) {
+        if (CollectionUtils.isEmpty(rebates)) {
+            return;
+        }
+        List<PendingRebate> rows = new ArrayList<>(rebates.size());
+        for (LedgerCreationDTO rebate : rebates) {
+            if (rebate.getUserId() == null || rebate.getAmount() == null
+                    || rebate.getAmount().compareTo(BigDecimal.ZERO) <= 0) {
+                throw new BusinessException(0, "待结算返点参数缺失或无效");
+            }
+            PendingRebate row = new PendingRebate();
+            row.setAgentId(rebate.getUserId());
+            row.setAmount(rebate.getAmount());
+            row.setRecordId(record.getId());
+            row.setConsumerUserId(record.getUserId());
+            row.setProjectId(rebate.getProjectId());
+            row.setLineId(rebate.getLineId());
+            row.setPhoneNumber(rebate.getPhoneNumber());
+            row.setCode(rebate.getCode());
+            row.setRemark(rebate.getRemark());
+            row.setStatus(PendingRebate.STATUS_PENDING);
+            rows.add(row);
+        }
+        for (PendingRebate row : rows) {
+            if (baseMapper.insert(row) != 1) {
+                throw new BusinessException("写入待结算返点失败");
+            }
+        }
+        log.info("记录ID {} 的 {} 笔返点已写入待结算流水", record.getId(), rows.size());
+    }
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public int settleAgent(Long agentId) {
+        List<PendingRebate> rows = baseMapper.selectPendingForUpdate(agentId, settleBatchSize);
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        List<Long> ids = rows.stream().map(PendingRebate::getId).toList();
+        LocalDateTime now = LocalDateTime.now();
+
+        User agent = userMapper.selectByIdForUpdate(agentId);
+        if (agent == null) {
+            // 代理已被删除（其账本随之级联删除），明细作废留档
+            markSettled(ids, PendingRebate.STATUS_VOID, null, now);
+            log.warn("代理 {} 不存在，{} 笔待结算返点已作废", agentId, ids.size());
+            return ids.size();
+        }
+
+        BigDecimal total = BigDecimal.ZERO;
+        for (PendingRebate row : rows) {
+            total = total.add(row.getAmount());
+        }
+        BigDecimal balanceBefore = agent.getBalance();
+        BigDecimal balanceAfter = balanceBefore.add(total);
+
+        User update = new User();
+        update.setId(agentId);
+        update.setBalance(balanceAfter);
+        if (userMapper.updateById(update) != 1) {
+            throw new BusinessException("更新代理余额失败");
+        }
+
+        UserLedger ledger = new UserLedger();
+        ledger.setUserId(agentId);
+        ledger.setUserName(agent.getUserName());
+        ledger.setPrice(total);
+        ledger.setLedgerType(1);
+        ledger.setFundType(FundType.ADMIN_REBATE.getCode());
+        ledger.setBalanceBefore(balanceBefore);
+        ledger.setBalanceAfter(balanceAfter);
+        ledger.setTimestamp(now);
+        ledger.setRemark(String.format("业务完成 返利汇总: %d笔 待结算流水ID %d-%d",
+                rows.size(), ids.get(0), ids.get(ids.size() - 1)));
+        if (userLedgerMapper.insert(ledger) != 1 || ledger.getId() == null) {
+            throw new BusinessException("写入返利汇总账本失败");
+        }
+
+        markSettled(ids, PendingRebate.STATUS_SETTLED, ledger.getId(), now);
+        numberRecordCacheManager.evictUser(agent.getUserName());
+        log.info("代理 {} (ID: {}) 结算返点 {} 笔，合计 {}，账本ID {}",
+                agent.getUserName(), agentId, rows.size(), total, ledger.getId());
+        return rows.size();
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${sms.rebate.settle-interval-ms:10000}")
+    public int settlePending() {
+        if (!isDeferred()) {
+            return 0;
+        }
+        int settled = 0;
+        while (true) {
+            List<Long> agentIds = baseMapper.selectPendingAgentIds(settleAgentBatchSize);
+            if (agentIds.isEmpty()) {
+                break;
+            }
+            int round = 0;
+            for (Long agentId : agentIds) {
+                try {
+                    round += self.settleAgent(agentId);
+                } catch (Exception e) {
+                    log.error("代理 {} 返点结算失败，下一轮重试: {}", agentId, e.getMessage());
+                }
+            }
+            settled += round;
+            // 本轮全部失败时不再空转，等下一个周期
+            if (round == 0) {
+                break;
+            }
+        }
+        return settled;
+    }
+
+    private void markSettled(List<Long> ids, int status, Long ledgerId, LocalDateTime now) {
+        int updated = baseMapper.markSettled(ids, status, ledgerId, now);
+        if (updated != ids.size()) {
+            throw new BusinessException("待结算返点状态已变化，预期 " + ids.size() + " 条，实际 " + updated + " 条");
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.wzz.smscode.service.impl;
 
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.wzz.smscode.cacheManager.PriceIndex;
 import com.wzz.smscode.entity.PriceTemplate;
 import com.wzz.smscode.entity.PriceTemplateItem;
 import com.wzz.smscode.entity.Project;
@@ -40,6 +41,7 @@ public class PriceSyncServiceImpl implements PriceSyncService {
     @Autowired @Lazy private PriceTemplateItemService priceTemplateItemService;
     @Autowired @Lazy private ProjectService projectService;
     @Autowired @Lazy private UserService userService;
+    @Autowired private PriceIndex priceIndex;
 
     @Override
     public void validateProjectPriceConfig(Project project) {
@@ -155,6 +157,7 @@ public class PriceSyncServiceImpl implements PriceSyncService {
 
         if (!itemsToUpdate.isEmpty()) {
             priceTemplateItemService.updateBatchById(itemsToUpdate, 500);
+            priceIndex.markChanged();
         }
         log.info("项目价格同步已完成，projectId={}, lineId={}, updatedItems={}",
                 project.getProjectId(), project.getLineId(), itemsToUpdate.size());
@@ -4,6 +4,7 @@ import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.core.metadata.IPage;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.wzz.smscode.cacheManager.PriceIndex;
 import com.wzz.smscode.dto.PriceTemplateCreateDTO;
 import com.wzz.smscode.dto.PriceTemplateItemDTO;
 import com.wzz.smscode.dto.PriceTemplateResponseDTO;
@@ -50,6 +51,9 @@ public class PriceTemplateServiceImpl extends ServiceImpl<PriceTemplateMapper, P
     @Autowired
     private PriceTemplateSyncTaskService priceTemplateSyncTaskService;
 
+    @Autowired
+    private PriceIndex priceIndex;
+
 
     @Transactional(rollbackFor = Exception.class)
     @Override
@@ -143,6 +147,7 @@ public class PriceTemplateServiceImpl extends ServiceImpl<PriceTemplateMapper, P
 
         priceTemplateItemService.saveBatch(itemsToSave);
         priceSyncService.syncByTemplateChanged(template.getId());
+        priceIndex.markChanged();
         return true;
     }
 
@@ -243,6 +248,7 @@ public class PriceTemplateServiceImpl extends ServiceImpl<PriceTemplateMapper, P
             priceTemplateItemService.saveBatch(items);
         }
         priceSyncService.syncByTemplateChanged(template.getId());
+        priceIndex.markChanged();
         return true;
     }
 
@@ -516,6 +522,7 @@ public class PriceTemplateServiceImpl extends ServiceImpl<PriceTemplateMapper, P
                 priceTemplateItemService.saveBatch(newItems);
             }
         }
+        priceIndex.markChanged();
         return true;
     }
 
@@ -536,6 +543,7 @@ public class PriceTemplateServiceImpl extends ServiceImpl<PriceTemplateMapper, P
             throw new BusinessException("模板ID不能为空");
         }
 
+        priceIndex.markChanged();
         if (operatorId.equals(0L)) {
             return this.removeById(templateId);
         }else {
@@ -582,14 +590,22 @@ public class PriceTemplateServiceImpl extends ServiceImpl<PriceTemplateMapper, P
 
         priceTemplateItemService.remove(new LambdaQueryWrapper<PriceTemplateItem>()
                 .in(PriceTemplateItem::getTemplateId, ids));
+        priceIndex.markChanged();
         return this.removeByIds(ids);
     }
 
     @Autowired private PriceTemplateItemMapper itemMapper;
 
 
+    /**
+     * 获取模板中某个项目线路的价格配置，优先读内存价格索引；返回的对象只读
+     */
     @Override
     public PriceTemplateItem getPriceConfig(Long templateId, String projectId, Integer lineId) {
+        PriceTemplateItem indexed = priceIndex.find(templateId, projectId, lineId);
+        if (indexed != PriceIndex.MISS) {
+            return indexed;
+        }
         return itemMapper.selectOne(new LambdaQueryWrapper<PriceTemplateItem>()
                 .eq(PriceTemplateItem::getTemplateId, templateId)
                 .eq(PriceTemplateItem::getProjectId, projectId)
@@ -3,7 +3,8 @@ package com.wzz.smscode.service.impl;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.wzz.smscode.cacheManager.NumberRecordCacheManager;
+import com.wzz.smscode.cacheManager.PriceIndex;
+import com.wzz.smscode.cacheManager.ProjectConfigCache;
 import com.wzz.smscode.dto.ApiConfig.ApiConfig;
 import com.wzz.smscode.dto.project.ProjectAddResponseDTO;
 import com.wzz.smscode.dto.project.ProjectPriceDetailsDTO;
@@ -56,7 +57,10 @@ public class ProjectServiceImpl extends ServiceImpl<ProjectMapper, Project> impl
     private ProjectSyncTaskService projectSyncTaskService;
 
     @Autowired
-    private NumberRecordCacheManager cacheManager; // 注入缓存管理器
+    private ProjectConfigCache projectConfigCache; // 项目配置两级缓存
+
+    @Autowired
+    private PriceIndex priceIndex;
 
     private void validateSpecialChannelSwitches(Project project) {
         int enabledCount = 0;
@@ -84,7 +88,7 @@ public class ProjectServiceImpl extends ServiceImpl<ProjectMapper, Project> impl
             return false;
         }
         String oldProjectId = existingProject.getProjectId();
-        Integer oldLineId = Integer.valueOf(existingProject.getLineId());
+        String oldLineId = existingProject.getLineId();
         validateProjectUrls(projectDTO);
         Project projectToUpdate = new Project();
         BeanUtils.copyProperties(projectDTO, projectToUpdate);
@@ -96,8 +100,8 @@ public class ProjectServiceImpl extends ServiceImpl<ProjectMapper, Project> impl
         Project updatedProject = this.getById(projectDTO.getId());
         validateSpecialChannelSwitches(updatedProject);
         priceSyncService.validateProjectPriceConfig(updatedProject);
-        cacheManager.evictProject(oldProjectId, oldLineId);
-        cacheManager.evictProject(updatedProject.getProjectId(), Integer.valueOf(updatedProject.getLineId()));
+        projectConfigCache.invalidate(oldProjectId, oldLineId);
+        projectConfigCache.invalidate(updatedProject.getProjectId(), updatedProject.getLineId());
         log.info("项目基础信息已更新并清理缓存, ID: {}", projectDTO.getId());
         log.info("开始按层级同步关联价格模板项, Project ID: {}", projectDTO.getId());
         priceSyncService.syncByProjectChanged(updatedProject);
@@ -105,13 +109,17 @@ public class ProjectServiceImpl extends ServiceImpl<ProjectMapper, Project> impl
         return true;
     }
 
+    /**
+     * 获取项目配置，走两级缓存；每次返回独立的副本
+     */
     @Override
     public Project getProject(String projectId, Integer lineId) {
-
-        LambdaQueryWrapper<Project> wrapper = new LambdaQueryWrapper<>();
-        wrapper.eq(Project::getProjectId, projectId)
-                .eq(Project::getLineId, lineId);
-        return this.getOne(wrapper);
+        return projectConfigCache.get(projectId, lineId, () -> {
+            LambdaQueryWrapper<Project> wrapper = new LambdaQueryWrapper<>();
+            wrapper.eq(Project::getProjectId, projectId)
+                    .eq(Project::getLineId, lineId);
+            return this.getOne(wrapper);
+        });
     }
 
     @Override
@@ -344,6 +352,7 @@ public class ProjectServiceImpl extends ServiceImpl<ProjectMapper, Project> impl
             if (!itemsSaved) {
                 throw new BusinessException("为模板批量创建项目配置失败，操作已回滚。");
             }
+            priceIndex.markChanged();
         }
 
         return true;
@@ -416,11 +425,8 @@ public class ProjectServiceImpl extends ServiceImpl<ProjectMapper, Project> impl
 
         // 执行删除模板项
         priceTemplateItemService.remove(deleteWrapper);
-        try {
-            cacheManager.evictProject(projectToDelete.getProjectId(), Integer.valueOf(projectToDelete.getLineId()));
-        } catch (NumberFormatException e) {
-            log.warn("项目 '{}' 的线路ID不是数字，跳过项目缓存清理", projectToDelete.getProjectName());
-        }
+        priceIndex.markChanged();
+        projectConfigCache.invalidate(projectToDelete.getProjectId(), projectToDelete.getLineId());
         log.info("项目 '{}' 关联的模板项配置已清理完毕。", projectToDelete.getProjectName());
 
         // 2. 删除项目本身
@@ -4,6 +4,7 @@ import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.wzz.smscode.entity.SystemConfig;
 import com.wzz.smscode.entity.User;
 import com.wzz.smscode.mapper.SystemConfigMapper;
+import com.wzz.smscode.moduleService.FilterVerdictCache;
 import com.wzz.smscode.service.SystemConfigService;
 import com.wzz.smscode.service.UserService;
 import lombok.extern.slf4j.Slf4j;
@@ -70,6 +71,8 @@ public class SystemConfigServiceImpl extends ServiceImpl<SystemConfigMapper, Sys
         if (config.getBanCodeRateWindowMinutes() != null && config.getBanCodeRateWindowMinutes() <= 0) {
             throw new IllegalArgumentException("风控时间窗口(分钟)必须大于 0");
         }
+        // 校验按类型的筛选结果缓存秒数格式，解析失败抛出 IllegalArgumentException
+        FilterVerdictCache.parseTypeTtls(config.getFilterCacheTypeTtls());
 //        if (config.getBalanceThreshold() != null && config.getBalanceThreshold().signum() < 0) {
 //            throw new IllegalArgumentException("余额封控下限值不能为负数");
 //        }
@@ -14,22 +14,34 @@ import com.wzz.smscode.entity.UserLedger;
 import com.wzz.smscode.enums.FundType;
 import com.wzz.smscode.exception.BusinessException;
 import com.wzz.smscode.mapper.UserLedgerMapper;
+import com.wzz.smscode.mapper.UserMapper;
+import com.wzz.smscode.moduleService.LedgerGroupCommitWriter;
+import com.wzz.smscode.service.OrderOutboxService;
 import com.wzz.smscode.service.UserLedgerService;
 import com.wzz.smscode.service.UserService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.StringUtils;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -44,6 +56,25 @@ public class UserLedgerServiceImpl extends ServiceImpl<UserLedgerMapper, UserLed
     @Lazy  // <--- 必须添加这个注解
     private NumberRecordCacheManager numberRecordCacheManager;
 
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    @Lazy
+    private LedgerGroupCommitWriter ledgerGroupCommitWriter;
+
+    @Autowired
+    @Lazy
+    private OrderOutboxService orderOutboxService;
+
+    private static final String BALANCE_ENGINE_CONDITIONAL = "conditional";
+
+    /**
+     * 余额变更方式：pessimistic-先锁行再整行写回；conditional-条件 UPDATE 只写余额列
+     */
+    @Value("${sms.ledger.balance-engine:pessimistic}")
+    private String balanceEngine = "pessimistic";
+
     @Override
     public IPage<UserLedger> listUserLedgerByUSerId(Long userId, Page<UserLedger> page){
         User user = userService.getById(userId);
@@ -141,9 +172,9 @@ public class UserLedgerServiceImpl extends ServiceImpl<UserLedgerMapper, UserLed
      * [核心优化] 统一的账本创建和余额更新方法（接受UserId，Amount）
      * <p>
      * 该方法是系统中所有资金变动的唯一入口，确保事务性和数据一致性。
-     * 1. 使用悲观锁锁定用户记录，防止并发问题。
-     * 2. 计算新余额并检查余额是否充足（对于出账）。
-     * 3. 更新用户表中的余额。
+     * 1. 更新用户余额并检查余额是否充足（对于出账），由 sms.ledger.balance-engine 选择方式：
+     *    pessimistic 使用悲观锁锁定用户记录后整行写回；conditional 使用一条条件 UPDATE 原子扣减，只写余额列。
+     * 2. 记录变更前后的余额。
      * 4. 创建详细的资金流水记录。
      * </p>
      *
@@ -161,12 +192,60 @@ public class UserLedgerServiceImpl extends ServiceImpl<UserLedgerMapper, UserLed
                 request.getAmount().compareTo(BigDecimal.ZERO) <= 0) { // 金额必须是正数
             throw new BusinessException(0,"创建账本和更新余额的必要参数缺失或无效");
         }
+        BalanceChange change = BALANCE_ENGINE_CONDITIONAL.equalsIgnoreCase(balanceEngine)
+                ? applyConditionalBalanceChange(request)
+                : applyPessimisticBalanceChange(request, false);
+        return saveLedger(request, change);
+    }
+
+    /**
+     * 订单已提交，资金变动必须落账，余额不足时允许为负；固定走悲观锁路径（条件 UPDATE 会拒绝透支）
+     */
+    @Transactional(rollbackFor = Exception.class)
+    @Override
+    public BigDecimal applyOrderLedger(LedgerCreationDTO request) {
+        log.info("开始补投订单资金变动，数据：{}", request);
+        return saveLedger(request, applyPessimisticBalanceChange(request, true));
+    }
+
+    private BigDecimal saveLedger(LedgerCreationDTO request, BalanceChange change) {
+        BigDecimal balanceBefore = change.balanceBefore;
+        BigDecimal newBalance = change.balanceAfter;
+        BigDecimal amount = request.getAmount();
+        numberRecordCacheManager.evictUser(change.userName);
+        log.info("账本-更新用户余额成功：创建并保存账本记录");
+
+        // 3. 创建并保存账本记录
+        UserLedger ledger = new UserLedger();
+        ledger.setUserId(request.getUserId());
+        ledger.setUserName(change.userName);
+        ledger.setPrice(amount);
+        ledger.setLedgerType(request.getLedgerType());
+        ledger.setBalanceBefore(balanceBefore);
+        ledger.setBalanceAfter(newBalance);
+        ledger.setFundType(request.getFundType().getCode());
+        ledger.setTimestamp(LocalDateTime.now());
+        ledger.setRemark(request.getRemark());
+        ledger.setPhoneNumber(request.getPhoneNumber());
+        ledger.setCode(request.getCode());
+        ledger.setLineId(request.getLineId());
+        ledger.setProjectId(request.getProjectId());
+        this.save(ledger);
+        log.info("账本-更新用户余额成功：创建并保存账本记录，创建的账本数据：{}", ledger);
+
+        return newBalance;
+
+    }
+
+    /**
+     * 悲观锁路径：SELECT ... FOR UPDATE 锁定整行，计算新余额后整行写回
+     */
+    private BalanceChange applyPessimisticBalanceChange(LedgerCreationDTO request, boolean allowOverdraft) {
         User user = userService.findAndLockById(request.getUserId());
         if (user == null) {
             throw new BusinessException("用户不存在: " + request.getUserId());
         }
 
-        // 3. 计算余额
         BigDecimal balanceBefore = user.getBalance();
         BigDecimal newBalance;
         BigDecimal amount = request.getAmount();
@@ -177,7 +256,7 @@ public class UserLedgerServiceImpl extends ServiceImpl<UserLedgerMapper, UserLed
         } else if (request.getLedgerType() == 0) { // 0-出账
             newBalance = balanceBefore.subtract(amount);
             // 出账时，检查余额是否充足
-            if (newBalance.signum() < 0) {
+            if (newBalance.signum() < 0 && !allowOverdraft) {
                 throw new BusinessException("用户 " + request.getUserId() + " 余额不足");
             }
         } else {
@@ -186,36 +265,158 @@ public class UserLedgerServiceImpl extends ServiceImpl<UserLedgerMapper, UserLed
 
         log.info("开始执行创建用户账本中的更新用户余额：原余额：{}，变动金额：{},新余额：{}.手机号：{}", user.getBalance(), request.getAmount(),newBalance,request.getPhoneNumber()==null?"-":request.getPhoneNumber());
 
-        // 4. 更新用户余额
         user.setBalance(newBalance);
         boolean userUpdateSuccess = userService.updateById(user);
         if (!userUpdateSuccess) {
             log.error("更新用户 {} 余额失败!", user.getUserName());
             throw new RuntimeException("更新用户余额失败，事务已回滚");
         }
-        numberRecordCacheManager.evictUser(user.getUserName());
-        log.info("账本-更新用户余额成功：创建并保存账本记录");
+        return new BalanceChange(user.getUserName(), balanceBefore, newBalance);
+    }
 
-        // 5. 创建并保存账本记录
-        UserLedger ledger = new UserLedger();
-        ledger.setUserId(request.getUserId());
-        ledger.setUserName(user.getUserName());
-        ledger.setPrice(amount);
-        ledger.setLedgerType(request.getLedgerType());
-        ledger.setBalanceBefore(balanceBefore);
-        ledger.setBalanceAfter(newBalance);
-        ledger.setFundType(request.getFundType().getCode());
-        ledger.setTimestamp(LocalDateTime.now());
-        ledger.setRemark(request.getRemark());
-        ledger.setPhoneNumber(request.getPhoneNumber());
-        ledger.setCode(request.getCode());
-        ledger.setLineId(request.getLineId());
-        ledger.setProjectId(request.getProjectId());
-        this.save(ledger);
-        log.info("账本-更新用户余额成功：创建并保存账本记录，创建的账本数据：{}", ledger);
+    /**
+     * 条件更新路径：一条 UPDATE balance = balance ± ? 完成校验与变更，只写 balance 一列；
+     * 随后在同一事务内读回更新后的余额，变更前余额由其反推，不需要先 SELECT ... FOR UPDATE 整行
+     */
+    private BalanceChange applyConditionalBalanceChange(LedgerCreationDTO request) {
+        Long userId = request.getUserId();
+        BigDecimal amount = request.getAmount();
+        // update_time 与 MyMetaObjectHandler 自动填充保持一致，使用北京时间
+        LocalDateTime updateTime = LocalDateTime.now(ZoneId.of("Asia/Shanghai"));
+        int updated;
+        if (request.getLedgerType() == 1) { // 1-入账
+            updated = userMapper.creditBalance(userId, amount, updateTime);
+        } else if (request.getLedgerType() == 0) { // 0-出账
+            updated = userMapper.debitBalance(userId, amount, updateTime);
+        } else {
+            throw new IllegalArgumentException("无效的账本类型: " + request.getLedgerType());
+        }
+        User user = userMapper.selectBalanceById(userId);
+        if (user == null) {
+            throw new BusinessException("用户不存在: " + userId);
+        }
+        if (updated != 1) {
+            throw new BusinessException("用户 " + userId + " 余额不足");
+        }
+        BigDecimal newBalance = user.getBalance();
+        BigDecimal balanceBefore = request.getLedgerType() == 1 ? newBalance.subtract(amount) : newBalance.add(amount);
+        log.info("开始执行创建用户账本中的更新用户余额：原余额：{}，变动金额：{},新余额：{}.手机号：{}", balanceBefore, amount, newBalance, request.getPhoneNumber()==null?"-":request.getPhoneNumber());
+        return new BalanceChange(user.getUserName(), balanceBefore, newBalance);
+    }
 
-        return newBalance;
+    private static final class BalanceChange {
+        private final String userName;
+        private final BigDecimal balanceBefore;
+        private final BigDecimal balanceAfter;
+
+        private BalanceChange(String userName, BigDecimal balanceBefore, BigDecimal balanceAfter) {
+            this.userName = userName;
+            this.balanceBefore = balanceBefore;
+            this.balanceAfter = balanceAfter;
+        }
+    }
 
+    @Override
+    public BigDecimal createOrderLedger(LedgerCreationDTO request) {
+        if (!ledgerGroupCommitWriter.isEnabled()) {
+            return createLedgerAndUpdateBalance(request);
+        }
+        if (request.getUserId() == null || request.getAmount() == null ||
+                request.getLedgerType() == null || request.getFundType() == null ||
+                request.getAmount().compareTo(BigDecimal.ZERO) <= 0 ||
+                (request.getLedgerType() != 0 && request.getLedgerType() != 1)) {
+            throw new BusinessException(0,"创建账本和更新余额的必要参数缺失或无效");
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            // 没有调用方事务，不存在回滚
+            return ledgerGroupCommitWriter.submit(request);
+        }
+        // 资金变动随订单事务写入外发表，提交后才交给写入器落账，回滚则不落账；余额按已提交余额减去本节点在途扣费检查
+        User user = userMapper.selectBalanceById(request.getUserId());
+        if (user == null) {
+            throw new BusinessException("用户不存在: " + request.getUserId());
+        }
+        BigDecimal expectedBalance = ledgerGroupCommitWriter.reserve(request, user.getBalance());
+        Long eventId;
+        try {
+            eventId = orderOutboxService.enqueueLedger(request);
+        } catch (RuntimeException e) {
+            ledgerGroupCommitWriter.unreserve(request);
+            throw e;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    ledgerGroupCommitWriter.submitCommitted(request, eventId);
+                } else {
+                    ledgerGroupCommitWriter.unreserve(request);
+                }
+            }
+        });
+        return expectedBalance;
+    }
+
+    @Transactional(rollbackFor = Exception.class)
+    @Override
+    public void createCreditLedgersInBatch(List<LedgerCreationDTO> requests) {
+        if (CollectionUtils.isEmpty(requests)) {
+            return;
+        }
+        for (LedgerCreationDTO request : requests) {
+            if (request.getUserId() == null || request.getAmount() == null || request.getFundType() == null
+                    || request.getLedgerType() == null || request.getLedgerType() != 1
+                    || request.getAmount().compareTo(BigDecimal.ZERO) <= 0) {
+                throw new BusinessException(0, "批量入账参数缺失或无效");
+            }
+        }
+        Set<Long> userIds = requests.stream().map(LedgerCreationDTO::getUserId).collect(Collectors.toCollection(TreeSet::new));
+        Map<Long, User> lockedUsers = userMapper.selectByIdsForUpdate(userIds).stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+        if (lockedUsers.size() != userIds.size()) {
+            userIds.removeAll(lockedUsers.keySet());
+            throw new BusinessException("用户不存在: " + userIds);
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        Map<Long, BigDecimal> balances = new LinkedHashMap<>();
+        List<UserLedger> ledgers = new ArrayList<>(requests.size());
+        for (LedgerCreationDTO request : requests) {
+            User user = lockedUsers.get(request.getUserId());
+            BigDecimal balanceBefore = balances.getOrDefault(user.getId(), user.getBalance());
+            BigDecimal balanceAfter = balanceBefore.add(request.getAmount());
+            balances.put(user.getId(), balanceAfter);
+
+            UserLedger ledger = new UserLedger();
+            ledger.setUserId(user.getId());
+            ledger.setUserName(user.getUserName());
+            ledger.setPrice(request.getAmount());
+            ledger.setLedgerType(request.getLedgerType());
+            ledger.setBalanceBefore(balanceBefore);
+            ledger.setBalanceAfter(balanceAfter);
+            ledger.setFundType(request.getFundType().getCode());
+            ledger.setTimestamp(now);
+            ledger.setRemark(request.getRemark());
+            ledger.setPhoneNumber(request.getPhoneNumber());
+            ledger.setCode(request.getCode());
+            ledger.setLineId(request.getLineId());
+            ledger.setProjectId(request.getProjectId());
+            ledgers.add(ledger);
+        }
+
+        List<User> balanceUpdates = new ArrayList<>(balances.size());
+        balances.forEach((userId, balance) -> {
+            User update = new User();
+            update.setId(userId);
+            update.setBalance(balance);
+            balanceUpdates.add(update);
+        });
+        if (!userService.updateBatchById(balanceUpdates)) {
+            throw new BusinessException("批量更新用户余额失败");
+        }
+        this.saveBatch(ledgers);
+        lockedUsers.values().forEach(user -> numberRecordCacheManager.evictUser(user.getUserName()));
+        log.info("批量入账完成: 用户数={}, 流水数={}", balances.size(), ledgers.size());
     }
 
     @Override
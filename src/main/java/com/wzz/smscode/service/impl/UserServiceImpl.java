@@ -8,6 +8,7 @@ import com.baomidou.mybatisplus.core.metadata.IPage;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.wzz.smscode.cacheManager.NumberRecordCacheManager;
+import com.wzz.smscode.cacheManager.RebatePlanCache;
 import com.wzz.smscode.common.CommonResultDTO;
 import com.wzz.smscode.common.Constants;
 import com.wzz.smscode.dto.BatchChargeRequestDTO;
@@ -70,6 +71,9 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements Us
     @Autowired @Lazy private PriceTemplateService priceTemplateService;
     @Autowired private UserLedgerService userLedgerService;
     @Autowired private OperationLogService operationLogService;
+    @Autowired @Lazy private UserService self;
+    @Autowired private RebatePlanCache rebatePlanCache;
+    @Autowired private PendingRebateService pendingRebateService;
 
     @Autowired
     private NumberRecordCacheManager cacheManager; // 注入缓存管理器
@@ -363,6 +367,7 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements Us
 
         // 2. 执行物理删除
         boolean deleted = this.removeByIds(targetIds);
+        rebatePlanCache.invalidateAll();
         if (!deleted) {
             throw new BusinessException("物理删除过程失败");
         }
@@ -456,6 +461,7 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements Us
         }
 
         cacheManager.evictUser(user.getUserName());
+        rebatePlanCache.invalidateAll();
         return updateById(user);
     }
 
@@ -611,6 +617,7 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements Us
 
         // 4. 批量删除用户主体
         boolean success = this.removeByIds(validIds);
+        rebatePlanCache.invalidateAll();
 
         if (!success) {
             throw new BusinessException("删除用户操作失败");
@@ -943,6 +950,7 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements Us
                 .set(User::getDailyGetCount, 0)
                 .set(User::getDailyCodeCount, 0)
                 .set(User::getDailyCodeRate, 0.0)
+                .set(User::getStatsDate, LocalDate.now())
         );
         log.info("每日统计数据重置任务完成，结果: {}", success);
     }
@@ -1398,6 +1406,7 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements Us
         cacheManager.evictUser(user.getUserName());
 
         boolean success = userMapper.deleteById(user) > 0;
+        rebatePlanCache.invalidateAll();
         if (success) {
             operationLogService.recordSuccess(
                     OperationType.DELETE_USER,
@@ -1518,6 +1527,10 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements Us
         return false;
     }
 
+    /**
+     * 全量重算用户统计（四次 COUNT），只用于校对任务修正偏差；订单事件请使用 applyStatsDelta
+     */
+    @Transactional(rollbackFor = Exception.class)
     @Override
     public void updateUserStats(Long userId) {
 
@@ -1566,18 +1579,135 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements Us
         user.setDailyCodeCount((int) dailyCodeCount);
         user.setTotalCodeRate(totalCodeRate.doubleValue());
         user.setDailyCodeRate(dailyCodeRate.doubleValue());
+        user.setStatsDate(startOfToday.toLocalDate());
 
         this.updateById(user);
         log.info("用户 {} 的统计数据已更新。今日取码/成功: {}/{}, 总计取码/成功: {}/{}",
                 userId, dailyGetCount, dailyCodeCount, totalGetCount, totalCodeCount);
     }
 
+    @Override
+    public void applyStatsDelta(Long userId, int getDelta, int codeDelta, LocalDateTime getNumberTime) {
+        if (userId == null || (getDelta == 0 && codeDelta == 0)) {
+            return;
+        }
+        LocalDate today = LocalDate.now();
+        // 只有今天取的号才计入今日统计，和全量重算时按 get_number_time 过滤的口径一致
+        boolean countsToday = getNumberTime == null || !getNumberTime.toLocalDate().isBefore(today);
+        userMapper.applyStatsDelta(userId, getDelta, countsToday ? getDelta : 0,
+                codeDelta, countsToday ? codeDelta : 0, today);
+    }
+
+    /**
+     * 每小时校对一次用户当天的统计，修正因删除记录、批量操作或异常中断导致的计数偏差。
+     * 只聚合当天的订单（走取号时间索引），不再对全部历史分组计数；当天计数有偏差、
+     * 或统计日期为空的用户加锁全量重算。累计计数的偏差（如删除历史记录、回码晚于当天）
+     * 由 {@link #reconcileUserTotals()} 每天低峰期校对一次。
+     */
+    @Scheduled(cron = "${sms.stats.reconcile-cron:0 30 * * * ?}")
+    @Override
+    public void reconcileUserStats() {
+        LocalDate today = LocalDate.now();
+        Map<Long, Map<String, Object>> actualByUserId = numberRecordMapper.selectDailyUserStats(today.atStartOfDay())
+                .stream()
+                .collect(Collectors.toMap(row -> toLong(row.get("userId")), row -> row, (a, b) -> a));
+        long lastId = 0L;
+        int batchSize = 500;
+        int corrected = 0;
+        while (true) {
+            List<User> users = this.list(new LambdaQueryWrapper<User>()
+                    .select(User::getId, User::getDailyGetCount, User::getDailyCodeCount, User::getStatsDate)
+                    .gt(User::getId, lastId)
+                    .orderByAsc(User::getId)
+                    .last("LIMIT " + batchSize));
+            if (users.isEmpty()) {
+                break;
+            }
+            lastId = users.get(users.size() - 1).getId();
+            for (User user : users) {
+                if (!dailyStatsDrifted(user, actualByUserId.getOrDefault(user.getId(), Collections.emptyMap()), today)) {
+                    continue;
+                }
+                try {
+                    self.updateUserStats(user.getId());
+                    corrected++;
+                } catch (Exception e) {
+                    log.warn("用户 {} 统计校对失败: {}", user.getId(), e.getMessage());
+                }
+            }
+        }
+        log.info("用户统计校对完成，修正用户数: {}", corrected);
+    }
+
+    /**
+     * 每天低峰期校对一次用户的累计统计：按用户ID分批聚合全部历史订单，累计取号或取码数与用户表不符的用户加锁全量重算
+     */
+    @Scheduled(cron = "${sms.stats.total-reconcile-cron:0 15 4 * * ?}")
+    @Override
+    public void reconcileUserTotals() {
+        long lastId = 0L;
+        int batchSize = 500;
+        int corrected = 0;
+        while (true) {
+            List<User> users = this.list(new LambdaQueryWrapper<User>()
+                    .select(User::getId, User::getTotalGetCount, User::getTotalCodeCount)
+                    .gt(User::getId, lastId)
+                    .orderByAsc(User::getId)
+                    .last("LIMIT " + batchSize));
+            if (users.isEmpty()) {
+                break;
+            }
+            long fromId = lastId;
+            lastId = users.get(users.size() - 1).getId();
+            Map<Long, Map<String, Object>> actualByUserId = numberRecordMapper.selectTotalUserStats(fromId, lastId)
+                    .stream()
+                    .collect(Collectors.toMap(row -> toLong(row.get("userId")), row -> row, (a, b) -> a));
+            for (User user : users) {
+                Map<String, Object> actual = actualByUserId.getOrDefault(user.getId(), Collections.emptyMap());
+                if (toLong(actual.get("totalGetCount")) == intValue(user.getTotalGetCount())
+                        && toLong(actual.get("totalCodeCount")) == intValue(user.getTotalCodeCount())) {
+                    continue;
+                }
+                try {
+                    self.updateUserStats(user.getId());
+                    corrected++;
+                } catch (Exception e) {
+                    log.warn("用户 {} 累计统计校对失败: {}", user.getId(), e.getMessage());
+                }
+            }
+        }
+        log.info("用户累计统计校对完成，修正用户数: {}", corrected);
+    }
+
+    /**
+     * 统计日期为空、是今天但计数与订单不符、或不是今天但今天已有订单，都视为偏差
+     */
+    static boolean dailyStatsDrifted(User user, Map<String, Object> actual, LocalDate today) {
+        if (user.getStatsDate() == null) {
+            return true;
+        }
+        long actualGet = toLong(actual.get("dailyGetCount"));
+        long actualCode = toLong(actual.get("dailyCodeCount"));
+        if (!today.equals(user.getStatsDate())) {
+            return actualGet > 0;
+        }
+        return actualGet != intValue(user.getDailyGetCount()) || actualCode != intValue(user.getDailyCodeCount());
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number number ? number.longValue() : 0L;
+    }
+
+    private static int intValue(Integer value) {
+        return value == null ? 0 : value;
+    }
+
     /**
      * [新增] 处理并执行多级代理返款的核心方法
      * <p>
-     * 此方法会从触发业务的用户开始，沿着 parentId 链向上遍历。
-     * 在每一层，它会计算上级代理的利润（下级售价 - 上级售价），
-     * 并将这部分利润作为返款，通过创建入账流水的方式记入上级代理的余额。
+     * 沿 parentId 链向上，每一层上级代理的利润 = 下级售价 - 上级售价，作为返款记入上级代理余额。
+     * 代理链及各级拿货价取自 {@link RebatePlanCache}（按 消费用户+项目+线路 缓存），
+     * 一次算出所有层级的返款后通过 createCreditLedgersInBatch 批量入账。
      * 整个过程由 Spring 事务管理，保证数据一致性。
      *
      * @param successfulRecord 成功完成并已扣费的号码记录
@@ -1587,61 +1717,39 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements Us
     public void processRebates(NumberRecord successfulRecord) {
         log.info("开始为记录ID {} 处理上级代理返款...", successfulRecord.getId());
 
-        // 1. 获取初始信息
-        BigDecimal lastLevelPrice = successfulRecord.getPrice(); // 这是最终用户支付的价格
         String projectId = successfulRecord.getProjectId();
         Integer lineId = successfulRecord.getLineId();
-        User currentUser = this.getById(successfulRecord.getUserId());
-        User consumerUser = currentUser;
         String projectName = successfulRecord.getProjectName();
-        int consumerLevel = 1;
-
-        if (currentUser == null) {
+        RebatePlanCache.RebatePlan plan = rebatePlanCache.get(successfulRecord.getUserId(), projectId, lineId,
+                () -> buildRebatePlan(successfulRecord.getUserId(), projectId, lineId));
+        if (plan == null) {
             log.error("返款流程失败：找不到ID为 {} 的初始用户。", successfulRecord.getUserId());
             return;
         }
 
-        // 2. 循环向上追溯代理链，直到顶层代理（parentId 为 0 或 null）
-        while (currentUser.getParentId() != null && currentUser.getParentId() != 0L) {
-            Long parentId = currentUser.getParentId();
-            User parentUser = this.getById(parentId);
-
-            if (parentUser.getTemplateId() == null) {
-                log.warn("代理 {} 无模板配置，跳过返点", parentId);
-                break;
-            }
-
-            PriceTemplateItem parentItem = priceTemplateService.getPriceConfig(
-                    parentUser.getTemplateId(),
-                    successfulRecord.getProjectId(),
-                    successfulRecord.getLineId()
-            );
-
-            if (parentItem == null) {
-                // 上级没有配置该项目，可能意味着无法获利或数据异常
-                break;
-            }
-
-            BigDecimal parentPrice = parentItem.getPrice(); // 上级的拿货价
-
-            // 4. 计算返款金额（即利润）
+        // 一次遍历算出各级返款：第一级用订单实际售价，之后每级用下一级代理的拿货价
+        BigDecimal lastLevelPrice = successfulRecord.getPrice();
+        List<LedgerCreationDTO> rebateLedgers = new ArrayList<>();
+        List<LedgerCreationDTO> deferredRebates = new ArrayList<>();
+        boolean deferred = pendingRebateService.isDeferred();
+        int consumerLevel = 1;
+        for (RebatePlanCache.Level level : plan.getLevels()) {
+            BigDecimal parentPrice = level.getPrice();
             BigDecimal rebateAmount = lastLevelPrice.subtract(parentPrice);
-
-            // 5. 如果利润为正数，则为上级代理执行返款
             if (rebateAmount.compareTo(BigDecimal.ZERO) > 0) {
                 log.info("为代理 {} (ID: {}) 返款: {}。计算方式: (下级价格){} - (本级价格){}",
-                        parentUser.getUserName(), parentId, rebateAmount, lastLevelPrice, parentPrice);
-
-                // 6. 创建返款账本记录，并更新代理余额（由 createLedgerAndUpdateBalance 方法原子化完成）
-                LedgerCreationDTO rebateLedger = LedgerCreationDTO.builder()
-                        .userId(parentId)
+                        level.getAgentUserName(), level.getAgentId(), rebateAmount, lastLevelPrice, parentPrice);
+                // 延迟结算模式下顶层代理的返点写入待结算流水，避免每笔订单都锁同一行热点账户
+                List<LedgerCreationDTO> target = deferred && level.isTopLevel() ? deferredRebates : rebateLedgers;
+                target.add(LedgerCreationDTO.builder()
+                        .userId(level.getAgentId())
                         .amount(rebateAmount)
                         .ledgerType(1) // 1-入账
-                        .fundType(FundType.ADMIN_REBATE) // 使用我们新定义的返款类型
+                        .fundType(FundType.ADMIN_REBATE)
                         .remark(String.format(
                                 "业务完成 返利: 下级用户%s 消费用户 %s 消费层级:%d 项目:%s 项目ID:%s 线路ID:%s",
-                                currentUser.getUserName(),
-                                consumerUser.getUserName(),
+                                level.getChildUserName(),
+                                plan.getConsumerUserName(),
                                 consumerLevel,
                                 projectName == null ? "" : projectName,
                                 projectId,
@@ -1651,27 +1759,69 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements Us
                         .code(successfulRecord.getCode())
                         .projectId(projectId)
                         .lineId(lineId)
-                        .build();
-                try {
-                    // 调用统一的账本服务，它会处理余额更新和流水记录
-                    ledgerService.createLedgerAndUpdateBalance(rebateLedger);
-                } catch (Exception e) {
-                    log.error("为代理 {} (ID: {}) 返款时失败，事务将回滚。错误: {}", parentUser.getUserName(), parentId, e.getMessage());
-                    // 向上抛出异常，以确保整个事务（包括初始用户的扣费）都能回滚
-                    throw new BusinessException("为代理 " + parentUser.getUserName() + " 返款失败：" + e.getMessage());
-                }
+                        .build());
             } else {
                 log.warn("代理 {} (ID: {}) 的返款金额为零或负数 ({})，不执行返款。下级价格: {}, 本级价格: {}",
-                        parentUser.getUserName(), parentId, rebateAmount, lastLevelPrice, parentPrice);
+                        level.getAgentUserName(), level.getAgentId(), rebateAmount, lastLevelPrice, parentPrice);
             }
-
-            // 7. 更新变量，为下一轮循环做准备
-            currentUser = parentUser;
             lastLevelPrice = parentPrice;
             consumerLevel++;
         }
 
-        log.info("记录ID {} 的返款流程处理完毕。", successfulRecord.getId());
+        if (!rebateLedgers.isEmpty() || !deferredRebates.isEmpty()) {
+            try {
+                ledgerService.createCreditLedgersInBatch(rebateLedgers);
+                pendingRebateService.appendAll(deferredRebates, successfulRecord);
+            } catch (Exception e) {
+                log.error("记录ID {} 批量返款失败，事务将回滚。错误: {}", successfulRecord.getId(), e.getMessage());
+                // 向上抛出异常：外发事件的出队标记随本事务回滚，由外发补投重试（不影响已提交的订单和用户扣费）
+                throw new BusinessException("代理返款失败：" + e.getMessage());
+            }
+        }
+        log.info("记录ID {} 的返款流程处理完毕，返款层级数: {}，其中延迟结算: {}",
+                successfulRecord.getId(), rebateLedgers.size() + deferredRebates.size(), deferredRebates.size());
+    }
+
+    /**
+     * 构建返点计划：从消费用户向上追溯代理链，直到顶层代理、上级无模板或上级未配置该项目线路
+     *
+     * @return 消费用户不存在时返回 null
+     */
+    private RebatePlanCache.RebatePlan buildRebatePlan(Long consumerUserId, String projectId, Integer lineId) {
+        User currentUser = this.getById(consumerUserId);
+        if (currentUser == null) {
+            return null;
+        }
+        String consumerUserName = currentUser.getUserName();
+        List<RebatePlanCache.Level> levels = new ArrayList<>();
+        Set<Long> visited = new HashSet<>();
+        visited.add(currentUser.getId());
+        while (currentUser.getParentId() != null && currentUser.getParentId() != 0L) {
+            Long parentId = currentUser.getParentId();
+            if (!visited.add(parentId)) {
+                log.error("代理链存在循环，用户 {} 的上级 {} 已出现过，停止追溯", currentUser.getId(), parentId);
+                break;
+            }
+            User parentUser = this.getById(parentId);
+            if (parentUser == null) {
+                log.warn("代理 {} 不存在，停止追溯返点链", parentId);
+                break;
+            }
+            if (parentUser.getTemplateId() == null) {
+                log.warn("代理 {} 无模板配置，跳过返点", parentId);
+                break;
+            }
+            PriceTemplateItem parentItem = priceTemplateService.getPriceConfig(parentUser.getTemplateId(), projectId, lineId);
+            if (parentItem == null || parentItem.getPrice() == null) {
+                // 上级没有配置该项目，可能意味着无法获利或数据异常
+                break;
+            }
+            boolean topLevel = parentUser.getParentId() == null || parentUser.getParentId() == 0L;
+            levels.add(new RebatePlanCache.Level(parentId, parentUser.getUserName(), currentUser.getUserName(),
+                    parentItem.getPrice(), topLevel));
+            currentUser = parentUser;
+        }
+        return new RebatePlanCache.RebatePlan(consumerUserName, levels);
     }
 
     @Transactional(rollbackFor = Exception.class)
@@ -0,0 +1,296 @@
+package com.wzz.smscode.util;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.security.Security;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 域名解析缓存
+ * <p>
+ * 出站请求前的 URL 校验与建立连接共用这里的解析结果：命中时不再发起 DNS 查询，
+ * 校验通过的地址就是实际连接的地址（见 {@link ValidatedAddressResolverGroup}）。
+ * 成功结果缓存 positiveTtl，解析失败缓存 negativeTtl；条目剩余寿命不足 refreshAhead 比例时
+ * 后台异步刷新，调用方继续使用旧结果；已过期的条目同步重新解析，同一域名并发只解析一次。
+ * 事件循环线程上不能阻塞，应使用 {@link #resolveAsync(String)}：未命中时解析放到虚拟线程执行。
+ * </p>
+ * <p>
+ * JDK 的 InetAddress 不暴露记录本身的 TTL，默认值取 JVM 安全属性
+ * networkaddress.cache.ttl / networkaddress.cache.negative.ttl，未设置时分别为 60 秒与 10 秒。
+ * 解析耗时注册为指标 sms.dns.resolve，按域名打标签；超过 MAX_TAGGED_HOSTS 个域名后其余域名合并为 other。
+ * </p>
+ */
+@Slf4j
+public class DnsCache implements MeterBinder {
+
+    private static final int MAX_ENTRIES = 10000;
+    private static final int MAX_TAGGED_HOSTS = 100;
+    private static final String OTHER_HOST = "other";
+
+    private final Function<String, InetAddress[]> lookup;
+    private final long positiveTtlMs;
+    private final long negativeTtlMs;
+    private final double refreshAhead;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Entry>> inflight = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final Set<String> taggedHosts = ConcurrentHashMap.newKeySet();
+    private final ExecutorService refreshExecutor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("dns-refresh-", 0).factory());
+
+    private volatile MeterRegistry meterRegistry;
+
+    public DnsCache(Duration positiveTtl, Duration negativeTtl, double refreshAhead) {
+        this(DnsCache::systemLookup, positiveTtl, negativeTtl, refreshAhead);
+    }
+
+    DnsCache(Function<String, InetAddress[]> lookup, Duration positiveTtl, Duration negativeTtl, double refreshAhead) {
+        this.lookup = lookup;
+        this.positiveTtlMs = positiveTtl.toMillis();
+        this.negativeTtlMs = negativeTtl.toMillis();
+        this.refreshAhead = refreshAhead;
+    }
+
+    /**
+     * 按 JVM 安全属性中的 DNS 缓存时间创建
+     */
+    public static DnsCache fromSecurityProperties() {
+        return new DnsCache(securityTtl("networkaddress.cache.ttl", 60),
+                securityTtl("networkaddress.cache.negative.ttl", 10), 0.8);
+    }
+
+    /**
+     * 解析域名，IP 字面量直接返回
+     *
+     * @throws UnknownHostException 域名无法解析（含缓存中的失败结果）
+     */
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        if (isIpLiteral(host)) {
+            return InetAddress.getAllByName(host);
+        }
+        String key = host.toLowerCase();
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(key);
+        if (entry != null && now < entry.expireAt) {
+            hits.increment();
+            if (entry.addresses != null && now >= entry.refreshAt && entry.refreshing.compareAndSet(false, true)) {
+                refreshExecutor.execute(() -> refresh(key));
+            }
+            return entry.unwrap(host);
+        }
+        misses.increment();
+        return load(key).unwrap(host);
+    }
+
+    /**
+     * 非阻塞解析：缓存未过期或 IP 字面量时直接完成，否则在虚拟线程上解析后完成
+     * <p>
+     * 失败时以 {@link CompletionException} 包装 {@link UnknownHostException} 结束。
+     * </p>
+     */
+    public CompletableFuture<InetAddress[]> resolveAsync(String host) {
+        if (isIpLiteral(host) || isFresh(host.toLowerCase())) {
+            try {
+                return CompletableFuture.completedFuture(resolve(host));
+            } catch (UnknownHostException e) {
+                return CompletableFuture.failedFuture(new CompletionException(e));
+            }
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return resolve(host);
+            } catch (UnknownHostException e) {
+                throw new CompletionException(e);
+            }
+        }, refreshExecutor);
+    }
+
+    private boolean isFresh(String key) {
+        Entry entry = entries.get(key);
+        return entry != null && System.currentTimeMillis() < entry.expireAt;
+    }
+
+    private Entry load(String key) throws UnknownHostException {
+        CompletableFuture<Entry> mine = new CompletableFuture<>();
+        CompletableFuture<Entry> existing = inflight.putIfAbsent(key, mine);
+        if (existing == null) {
+            try {
+                Entry entry = doResolve(key, false);
+                mine.complete(entry);
+                return entry;
+            } catch (RuntimeException | Error e) {
+                mine.completeExceptionally(e);
+                throw e;
+            } finally {
+                inflight.remove(key, mine);
+            }
+        }
+        try {
+            return existing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnknownHostException(key + ": 解析被中断");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new UnknownHostException(key + ": " + e.getCause());
+        }
+    }
+
+    private void refresh(String key) {
+        refreshes.increment();
+        try {
+            // 后台刷新失败时保留旧结果直到过期，过期后由请求线程同步重新解析
+            doResolve(key, true);
+        } catch (RuntimeException e) {
+            log.warn("域名 {} 后台刷新失败：{}", key, e.getMessage());
+        }
+    }
+
+    private Entry doResolve(String key, boolean keepOnFailure) {
+        long start = System.nanoTime();
+        InetAddress[] addresses = null;
+        try {
+            addresses = lookup.apply(key);
+        } finally {
+            record(key, addresses != null, System.nanoTime() - start);
+        }
+        long now = System.currentTimeMillis();
+        Entry entry = addresses == null || addresses.length == 0
+                ? new Entry(null, now + negativeTtlMs, Long.MAX_VALUE)
+                : new Entry(addresses, now + positiveTtlMs, now + (long) (positiveTtlMs * refreshAhead));
+        if (entry.addresses == null && keepOnFailure) {
+            return entry;
+        }
+        if (entries.size() >= MAX_ENTRIES && !entries.containsKey(key)) {
+            entries.values().removeIf(e -> now >= e.expireAt);
+            if (entries.size() >= MAX_ENTRIES) {
+                entries.clear();
+            }
+        }
+        entries.put(key, entry);
+        return entry;
+    }
+
+    private void record(String host, boolean success, long nanos) {
+        MeterRegistry registry = meterRegistry;
+        if (registry == null) {
+            return;
+        }
+        Timer.builder("sms.dns.resolve")
+                .tag("host", hostTag(host))
+                .tag("outcome", success ? "success" : "failure")
+                .description("域名解析耗时")
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private String hostTag(String host) {
+        if (taggedHosts.contains(host)) {
+            return host;
+        }
+        if (taggedHosts.size() < MAX_TAGGED_HOSTS && taggedHosts.add(host)) {
+            return host;
+        }
+        return OTHER_HOST;
+    }
+
+    /**
+     * 丢弃某个域名的缓存结果
+     */
+    public void invalidate(String host) {
+        entries.remove(host.toLowerCase());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.meterRegistry = registry;
+        FunctionCounter.builder("sms.dns.cache", hits, LongAdder::sum)
+                .tag("result", "hit").description("域名解析缓存命中次数").register(registry);
+        FunctionCounter.builder("sms.dns.cache", misses, LongAdder::sum)
+                .tag("result", "miss").description("域名解析缓存未命中次数").register(registry);
+        FunctionCounter.builder("sms.dns.cache.refresh", refreshes, LongAdder::sum)
+                .description("域名解析后台刷新次数").register(registry);
+        Gauge.builder("sms.dns.cache.size", entries, Map::size)
+                .description("域名解析缓存条目数").register(registry);
+    }
+
+    private static InetAddress[] systemLookup(String host) {
+        try {
+            return InetAddress.getAllByName(host);
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    private static boolean isIpLiteral(String host) {
+        if (host.indexOf(':') >= 0 || host.startsWith("[")) {
+            return true;
+        }
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if ((c < '0' || c > '9') && c != '.') {
+                return false;
+            }
+        }
+        return !host.isEmpty();
+    }
+
+    private static Duration securityTtl(String property, long defaultSeconds) {
+        try {
+            String value = Security.getProperty(property);
+            if (value != null) {
+                long seconds = Long.parseLong(value.trim());
+                if (seconds >= 0) {
+                    return Duration.ofSeconds(seconds);
+                }
+            }
+        } catch (RuntimeException ignored) {
+            // 属性缺失或格式错误时使用默认值
+        }
+        return Duration.ofSeconds(defaultSeconds);
+    }
+
+    private static final class Entry {
+        final InetAddress[] addresses;
+        final long expireAt;
+        final long refreshAt;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(InetAddress[] addresses, long expireAt, long refreshAt) {
+            this.addresses = addresses;
+            this.expireAt = expireAt;
+            this.refreshAt = refreshAt;
+        }
+
+        InetAddress[] unwrap(String host) throws UnknownHostException {
+            if (addresses == null) {
+                throw new UnknownHostException(host);
+            }
+            return addresses.clone();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.wzz.smscode.util;
+
+import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.Option;
+import com.jayway.jsonpath.ParseContext;
+import org.springframework.util.StringUtils;
+
+import java.util.List;
+
+/**
+ * 响应体 JSON 提取工具。
+ * <p>
+ * 一个响应体只解析一次，得到的文档上依次读取预编译的 JsonPath（{@link #compile}），
+ * 读取时抑制异常：路径不存在或类型不符返回 null，由调用方决定如何处理。
+ * </p>
+ */
+public final class JsonExtractor {
+
+    private static final ParseContext PARSER = JsonPath.using(Configuration.defaultConfiguration()
+            .addOptions(Option.SUPPRESS_EXCEPTIONS));
+
+    /**
+     * 常见错误字段名：msg, message, respMsg, result
+     */
+    private static final List<JsonPath> ERROR_MESSAGE_PATHS = List.of(
+            JsonPath.compile("$.msg"), JsonPath.compile("$.message"),
+            JsonPath.compile("$.respMsg"), JsonPath.compile("$.result"));
+
+    public static final String DEFAULT_ERROR_MESSAGE = "接口返回数据格式异常";
+
+    private JsonExtractor() {
+    }
+
+    /**
+     * 解析响应体
+     *
+     * @return 文档；空串或不是合法 JSON 时返回 null
+     */
+    public static DocumentContext parse(String body) {
+        if (!StringUtils.hasText(body)) {
+            return null;
+        }
+        try {
+            return PARSER.parse(body);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * 预编译 JsonPath
+     *
+     * @return 编译结果；表达式为空或语法错误时返回 null
+     */
+    public static JsonPath compile(String expression) {
+        if (!StringUtils.hasText(expression)) {
+            return null;
+        }
+        try {
+            return JsonPath.compile(expression);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * 在已解析的文档上读取
+     *
+     * @return 读取结果；文档或路径为空、路径不存在时返回 null
+     */
+    public static <T> T read(DocumentContext document, JsonPath path) {
+        if (document == null || path == null) {
+            return null;
+        }
+        try {
+            return document.read(path);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * 从已解析的文档中取上游返回的错误说明，依次尝试常见错误字段
+     */
+    public static String errorMessage(DocumentContext document) {
+        for (JsonPath path : ERROR_MESSAGE_PATHS) {
+            Object value = read(document, path);
+            if (value instanceof String || value instanceof Number || value instanceof Boolean) {
+                String text = String.valueOf(value);
+                if (StringUtils.hasText(text)) {
+                    return text;
+                }
+            }
+        }
+        return DEFAULT_ERROR_MESSAGE;
+    }
+}
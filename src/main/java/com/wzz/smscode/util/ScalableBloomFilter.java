@@ -0,0 +1,166 @@
+package com.wzz.smscode.util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 可扩容布隆过滤器（Scalable Bloom Filter），键为 long，线程安全、无锁读写。
+ * <p>
+ * 当前分片插入量达到容量后追加一个容量翻倍、误判率减半的新分片，
+ * 整体误判率收敛于 initialFpp / (1 - 0.5) = 2 * initialFpp 以内，不需要预先知道数据量。
+ * 只会误判“存在”，不会漏判，调用方需对命中结果做一次精确确认。
+ * </p>
+ */
+public class ScalableBloomFilter {
+
+    private static final double FPP_TIGHTENING_RATIO = 0.5;
+    private static final int GROWTH_FACTOR = 2;
+
+    private final double initialFpp;
+    private final List<Slice> slices = new CopyOnWriteArrayList<>();
+    private volatile Slice current;
+
+    public ScalableBloomFilter(long initialCapacity, double initialFpp) {
+        if (initialCapacity <= 0 || initialFpp <= 0 || initialFpp >= 1) {
+            throw new IllegalArgumentException("initialCapacity must be > 0 and 0 < fpp < 1");
+        }
+        this.initialFpp = initialFpp;
+        this.current = new Slice(initialCapacity, initialFpp);
+        this.slices.add(current);
+    }
+
+    public boolean mightContain(long key) {
+        long h1 = mix64(key);
+        long h2 = mix64(h1 ^ 0x9E3779B97F4A7C15L) | 1L;
+        for (Slice slice : slices) {
+            if (slice.mightContain(h1, h2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void put(long key) {
+        long h1 = mix64(key);
+        long h2 = mix64(h1 ^ 0x9E3779B97F4A7C15L) | 1L;
+        for (Slice slice : slices) {
+            if (slice.mightContain(h1, h2)) {
+                return;
+            }
+        }
+        Slice target = current;
+        if (target.count.get() >= target.capacity) {
+            target = grow(target);
+        }
+        target.put(h1, h2);
+    }
+
+    public int sliceCount() {
+        return slices.size();
+    }
+
+    public long approximateSize() {
+        long total = 0;
+        for (Slice slice : slices) {
+            total += slice.count.get();
+        }
+        return total;
+    }
+
+    private synchronized Slice grow(Slice full) {
+        if (current != full) {
+            return current;
+        }
+        int index = slices.size();
+        double fpp = initialFpp * Math.pow(FPP_TIGHTENING_RATIO, index);
+        Slice next = new Slice(full.capacity * GROWTH_FACTOR, fpp);
+        slices.add(next);
+        current = next;
+        return next;
+    }
+
+    /**
+     * 把字符串转成过滤器键：纯数字（如手机号）直接解析，其它按 FNV-1a 64 位哈希
+     */
+    public static long keyOf(String value) {
+        if (value == null) {
+            return 0L;
+        }
+        int length = value.length();
+        if (length > 0 && length <= 18) {
+            long parsed = 0;
+            boolean numeric = true;
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c < '0' || c > '9') {
+                    numeric = false;
+                    break;
+                }
+                parsed = parsed * 10 + (c - '0');
+            }
+            if (numeric) {
+                return parsed;
+            }
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    private static final class Slice {
+        private final long capacity;
+        private final long bitSize;
+        private final int hashCount;
+        private final AtomicLongArray bits;
+        private final AtomicLong count = new AtomicLong();
+
+        private Slice(long capacity, double fpp) {
+            this.capacity = capacity;
+            long m = (long) Math.ceil(-capacity * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+            this.bitSize = Math.max(64, (m + 63) / 64 * 64);
+            this.hashCount = Math.max(1, (int) Math.round((double) bitSize / capacity * Math.log(2)));
+            this.bits = new AtomicLongArray((int) (bitSize / 64));
+        }
+
+        private boolean mightContain(long h1, long h2) {
+            long combined = h1;
+            for (int i = 0; i < hashCount; i++) {
+                long index = Long.remainderUnsigned(combined, bitSize);
+                if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                    return false;
+                }
+                combined += h2;
+            }
+            return true;
+        }
+
+        private void put(long h1, long h2) {
+            long combined = h1;
+            for (int i = 0; i < hashCount; i++) {
+                long index = Long.remainderUnsigned(combined, bitSize);
+                int word = (int) (index >>> 6);
+                long mask = 1L << index;
+                long old;
+                do {
+                    old = bits.get(word);
+                    if ((old & mask) != 0) {
+                        break;
+                    }
+                } while (!bits.compareAndSet(word, old, old | mask));
+                combined += h2;
+            }
+            count.incrementAndGet();
+        }
+    }
+}
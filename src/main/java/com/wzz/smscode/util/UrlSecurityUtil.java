@@ -8,13 +8,18 @@ import java.net.InetAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Pattern;
 
 /**
  * URL 安全校验工具。
+ * <p>
+ * 域名解析走 {@link DnsCache}，出站 HTTP 客户端通过 {@link ValidatedAddressResolverGroup} 使用同一份校验过的地址。
+ * </p>
  */
 public final class UrlSecurityUtil {
     private static final Pattern TEMPLATE_VARIABLE = Pattern.compile("\\{\\{[^{}]+}}");
+    private static final DnsCache DNS_CACHE = DnsCache.fromSecurityProperties();
 
     private UrlSecurityUtil() {
     }
@@ -27,7 +32,7 @@ public final class UrlSecurityUtil {
             throw new BusinessException("接口 URL 不能为空");
         }
         URI uri = parseHttpUrl(url.trim());
-        rejectPrivateIpv4(uri.getHost());
+        resolveNonPrivate(uri.getHost());
         return uri;
     }
 
@@ -38,6 +43,42 @@ public final class UrlSecurityUtil {
         requireNonPrivateHttpUrl(TEMPLATE_VARIABLE.matcher(url).replaceAll("example.com"));
     }
 
+    /**
+     * 解析域名并校验不是内网地址，返回的地址可直接用于建立连接。
+     */
+    public static InetAddress[] resolveNonPrivate(String host) {
+        try {
+            return requirePublic(DNS_CACHE.resolve(host));
+        } catch (UnknownHostException e) {
+            throw new BusinessException("接口 URL 域名无法解析");
+        }
+    }
+
+    /**
+     * {@link #resolveNonPrivate(String)} 的非阻塞版本，供 Netty 事件循环使用；失败时以 BusinessException 结束。
+     */
+    public static CompletableFuture<InetAddress[]> resolveNonPrivateAsync(String host) {
+        return DNS_CACHE.resolveAsync(host).handle((addresses, error) -> {
+            if (error != null) {
+                throw new BusinessException("接口 URL 域名无法解析");
+            }
+            return requirePublic(addresses);
+        });
+    }
+
+    private static InetAddress[] requirePublic(InetAddress[] addresses) {
+        for (InetAddress address : addresses) {
+            if (address instanceof Inet4Address && address.isSiteLocalAddress()) {
+                throw new BusinessException("禁止访问内网地址");
+            }
+        }
+        return addresses;
+    }
+
+    public static DnsCache dnsCache() {
+        return DNS_CACHE;
+    }
+
     private static URI parseHttpUrl(String url) {
         try {
             URI uri = new URI(url);
@@ -53,17 +94,4 @@ public final class UrlSecurityUtil {
             throw new BusinessException("接口 URL 格式错误");
         }
     }
-
-    private static void rejectPrivateIpv4(String host) {
-        try {
-            InetAddress[] addresses = InetAddress.getAllByName(host);
-            for (InetAddress address : addresses) {
-                if (address instanceof Inet4Address && address.isSiteLocalAddress()) {
-                    throw new BusinessException("禁止访问内网地址");
-                }
-            }
-        } catch (UnknownHostException e) {
-            throw new BusinessException("接口 URL 域名无法解析");
-        }
-    }
 }
@@ -0,0 +1,59 @@
+package com.wzz.smscode.util;
+
+import io.netty.resolver.AddressResolver;
+import io.netty.resolver.AddressResolverGroup;
+import io.netty.resolver.InetNameResolver;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Promise;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Reactor Netty 的地址解析器：建立连接时通过 {@link UrlSecurityUtil#resolveNonPrivate(String)} 取地址。
+ * <p>
+ * 请求前的 URL 校验已把解析结果放进 {@link DnsCache}，这里命中同一条缓存，
+ * 连接的地址就是校验过的地址，不会在校验与连接之间被重新解析到内网。
+ * 缓存未命中时解析在 DnsCache 的虚拟线程上进行，不阻塞事件循环。
+ * </p>
+ */
+public final class ValidatedAddressResolverGroup extends AddressResolverGroup<InetSocketAddress> {
+
+    public static final ValidatedAddressResolverGroup INSTANCE = new ValidatedAddressResolverGroup();
+
+    private ValidatedAddressResolverGroup() {
+    }
+
+    @Override
+    protected AddressResolver<InetSocketAddress> newResolver(EventExecutor executor) {
+        return new InetNameResolver(executor) {
+            @Override
+            protected void doResolve(String host, Promise<InetAddress> promise) {
+                UrlSecurityUtil.resolveNonPrivateAsync(host).whenComplete((addresses, error) -> {
+                    if (error != null) {
+                        promise.tryFailure(unwrap(error));
+                    } else {
+                        promise.trySuccess(addresses[0]);
+                    }
+                });
+            }
+
+            @Override
+            protected void doResolveAll(String host, Promise<List<InetAddress>> promise) {
+                UrlSecurityUtil.resolveNonPrivateAsync(host).whenComplete((addresses, error) -> {
+                    if (error != null) {
+                        promise.tryFailure(unwrap(error));
+                    } else {
+                        promise.trySuccess(List.of(addresses));
+                    }
+                });
+            }
+        }.asAddressResolver();
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+}
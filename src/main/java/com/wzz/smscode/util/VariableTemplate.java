@@ -0,0 +1,114 @@
+package com.wzz.smscode.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 预编译的 {{变量}} 模板。
+ * <p>
+ * 编译时把字符串拆成 “字面量 / 变量名” 交替的片段，渲染时按顺序拼接，运行期不再使用正则。
+ * 匹配规则与 {@code \{\{(.+?)}}} 一致：变量名至少一个字符、不跨行、取最近的 }}，变量名去除首尾空白，
+ * 上下文中不存在（或值为 null）的变量替换为空字符串。
+ * </p>
+ */
+public final class VariableTemplate {
+
+    private static final VariableTemplate NULL = new VariableTemplate(null, null, null);
+
+    /**
+     * 不含变量时为原字符串
+     */
+    private final String constant;
+    /**
+     * literals.length == variables.length + 1
+     */
+    private final String[] literals;
+    private final String[] variables;
+    private final int literalLength;
+
+    private VariableTemplate(String constant, String[] literals, String[] variables) {
+        this.constant = constant;
+        this.literals = literals;
+        this.variables = variables;
+        int length = 0;
+        if (literals != null) {
+            for (String literal : literals) {
+                length += literal.length();
+            }
+        }
+        this.literalLength = length;
+    }
+
+    public static VariableTemplate compile(String input) {
+        if (input == null) {
+            return NULL;
+        }
+        List<String> literals = new ArrayList<>();
+        List<String> variables = new ArrayList<>();
+        int literalStart = 0;
+        int from = 0;
+        while (true) {
+            int open = input.indexOf("{{", from);
+            if (open < 0) {
+                break;
+            }
+            int close = input.indexOf("}}", open + 3);
+            if (close < 0) {
+                break;
+            }
+            if (hasLineTerminator(input, open + 2, close)) {
+                from = open + 1;
+                continue;
+            }
+            literals.add(input.substring(literalStart, open));
+            variables.add(input.substring(open + 2, close).trim());
+            literalStart = close + 2;
+            from = literalStart;
+        }
+        if (variables.isEmpty()) {
+            return new VariableTemplate(input, null, null);
+        }
+        literals.add(input.substring(literalStart));
+        return new VariableTemplate(null, literals.toArray(String[]::new), variables.toArray(String[]::new));
+    }
+
+    public boolean hasVariables() {
+        return variables != null;
+    }
+
+    /**
+     * 渲染为新字符串；模板源为 null 时返回 null
+     */
+    public String render(Map<String, String> context) {
+        if (variables == null) {
+            return constant;
+        }
+        return render(context, new StringBuilder(literalLength + variables.length * 16));
+    }
+
+    /**
+     * 使用调用方提供的缓冲区渲染（缓冲区先被清空），一次请求的多个字段可复用同一个缓冲区
+     */
+    public String render(Map<String, String> context, StringBuilder buffer) {
+        if (variables == null) {
+            return constant;
+        }
+        buffer.setLength(0);
+        for (int i = 0; i < variables.length; i++) {
+            String value = context.get(variables[i]);
+            buffer.append(literals[i]).append(value == null ? "" : value);
+        }
+        return buffer.append(literals[variables.length]).toString();
+    }
+
+    private static boolean hasLineTerminator(String input, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = input.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
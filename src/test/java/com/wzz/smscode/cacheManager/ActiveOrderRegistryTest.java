@@ -0,0 +1,90 @@
+package com.wzz.smscode.cacheManager;
+
+import com.wzz.smscode.entity.NumberRecord;
+import com.wzz.smscode.mapper.NumberRecordMapper;
+import com.wzz.smscode.moduleService.CodePollingScheduler;
+import com.wzz.smscode.service.NumberRecordActiveService;
+import com.wzz.smscode.service.ProjectService;
+import com.wzz.smscode.service.impl.NumberRecordServiceImpl;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ActiveOrderRegistryTest {
+
+    private final ActiveOrderRegistry registry = new ActiveOrderRegistry();
+
+    @Test
+    void registeredOrderStopsWhenFinishedOrReleased() {
+        registry.register(record(1L));
+        registry.register(record(2L));
+        assertEquals(2, registry.size());
+        assertFalse(registry.shouldStop(1L, null));
+
+        // 无事务时立即生效
+        registry.markStatusAfterCommit(1L, 2);
+        registry.markReleasedAfterCommit(2L);
+        assertTrue(registry.shouldStop(1L, null));
+        assertTrue(registry.shouldStop(2L, null));
+        assertTrue(registry.isReleased(2L));
+
+        registry.remove(1L);
+        registry.remove(2L);
+        assertEquals(0, registry.size());
+        assertTrue(registry.shouldStop(1L, null));
+    }
+
+    @Test
+    void verifiesAgainstDatabaseAfterInterval() {
+        ReflectionTestUtils.setField(registry, "verifyIntervalMs", 0L);
+        registry.register(record(1L));
+        AtomicInteger loads = new AtomicInteger();
+
+        assertFalse(registry.shouldStop(1L, () -> {
+            loads.incrementAndGet();
+            return record(1L);
+        }));
+        NumberRecord finishedElsewhere = record(1L);
+        finishedElsewhere.setStatus(3);
+        assertTrue(registry.shouldStop(1L, () -> finishedElsewhere));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void retrieveCodeDeregistersWhenItFailsBeforeScheduling() {
+        NumberRecordMapper mapper = mock(NumberRecordMapper.class);
+        when(mapper.selectById(1L)).thenReturn(record(1L));
+        ProjectService projectService = mock(ProjectService.class);
+        when(projectService.getProject(anyString(), any())).thenThrow(new IllegalStateException("项目配置读取失败"));
+        NumberRecordServiceImpl service = new NumberRecordServiceImpl();
+        ReflectionTestUtils.setField(service, "baseMapper", mapper);
+        ReflectionTestUtils.setField(service, "projectService", projectService);
+        ReflectionTestUtils.setField(service, "activeOrderRegistry", registry);
+        ReflectionTestUtils.setField(service, "codePollingScheduler", mock(CodePollingScheduler.class));
+        ReflectionTestUtils.setField(service, "numberRecordActiveService", mock(NumberRecordActiveService.class));
+
+        assertThrows(IllegalStateException.class, () -> service.retrieveCode(1L, null));
+        assertEquals(0, registry.size());
+    }
+
+    private static NumberRecord record(Long id) {
+        NumberRecord record = new NumberRecord();
+        record.setId(id);
+        record.setStatus(1);
+        record.setIsReleased(0);
+        record.setProjectId("105");
+        record.setLineId(1);
+        record.setPhoneNumber("13800000000");
+        return record;
+    }
+}
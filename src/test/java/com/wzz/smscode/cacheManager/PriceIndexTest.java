@@ -0,0 +1,134 @@
+package com.wzz.smscode.cacheManager;
+
+import com.wzz.smscode.entity.PriceTemplateItem;
+import com.wzz.smscode.mapper.PriceTemplateItemMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PriceIndexTest {
+
+    @Test
+    void resolvesSameItemAsSelectOneLimitOne() {
+        Random random = new Random(11);
+        List<PriceTemplateItem> items = new ArrayList<>();
+        long id = 1;
+        for (long templateId = 1; templateId <= 40; templateId++) {
+            for (int i = 0; i < 60; i++) {
+                PriceTemplateItem item = new PriceTemplateItem();
+                item.setId(id++);
+                item.setTemplateId(templateId);
+                item.setProjectId(1000L + random.nextInt(30));
+                item.setLineId((long) random.nextInt(5));
+                item.setPrice(BigDecimal.valueOf(random.nextInt(1000), 2));
+                items.add(item);
+            }
+        }
+        PriceIndex index = newIndex(items);
+
+        for (long templateId = 0; templateId <= 41; templateId++) {
+            for (long projectId = 995; projectId < 1035; projectId++) {
+                for (int lineId = 0; lineId < 6; lineId++) {
+                    PriceTemplateItem expected = selectOne(items, templateId, projectId, lineId);
+                    PriceTemplateItem actual = index.find(templateId, String.valueOf(projectId), lineId);
+                    if (expected == null) {
+                        assertNull(actual);
+                    } else {
+                        assertSame(expected, actual);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void fallsBackToDatabaseUntilRebuiltAfterChange() {
+        PriceTemplateItem item = new PriceTemplateItem();
+        item.setId(1L);
+        item.setTemplateId(1L);
+        item.setProjectId(1001L);
+        item.setLineId(1L);
+        PriceIndex index = newIndex(List.of(item));
+        assertSame(item, index.find(1L, "1001", 1));
+        assertSame(PriceIndex.MISS, index.find(1L, "abc", 1));
+
+        // 变更已提交但新快照尚未构建完成
+        ((AtomicLong) ReflectionTestUtils.getField(index, "dirtyVersion")).incrementAndGet();
+        assertSame(PriceIndex.MISS, index.find(1L, "1001", 1));
+
+        ReflectionTestUtils.setField(index, "snapshot", PriceIndex.build(1L, List.of(item)));
+        assertSame(item, index.find(1L, "1001", 1));
+    }
+
+    @Test
+    void missedChangeNotificationIsDetectedByGeneration() {
+        PriceIndex index = newIndex(List.of());
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        @SuppressWarnings("unchecked")
+        ValueOperations<String, String> values = mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(values);
+        when(values.get("sms:price:index:generation")).thenReturn("0", "3", "3");
+        ReflectionTestUtils.setField(index, "stringRedisTemplate", redis);
+        ReflectionTestUtils.setField(index, "priceTemplateItemMapper", mock(PriceTemplateItemMapper.class));
+        AtomicLong dirtyVersion = (AtomicLong) ReflectionTestUtils.getField(index, "dirtyVersion");
+
+        index.checkGeneration();
+        assertEquals(0, dirtyVersion.get());
+        // 其它节点提交了变更，但本节点没有收到发布/订阅消息
+        index.checkGeneration();
+        assertEquals(1, dirtyVersion.get());
+        index.checkGeneration();
+        assertEquals(1, dirtyVersion.get());
+        index.shutdown();
+    }
+
+    @Test
+    void notificationCarryingGenerationIsNotRebuiltTwice() {
+        PriceIndex index = newIndex(List.of());
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        @SuppressWarnings("unchecked")
+        ValueOperations<String, String> values = mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(values);
+        when(values.get("sms:price:index:generation")).thenReturn("5");
+        ReflectionTestUtils.setField(index, "stringRedisTemplate", redis);
+        ReflectionTestUtils.setField(index, "priceTemplateItemMapper", mock(PriceTemplateItemMapper.class));
+        AtomicLong dirtyVersion = (AtomicLong) ReflectionTestUtils.getField(index, "dirtyVersion");
+
+        Message message = mock(Message.class);
+        when(message.getBody()).thenReturn("other-node|5".getBytes(StandardCharsets.UTF_8));
+        index.onMessage(message, null);
+        assertEquals(1, dirtyVersion.get());
+        index.checkGeneration();
+        assertEquals(1, dirtyVersion.get());
+        index.shutdown();
+    }
+
+    private static PriceIndex newIndex(List<PriceTemplateItem> items) {
+        PriceIndex index = new PriceIndex();
+        ReflectionTestUtils.setField(index, "snapshot", PriceIndex.build(0L, items));
+        return index;
+    }
+
+    private static PriceTemplateItem selectOne(List<PriceTemplateItem> items, long templateId, long projectId, long lineId) {
+        return items.stream()
+                .filter(i -> i.getTemplateId() == templateId && i.getProjectId() == projectId && i.getLineId() == lineId)
+                .min(Comparator.comparing(PriceTemplateItem::getId))
+                .orElse(null);
+    }
+}
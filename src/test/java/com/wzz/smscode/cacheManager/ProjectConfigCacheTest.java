@@ -0,0 +1,117 @@
+package com.wzz.smscode.cacheManager;
+
+import com.wzz.smscode.entity.Project;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ProjectConfigCacheTest {
+
+    private ProjectConfigCache cache;
+    private StringRedisTemplate stringRedisTemplate;
+    private final AtomicInteger dbLoads = new AtomicInteger();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        RedisTemplate<String, Object> redisTemplate = mock(RedisTemplate.class);
+        ValueOperations<String, Object> ops = mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(ops);
+        when(ops.multiGet(any())).thenReturn(Arrays.asList(null, null));
+
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> stringOps = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(stringOps);
+        when(stringOps.increment(anyString())).thenReturn(1L);
+
+        cache = new ProjectConfigCache();
+        ReflectionTestUtils.setField(cache, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(cache, "stringRedisTemplate", stringRedisTemplate);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void servesRepeatedLookupsFromLocalSnapshotUntilInvalidated() {
+        Project first = cache.get("1001", 1, this::loadProject);
+        Project second = cache.get("1001", 1, this::loadProject);
+        assertEquals(first, second);
+        assertEquals(1, dbLoads.get());
+
+        cache.invalidate("1001", "1");
+        verify(stringRedisTemplate).convertAndSend(eq("sms:project:invalidate"), eq("1001:1|1"));
+        cache.get("1001", 1, this::loadProject);
+        assertEquals(2, dbLoads.get());
+    }
+
+    @Test
+    void doesNotCacheReadsMadeBeforeTheInvalidatingTransactionCommits() {
+        cache.get("1001", 1, this::loadProject);
+        TransactionSynchronizationManager.initSynchronization();
+        cache.invalidate("1001", "1");
+
+        // 事务未提交期间的读取直接查库且不回填
+        cache.get("1001", 1, this::loadProject);
+        cache.get("1001", 1, this::loadProject);
+        assertEquals(3, dbLoads.get());
+        verify(stringRedisTemplate, never()).convertAndSend(anyString(), anyString());
+
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        }
+        TransactionSynchronizationManager.clearSynchronization();
+        verify(stringRedisTemplate).convertAndSend(eq("sms:project:invalidate"), anyString());
+
+        cache.get("1001", 1, this::loadProject);
+        cache.get("1001", 1, this::loadProject);
+        assertEquals(4, dbLoads.get());
+    }
+
+    @Test
+    void callersGetTheirOwnCopyOfTheCachedProject() {
+        Project first = cache.get("1001", 1, this::loadProject);
+        first.setEnableFilter(false);
+        first.setProjectName("被调用方改写");
+
+        Project second = cache.get("1001", 1, this::loadProject);
+        assertNotSame(first, second);
+        assertTrue(second.getEnableFilter());
+        assertEquals("测试项目", second.getProjectName());
+        assertEquals(1, dbLoads.get());
+    }
+
+    private Project loadProject() {
+        dbLoads.incrementAndGet();
+        Project project = new Project();
+        project.setProjectId("1001");
+        project.setLineId("1");
+        project.setProjectName("测试项目");
+        project.setEnableFilter(true);
+        return project;
+    }
+}
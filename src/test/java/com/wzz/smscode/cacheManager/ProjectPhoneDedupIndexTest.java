@@ -0,0 +1,88 @@
+package com.wzz.smscode.cacheManager;
+
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.wzz.smscode.entity.NumberRecord;
+import com.wzz.smscode.mapper.NumberRecordMapper;
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 多节点查重：其它节点刚取到、本节点尚未追平的号码不能被判为新号码
+ */
+class ProjectPhoneDedupIndexTest {
+
+    private final Map<String, String> redis = new ConcurrentHashMap<>();
+    private StringRedisTemplate stringRedisTemplate;
+    private ProjectPhoneDedupIndex nodeA;
+    private ProjectPhoneDedupIndex nodeB;
+
+    @BeforeAll
+    static void initTableInfo() {
+        TableInfoHelper.initTableInfo(new MapperBuilderAssistant(new MybatisConfiguration(), ""), NumberRecord.class);
+    }
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> ops = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(ops);
+        doAnswer(invocation -> redis.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(ops).set(anyString(), anyString(), anyLong(), any());
+        when(stringRedisTemplate.hasKey(anyString())).thenAnswer(invocation -> redis.containsKey(invocation.<String>getArgument(0)));
+
+        nodeA = node();
+        nodeB = node();
+    }
+
+    @Test
+    void numberTakenOnAnotherNodeIsNotTreatedAsNewBeforeCatchUp() {
+        assertFalse(nodeB.mightContain("1001", "13800000000"));
+
+        nodeA.add("1001", "13800000000");
+
+        // 节点 B 的本地过滤器还没有追平到这条记录
+        assertTrue(nodeB.mightContain("1001", "13800000000"));
+        assertTrue(nodeA.mightContain("1001", "13800000000"));
+        assertFalse(nodeB.mightContain("1002", "13800000000"));
+        assertFalse(nodeB.mightContain("1001", "13900000000"));
+    }
+
+    @Test
+    void redisFailureFallsBackToDatabaseCheck() {
+        when(stringRedisTemplate.hasKey(anyString())).thenThrow(new RedisConnectionFailureException("down"));
+
+        assertTrue(nodeB.mightContain("1001", "13800000000"));
+    }
+
+    private ProjectPhoneDedupIndex node() {
+        NumberRecordMapper mapper = mock(NumberRecordMapper.class);
+        when(mapper.selectList(any())).thenReturn(List.of());
+        ProjectPhoneDedupIndex index = new ProjectPhoneDedupIndex();
+        ReflectionTestUtils.setField(index, "numberRecordMapper", mapper);
+        ReflectionTestUtils.setField(index, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(index, "initialCapacity", 1024L);
+        index.rebuild();
+        return index;
+    }
+}
@@ -0,0 +1,247 @@
+package com.wzz.smscode.cacheManager;
+
+import com.wzz.smscode.mapper.NumberRecordMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UserCodeRateTrackerTest {
+
+    private static final long USER_ID = 7L;
+    private static final int WINDOW_MINUTES = 60;
+
+    /**
+     * 模拟 number_record 中的一行
+     */
+    private static final class Row {
+        private final LocalDateTime getNumberTime;
+        private final LocalDateTime codeTime;
+        private boolean success;
+
+        private Row(LocalDateTime getNumberTime, LocalDateTime codeTime) {
+            this.getNumberTime = getNumberTime;
+            this.codeTime = codeTime;
+        }
+    }
+
+    @Test
+    void matchesSqlWindowCountsWhileEventsStreamIn() {
+        Random random = new Random(42);
+        LocalDateTime start = LocalDateTime.of(2025, 1, 1, 8, 0);
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            LocalDateTime getTime = start.plusSeconds(random.nextInt(6 * 3600));
+            LocalDateTime codeTime = random.nextInt(100) < 55 ? getTime.plusSeconds(5 + random.nextInt(300)) : null;
+            rows.add(new Row(getTime, codeTime));
+        }
+        rows.sort(Comparator.comparing(r -> r.getNumberTime));
+
+        List<Row> committed = new ArrayList<>();
+        NumberRecordMapper mapper = mock(NumberRecordMapper.class);
+        when(mapper.selectUserMinuteCodeStats(anyLong(), any())).thenAnswer(invocation ->
+                aggregateByMinute(committed, invocation.getArgument(1)));
+
+        UserCodeRateTracker tracker = new UserCodeRateTracker();
+        ReflectionTestUtils.setField(tracker, "numberRecordMapper", mapper);
+        ReflectionTestUtils.setField(tracker, "resyncMinutes", Long.MAX_VALUE);
+
+        // 前两小时的数据在首次检查前已落库，之后的订单按时间顺序以事件方式进入
+        LocalDateTime firstCheck = start.plusHours(2);
+        List<Event> events = new ArrayList<>();
+        for (Row row : rows) {
+            if (row.getNumberTime.isBefore(firstCheck)) {
+                committed.add(row);
+                if (row.codeTime != null && row.codeTime.isBefore(firstCheck)) {
+                    row.success = true;
+                } else if (row.codeTime != null) {
+                    events.add(new Event(row.codeTime, row, false));
+                }
+            } else {
+                events.add(new Event(row.getNumberTime, row, true));
+                if (row.codeTime != null) {
+                    events.add(new Event(row.codeTime, row, false));
+                }
+            }
+        }
+        events.sort(Comparator.comparing(e -> e.time));
+
+        assertEquals(sqlRate(committed, firstCheck), tracker.getCodeRate(USER_ID, WINDOW_MINUTES, firstCheck));
+
+        int cursor = 0;
+        for (LocalDateTime now = firstCheck.plusMinutes(1); now.isBefore(start.plusHours(7)); now = now.plusMinutes(1)) {
+            while (cursor < events.size() && events.get(cursor).time.isBefore(now)) {
+                Event event = events.get(cursor++);
+                if (event.creation) {
+                    committed.add(event.row);
+                    tracker.recordCreated(USER_ID, event.row.getNumberTime);
+                } else {
+                    event.row.success = true;
+                    tracker.recordCodeReceived(USER_ID, event.row.getNumberTime);
+                }
+            }
+            assertEquals(sqlRate(committed, now), tracker.getCodeRate(USER_ID, WINDOW_MINUTES, now),
+                    "window rate diverged from SQL at " + now);
+        }
+    }
+
+    @Test
+    void revertedCodeLowersRateAndEmptyWindowReturnsOne() {
+        NumberRecordMapper mapper = mock(NumberRecordMapper.class);
+        when(mapper.selectUserMinuteCodeStats(anyLong(), any())).thenReturn(List.of());
+        UserCodeRateTracker tracker = new UserCodeRateTracker();
+        ReflectionTestUtils.setField(tracker, "numberRecordMapper", mapper);
+
+        LocalDateTime now = LocalDateTime.of(2025, 1, 1, 12, 0);
+        assertEquals(1.0D, tracker.getCodeRate(USER_ID, WINDOW_MINUTES, now));
+
+        tracker.recordCreated(USER_ID, now.minusMinutes(3));
+        tracker.recordCreated(USER_ID, now.minusMinutes(2));
+        tracker.recordCodeReceived(USER_ID, now.minusMinutes(3));
+        tracker.recordCodeReceived(USER_ID, now.minusMinutes(2));
+        assertEquals(1.0D, tracker.getCodeRate(USER_ID, WINDOW_MINUTES, now));
+
+        tracker.recordCodeReverted(USER_ID, now.minusMinutes(2));
+        assertEquals(0.5D, tracker.getCodeRate(USER_ID, WINDOW_MINUTES, now));
+
+        // 全部滑出窗口
+        assertEquals(1.0D, tracker.getCodeRate(USER_ID, WINDOW_MINUTES, now.plusMinutes(WINDOW_MINUTES + 1)));
+    }
+
+    @Test
+    void midMinuteWindowStartsAtTheWholeMinute() {
+        NumberRecordMapper mapper = mock(NumberRecordMapper.class);
+        when(mapper.selectUserMinuteCodeStats(anyLong(), any())).thenReturn(List.of());
+        UserCodeRateTracker tracker = tracker(mapper);
+
+        LocalDateTime now = LocalDateTime.of(2025, 1, 1, 12, 0, 30);
+        assertEquals(1.0D, tracker.getCodeRate(USER_ID, WINDOW_MINUTES, now));
+        verify(mapper).selectUserMinuteCodeStats(USER_ID, LocalDateTime.of(2025, 1, 1, 11, 0));
+
+        // 11:00:10 早于 now - 60 分钟（11:00:30），但与窗口起点在同一分钟，按整分钟对齐仍计入
+        tracker.recordCreated(USER_ID, LocalDateTime.of(2025, 1, 1, 11, 0, 10));
+        tracker.recordCodeReceived(USER_ID, LocalDateTime.of(2025, 1, 1, 11, 0, 10));
+        tracker.recordCreated(USER_ID, LocalDateTime.of(2025, 1, 1, 11, 59, 50));
+        assertEquals(0.5D, tracker.getCodeRate(USER_ID, WINDOW_MINUTES, now));
+        assertEquals(0.5D, tracker.getCodeRate(USER_ID, WINDOW_MINUTES, now.plusSeconds(29)));
+        // 进入下一分钟后整分钟滑出
+        assertEquals(0.0D, tracker.getCodeRate(USER_ID, WINDOW_MINUTES, now.plusSeconds(30)));
+    }
+
+    @Test
+    void eventsArrivingWhileSnapshotLoadsAreMerged() {
+        LocalDateTime now = LocalDateTime.of(2025, 1, 1, 12, 0);
+        NumberRecordMapper mapper = mock(NumberRecordMapper.class);
+        UserCodeRateTracker tracker = tracker(mapper);
+        when(mapper.selectUserMinuteCodeStats(anyLong(), any())).thenAnswer(invocation -> {
+            // 快照读取期间另一笔订单提交，不在快照里
+            tracker.recordCreated(USER_ID, now.minusMinutes(1));
+            return List.of(bucket(now.minusMinutes(5), 1, 1));
+        });
+
+        assertEquals(0.5D, tracker.getCodeRate(USER_ID, WINDOW_MINUTES, now));
+    }
+
+    @Test
+    void eventsArrivingDuringResyncReachTheNewWindow() throws Exception {
+        LocalDateTime now = LocalDateTime.of(2025, 1, 1, 12, 0);
+        CountDownLatch resyncReading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        NumberRecordMapper mapper = mock(NumberRecordMapper.class);
+        when(mapper.selectUserMinuteCodeStats(anyLong(), any()))
+                .thenReturn(List.of(bucket(now.minusMinutes(5), 1, 1)))
+                .thenAnswer(invocation -> {
+                    resyncReading.countDown();
+                    release.await(5, TimeUnit.SECONDS);
+                    return List.of(bucket(now.minusMinutes(5), 1, 1));
+                });
+        UserCodeRateTracker tracker = tracker(mapper);
+        ReflectionTestUtils.setField(tracker, "resyncMinutes", 1L);
+
+        assertEquals(1.0D, tracker.getCodeRate(USER_ID, WINDOW_MINUTES, now));
+        Map<?, ?> windows = (Map<?, ?>) ReflectionTestUtils.getField(tracker, "windows");
+        Object original = windows.get(USER_ID);
+        tracker.getCodeRate(USER_ID, WINDOW_MINUTES, now.plusMinutes(1));
+        assertTrue(resyncReading.await(5, TimeUnit.SECONDS));
+        tracker.recordCreated(USER_ID, now);
+        release.countDown();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (windows.get(USER_ID) == original && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNotSame(original, windows.get(USER_ID));
+        assertEquals(0.5D, tracker.getCodeRate(USER_ID, WINDOW_MINUTES, now.plusMinutes(1)));
+    }
+
+    private static UserCodeRateTracker tracker(NumberRecordMapper mapper) {
+        UserCodeRateTracker tracker = new UserCodeRateTracker();
+        ReflectionTestUtils.setField(tracker, "numberRecordMapper", mapper);
+        ReflectionTestUtils.setField(tracker, "resyncMinutes", Long.MAX_VALUE);
+        return tracker;
+    }
+
+    private static Map<String, Object> bucket(LocalDateTime minute, long getCount, long codeCount) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("bucketTime", minute);
+        row.put("getCount", getCount);
+        row.put("codeCount", codeCount);
+        return row;
+    }
+
+    private record Event(LocalDateTime time, Row row, boolean creation) {
+    }
+
+    /**
+     * 与 NumberRecordMapper.selectUserMinuteCodeStats 相同口径的按分钟聚合
+     */
+    private static List<Map<String, Object>> aggregateByMinute(List<Row> rows, LocalDateTime windowStart) {
+        Map<LocalDateTime, List<Row>> byMinute = rows.stream()
+                .filter(r -> !r.getNumberTime.isBefore(windowStart))
+                .collect(Collectors.groupingBy(r -> r.getNumberTime.truncatedTo(ChronoUnit.MINUTES), TreeMap::new, Collectors.toList()));
+        List<Map<String, Object>> result = new ArrayList<>();
+        byMinute.forEach((minute, bucket) -> {
+            Map<String, Object> row = new HashMap<>();
+            row.put("bucketTime", bucket.stream().map(r -> r.getNumberTime).min(Comparator.naturalOrder()).orElse(minute));
+            row.put("getCount", (long) bucket.size());
+            row.put("codeCount", BigDecimal.valueOf(bucket.stream().filter(r -> r.success).count()));
+            result.add(row);
+        });
+        return result;
+    }
+
+    /**
+     * 原 calculateUserCodeRateWithinMinutes 的两条 COUNT 语句
+     */
+    private static double sqlRate(List<Row> rows, LocalDateTime now) {
+        LocalDateTime windowStart = now.minusMinutes(WINDOW_MINUTES);
+        long total = rows.stream().filter(r -> !r.getNumberTime.isBefore(windowStart)).count();
+        if (total == 0) {
+            return 1.0D;
+        }
+        long success = rows.stream().filter(r -> !r.getNumberTime.isBefore(windowStart) && r.success).count();
+        return BigDecimal.valueOf(success).divide(BigDecimal.valueOf(total), 4, RoundingMode.HALF_UP).doubleValue();
+    }
+}
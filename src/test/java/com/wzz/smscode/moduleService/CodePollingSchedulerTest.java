@@ -0,0 +1,168 @@
+package com.wzz.smscode.moduleService;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CodePollingSchedulerTest {
+
+    private CodePollingScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = new CodePollingScheduler();
+        ReflectionTestUtils.setField(scheduler, "tickMs", 10L);
+        ReflectionTestUtils.setField(scheduler, "wheelSize", 64);
+        ReflectionTestUtils.setField(scheduler, "maxConcurrency", 64);
+        scheduler.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.stop();
+    }
+
+    @Test
+    void pollsAtIntervalUntilCodeArrives() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<CodePollingScheduler.Outcome> outcome = new AtomicReference<>();
+        AtomicReference<String> code = new AtomicReference<>();
+
+        scheduler.schedule(1L, 0, 20, 20, 5_000, 0,
+                () -> calls.incrementAndGet() >= 3 ? "123456" : null, null,
+                (o, c, e) -> {
+                    outcome.set(o);
+                    code.set(c);
+                    done.countDown();
+                });
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(CodePollingScheduler.Outcome.SUCCESS, outcome.get());
+        assertEquals("123456", code.get());
+        assertEquals(3, calls.get());
+        assertFalse(scheduler.isActive(1L));
+    }
+
+    @Test
+    void timesOutAndHonoursMaxAttempts() throws Exception {
+        CountDownLatch done = new CountDownLatch(2);
+        Map<Long, CodePollingScheduler.Outcome> outcomes = new ConcurrentHashMap<>();
+        AtomicInteger oneShotCalls = new AtomicInteger();
+
+        scheduler.schedule(1L, 0, 20, 20, 100, 0, () -> null, null,
+                (o, c, e) -> { outcomes.put(1L, o); done.countDown(); });
+        scheduler.schedule(2L, 50, 20, 20, 5_000, 1, () -> { oneShotCalls.incrementAndGet(); return null; }, null,
+                (o, c, e) -> { outcomes.put(2L, o); done.countDown(); });
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(CodePollingScheduler.Outcome.TIMEOUT, outcomes.get(1L));
+        assertEquals(CodePollingScheduler.Outcome.TIMEOUT, outcomes.get(2L));
+        assertEquals(1, oneShotCalls.get());
+    }
+
+    @Test
+    void cancelAndStopConditionEndPolling() throws Exception {
+        CountDownLatch done = new CountDownLatch(2);
+        Map<Long, CodePollingScheduler.Outcome> outcomes = new ConcurrentHashMap<>();
+
+        scheduler.schedule(1L, 0, 20, 20, 5_000, 0, () -> null, null,
+                (o, c, e) -> { outcomes.put(1L, o); done.countDown(); });
+        scheduler.schedule(2L, 0, 20, 20, 5_000, 0, () -> null, () -> true,
+                (o, c, e) -> { outcomes.put(2L, o); done.countDown(); });
+        assertFalse(scheduler.schedule(1L, 0, 20, 20, 5_000, 0, () -> null, null, (o, c, e) -> { }));
+        assertTrue(scheduler.cancel(1L));
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(CodePollingScheduler.Outcome.CANCELLED, outcomes.get(1L));
+        assertEquals(CodePollingScheduler.Outcome.CANCELLED, outcomes.get(2L));
+        assertEquals(0, scheduler.getActiveCount());
+    }
+
+    @Test
+    void exceptionOnLastAttemptEndsWithError() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<CodePollingScheduler.Outcome> outcome = new AtomicReference<>();
+        AtomicReference<Exception> error = new AtomicReference<>();
+        IllegalStateException failure = new IllegalStateException("手机号参数为空");
+
+        scheduler.schedule(1L, 0, 20, 20, 5_000, 1, () -> { throw failure; }, null,
+                (o, c, e) -> { outcome.set(o); error.set(e); done.countDown(); });
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(CodePollingScheduler.Outcome.ERROR, outcome.get());
+        assertSame(failure, error.get());
+    }
+
+    @Test
+    void delaysBeyondOneWheelRotationNeverFireEarly() throws Exception {
+        // 64 个槽位 * 10ms = 640ms 一圈，延迟覆盖约三圈
+        int orders = 100;
+        long start = System.nanoTime();
+        Map<Long, Long> firedAfterMs = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(orders);
+        for (long id = 0; id < orders; id++) {
+            long orderId = id;
+            scheduler.schedule(orderId, orderId * 20, 20, 20, 10_000, 1,
+                    () -> {
+                        firedAfterMs.put(orderId, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                        return "1234";
+                    },
+                    null, (o, c, e) -> done.countDown());
+        }
+        assertEquals(orders, scheduler.getActiveCount());
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(orders, firedAfterMs.size());
+        firedAfterMs.forEach((id, elapsed) ->
+                assertTrue(elapsed >= id * 20, "order " + id + " fired after " + elapsed + "ms"));
+        assertEquals(0, scheduler.getActiveCount());
+    }
+
+    @Test
+    void concurrentAttemptsAreCappedByMaxConcurrency() throws Exception {
+        scheduler.stop();
+        scheduler = new CodePollingScheduler();
+        ReflectionTestUtils.setField(scheduler, "tickMs", 10L);
+        ReflectionTestUtils.setField(scheduler, "maxConcurrency", 4);
+        scheduler.start();
+
+        int orders = 20;
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(orders);
+        Map<Long, CodePollingScheduler.Outcome> outcomes = new ConcurrentHashMap<>();
+        for (long id = 0; id < orders; id++) {
+            long orderId = id;
+            scheduler.schedule(orderId, 0, 20, 20, 10_000, 0,
+                    () -> {
+                        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                        try {
+                            TimeUnit.MILLISECONDS.sleep(30);
+                        } finally {
+                            running.decrementAndGet();
+                        }
+                        return "1234";
+                    },
+                    null, (o, c, e) -> { outcomes.put(orderId, o); done.countDown(); });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(maxRunning.get() <= 4, "max concurrent attempts " + maxRunning.get());
+        assertEquals(orders, outcomes.size());
+        outcomes.values().forEach(o -> assertEquals(CodePollingScheduler.Outcome.SUCCESS, o));
+    }
+}
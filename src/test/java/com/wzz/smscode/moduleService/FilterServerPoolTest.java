@@ -0,0 +1,124 @@
+package com.wzz.smscode.moduleService;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FilterServerPoolTest {
+
+    private FilterServerPool pool;
+    private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        pool = new FilterServerPool();
+        ReflectionTestUtils.setField(pool, "servers", "a, b, c");
+        ReflectionTestUtils.setField(pool, "hedgeMinDelayMs", 50L);
+        ReflectionTestUtils.setField(pool, "hedgeMaxDelayMs", 200L);
+        ReflectionTestUtils.setField(pool, "requestTimeoutMs", 5000L);
+        ReflectionTestUtils.setField(pool, "ejectMs", 60_000L);
+    }
+
+    @Test
+    void slowPrimaryIsHedgedToSecondServer() {
+        // a 很慢，b 快：对冲延迟（无样本时取上限 200ms）后由 b 返回
+        long start = System.nanoTime();
+        String result = pool.execute(server -> respond(server, Map.of("a", 3000L, "b", 10L, "c", 10L))).block();
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals("b", result);
+        assertTrue(elapsedMs < 1000, "hedged request took " + elapsedMs + "ms");
+        assertEquals(0, calls.getOrDefault("c", new AtomicInteger()).get());
+    }
+
+    @Test
+    void primaryCancelledByHedgeIsSampledAsSlow() {
+        assertEquals("b", pool.execute(server -> respond(server, Map.of("a", 3000L, "b", 10L, "c", 10L))).block());
+
+        // a 输掉对冲被取消，耗时至少是对冲延迟 200ms，排到最后
+        double aLatency = (double) ReflectionTestUtils.getField(pool.healthOf("a"), "ewmaLatencyMs");
+        assertTrue(aLatency >= 200, "a latency " + aLatency);
+        assertEquals(1, (int) ReflectionTestUtils.getField(pool.healthOf("a"), "latencyCount"));
+        assertEquals("a", nameOf(pool.rank().get(2)));
+    }
+
+    @Test
+    void failedPrimaryHedgesImmediatelyAndFallsThroughToRest() {
+        long start = System.nanoTime();
+        String result = pool.execute(server -> "c".equals(server) ? respond(server, Map.of("c", 10L))
+                : Mono.<String>error(new IllegalStateException(server + " down"))).block();
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals("c", result);
+        // a 失败立即对冲 b，无需等待对冲延迟
+        assertTrue(elapsedMs < 150, "fallback took " + elapsedMs + "ms");
+    }
+
+    @Test
+    void allServersFailingYieldsEmpty() {
+        assertNull(pool.execute(server -> Mono.<String>error(new IllegalStateException("down"))).block());
+    }
+
+    @Test
+    void sickServerIsEjectedThenProbedAfterEjection() {
+        for (int i = 0; i < 3; i++) {
+            pool.execute(server -> "a".equals(server) ? Mono.<String>error(new IllegalStateException("a down"))
+                    : respond(server, Map.of("b", 5L, "c", 5L))).block();
+        }
+        assertTrue(pool.healthOf("a").isEjected());
+        List<String> ranked = pool.rank().stream().map(this::nameOf).toList();
+        assertFalse(ranked.contains("a"));
+
+        // 摘除到期后进入探测，探测成功即恢复
+        ReflectionTestUtils.setField(pool.healthOf("a"), "ejectedUntil", System.currentTimeMillis() - 1);
+        assertEquals("a", nameOf(pool.rank().get(2)));
+        ReflectionTestUtils.setField(pool, "servers", "a");
+        assertEquals("a", pool.execute(server -> respond(server, Map.of("a", 5L))).block());
+        assertFalse(pool.healthOf("a").isEjected());
+        assertEquals(0L, (long) ReflectionTestUtils.getField(pool.healthOf("a"), "ejectedUntil"));
+    }
+
+    @Test
+    void hedgeDelayFollowsPrimaryP95WithinBounds() {
+        for (int i = 0; i < 20; i++) {
+            pool.execute(server -> respond(server, Map.of("a", 100L, "b", 100L, "c", 100L))).block();
+        }
+        FilterServerPool.ServerHealth fastest = pool.rank().get(0);
+        long delay = pool.hedgeDelayMs(fastest);
+        assertTrue(delay >= 50 && delay <= 200, "hedge delay " + delay);
+    }
+
+    @Test
+    void firstLatencySampleAfterAFailureIsTakenAsIs() {
+        ReflectionTestUtils.setField(pool, "servers", "a");
+        pool.execute(server -> Mono.<String>error(new IllegalStateException("down"))).block();
+        assertEquals("a", pool.execute(server -> respond(server, Map.of("a", 100L))).block());
+
+        // 失败不产生耗时样本，第一次成功的耗时直接作为平均值，不按 0 起步
+        double latency = (double) ReflectionTestUtils.getField(pool.healthOf("a"), "ewmaLatencyMs");
+        assertTrue(latency >= 100, "a latency " + latency);
+    }
+
+    private Mono<String> respond(String server, Map<String, Long> latencies) {
+        return Mono.defer(() -> {
+            calls.computeIfAbsent(server, k -> new AtomicInteger()).incrementAndGet();
+            return Mono.delay(Duration.ofMillis(latencies.get(server))).thenReturn(server);
+        });
+    }
+
+    private String nameOf(FilterServerPool.ServerHealth health) {
+        return (String) ReflectionTestUtils.getField(health, "server");
+    }
+}
@@ -0,0 +1,90 @@
+package com.wzz.smscode.moduleService;
+
+import com.wzz.smscode.entity.SystemConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FilterVerdictCacheTest {
+
+    private FilterVerdictCache cache;
+    private SimpleMeterRegistry registry;
+    private SystemConfig config;
+
+    @BeforeEach
+    void setUp() {
+        cache = new FilterVerdictCache();
+        registry = new SimpleMeterRegistry();
+        ReflectionTestUtils.setField(cache, "meterRegistry", registry);
+        cache.registerMetrics();
+        config = new SystemConfig();
+        config.setFilterApiKey("card-a");
+        config.setFilterPassCacheSeconds(60);
+        config.setFilterRejectCacheSeconds(3600);
+    }
+
+    @Test
+    void cachesPositiveAndNegativeVerdictsPerTypeAndPhone() {
+        assertNull(cache.get(config, "1001", "13800000001"));
+        cache.put(config, "1001", "13800000001", true);
+        cache.put(config, "1001", "13800000002", false);
+
+        assertTrue(cache.get(config, "1001", "13800000001"));
+        assertFalse(cache.get(config, "1001", "13800000002"));
+        // 不同筛选类型互不影响
+        assertNull(cache.get(config, "1002", "13800000001"));
+
+        assertEquals(2, registry.get("sms.filter.verdict.cache").tag("result", "hit").functionCounter().count());
+        assertEquals(2, registry.get("sms.filter.verdict.cache").tag("result", "miss").functionCounter().count());
+        assertEquals(0.5, cache.hitRatio());
+    }
+
+    @Test
+    void typeOverrideCanDisableOneSide() {
+        config.setFilterCacheTypeTtls("1001:0:600");
+        cache.put(config, "1001", "13800000001", true);
+        cache.put(config, "1001", "13800000002", false);
+
+        assertNull(cache.get(config, "1001", "13800000001"));
+        assertFalse(cache.get(config, "1001", "13800000002"));
+    }
+
+    @Test
+    void disabledByDefaultAndClearedWhenCardChanges() {
+        SystemConfig disabled = new SystemConfig();
+        cache.put(disabled, "1001", "13800000001", true);
+        assertEquals(0, cache.size());
+
+        cache.put(config, "1001", "13800000001", true);
+        config.setFilterApiKey("card-b");
+        assertNull(cache.get(config, "1001", "13800000001"));
+    }
+
+    @Test
+    void boundedByMaxEntries() {
+        ReflectionTestUtils.setField(cache, "maxEntries", 10);
+        for (int i = 0; i < 25; i++) {
+            cache.put(config, "1001", "138000000" + i, false);
+        }
+        assertTrue(cache.size() <= 10);
+    }
+
+    @Test
+    void parsesTypeTtls() {
+        Map<String, long[]> ttls = FilterVerdictCache.parseTypeTtls("1001:60:86400， 1002:0:3600");
+        assertArrayEquals(new long[]{60, 86400}, ttls.get("1001"));
+        assertArrayEquals(new long[]{0, 3600}, ttls.get("1002"));
+        assertThrows(IllegalArgumentException.class, () -> FilterVerdictCache.parseTypeTtls("1001:60"));
+        assertThrows(IllegalArgumentException.class, () -> FilterVerdictCache.parseTypeTtls("1001:a:1"));
+    }
+}
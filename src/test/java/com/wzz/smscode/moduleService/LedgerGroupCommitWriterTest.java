@@ -0,0 +1,283 @@
+package com.wzz.smscode.moduleService;
+
+import com.wzz.smscode.cacheManager.NumberRecordCacheManager;
+import com.wzz.smscode.dto.CreatDTO.LedgerCreationDTO;
+import com.wzz.smscode.entity.User;
+import com.wzz.smscode.entity.UserLedger;
+import com.wzz.smscode.enums.FundType;
+import com.wzz.smscode.exception.BusinessException;
+import com.wzz.smscode.mapper.OrderOutboxMapper;
+import com.wzz.smscode.mapper.UserMapper;
+import com.wzz.smscode.service.UserLedgerService;
+import com.wzz.smscode.service.UserService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 账本组提交写入器：批量落账的正确性、余额不足的拒绝与预留、订单提交后资金变动的落账与外发事件的完成。
+ * <p>
+ * 数据库用内存表模拟，每条语句（含提交）有一次往返耗时，使并发提交的事件能合并成批。
+ * </p>
+ */
+class LedgerGroupCommitWriterTest {
+
+    private static final long ROUND_TRIP_NANOS = TimeUnit.MICROSECONDS.toNanos(250);
+    private static final long PER_ROW_NANOS = TimeUnit.MICROSECONDS.toNanos(5);
+    private static final int USERS = 200;
+
+    private final Map<Long, BigDecimal> balances = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<UserLedger> ledgers = new ConcurrentLinkedQueue<>();
+    private final OrderOutboxMapper orderOutboxMapper = mock(OrderOutboxMapper.class);
+    private final Set<Long> pendingEvents = ConcurrentHashMap.newKeySet();
+    private volatile CountDownLatch databaseStall = new CountDownLatch(0);
+    private LedgerGroupCommitWriter writer;
+
+    @AfterEach
+    void tearDown() {
+        databaseStall.countDown();
+        if (writer != null) {
+            writer.stop();
+        }
+    }
+
+    @Test
+    void concurrentSubmitsKeepEveryUsersLedgerChainContinuous() throws Exception {
+        writer = writer();
+        BigDecimal initial = new BigDecimal("1000.00");
+        for (long id = 1; id <= USERS; id++) {
+            balances.put(id, initial);
+        }
+        int total = 5_000;
+        AtomicInteger failed = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(total);
+        for (int i = 0; i < total; i++) {
+            long userId = 1 + i % USERS;
+            Thread.ofVirtual().start(() -> {
+                try {
+                    writer.submit(debit(userId, new BigDecimal("0.01")));
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertEquals(0, failed.get());
+        assertEquals(total, ledgers.size());
+
+        // 每个用户的账本首尾相接，余额等于初始余额减去全部扣费
+        Map<Long, List<UserLedger>> byUser = new ConcurrentHashMap<>();
+        ledgers.forEach(ledger -> byUser.computeIfAbsent(ledger.getUserId(), k -> new ArrayList<>()).add(ledger));
+        byUser.forEach((userId, list) -> {
+            BigDecimal previous = initial;
+            for (UserLedger ledger : list) {
+                assertEquals(previous, ledger.getBalanceBefore());
+                previous = ledger.getBalanceAfter();
+            }
+            assertEquals(balances.get(userId), previous);
+            assertEquals(initial.subtract(new BigDecimal("0.01").multiply(BigDecimal.valueOf(list.size()))), previous);
+        });
+    }
+
+    @Test
+    void committedLedgerIsAppliedEvenIntoOverdraftAndMarksItsEventDone() {
+        writer = writer();
+        balances.put(1L, new BigDecimal("1.00"));
+        pendingEvents.add(42L);
+        LedgerCreationDTO debit = debit(1L, new BigDecimal("5.00"));
+
+        // 订单已提交：余额不足也必须落账，并在同一事务中标记外发事件完成
+        writer.submitCommitted(debit, 42L);
+        verify(orderOutboxMapper, timeout(5000)).markDoneBatch(List.of(42L));
+        assertEquals(new BigDecimal("-4.00"), balances.get(1L));
+        assertEquals(1, ledgers.size());
+    }
+
+    @Test
+    void ledgerAlreadyAppliedByRecoveryIsSkippedAndReleasesItsReservation() {
+        writer = writer();
+        balances.put(1L, new BigDecimal("1.00"));
+        LedgerCreationDTO debit = debit(1L, new BigDecimal("0.40"));
+        assertEquals(new BigDecimal("0.60"), writer.reserve(debit, new BigDecimal("1.00")));
+
+        // 事件已由补投落账（不再是待投递）
+        writer.submitCommitted(debit, 42L);
+        verify(orderOutboxMapper, timeout(5000)).lockPending(List.of(42L));
+        verify(orderOutboxMapper, never()).markDoneBatch(anyCollection());
+        assertEquals(new BigDecimal("1.00"), balances.get(1L));
+        assertEquals(0, ledgers.size());
+        awaitReservationReleased(1L);
+    }
+
+    @Test
+    void reserveRejectsDebitsBeyondCommittedBalanceMinusInFlight() {
+        writer = writer();
+        BigDecimal committed = new BigDecimal("1.00");
+        LedgerCreationDTO first = debit(1L, new BigDecimal("0.40"));
+
+        assertEquals(new BigDecimal("0.60"), writer.reserve(first, committed));
+        assertEquals(new BigDecimal("0.20"), writer.reserve(debit(1L, new BigDecimal("0.40")), committed));
+        assertThrows(BusinessException.class, () -> writer.reserve(debit(1L, new BigDecimal("0.40")), committed));
+        // 其它用户不受影响；入账按在途扣费后的余额预计
+        assertEquals(new BigDecimal("0.60"), writer.reserve(debit(2L, new BigDecimal("0.40")), committed));
+        assertEquals(new BigDecimal("0.60"), writer.reserve(credit(1L, new BigDecimal("0.40")), committed));
+
+        writer.unreserve(first);
+        assertEquals(new BigDecimal("0.20"), writer.reserve(debit(1L, new BigDecimal("0.40")), committed));
+    }
+
+    @Test
+    void rejectsOverdraftWithoutFailingTheRestOfTheBatch() throws Exception {
+        writer = writer();
+        balances.put(1L, new BigDecimal("1.00"));
+        balances.put(2L, new BigDecimal("1.00"));
+        databaseStall = new CountDownLatch(1);
+
+        var rejected = CompletableFuture.supplyAsync(() -> writer.submit(debit(1L, new BigDecimal("5.00"))));
+        var accepted = CompletableFuture.supplyAsync(() -> writer.submit(debit(2L, new BigDecimal("0.40"))));
+        Thread.sleep(100);
+        databaseStall.countDown();
+
+        assertEquals(new BigDecimal("0.60"), accepted.join());
+        Exception e = assertThrows(Exception.class, rejected::join);
+        assertTrue(e.getCause() instanceof BusinessException);
+        assertEquals(1, ledgers.size());
+    }
+
+    private void awaitReservationReleased(long userId) {
+        // 落账回调在消费线程中执行，重新预留全部已提交余额成功即说明已释放
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (true) {
+            try {
+                writer.reserve(debit(userId, new BigDecimal("1.00")), new BigDecimal("1.00"));
+                return;
+            } catch (BusinessException e) {
+                if (System.nanoTime() > deadline) {
+                    throw e;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            }
+        }
+    }
+
+    private LedgerGroupCommitWriter writer() {
+        when(orderOutboxMapper.lockPending(anyCollection())).thenAnswer(inv -> inv.<Collection<Long>>getArgument(0)
+                .stream().filter(pendingEvents::contains).toList());
+        UserMapper userMapper = mock(UserMapper.class);
+        when(userMapper.selectByIdsForUpdate(anyCollection())).thenAnswer(inv -> {
+            databaseStall.await(10, TimeUnit.SECONDS);
+            roundTrip(0);
+            List<User> users = new ArrayList<>();
+            for (Long id : inv.<Collection<Long>>getArgument(0)) {
+                BigDecimal balance = balances.get(id);
+                if (balance != null) {
+                    User user = new User();
+                    user.setId(id);
+                    user.setUserName("u" + id);
+                    user.setBalance(balance);
+                    users.add(user);
+                }
+            }
+            return users;
+        });
+        UserService userService = mock(UserService.class);
+        when(userService.updateBatchById(anyCollection(), anyInt())).thenAnswer(inv -> {
+            Collection<User> updates = inv.getArgument(0);
+            roundTrip(updates.size());
+            updates.forEach(user -> balances.put(user.getId(), user.getBalance()));
+            return true;
+        });
+        UserLedgerService userLedgerService = mock(UserLedgerService.class);
+        when(userLedgerService.saveBatch(anyCollection(), anyInt())).thenAnswer(inv -> {
+            Collection<UserLedger> rows = inv.getArgument(0);
+            roundTrip(rows.size());
+            ledgers.addAll(rows);
+            return true;
+        });
+
+        LedgerGroupCommitWriter writer = new LedgerGroupCommitWriter();
+        ReflectionTestUtils.setField(writer, "userMapper", userMapper);
+        ReflectionTestUtils.setField(writer, "orderOutboxMapper", orderOutboxMapper);
+        ReflectionTestUtils.setField(writer, "userService", userService);
+        ReflectionTestUtils.setField(writer, "userLedgerService", userLedgerService);
+        ReflectionTestUtils.setField(writer, "numberRecordCacheManager", mock(NumberRecordCacheManager.class));
+        ReflectionTestUtils.setField(writer, "transactionManager", new RoundTripTransactionManager());
+        ReflectionTestUtils.setField(writer, "enabled", true);
+        writer.start();
+        return writer;
+    }
+
+    private static LedgerCreationDTO credit(long userId, BigDecimal amount) {
+        return LedgerCreationDTO.builder()
+                .userId(userId)
+                .amount(amount)
+                .ledgerType(1)
+                .fundType(FundType.ADMIN_OUT_TIME_REBATE)
+                .remark("取码失败/超时退款")
+                .build();
+    }
+
+    private static LedgerCreationDTO debit(long userId, BigDecimal amount) {
+        return LedgerCreationDTO.builder()
+                .userId(userId)
+                .amount(amount)
+                .ledgerType(0)
+                .fundType(FundType.BUSINESS_DEDUCTION)
+                .remark("取号预扣费")
+                .build();
+    }
+
+    private static void roundTrip(int rows) {
+        LockSupport.parkNanos(ROUND_TRIP_NANOS + rows * PER_ROW_NANOS);
+    }
+
+    /**
+     * 提交计一次往返
+     */
+    private static final class RoundTripTransactionManager implements PlatformTransactionManager {
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+            roundTrip(0);
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+        }
+    }
+}
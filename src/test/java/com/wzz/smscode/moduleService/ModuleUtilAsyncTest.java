@@ -0,0 +1,101 @@
+package com.wzz.smscode.moduleService;
+
+import com.wzz.smscode.dto.ApiConfig.ApiConfig;
+import com.wzz.smscode.dto.ApiConfig.ExtractRule;
+import com.wzz.smscode.dto.RequestDTO.KeyValue;
+import com.wzz.smscode.exception.BusinessException;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ModuleUtilAsyncTest {
+
+    private final AtomicReference<ClientRequest> lastRequest = new AtomicReference<>();
+
+    private ModuleUtil moduleUtil(String responseBody, Duration delay) {
+        WebClient webClient = WebClient.builder()
+                .exchangeFunction(request -> {
+                    lastRequest.set(request);
+                    return Mono.delay(delay).map(tick -> ClientResponse.create(HttpStatus.OK)
+                            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                            .body(responseBody)
+                            .build());
+                })
+                .build();
+        return new ModuleUtil(webClient, new UpstreamGuard());
+    }
+
+    private static ApiConfig config(String jsonPath) {
+        ApiConfig config = new ApiConfig();
+        config.setUrl("http://93.184.216.34/api/getPhone");
+        config.setMethod("GET");
+        KeyValue param = new KeyValue();
+        param.setKey("token");
+        param.setValue("{{token}}");
+        config.setParams(List.of(param));
+        ExtractRule rule = new ExtractRule();
+        rule.setTargetVariable("phone");
+        rule.setJsonPath(jsonPath);
+        config.setExtractRules(List.of(rule));
+        return config;
+    }
+
+    @Test
+    void asyncExecutionExtractsVariablesWithoutBlockingCaller() {
+        ModuleUtil util = moduleUtil("{\"data\":{\"phone\":\"13800000000\"}}", Duration.ofMillis(300));
+        Map<String, String> context = new HashMap<>(Map.of("token", "abc"));
+
+        long start = System.nanoTime();
+        Mono<Map<String, String>> result = util.executeApiAsync(config("$.data.phone"), context);
+        Map<String, String> pending = new HashMap<>(context);
+        Map<String, String> resolved = result.block();
+        long assembleMs = (System.nanoTime() - start) / 1_000_000;
+
+        // 组装 Mono 时尚未发出请求
+        assertEquals(Map.of("token", "abc"), pending);
+        assertTrue(assembleMs >= 300, "response delay not observed: " + assembleMs + "ms");
+        assertEquals("13800000000", resolved.get("phone"));
+        assertEquals("13800000000", context.get("phone"));
+        assertEquals("token=abc", lastRequest.get().url().getQuery());
+    }
+
+    @Test
+    void missingExtractPathSurfacesUpstreamMessage() {
+        ModuleUtil util = moduleUtil("{\"msg\":\"余额不足\"}", Duration.ZERO);
+
+        BusinessException error = assertThrows(BusinessException.class,
+                () -> util.executeApiAsync(config("$.data.phone"), new HashMap<>()).block());
+        assertEquals("余额不足", error.getMessage());
+
+        BusinessException blocking = assertThrows(BusinessException.class,
+                () -> util.executeApi(config("$.data.phone"), new HashMap<>()));
+        assertEquals("余额不足", blocking.getMessage());
+    }
+
+    @Test
+    void transportErrorsAreWrappedAsBusinessException() {
+        WebClient webClient = WebClient.builder()
+                .exchangeFunction(request -> Mono.error(new IllegalStateException("connection refused")))
+                .build();
+        ModuleUtil util = new ModuleUtil(webClient, new UpstreamGuard());
+
+        BusinessException error = assertThrows(BusinessException.class,
+                () -> util.executeApiAsync(config("$.data.phone"), new HashMap<>()).block());
+        assertTrue(error.getMessage().startsWith("接口调用异常"), error.getMessage());
+    }
+}
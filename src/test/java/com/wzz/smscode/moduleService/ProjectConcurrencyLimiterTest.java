@@ -0,0 +1,139 @@
+package com.wzz.smscode.moduleService;
+
+import com.wzz.smscode.entity.NumberRecordActive;
+import com.wzz.smscode.entity.Project;
+import com.wzz.smscode.service.NumberRecordActiveService;
+import com.wzz.smscode.service.ProjectService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class ProjectConcurrencyLimiterTest {
+
+    private StringRedisTemplate redis;
+    private ZSetOperations<String, String> zSet;
+    private NumberRecordActiveService activeService;
+    private ProjectService projectService;
+    private ProjectConcurrencyLimiter limiter;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        redis = mock(StringRedisTemplate.class);
+        zSet = mock(ZSetOperations.class);
+        when(redis.opsForZSet()).thenReturn(zSet);
+        activeService = mock(NumberRecordActiveService.class);
+        limiter = new ProjectConcurrencyLimiter();
+        ReflectionTestUtils.setField(limiter, "stringRedisTemplate", redis);
+        ReflectionTestUtils.setField(limiter, "numberRecordActiveService", activeService);
+        projectService = mock(ProjectService.class);
+        when(projectService.getProject("105", 1)).thenReturn(project(150));
+        ReflectionTestUtils.setField(limiter, "projectService", projectService);
+        ReflectionTestUtils.setField(limiter, "localRejectMs", 60_000L);
+        limiter.init();
+    }
+
+    @Test
+    void unlimitedProjectNeverTouchesRedis() {
+        assertSame(ProjectConcurrencyLimiter.Permit.UNLIMITED, limiter.tryAcquire(project(0)));
+        Project otherLine = project(null);
+        otherLine.setLineId("2");
+        assertSame(ProjectConcurrencyLimiter.Permit.UNLIMITED, limiter.tryAcquire(otherLine));
+        verifyNoInteractions(redis);
+    }
+
+    @Test
+    void finishedOrderOnUnlimitedLineSkipsRelease() {
+        Project unlimited = project(0);
+        unlimited.setLineId("2");
+        when(projectService.getProject("105", 2)).thenReturn(unlimited);
+
+        limiter.releaseAfterCommit("105", 2, 9L);
+        verifyNoInteractions(redis);
+
+        limiter.releaseAfterCommit("105", 1, 10L);
+        verify(zSet).remove("sms:inflight:105:1", "r:10");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void unconfiguredLineKeepsLegacyDefaultLimit() {
+        when(redis.execute(any(RedisScript.class), anyList(), any(Object[].class))).thenReturn(-151L);
+
+        assertEquals(150, limiter.limitOf(project(null)));
+        assertNull(limiter.tryAcquire(project(null)));
+        verify(redis).execute(any(RedisScript.class), eq(List.of("sms:inflight:105:1")), any(), eq("150"), any(), any(), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void rejectionIsRememberedLocallyUntilARelease() {
+        when(redis.execute(any(RedisScript.class), anyList(), any(Object[].class))).thenReturn(-151L, 150L);
+        Project project = project(150);
+
+        assertNull(limiter.tryAcquire(project));
+        assertNull(limiter.tryAcquire(project));
+        verify(redis, times(1)).execute(any(RedisScript.class), anyList(), any(Object[].class));
+
+        limiter.releaseAfterCommit("105", 1, 9L);
+        ProjectConcurrencyLimiter.Permit permit = limiter.tryAcquire(project);
+        assertNotNull(permit);
+        verify(zSet).remove("sms:inflight:105:1", "r:9");
+
+        limiter.release(permit);
+        verify(redis, times(2)).execute(any(RedisScript.class), anyList(), any(Object[].class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void fallsBackToActiveTableCountWhenRedisFails() {
+        when(redis.execute(any(RedisScript.class), anyList(), any(Object[].class)))
+                .thenThrow(new IllegalStateException("redis down"));
+        when(activeService.countOngoing("105", 1)).thenReturn(149L, 150L);
+
+        assertNotNull(limiter.tryAcquire(project(150)));
+        assertNull(limiter.tryAcquire(project(150)));
+    }
+
+    @Test
+    void reclaimsPermitsOfOrdersNoLongerInFlight() {
+        Set<String> members = new LinkedHashSet<>(List.of("r:1", "r:2", "tmp-token"));
+        when(zSet.range("sms:inflight:105:1", 0, -1)).thenReturn(members);
+        NumberRecordActive active = new NumberRecordActive();
+        active.setRecordId(1L);
+        when(activeService.listByIds(List.of(1L, 2L))).thenReturn(List.of(active));
+
+        limiter.reclaimKey("sms:inflight:105:1");
+
+        verify(zSet).removeRangeByScore(eq("sms:inflight:105:1"), eq(Double.NEGATIVE_INFINITY), any(Double.class));
+        verify(zSet).remove("sms:inflight:105:1", "r:2");
+    }
+
+    private static Project project(Integer maxInFlight) {
+        Project project = new Project();
+        project.setProjectId("105");
+        project.setLineId("1");
+        project.setMaxInFlight(maxInFlight);
+        return project;
+    }
+}
@@ -0,0 +1,132 @@
+package com.wzz.smscode.moduleService;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProviderHttpTransportTest {
+
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private final CountDownLatch slowEntered = new CountDownLatch(1);
+    private HttpServer server;
+    private String baseUrl;
+
+    @BeforeEach
+    void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/GETCODE", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            byte[] body = "123456".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.createContext("/slow", exchange -> {
+            slowEntered.countDown();
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    private ProviderHttpTransport pooled(SimpleMeterRegistry registry, int perHost) {
+        ProviderHttpTransport transport = new ProviderHttpTransport();
+        ReflectionTestUtils.setField(transport, "meterRegistry", registry);
+        ReflectionTestUtils.setField(transport, "pooled", true);
+        ReflectionTestUtils.setField(transport, "maxConnectionsPerHost", perHost);
+        ReflectionTestUtils.setField(transport, "connectTimeoutMs", 200L);
+        transport.init();
+        return transport;
+    }
+
+    private static HttpEntity<String> providerHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.add("User-Agent", "Mozilla/5.0");
+        return new HttpEntity<>(headers);
+    }
+
+    @Test
+    void pooledTransportReusesConnection() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ProviderHttpTransport transport = pooled(registry, 8);
+        try {
+            for (int i = 0; i < 5; i++) {
+                String body = transport.restTemplate()
+                        .exchange(baseUrl + "/GETCODE", HttpMethod.GET, providerHeaders(), String.class).getBody();
+                assertEquals("123456", body);
+            }
+            assertEquals(1, clientPorts.size());
+            assertEquals(1.0, registry.get("sms.provider.http.connections").tag("type", "new").counter().count());
+            assertEquals(4.0, registry.get("sms.provider.http.connections").tag("type", "reused").counter().count());
+            assertEquals(5, registry.get("sms.provider.http.requests").tag("host", "localhost")
+                    .tag("outcome", "success").timer().count());
+        } finally {
+            transport.shutdown();
+        }
+    }
+
+    @Test
+    void perHostLimitFailsFastWhenSaturated() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ProviderHttpTransport transport = pooled(registry, 1);
+        try {
+            RestTemplate template = transport.restTemplate();
+            CompletableFuture<Object> slow = CompletableFuture.supplyAsync(
+                    () -> template.getForObject(baseUrl + "/slow", String.class));
+            assertTrue(slowEntered.await(5, TimeUnit.SECONDS));
+
+            long start = System.nanoTime();
+            assertThrows(ResourceAccessException.class, () -> template.getForObject(baseUrl + "/GETCODE", String.class));
+            assertTrue((System.nanoTime() - start) / 1_000_000 < 900, "saturated host should fail before slow call ends");
+            assertEquals(1, registry.get("sms.provider.http.requests").tag("outcome", "rejected").timer().count());
+            slow.get(5, TimeUnit.SECONDS);
+        } finally {
+            transport.shutdown();
+        }
+    }
+
+    @Test
+    void legacyTransportIsDefault() {
+        ProviderHttpTransport transport = new ProviderHttpTransport();
+        transport.init();
+
+        assertInstanceOf(SimpleClientHttpRequestFactory.class, transport.restTemplate().getRequestFactory());
+        assertEquals("123456", transport.restTemplate()
+                .exchange(baseUrl + "/GETCODE", HttpMethod.GET, providerHeaders(), String.class).getBody());
+    }
+}
@@ -0,0 +1,156 @@
+package com.wzz.smscode.moduleService;
+
+import com.wzz.smscode.dto.ApiConfig.ApiConfig;
+import com.wzz.smscode.entity.Project;
+import com.wzz.smscode.service.ProjectService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ProviderTokenManagerTest {
+
+    private final AtomicInteger logins = new AtomicInteger();
+    private ModuleUtil moduleUtil;
+    private ValueOperations<String, String> values;
+    private ProviderTokenManager manager;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        moduleUtil = mock(ModuleUtil.class);
+        doAnswer(invocation -> {
+            Thread.sleep(200);
+            Map<String, String> context = invocation.getArgument(1);
+            context.put("token", "T" + logins.incrementAndGet());
+            return null;
+        }).when(moduleUtil).executeApi(any(ApiConfig.class), anyMap());
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        values = mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(values);
+        when(values.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+
+        manager = new ProviderTokenManager();
+        ReflectionTestUtils.setField(manager, "moduleUtil", moduleUtil);
+        ReflectionTestUtils.setField(manager, "projectService", mock(ProjectService.class));
+        ReflectionTestUtils.setField(manager, "stringRedisTemplate", redis);
+    }
+
+    @AfterEach
+    void tearDown() {
+        manager.shutdown();
+    }
+
+    @Test
+    void concurrentRequestsOnExpiredTokenShareOneLogin() throws Exception {
+        Project project = project("OLD", LocalDateTime.now().minusHours(25));
+        int callers = 16;
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            results.add(pool.submit(() -> {
+                start.await();
+                return manager.getToken(project);
+            }));
+        }
+        start.countDown();
+        for (Future<String> result : results) {
+            assertEquals("T1", result.get(5, TimeUnit.SECONDS));
+        }
+        pool.shutdown();
+
+        assertEquals(1, logins.get());
+        // 新 Token 写入 Redis 并广播
+        verify(values).set(eq("sms:token:p1:1"), any(String.class), anyLong(), eq(TimeUnit.MINUTES));
+        assertEquals("T1", manager.getToken(project));
+        assertEquals(1, logins.get());
+    }
+
+    @Test
+    void tokenPushedByAnotherNodeIsUsedWithoutLogin() {
+        Project project = project(null, null);
+        String body = "p1:1|" + System.currentTimeMillis() + "|PUSHED|WITH|PIPES";
+        manager.onMessage(new DefaultMessage("sms:token:refresh".getBytes(StandardCharsets.UTF_8),
+                body.getBytes(StandardCharsets.UTF_8)), null);
+
+        assertEquals("PUSHED|WITH|PIPES", manager.getToken(project));
+        verify(moduleUtil, never()).executeApi(any(ApiConfig.class), anyMap());
+    }
+
+    @Test
+    void waitsForNodeHoldingTheLoginLock() {
+        when(values.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(false);
+        AtomicInteger reads = new AtomicInteger();
+        when(values.get("sms:token:p1:1")).thenAnswer(invocation ->
+                reads.incrementAndGet() < 4 ? null : System.currentTimeMillis() + "|REMOTE");
+
+        assertEquals("REMOTE", manager.getToken(project(null, null)));
+        assertEquals(0, logins.get());
+    }
+
+    @Test
+    void recentlyUsedLineIsRefreshedAheadOfExpiry() throws Exception {
+        Project project = project("OLD", LocalDateTime.now().minusMinutes(1430));
+        assertEquals("OLD", manager.getToken(project));
+        assertEquals(0, logins.get());
+
+        manager.refreshAhead();
+        long deadline = System.currentTimeMillis() + 3000;
+        while (!"T1".equals(manager.peekToken(project)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals("T1", manager.peekToken(project));
+        assertEquals(1, logins.get());
+    }
+
+    @Test
+    void staticTokenWithoutLoginConfigIsReturnedAsIs() {
+        Project project = project("STATIC", null);
+        project.setLoginConfig(null);
+        assertEquals("STATIC", manager.getToken(project));
+        assertEquals(0, logins.get());
+    }
+
+    private static Project project(String token, LocalDateTime tokenTime) {
+        ApiConfig login = new ApiConfig();
+        login.setUrl("http://93.184.216.34/login");
+        login.setMethod("POST");
+        Project project = new Project();
+        project.setId(1L);
+        project.setProjectId("p1");
+        project.setLineId("1");
+        project.setProjectName("测试项目");
+        project.setLoginConfig(login);
+        project.setAuthTokenValue(token);
+        project.setTokenExpirationTime(tokenTime);
+        return project;
+    }
+}
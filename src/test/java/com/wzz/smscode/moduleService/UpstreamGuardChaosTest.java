@@ -0,0 +1,234 @@
+package com.wzz.smscode.moduleService;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.wzz.smscode.config.WebClientConfig;
+import com.wzz.smscode.dto.ApiConfig.ApiConfig;
+import com.wzz.smscode.dto.ApiConfig.ExtractRule;
+import com.wzz.smscode.exception.BusinessException;
+import com.wzz.smscode.service.FilterErrorMonitorService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+/**
+ * 本地桩服务器模拟上游挂起与持续 5xx，验证隔离、熔断、半开探测与通知
+ */
+class UpstreamGuardChaosTest {
+
+    private static final String OK_BODY = "{\"data\":{\"phone\":\"13800000000\"}}";
+
+    private final AtomicInteger hangHits = new AtomicInteger();
+    private final AtomicInteger flakyHits = new AtomicInteger();
+    private final AtomicBoolean failing = new AtomicBoolean(true);
+    private HttpServer server;
+    private int port;
+    private UpstreamGuard guard;
+    private FilterErrorMonitorService monitor;
+    private ModuleUtil moduleUtil;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/hang", exchange -> {
+            hangHits.incrementAndGet();
+            sleep(1500);
+            respond(exchange, 200, OK_BODY);
+        });
+        server.createContext("/flaky", exchange -> {
+            flakyHits.incrementAndGet();
+            respond(exchange, failing.get() ? 500 : 200, failing.get() ? "upstream down" : OK_BODY);
+        });
+        server.createContext("/ok", exchange -> respond(exchange, 200, OK_BODY));
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        port = server.getAddress().getPort();
+
+        guard = new UpstreamGuard();
+        monitor = mock(FilterErrorMonitorService.class);
+        ReflectionTestUtils.setField(guard, "filterErrorMonitorService", monitor);
+        ReflectionTestUtils.setField(guard, "maxConcurrentPerHost", 4);
+        ReflectionTestUtils.setField(guard, "windowSize", 10);
+        ReflectionTestUtils.setField(guard, "minCalls", 5);
+        ReflectionTestUtils.setField(guard, "openMs", 500L);
+        ReflectionTestUtils.setField(guard, "halfOpenProbes", 2);
+        moduleUtil = new ModuleUtil(new WebClientConfig().webClient(), guard);
+    }
+
+    @AfterEach
+    void tearDown() {
+        guard.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    void hangingHostIsCappedWhileOtherHostsKeepWorking() {
+        List<Mono<Object>> calls = IntStream.range(0, 20)
+                .mapToObj(i -> moduleUtil.executeApiAsync(config("http://127.0.0.1:" + port + "/hang"), new HashMap<>())
+                        .<Object>map(context -> context.get("phone"))
+                        .onErrorResume(e -> Mono.just(e)))
+                .toList();
+
+        long start = System.nanoTime();
+        Mono<List<Object>> all = Flux.merge(calls).collectList().cache();
+        all.subscribe();
+        // 同一上游服务器换一个 host 访问，不受 127.0.0.1 挂起的影响
+        String other = (String) moduleUtil.executeApiAsync(config("http://localhost:" + port + "/ok"), new HashMap<>())
+                .map(context -> context.get("phone")).block(Duration.ofSeconds(5));
+        long otherMs = (System.nanoTime() - start) / 1_000_000;
+        List<Object> results = all.block(Duration.ofSeconds(10));
+
+        assertEquals("13800000000", other);
+        assertTrue(otherMs < 1000, "isolated host waited " + otherMs + "ms");
+        long succeeded = results.stream().filter("13800000000"::equals).count();
+        long rejected = results.stream()
+                .filter(r -> r instanceof BusinessException e && e.getMessage().contains("并发请求已达上限")).count();
+        assertEquals(4, succeeded);
+        assertEquals(16, rejected);
+        assertEquals(4, hangHits.get());
+    }
+
+    @Test
+    void failingHostTripsBreakerFailsFastAndRecoversThroughProbes() throws Exception {
+        String url = "http://127.0.0.1:" + port + "/flaky";
+        for (int i = 0; i < 5; i++) {
+            BusinessException error = assertThrows(BusinessException.class,
+                    () -> moduleUtil.executeApi(config(url), new HashMap<>()));
+            assertTrue(error.getMessage().startsWith("接口调用异常"), error.getMessage());
+        }
+        assertEquals(UpstreamGuard.CircuitState.OPEN, guard.state("127.0.0.1"));
+        verify(monitor, timeout(1000)).recordUpstreamCircuitOpen(eq("127.0.0.1"), anyString());
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 50; i++) {
+            BusinessException error = assertThrows(BusinessException.class,
+                    () -> moduleUtil.executeApi(config(url), new HashMap<>()));
+            assertTrue(error.getMessage().contains("熔断"), error.getMessage());
+        }
+        assertTrue((System.nanoTime() - start) / 1_000_000 < 400, "open circuit must fail fast");
+        assertEquals(5, flakyHits.get());
+
+        failing.set(false);
+        Thread.sleep(600);
+        for (int i = 0; i < 2; i++) {
+            moduleUtil.executeApi(config(url), new HashMap<>());
+        }
+        assertEquals(UpstreamGuard.CircuitState.CLOSED, guard.state("127.0.0.1"));
+        verify(monitor, timeout(1000)).clearUpstreamCircuitNotice("127.0.0.1");
+        moduleUtil.executeApi(config(url), new HashMap<>());
+        assertEquals(8, flakyHits.get());
+    }
+
+    @Test
+    void failedProbeReopensBreaker() throws Exception {
+        String url = "http://127.0.0.1:" + port + "/flaky";
+        for (int i = 0; i < 5; i++) {
+            assertThrows(BusinessException.class, () -> moduleUtil.executeApi(config(url), new HashMap<>()));
+        }
+        Thread.sleep(600);
+        assertThrows(BusinessException.class, () -> moduleUtil.executeApi(config(url), new HashMap<>()));
+        assertEquals(UpstreamGuard.CircuitState.OPEN, guard.state("127.0.0.1"));
+        assertEquals(6, flakyHits.get());
+    }
+
+    @Test
+    void providerTransportIsGuardedToo() {
+        ProviderHttpTransport transport = new ProviderHttpTransport();
+        ReflectionTestUtils.setField(transport, "upstreamGuard", guard);
+        transport.init();
+        String url = "http://127.0.0.1:" + port + "/flaky";
+        for (int i = 0; i < 5; i++) {
+            assertThrows(Exception.class, () -> transport.restTemplate().getForObject(url, String.class));
+        }
+        BusinessException error = assertThrows(BusinessException.class,
+                () -> transport.restTemplate().getForObject(url, String.class));
+        assertTrue(error.getMessage().contains("熔断"), error.getMessage());
+        assertEquals(5, flakyHits.get());
+    }
+
+    @Test
+    void providerTransportSlowCallsAreNotFailures() {
+        ReflectionTestUtils.setField(guard, "slowCallMs", 100L);
+        ProviderHttpTransport transport = new ProviderHttpTransport();
+        ReflectionTestUtils.setField(transport, "upstreamGuard", guard);
+        transport.init();
+        String url = "http://127.0.0.1:" + port + "/hang";
+        for (int i = 0; i < 5; i++) {
+            assertEquals(OK_BODY, transport.restTemplate().getForObject(url, String.class));
+        }
+        assertEquals(UpstreamGuard.CircuitState.CLOSED, guard.state("127.0.0.1"));
+    }
+
+    @Test
+    void pooledTransportKeepsOnlyItsOwnPerHostLimit() {
+        ProviderHttpTransport transport = new ProviderHttpTransport();
+        ReflectionTestUtils.setField(transport, "upstreamGuard", guard);
+        ReflectionTestUtils.setField(transport, "pooled", true);
+        ReflectionTestUtils.setField(transport, "maxConnectionsPerHost", 8);
+        transport.init();
+        String url = "http://127.0.0.1:" + port + "/hang";
+        try {
+            List<Object> results = Flux.range(0, 8)
+                    .flatMap(i -> Mono.fromCallable(() -> (Object) transport.restTemplate().getForObject(url, String.class))
+                            .subscribeOn(Schedulers.boundedElastic())
+                            .onErrorResume(e -> Mono.just(e)), 8)
+                    .collectList().block(Duration.ofSeconds(10));
+            // 隔离层上限为 4，连接池方式下不再叠加，8 个并发全部由传输层放行
+            assertEquals(8, results.stream().filter(OK_BODY::equals).count(), results.toString());
+            assertEquals(8, hangHits.get());
+        } finally {
+            transport.shutdown();
+        }
+    }
+
+    private static ApiConfig config(String url) {
+        ApiConfig config = new ApiConfig();
+        config.setUrl(url);
+        config.setMethod("GET");
+        ExtractRule rule = new ExtractRule();
+        rule.setTargetVariable("phone");
+        rule.setJsonPath("$.data.phone");
+        config.setExtractRules(List.of(rule));
+        return config;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
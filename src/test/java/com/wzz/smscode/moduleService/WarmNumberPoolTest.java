@@ -0,0 +1,116 @@
+package com.wzz.smscode.moduleService;
+
+import com.wzz.smscode.entity.Project;
+import com.wzz.smscode.service.ProjectService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class WarmNumberPoolTest {
+
+    private WarmNumberPool pool;
+    private SmsApiService smsApiService;
+    private Project project;
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        pool = new WarmNumberPool();
+        smsApiService = mock(SmsApiService.class);
+        ProjectService projectService = mock(ProjectService.class);
+        ReflectionTestUtils.setField(pool, "smsApiService", smsApiService);
+        ReflectionTestUtils.setField(pool, "projectService", projectService);
+        ReflectionTestUtils.setField(pool, "leadSeconds", 2.0);
+
+        project = new Project();
+        project.setProjectId("105");
+        project.setLineId("1");
+        project.setWarmPoolSize(5);
+        project.setWarmPoolTtlSeconds(60);
+        when(projectService.getProject("105", 1)).thenReturn(project);
+        pool.setCandidateSource(p -> {
+            int n = sequence.incrementAndGet();
+            return Map.of("phone", String.format("1380000%04d", n), "id", "order-" + n);
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        project.setWarmPoolSize(0);
+        pool.shutdown();
+    }
+
+    @Test
+    void disabledProjectIsNeverPooled() {
+        project.setWarmPoolSize(0);
+        assertNull(pool.take(project));
+        pool.refill();
+        assertEquals(0, sequence.get());
+    }
+
+    @Test
+    void demandDrivesPrefetchAndTakeServesFromPool() throws Exception {
+        // 首次取号未命中，但登记了需求：一个周期 3 次请求 -> 3/s * 0.3 * 2s = 1.8 -> 目标 2
+        for (int i = 0; i < 3; i++) {
+            assertNull(pool.take(project));
+        }
+        pool.refill();
+        waitUntilFilled(2);
+
+        Map<String, String> first = pool.take(project);
+        assertNotNull(first);
+        assertEquals("13800000001", first.get("phone"));
+        assertNotNull(pool.take(project));
+        assertNull(pool.take(project));
+    }
+
+    @Test
+    void expiredNumbersAreReleasedToProvider() throws Exception {
+        pool.take(project);
+        pool.refill();
+        waitUntilFilled(1);
+
+        project.setWarmPoolTtlSeconds(1);
+        TimeUnit.MILLISECONDS.sleep(1100);
+        assertNull(pool.take(project));
+        verify(smsApiService, timeout(1000)).releasePhoneNumber(eq(project), anyMap(), eq(false));
+    }
+
+    @Test
+    void outsideOrderNumbersAreRejectedInsteadOfReleased() throws Exception {
+        project.setOutsideOrderApiStatus(true);
+        pool.take(project);
+        pool.refill();
+        waitUntilFilled(1);
+
+        project.setWarmPoolSize(0);
+        pool.refill();
+        verify(smsApiService).checkOutsideOrderPhone(any(Project.class), eq("order-1"), eq(false));
+    }
+
+    private void waitUntilFilled(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (sequence.get() < expected && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        // 号码入池在候选来源返回之后
+        TimeUnit.MILLISECONDS.sleep(50);
+        assertEquals(expected, sequence.get());
+    }
+}
@@ -0,0 +1,109 @@
+package com.wzz.smscode.service.impl;
+
+import com.wzz.smscode.entity.NumberRecord;
+import com.wzz.smscode.entity.NumberRecordActive;
+import com.wzz.smscode.mapper.NumberRecordActiveMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class NumberRecordActiveServiceImplTest {
+
+    private NumberRecordActiveMapper mapper;
+    private NumberRecordActiveServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        mapper = mock(NumberRecordActiveMapper.class);
+        service = new NumberRecordActiveServiceImpl();
+        ReflectionTestUtils.setField(service, "baseMapper", mapper);
+        ReflectionTestUtils.setField(service, "backfillBatchSize", 1000L);
+    }
+
+    @Test
+    void trackCopiesQueryColumns() {
+        NumberRecord record = new NumberRecord();
+        record.setId(42L);
+        record.setUserId(7L);
+        record.setProjectId("105");
+        record.setLineId(1);
+        record.setPhoneNumber("13800000000");
+        record.setStatus(0);
+        record.setGetNumberTime(LocalDateTime.now());
+
+        service.track(record);
+
+        ArgumentCaptor<NumberRecordActive> captor = ArgumentCaptor.forClass(NumberRecordActive.class);
+        verify(mapper).insert(captor.capture());
+        NumberRecordActive active = captor.getValue();
+        assertEquals(42L, active.getRecordId());
+        assertEquals("105", active.getProjectId());
+        assertEquals(1, active.getLineId());
+        assertEquals(0, active.getStatus());
+    }
+
+    @Test
+    void ongoingStatusUpdatesAndFinishedStatusRemoves() {
+        service.onStatusChanged(1L, 1);
+        verify(mapper).updateStatus(1L, 1);
+        verify(mapper, never()).deleteById(1L);
+
+        for (int status = 2; status <= 4; status++) {
+            service.onStatusChanged(10L + status, status);
+            verify(mapper).deleteById(10L + status);
+        }
+        verify(mapper, times(1)).updateStatus(anyLong(), anyInt());
+    }
+
+    @Test
+    void reconcileReadsInIdRangesAndInsertsInBatches() {
+        ReflectionTestUtils.setField(service, "insertBatchSize", 2);
+        when(mapper.selectMaxRecordId()).thenReturn(2500L);
+        when(mapper.selectOngoingRecords(1000L, 2000L)).thenReturn(List.of(active(1500L), active(1600L), active(1700L)));
+
+        service.reconcile();
+
+        verify(mapper).selectOngoingRecords(0L, 1000L);
+        verify(mapper).selectOngoingRecords(1000L, 2000L);
+        verify(mapper).selectOngoingRecords(2000L, 2500L);
+        verify(mapper).insertIgnoreBatch(List.of(active(1500L), active(1600L)));
+        verify(mapper).insertIgnoreBatch(List.of(active(1700L)));
+        verify(mapper).deleteFinished();
+    }
+
+    @Test
+    void laterReconcileStartsFromLowestOngoingId() {
+        when(mapper.selectMaxRecordId()).thenReturn(2500L, 3200L, 4000L);
+        when(mapper.selectOngoingRecords(1000L, 2000L)).thenReturn(List.of(active(1500L)));
+
+        service.reconcile();
+        service.reconcile();
+
+        // 第二次从 1499 开始；1500 已完成且之后没有进行中订单，第三次从上次最大ID开始
+        verify(mapper).selectOngoingRecords(1499L, 2499L);
+        verify(mapper).selectOngoingRecords(2499L, 3200L);
+        service.reconcile();
+        verify(mapper).selectOngoingRecords(3200L, 4000L);
+        verify(mapper, times(6)).selectOngoingRecords(anyLong(), anyLong());
+    }
+
+    private static NumberRecordActive active(long recordId) {
+        NumberRecordActive active = new NumberRecordActive();
+        active.setRecordId(recordId);
+        active.setStatus(0);
+        return active;
+    }
+}
@@ -0,0 +1,145 @@
+package com.wzz.smscode.service.impl;
+
+import com.wzz.smscode.cacheManager.ProjectPhoneDedupIndex;
+import com.wzz.smscode.entity.Project;
+import com.wzz.smscode.entity.SystemConfig;
+import com.wzz.smscode.moduleService.SmsApiService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class NumberRecordServiceImplAcquireTest {
+
+    private static final long FILTER_LATENCY_MS = 1000;
+
+    private NumberRecordServiceImpl service;
+    private SmsApiService smsApiService;
+    private Project project;
+    private SystemConfig config;
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        service = new NumberRecordServiceImpl();
+        smsApiService = mock(SmsApiService.class);
+        ProjectPhoneDedupIndex dedupIndex = mock(ProjectPhoneDedupIndex.class);
+        ReflectionTestUtils.setField(service, "smsApiService", smsApiService);
+        ReflectionTestUtils.setField(service, "projectPhoneDedupIndex", dedupIndex);
+
+        project = new Project();
+        project.setId(1L);
+        project.setProjectId("105");
+        project.setLineId("1");
+        project.setEnableFilter(true);
+        project.setOutsideOrderApiStatus(true);
+        config = new SystemConfig();
+        config.setEnableNumberFiltering(true);
+
+        when(smsApiService.getPhoneNumber(any(Project.class))).thenAnswer(invocation -> {
+            int n = sequence.incrementAndGet();
+            return Map.of("phone", String.format("1380000%04d", n), "id", "order-" + n);
+        });
+        when(smsApiService.checkOutsideOrderPhone(any(Project.class), anyString(), eq(true))).thenReturn(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdownAcquireExecutor();
+    }
+
+    @Test
+    void firstPassingCandidateWinsAndLateWinnersAreRejected() throws Exception {
+        // 第 2、4 个号码通过筛选，第 2 个耗时更短
+        Set<String> passing = Set.of("13800000002", "13800000004");
+        when(smsApiService.checkPhoneNumberAvailability(any(Project.class), anyString())).thenAnswer(invocation -> {
+            String phone = invocation.getArgument(1);
+            long latency = phone.endsWith("4") ? FILTER_LATENCY_MS * 2 : FILTER_LATENCY_MS;
+            return Mono.delay(Duration.ofMillis(latency)).thenReturn(passing.contains(phone));
+        });
+
+        long start = System.nanoTime();
+        Map<String, String> winner = ReflectionTestUtils.invokeMethod(service, "acquireSpeculatively",
+                project, "105", config, 4, 4);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals("13800000002", winner.get("phone"));
+        // 逐个尝试需要 2 * 1000ms 以上，并发只需一轮筛选耗时
+        assertTrue(elapsedMs < FILTER_LATENCY_MS * 2, "speculative acquisition took " + elapsedMs + "ms");
+        verify(smsApiService).checkOutsideOrderPhone(project, "order-2", true);
+        verify(smsApiService, timeout(5000)).checkOutsideOrderPhone(project, "order-4", false);
+        verify(smsApiService, timeout(5000)).checkOutsideOrderPhone(project, "order-1", false);
+        verify(smsApiService, timeout(5000)).checkOutsideOrderPhone(project, "order-3", false);
+    }
+
+    @Test
+    void losingAndLateCandidatesAreReleasedOnNormalChannels() throws Exception {
+        project.setOutsideOrderApiStatus(false);
+        ReflectionTestUtils.setField(service, "speculativeTimeoutMs", FILTER_LATENCY_MS * 2);
+        // 第 1 个号码最先通过；第 2 个稍后通过（输掉竞争）；第 3 个通过时已超时
+        when(smsApiService.checkPhoneNumberAvailability(any(Project.class), anyString())).thenAnswer(invocation -> {
+            String phone = invocation.getArgument(1);
+            long latency = phone.endsWith("1") ? 50 : phone.endsWith("2") ? FILTER_LATENCY_MS : FILTER_LATENCY_MS * 3;
+            return Mono.delay(Duration.ofMillis(latency)).thenReturn(true);
+        });
+
+        Map<String, String> winner = ReflectionTestUtils.invokeMethod(service, "acquireSpeculatively",
+                project, "105", config, 3, 3);
+        assertEquals("13800000001", winner.get("phone"));
+
+        verify(smsApiService, timeout(5000)).releasePhoneNumber(project,
+                Map.of("phone", "13800000002", "id", "order-2"), false);
+        verify(smsApiService, timeout(5000)).releasePhoneNumber(project,
+                Map.of("phone", "13800000003", "id", "order-3"), false);
+        verify(smsApiService, never()).releasePhoneNumber(eq(project),
+                eq(Map.of("phone", "13800000001", "id", "order-1")), anyBoolean());
+    }
+
+    @Test
+    void candidatesInFlightAtTimeoutAreReleasedWhenTheyPass() {
+        project.setOutsideOrderApiStatus(false);
+        ReflectionTestUtils.setField(service, "speculativeTimeoutMs", 100L);
+        when(smsApiService.checkPhoneNumberAvailability(any(Project.class), anyString()))
+                .thenAnswer(invocation -> Mono.delay(Duration.ofMillis(500)).thenReturn(true));
+
+        Map<String, String> winner = ReflectionTestUtils.invokeMethod(service, "acquireSpeculatively",
+                project, "105", config, 2, 2);
+
+        assertNull(winner);
+        verify(smsApiService, timeout(5000)).releasePhoneNumber(project,
+                Map.of("phone", "13800000001", "id", "order-1"), false);
+        verify(smsApiService, timeout(5000)).releasePhoneNumber(project,
+                Map.of("phone", "13800000002", "id", "order-2"), false);
+    }
+
+    @Test
+    void replacementsAreLaunchedUntilCandidateBudgetIsSpent() {
+        when(smsApiService.checkPhoneNumberAvailability(any(Project.class), anyString()))
+                .thenAnswer(invocation -> Mono.delay(Duration.ofMillis(20)).thenReturn(false));
+
+        Map<String, String> winner = ReflectionTestUtils.invokeMethod(service, "acquireSpeculatively",
+                project, "105", config, 2, 5);
+
+        assertNull(winner);
+        assertEquals(5, sequence.get());
+    }
+}
@@ -0,0 +1,321 @@
+package com.wzz.smscode.service.impl;
+
+import com.wzz.smscode.cacheManager.NumberRecordCacheManager;
+import com.wzz.smscode.cacheManager.UserCodeRateTracker;
+import com.wzz.smscode.dto.CreatDTO.LedgerCreationDTO;
+import com.wzz.smscode.entity.NumberRecord;
+import com.wzz.smscode.entity.OrderOutbox;
+import com.wzz.smscode.entity.Project;
+import com.wzz.smscode.enums.OutboxEventType;
+import com.wzz.smscode.exception.BusinessException;
+import com.wzz.smscode.mapper.NumberRecordMapper;
+import com.wzz.smscode.mapper.OrderOutboxMapper;
+import com.wzz.smscode.moduleService.SmsApiService;
+import com.wzz.smscode.service.OrderOutboxService;
+import com.wzz.smscode.service.ProjectService;
+import com.wzz.smscode.service.UserLedgerService;
+import com.wzz.smscode.service.UserService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OrderOutboxServiceImplTest {
+
+    private final Map<Long, OrderOutbox> table = new TreeMap<>();
+    private final UserService userService = mock(UserService.class);
+    private final UserLedgerService userLedgerService = mock(UserLedgerService.class);
+    private final SmsApiService smsApiService = mock(SmsApiService.class);
+    private final ProjectService projectService = mock(ProjectService.class);
+    private final OrderOutboxService transactionalSelf = mock(OrderOutboxService.class);
+    private final NumberRecord record = new NumberRecord();
+    private OrderOutboxServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        record.setId(7L);
+        record.setUserId(3L);
+        record.setUserName("u3");
+
+        OrderOutboxMapper mapper = mock(OrderOutboxMapper.class);
+        when(mapper.selectDue(any(), anyInt())).thenAnswer(inv -> table.values().stream()
+                .filter(e -> (e.getStatus() == OrderOutbox.STATUS_PENDING || e.getStatus() == OrderOutbox.STATUS_CLAIMED)
+                        && !e.getNextAttemptTime().isAfter(inv.getArgument(0)))
+                .map(OrderOutboxServiceImplTest::copy).toList());
+        when(mapper.markDone(anyLong())).thenAnswer(inv -> {
+            OrderOutbox row = table.get(inv.<Long>getArgument(0));
+            if (row == null || row.getStatus() != OrderOutbox.STATUS_PENDING) {
+                return 0;
+            }
+            row.setStatus(OrderOutbox.STATUS_DONE);
+            return 1;
+        });
+        when(mapper.claim(anyLong(), any(), any())).thenAnswer(inv -> {
+            OrderOutbox row = table.get(inv.<Long>getArgument(0));
+            boolean claimable = row.getStatus() == OrderOutbox.STATUS_PENDING
+                    || (row.getStatus() == OrderOutbox.STATUS_CLAIMED && !row.getNextAttemptTime().isAfter(inv.getArgument(1)));
+            if (!claimable) {
+                return 0;
+            }
+            row.setStatus(OrderOutbox.STATUS_CLAIMED);
+            row.setNextAttemptTime(inv.getArgument(2));
+            return 1;
+        });
+        when(mapper.completeClaimed(anyLong())).thenAnswer(inv -> {
+            OrderOutbox row = table.get(inv.<Long>getArgument(0));
+            if (row.getStatus() != OrderOutbox.STATUS_CLAIMED) {
+                return 0;
+            }
+            row.setStatus(OrderOutbox.STATUS_DONE);
+            return 1;
+        });
+        when(mapper.reviveDead(anyCollection(), anyInt())).thenAnswer(inv -> {
+            Collection<String> types = inv.getArgument(0);
+            int revived = 0;
+            for (OrderOutbox row : table.values()) {
+                if (row.getStatus() == OrderOutbox.STATUS_DEAD && types.contains(row.getEventType())) {
+                    row.setStatus(OrderOutbox.STATUS_PENDING);
+                    row.setAttempts(0);
+                    row.setNextAttemptTime(LocalDateTime.now());
+                    revived++;
+                }
+            }
+            return revived;
+        });
+        when(mapper.markRetry(anyLong(), anyString(), any(), anyInt())).thenAnswer(inv -> {
+            OrderOutbox row = table.get(inv.<Long>getArgument(0));
+            row.setAttempts(row.getAttempts() + 1);
+            row.setLastError(inv.getArgument(1));
+            row.setNextAttemptTime(inv.getArgument(2));
+            row.setStatus(row.getAttempts() >= inv.<Integer>getArgument(3) ? OrderOutbox.STATUS_DEAD : OrderOutbox.STATUS_PENDING);
+            return 1;
+        });
+        NumberRecordMapper numberRecordMapper = mock(NumberRecordMapper.class);
+        when(numberRecordMapper.selectById(7L)).thenReturn(record);
+
+        service = new OrderOutboxServiceImpl();
+        // handle 通过代理在事务中执行：这里用回滚时恢复外发表快照的事务管理器模拟
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new SnapshotTransactionManager());
+        when(transactionalSelf.handle(any())).thenAnswer(inv ->
+                transactionTemplate.execute(status -> service.handle(inv.getArgument(0))));
+        ReflectionTestUtils.setField(service, "baseMapper", mapper);
+        ReflectionTestUtils.setField(service, "self", transactionalSelf);
+        ReflectionTestUtils.setField(service, "numberRecordMapper", numberRecordMapper);
+        ReflectionTestUtils.setField(service, "userService", userService);
+        ReflectionTestUtils.setField(service, "userLedgerService", userLedgerService);
+        ReflectionTestUtils.setField(service, "smsApiService", smsApiService);
+        ReflectionTestUtils.setField(service, "projectService", projectService);
+        ReflectionTestUtils.setField(service, "numberRecordCacheManager", mock(NumberRecordCacheManager.class));
+        ReflectionTestUtils.setField(service, "userCodeRateTracker", mock(UserCodeRateTracker.class));
+    }
+
+    @Test
+    void eventsCommittedBeforeACrashAreRecoveredAndAppliedExactlyOnce() {
+        // 订单事务已提交，进程在 afterCommit 投递前崩溃：事件留在表中
+        table.put(1L, pending(1L, OutboxEventType.CODE_STATS));
+        table.put(2L, pending(2L, OutboxEventType.REBATE));
+
+        assertEquals(2, service.dispatchDue());
+        assertEquals(0, service.dispatchDue());
+
+        verify(userService, times(1)).applyStatsDelta(3L, 0, 1, null);
+        verify(userService, times(1)).processRebates(record);
+        table.values().forEach(e -> assertEquals(OrderOutbox.STATUS_DONE, e.getStatus()));
+    }
+
+    @Test
+    void failedHandlerRollsBackAndIsRetriedWithBackoff() {
+        table.put(1L, pending(1L, OutboxEventType.REBATE));
+        doAnswer(inv -> {
+            throw new BusinessException("代理返款失败：锁等待超时");
+        }).doNothing().when(userService).processRebates(any());
+
+        assertEquals(0, service.dispatchDue());
+        OrderOutbox row = table.get(1L);
+        assertEquals(OrderOutbox.STATUS_PENDING, row.getStatus());
+        assertEquals(1, row.getAttempts());
+        assertTrue(row.getNextAttemptTime().isAfter(LocalDateTime.now()));
+        // 退避期间不会重复投递
+        assertEquals(0, service.dispatchDue());
+
+        row.setNextAttemptTime(LocalDateTime.now().minusSeconds(1));
+        assertEquals(1, service.dispatchDue());
+        assertEquals(OrderOutbox.STATUS_DONE, row.getStatus());
+        verify(userService, times(2)).processRebates(record);
+    }
+
+    @Test
+    void alreadyHandledEventIsSkipped() {
+        OrderOutbox done = pending(1L, OutboxEventType.CODE_STATS);
+        done.setStatus(OrderOutbox.STATUS_DONE);
+        table.put(1L, done);
+
+        assertFalse(service.handle(copy(done)));
+        verify(userService, never()).applyStatsDelta(anyLong(), anyInt(), anyInt(), any());
+    }
+
+    @Test
+    void providerReleaseRunsOutsideTheTransactionAndFailedReleaseIsRetried() {
+        record.setProjectId("105");
+        record.setLineId(1);
+        record.setPhoneNumber("13800000000");
+        record.setApiPhoneId("p-1");
+        Project project = new Project();
+        when(projectService.getProject("105", 1)).thenReturn(project);
+        doAnswer(inv -> {
+            throw new BusinessException("释放手机号失败: 13800000000");
+        }).doNothing().when(smsApiService).releasePhoneNumberOrFail(any(), any(), anyBoolean());
+        table.put(1L, pending(1L, OutboxEventType.PROVIDER_RELEASE));
+
+        assertEquals(0, service.dispatchDue());
+        OrderOutbox row = table.get(1L);
+        assertEquals(OrderOutbox.STATUS_PENDING, row.getStatus());
+        assertEquals(1, row.getAttempts());
+
+        row.setNextAttemptTime(LocalDateTime.now().minusSeconds(1));
+        assertEquals(1, service.dispatchDue());
+        assertEquals(OrderOutbox.STATUS_DONE, row.getStatus());
+        verify(smsApiService, times(2)).releasePhoneNumberOrFail(project,
+                Map.of("phone", "13800000000", "id", "p-1"), true);
+        // 上游调用不在数据库事务中
+        verify(transactionalSelf, never()).handle(any());
+    }
+
+    @Test
+    void claimedReleaseIsNotPickedUpAgainUntilItsLeaseExpires() {
+        OrderOutbox row = pending(1L, OutboxEventType.PROVIDER_RELEASE);
+        row.setStatus(OrderOutbox.STATUS_CLAIMED);
+        row.setNextAttemptTime(LocalDateTime.now().plusMinutes(5));
+        table.put(1L, row);
+
+        assertEquals(0, service.dispatchDue());
+        row.setNextAttemptTime(LocalDateTime.now().minusSeconds(1));
+        assertEquals(1, service.dispatchDue());
+        assertEquals(OrderOutbox.STATUS_DONE, row.getStatus());
+    }
+
+    @Test
+    void exhaustedRebateIsParkedAndRevived() {
+        ReflectionTestUtils.setField(service, "maxAttempts", 1);
+        OrderOutbox release = pending(2L, OutboxEventType.PROVIDER_RELEASE);
+        release.setStatus(OrderOutbox.STATUS_DEAD);
+        table.put(1L, pending(1L, OutboxEventType.REBATE));
+        table.put(2L, release);
+        doAnswer(inv -> {
+            throw new BusinessException("代理返款失败：锁等待超时");
+        }).doNothing().when(userService).processRebates(any());
+
+        assertEquals(0, service.dispatchDue());
+        OrderOutbox rebate = table.get(1L);
+        assertEquals(OrderOutbox.STATUS_DEAD, rebate.getStatus());
+        assertEquals(0, service.dispatchDue());
+
+        // 返点按天重新投递；释放号码失败不重投
+        assertEquals(1, service.reviveDead());
+        assertEquals(OrderOutbox.STATUS_DEAD, release.getStatus());
+        assertEquals(1, service.dispatchDue());
+        assertEquals(OrderOutbox.STATUS_DONE, rebate.getStatus());
+        verify(userService, times(2)).processRebates(record);
+    }
+
+    @Test
+    void orderLedgerLeftByTheWriterIsAppliedOnce() {
+        OrderOutbox event = pending(1L, OutboxEventType.ORDER_LEDGER);
+        event.setRecordId(null);
+        event.setPayload("{\"userId\":3,\"amount\":0.40,\"ledgerType\":0,\"fundType\":\"BUSINESS_DEDUCTION\",\"remark\":\"取号预扣费\"}");
+        table.put(1L, event);
+        when(userLedgerService.applyOrderLedger(any())).thenReturn(new BigDecimal("0.60"));
+
+        assertEquals(1, service.dispatchDue());
+        assertEquals(0, service.dispatchDue());
+
+        ArgumentCaptor<LedgerCreationDTO> request = ArgumentCaptor.forClass(LedgerCreationDTO.class);
+        verify(userLedgerService, times(1)).applyOrderLedger(request.capture());
+        assertEquals(3L, request.getValue().getUserId());
+        assertEquals(new BigDecimal("0.40"), request.getValue().getAmount());
+        assertEquals(0, request.getValue().getLedgerType());
+        assertEquals(OrderOutbox.STATUS_DONE, event.getStatus());
+    }
+
+    private OrderOutbox pending(Long id, OutboxEventType type) {
+        OrderOutbox event = new OrderOutbox();
+        event.setId(id);
+        event.setRecordId(record.getId());
+        event.setEventType(type.name());
+        event.setSuccess(1);
+        event.setStatus(OrderOutbox.STATUS_PENDING);
+        event.setAttempts(0);
+        event.setNextAttemptTime(LocalDateTime.now().minusSeconds(30));
+        return event;
+    }
+
+    private static OrderOutbox copy(OrderOutbox source) {
+        OrderOutbox event = new OrderOutbox();
+        event.setId(source.getId());
+        event.setRecordId(source.getRecordId());
+        event.setEventType(source.getEventType());
+        event.setSuccess(source.getSuccess());
+        event.setStatus(source.getStatus());
+        event.setAttempts(source.getAttempts());
+        event.setNextAttemptTime(source.getNextAttemptTime());
+        event.setLastError(source.getLastError());
+        event.setPayload(source.getPayload());
+        return event;
+    }
+
+    private final class SnapshotTransactionManager implements PlatformTransactionManager {
+        private Map<Long, OrderOutbox> snapshot;
+
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            snapshot = new HashMap<>();
+            table.forEach((id, row) -> snapshot.put(id, copy(row)));
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+            // 保留原对象引用，只恢复字段
+            List.copyOf(table.keySet()).forEach(id -> {
+                OrderOutbox row = table.get(id);
+                OrderOutbox saved = snapshot.get(id);
+                row.setStatus(saved.getStatus());
+                row.setAttempts(saved.getAttempts());
+                row.setNextAttemptTime(saved.getNextAttemptTime());
+            });
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.wzz.smscode.service.impl;
+
+import com.wzz.smscode.cacheManager.NumberRecordCacheManager;
+import com.wzz.smscode.entity.PendingRebate;
+import com.wzz.smscode.entity.User;
+import com.wzz.smscode.entity.UserLedger;
+import com.wzz.smscode.mapper.PendingRebateMapper;
+import com.wzz.smscode.mapper.UserLedgerMapper;
+import com.wzz.smscode.mapper.UserMapper;
+import com.wzz.smscode.service.PendingRebateService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 延迟返点结算的崩溃恢复测试：数据库用内存表模拟，事务管理器在回滚时恢复事务开始前的快照
+ */
+class PendingRebateServiceImplTest {
+
+    private static final long AGENT_ID = 9L;
+
+    private final Map<Long, PendingRebate> journal = new TreeMap<>();
+    private final List<UserLedger> ledgers = new ArrayList<>();
+    private final AtomicLong idSequence = new AtomicLong(1000);
+    private final AtomicBoolean crashOnLedgerInsert = new AtomicBoolean(false);
+    private User agent;
+
+    private PendingRebateServiceImpl service;
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        agent = new User();
+        agent.setId(AGENT_ID);
+        agent.setUserName("topAgent");
+        agent.setBalance(new BigDecimal("100.00"));
+
+        PendingRebateMapper pendingRebateMapper = mock(PendingRebateMapper.class);
+        when(pendingRebateMapper.selectPendingAgentIds(anyInt())).thenAnswer(inv -> journal.values().stream()
+                .filter(r -> r.getStatus() == PendingRebate.STATUS_PENDING)
+                .map(PendingRebate::getAgentId).distinct().limit(inv.<Integer>getArgument(0)).toList());
+        when(pendingRebateMapper.selectPendingForUpdate(anyLong(), anyInt())).thenAnswer(inv -> journal.values().stream()
+                .filter(r -> r.getStatus() == PendingRebate.STATUS_PENDING && r.getAgentId().equals(inv.getArgument(0)))
+                .limit(inv.<Integer>getArgument(1)).map(PendingRebateServiceImplTest::copy).toList());
+        when(pendingRebateMapper.markSettled(any(), anyInt(), any(), any())).thenAnswer(inv -> {
+            int updated = 0;
+            for (Long id : inv.<Collection<Long>>getArgument(0)) {
+                PendingRebate row = journal.get(id);
+                if (row != null && row.getStatus() == PendingRebate.STATUS_PENDING) {
+                    row.setStatus(inv.getArgument(1));
+                    row.setLedgerId(inv.getArgument(2));
+                    row.setSettleTime(inv.getArgument(3));
+                    updated++;
+                }
+            }
+            return updated;
+        });
+        when(pendingRebateMapper.insert(any(PendingRebate.class))).thenAnswer(inv -> {
+            PendingRebate row = inv.getArgument(0);
+            row.setId(idSequence.incrementAndGet());
+            journal.put(row.getId(), copy(row));
+            return 1;
+        });
+
+        UserMapper userMapper = mock(UserMapper.class);
+        when(userMapper.selectByIdForUpdate(AGENT_ID)).thenAnswer(inv -> copy(agent));
+        when(userMapper.updateById(any(User.class))).thenAnswer(inv -> {
+            User update = inv.getArgument(0);
+            agent.setBalance(update.getBalance());
+            return 1;
+        });
+
+        UserLedgerMapper userLedgerMapper = mock(UserLedgerMapper.class);
+        when(userLedgerMapper.insert(any(UserLedger.class))).thenAnswer(inv -> {
+            if (crashOnLedgerInsert.get()) {
+                throw new IllegalStateException("模拟进程在写账本时崩溃");
+            }
+            UserLedger ledger = inv.getArgument(0);
+            ledger.setId(idSequence.incrementAndGet());
+            ledgers.add(ledger);
+            return 1;
+        });
+
+        service = new PendingRebateServiceImpl();
+        transactionTemplate = new TransactionTemplate(new SnapshotTransactionManager());
+        PendingRebateService transactionalSelf = mock(PendingRebateService.class);
+        when(transactionalSelf.settleAgent(anyLong())).thenAnswer(inv ->
+                transactionTemplate.execute(status -> service.settleAgent(inv.getArgument(0))));
+        ReflectionTestUtils.setField(service, "baseMapper", pendingRebateMapper);
+        ReflectionTestUtils.setField(service, "userMapper", userMapper);
+        ReflectionTestUtils.setField(service, "userLedgerMapper", userLedgerMapper);
+        ReflectionTestUtils.setField(service, "numberRecordCacheManager", mock(NumberRecordCacheManager.class));
+        ReflectionTestUtils.setField(service, "self", transactionalSelf);
+        ReflectionTestUtils.setField(service, "settlementMode", "deferred");
+        ReflectionTestUtils.setField(service, "settleBatchSize", 4);
+    }
+
+    @Test
+    void crashMidSettlementRollsBackAndRetrySettlesEachRebateExactlyOnce() {
+        String[] amounts = {"1.10", "0.25", "2.00", "0.65", "1.00", "0.35"};
+        BigDecimal expectedTotal = BigDecimal.ZERO;
+        for (String amount : amounts) {
+            journal.put(idSequence.incrementAndGet(), pending(new BigDecimal(amount)));
+            expectedTotal = expectedTotal.add(new BigDecimal(amount));
+        }
+        journal.forEach((id, row) -> row.setId(id));
+
+        crashOnLedgerInsert.set(true);
+        assertThrows(IllegalStateException.class,
+                () -> transactionTemplate.execute(status -> service.settleAgent(AGENT_ID)));
+        assertEquals(new BigDecimal("100.00"), agent.getBalance());
+        assertEquals(0, ledgers.size());
+        journal.values().forEach(row -> {
+            assertEquals(PendingRebate.STATUS_PENDING, row.getStatus());
+            assertNull(row.getLedgerId());
+        });
+
+        crashOnLedgerInsert.set(false);
+        assertEquals(amounts.length, service.settlePending());
+        assertEquals(0, service.settlePending());
+
+        // 批大小为 4，6 笔明细分两次汇总
+        assertEquals(2, ledgers.size());
+        assertEquals(new BigDecimal("100.00").add(expectedTotal), agent.getBalance());
+        BigDecimal ledgerTotal = BigDecimal.ZERO;
+        for (UserLedger ledger : ledgers) {
+            BigDecimal linked = journal.values().stream()
+                    .filter(row -> ledger.getId().equals(row.getLedgerId()))
+                    .map(PendingRebate::getAmount).reduce(BigDecimal.ZERO, BigDecimal::add);
+            assertEquals(linked, ledger.getPrice());
+            assertEquals(ledger.getBalanceBefore().add(ledger.getPrice()), ledger.getBalanceAfter());
+            ledgerTotal = ledgerTotal.add(ledger.getPrice());
+        }
+        assertEquals(expectedTotal, ledgerTotal);
+        journal.values().forEach(row -> {
+            assertEquals(PendingRebate.STATUS_SETTLED, row.getStatus());
+            assertNotNull(row.getLedgerId());
+        });
+    }
+
+    private static PendingRebate pending(BigDecimal amount) {
+        PendingRebate row = new PendingRebate();
+        row.setAgentId(AGENT_ID);
+        row.setAmount(amount);
+        row.setStatus(PendingRebate.STATUS_PENDING);
+        return row;
+    }
+
+    private static PendingRebate copy(PendingRebate source) {
+        PendingRebate row = new PendingRebate();
+        row.setId(source.getId());
+        row.setAgentId(source.getAgentId());
+        row.setAmount(source.getAmount());
+        row.setStatus(source.getStatus());
+        row.setLedgerId(source.getLedgerId());
+        row.setSettleTime(source.getSettleTime());
+        return row;
+    }
+
+    private static User copy(User source) {
+        User user = new User();
+        user.setId(source.getId());
+        user.setUserName(source.getUserName());
+        user.setBalance(source.getBalance());
+        return user;
+    }
+
+    /**
+     * 开启事务时给内存表拍快照，回滚时整体恢复，模拟数据库事务的原子性
+     */
+    private final class SnapshotTransactionManager implements PlatformTransactionManager {
+        private Map<Long, PendingRebate> journalSnapshot;
+        private BigDecimal balanceSnapshot;
+        private int ledgerCountSnapshot;
+
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            journalSnapshot = new TreeMap<>();
+            journal.forEach((id, row) -> journalSnapshot.put(id, copy(row)));
+            balanceSnapshot = agent.getBalance();
+            ledgerCountSnapshot = ledgers.size();
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+            journal.clear();
+            journal.putAll(journalSnapshot);
+            agent.setBalance(balanceSnapshot);
+            ledgers.subList(ledgerCountSnapshot, ledgers.size()).clear();
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.wzz.smscode.service.impl;
+
+import com.wzz.smscode.cacheManager.NumberRecordCacheManager;
+import com.wzz.smscode.dto.CreatDTO.LedgerCreationDTO;
+import com.wzz.smscode.entity.User;
+import com.wzz.smscode.entity.UserLedger;
+import com.wzz.smscode.enums.FundType;
+import com.wzz.smscode.exception.BusinessException;
+import com.wzz.smscode.mapper.UserLedgerMapper;
+import com.wzz.smscode.mapper.UserMapper;
+import com.wzz.smscode.service.UserService;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.notNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 余额变更两种方式的并发正确性。
+ * <p>
+ * 用内存中的一行 user 记录模拟 InnoDB：行锁从第一条加锁语句开始持有到事务提交，
+ * 每条语句让出一次 CPU，使并发事务充分交错。只校验不丢更新、不透支、账本链连续，不比较吞吐。
+ * </p>
+ */
+class UserLedgerBalanceEngineStressTest {
+
+    private static final long USER_ID = 1L;
+    private static final int THREADS = 16;
+    private static final int OPS_PER_THREAD = 60;
+
+    @Test
+    void bothEnginesLoseNoUpdatesUnderConcurrency() throws Exception {
+        BigDecimal initial = new BigDecimal("100000.00");
+        BigDecimal amount = new BigDecimal("0.37");
+        BigDecimal expected = initial.subtract(amount.multiply(BigDecimal.valueOf((long) THREADS * OPS_PER_THREAD)));
+
+        for (String engine : List.of("pessimistic", "conditional")) {
+            FakeDatabase db = new FakeDatabase(initial);
+            RunResult result = runDebits(service(db, engine), db, amount, THREADS, OPS_PER_THREAD);
+
+            assertEquals(THREADS * OPS_PER_THREAD, result.succeeded, engine);
+            assertEquals(expected, db.balance, engine);
+            assertLedgerChainIsContinuous(db, initial, THREADS * OPS_PER_THREAD);
+        }
+    }
+
+    @Test
+    void conditionalDebitNeverOverdraws() throws Exception {
+        FakeDatabase db = new FakeDatabase(new BigDecimal("1.00"));
+        RunResult result = runDebits(service(db, "conditional"), db, new BigDecimal("0.10"), 8, 5);
+
+        assertEquals(10, result.succeeded);
+        assertEquals(30, result.insufficient);
+        assertEquals(new BigDecimal("0.00"), db.balance);
+        assertLedgerChainIsContinuous(db, new BigDecimal("1.00"), 10);
+    }
+
+    private static void assertLedgerChainIsContinuous(FakeDatabase db, BigDecimal initial, int expectedCount) {
+        List<UserLedger> ledgers = new ArrayList<>(db.ledgers);
+        assertEquals(expectedCount, ledgers.size());
+        ledgers.sort(Comparator.comparing(UserLedger::getBalanceBefore).reversed());
+        BigDecimal previous = initial;
+        for (UserLedger ledger : ledgers) {
+            assertEquals(previous, ledger.getBalanceBefore());
+            assertEquals(ledger.getBalanceBefore().subtract(ledger.getPrice()), ledger.getBalanceAfter());
+            previous = ledger.getBalanceAfter();
+        }
+        assertEquals(db.balance, previous);
+    }
+
+    private static RunResult runDebits(UserLedgerServiceImpl service, FakeDatabase db, BigDecimal amount,
+                                       int threads, int opsPerThread) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger insufficient = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < opsPerThread; i++) {
+                    try {
+                        service.createLedgerAndUpdateBalance(LedgerCreationDTO.builder()
+                                .userId(USER_ID)
+                                .amount(amount)
+                                .ledgerType(0)
+                                .fundType(FundType.BUSINESS_DEDUCTION)
+                                .build());
+                        succeeded.incrementAndGet();
+                    } catch (BusinessException e) {
+                        insufficient.incrementAndGet();
+                    } finally {
+                        db.commit();
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(2, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+        return new RunResult(succeeded.get(), insufficient.get());
+    }
+
+    private static UserLedgerServiceImpl service(FakeDatabase db, String engine) {
+        UserService userService = mock(UserService.class);
+        when(userService.findAndLockById(USER_ID)).thenAnswer(inv -> db.selectForUpdate());
+        when(userService.updateById(any(User.class))).thenAnswer(inv -> db.updateFullRow(inv.getArgument(0)));
+
+        UserMapper userMapper = mock(UserMapper.class);
+        when(userMapper.debitBalance(eq(USER_ID), any(), notNull())).thenAnswer(inv -> db.debit(inv.getArgument(1)));
+        when(userMapper.creditBalance(eq(USER_ID), any(), notNull())).thenAnswer(inv -> db.credit(inv.getArgument(1)));
+        when(userMapper.selectBalanceById(anyLong())).thenAnswer(inv -> db.selectBalance());
+
+        UserLedgerMapper ledgerMapper = mock(UserLedgerMapper.class);
+        when(ledgerMapper.insert(any(UserLedger.class))).thenAnswer(inv -> db.insertLedger(inv.getArgument(0)));
+
+        UserLedgerServiceImpl service = new UserLedgerServiceImpl();
+        ReflectionTestUtils.setField(service, "baseMapper", ledgerMapper);
+        ReflectionTestUtils.setField(service, "userService", userService);
+        ReflectionTestUtils.setField(service, "userMapper", userMapper);
+        ReflectionTestUtils.setField(service, "numberRecordCacheManager", mock(NumberRecordCacheManager.class));
+        ReflectionTestUtils.setField(service, "balanceEngine", engine);
+        return service;
+    }
+
+    private record RunResult(int succeeded, int insufficient) {
+    }
+
+    /**
+     * 单行 user 表 + 账本表，行锁持有到 {@link #commit()}
+     */
+    private static final class FakeDatabase {
+        private final ReentrantLock rowLock = new ReentrantLock();
+        private final ConcurrentLinkedQueue<UserLedger> ledgers = new ConcurrentLinkedQueue<>();
+        private volatile BigDecimal balance;
+
+        private FakeDatabase(BigDecimal balance) {
+            this.balance = balance;
+        }
+
+        User selectForUpdate() {
+            lockRow();
+            execute();
+            return row();
+        }
+
+        boolean updateFullRow(User user) {
+            assertTrue(rowLock.isHeldByCurrentThread());
+            execute();
+            balance = user.getBalance();
+            return true;
+        }
+
+        int debit(BigDecimal amount) {
+            lockRow();
+            execute();
+            if (balance.compareTo(amount) < 0) {
+                return 0;
+            }
+            balance = balance.subtract(amount);
+            return 1;
+        }
+
+        int credit(BigDecimal amount) {
+            lockRow();
+            execute();
+            balance = balance.add(amount);
+            return 1;
+        }
+
+        User selectBalance() {
+            execute();
+            return row();
+        }
+
+        int insertLedger(UserLedger ledger) {
+            execute();
+            ledgers.add(ledger);
+            return 1;
+        }
+
+        void commit() {
+            execute();
+            while (rowLock.isHeldByCurrentThread()) {
+                rowLock.unlock();
+            }
+        }
+
+        private void lockRow() {
+            if (!rowLock.isHeldByCurrentThread()) {
+                rowLock.lock();
+            }
+        }
+
+        private User row() {
+            User user = new User();
+            user.setId(USER_ID);
+            user.setUserName("stress");
+            user.setBalance(balance);
+            return user;
+        }
+
+        private static void execute() {
+            Thread.yield();
+        }
+    }
+}
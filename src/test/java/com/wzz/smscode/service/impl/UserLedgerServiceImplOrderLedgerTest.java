@@ -0,0 +1,118 @@
+package com.wzz.smscode.service.impl;
+
+import com.wzz.smscode.dto.CreatDTO.LedgerCreationDTO;
+import com.wzz.smscode.entity.User;
+import com.wzz.smscode.enums.FundType;
+import com.wzz.smscode.exception.BusinessException;
+import com.wzz.smscode.mapper.UserMapper;
+import com.wzz.smscode.moduleService.LedgerGroupCommitWriter;
+import com.wzz.smscode.service.OrderOutboxService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 启用账本组提交时订单资金变动与订单事务的交接：提交后才落账，回滚不落账
+ */
+class UserLedgerServiceImplOrderLedgerTest {
+
+    private final LedgerGroupCommitWriter writer = mock(LedgerGroupCommitWriter.class);
+    private final OrderOutboxService outbox = mock(OrderOutboxService.class);
+    private final UserMapper userMapper = mock(UserMapper.class);
+    private UserLedgerServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        when(writer.isEnabled()).thenReturn(true);
+        when(outbox.enqueueLedger(any())).thenReturn(9L);
+        User user = new User();
+        user.setId(1L);
+        user.setBalance(new BigDecimal("1.00"));
+        when(userMapper.selectBalanceById(1L)).thenReturn(user);
+        service = new UserLedgerServiceImpl();
+        ReflectionTestUtils.setField(service, "ledgerGroupCommitWriter", writer);
+        ReflectionTestUtils.setField(service, "orderOutboxService", outbox);
+        ReflectionTestUtils.setField(service, "userMapper", userMapper);
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    @AfterEach
+    void tearDown() {
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    @Test
+    void committedOrderHandsTheLedgerToTheWriterOnlyAfterCommit() {
+        LedgerCreationDTO debit = debit();
+        when(writer.reserve(debit, new BigDecimal("1.00"))).thenReturn(new BigDecimal("0.60"));
+
+        assertEquals(new BigDecimal("0.60"), service.createOrderLedger(debit));
+        verify(outbox).enqueueLedger(debit);
+        verify(writer, never()).submitCommitted(any(), any());
+
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        verify(writer).submitCommitted(debit, 9L);
+        verify(writer, never()).unreserve(any());
+        verify(writer, never()).submit(any());
+    }
+
+    @Test
+    void rolledBackOrderNeverReachesTheWriter() {
+        LedgerCreationDTO debit = debit();
+        when(writer.reserve(debit, new BigDecimal("1.00"))).thenReturn(new BigDecimal("0.60"));
+
+        service.createOrderLedger(debit);
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        verify(writer).unreserve(debit);
+        verify(writer, never()).submitCommitted(any(), any());
+        verify(writer, never()).submit(any());
+    }
+
+    @Test
+    void insufficientBalanceFailsInsideTheOrderTransaction() {
+        when(writer.reserve(any(), eq(new BigDecimal("1.00")))).thenThrow(new BusinessException("用户 1 余额不足"));
+
+        assertThrows(BusinessException.class, () -> service.createOrderLedger(debit()));
+        verify(outbox, never()).enqueueLedger(any());
+        assertEquals(0, TransactionSynchronizationManager.getSynchronizations().size());
+    }
+
+    @Test
+    void withoutCallerTransactionTheWriteIsSynchronous() {
+        TransactionSynchronizationManager.clearSynchronization();
+        when(writer.submit(any())).thenReturn(new BigDecimal("0.60"));
+
+        assertEquals(new BigDecimal("0.60"), service.createOrderLedger(debit()));
+        verify(outbox, never()).enqueueLedger(any());
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    private static void complete(int status) {
+        TransactionSynchronizationManager.getSynchronizations().forEach(s -> s.afterCompletion(status));
+    }
+
+    private static LedgerCreationDTO debit() {
+        return LedgerCreationDTO.builder()
+                .userId(1L)
+                .amount(new BigDecimal("0.40"))
+                .ledgerType(0)
+                .fundType(FundType.BUSINESS_DEDUCTION)
+                .remark("取号预扣费")
+                .build();
+    }
+}
@@ -0,0 +1,123 @@
+package com.wzz.smscode.service.impl;
+
+import com.wzz.smscode.cacheManager.PriceIndex;
+import com.wzz.smscode.cacheManager.RebatePlanCache;
+import com.wzz.smscode.dto.CreatDTO.LedgerCreationDTO;
+import com.wzz.smscode.entity.NumberRecord;
+import com.wzz.smscode.entity.PriceTemplateItem;
+import com.wzz.smscode.entity.User;
+import com.wzz.smscode.service.PendingRebateService;
+import com.wzz.smscode.service.PriceTemplateService;
+import com.wzz.smscode.service.UserLedgerService;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UserServiceImplRebateTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void computesAllLevelsInOnePassAndReusesCachedPlan() {
+        UserServiceImpl userService = spy(new UserServiceImpl());
+        PriceTemplateService priceTemplateService = mock(PriceTemplateService.class);
+        UserLedgerService ledgerService = mock(UserLedgerService.class);
+        PriceIndex priceIndex = mock(PriceIndex.class);
+        when(priceIndex.version()).thenReturn(1L);
+        RebatePlanCache rebatePlanCache = new RebatePlanCache();
+        ReflectionTestUtils.setField(rebatePlanCache, "priceIndex", priceIndex);
+        ReflectionTestUtils.setField(userService, "priceTemplateService", priceTemplateService);
+        ReflectionTestUtils.setField(userService, "ledgerService", ledgerService);
+        ReflectionTestUtils.setField(userService, "rebatePlanCache", rebatePlanCache);
+        ReflectionTestUtils.setField(userService, "pendingRebateService", mock(PendingRebateService.class));
+
+        // 消费用户 -> 代理A(模板11, 拿货价3.00) -> 代理B(模板12, 拿货价3.50) -> 代理C(模板13, 拿货价2.00)
+        doReturn(user(1L, "consumer", 2L, 10L)).when(userService).getById(1L);
+        doReturn(user(2L, "agentA", 3L, 11L)).when(userService).getById(2L);
+        doReturn(user(3L, "agentB", 4L, 12L)).when(userService).getById(3L);
+        doReturn(user(4L, "agentC", 0L, 13L)).when(userService).getById(4L);
+        when(priceTemplateService.getPriceConfig(11L, "1001", 1)).thenReturn(item("3.00"));
+        when(priceTemplateService.getPriceConfig(12L, "1001", 1)).thenReturn(item("3.50"));
+        when(priceTemplateService.getPriceConfig(13L, "1001", 1)).thenReturn(item("2.00"));
+
+        NumberRecord record = new NumberRecord();
+        record.setId(100L);
+        record.setUserId(1L);
+        record.setProjectId("1001");
+        record.setLineId(1);
+        record.setPrice(new BigDecimal("5.00"));
+
+        userService.processRebates(record);
+        userService.processRebates(record);
+
+        ArgumentCaptor<List<LedgerCreationDTO>> captor = ArgumentCaptor.forClass(List.class);
+        verify(ledgerService, times(2)).createCreditLedgersInBatch(captor.capture());
+        List<LedgerCreationDTO> ledgers = captor.getValue();
+        // A: 5.00-3.00；B: 3.00-3.50 为负不返；C: 3.50-2.00
+        assertEquals(2, ledgers.size());
+        assertEquals(2L, ledgers.get(0).getUserId());
+        assertEquals(new BigDecimal("2.00"), ledgers.get(0).getAmount());
+        assertEquals(4L, ledgers.get(1).getUserId());
+        assertEquals(new BigDecimal("1.50"), ledgers.get(1).getAmount());
+
+        // 第二次结算命中缓存的返点计划，不再逐级查询
+        verify(userService, times(1)).getById(4L);
+        verify(priceTemplateService, times(1)).getPriceConfig(13L, "1001", 1);
+    }
+
+    @Test
+    void missingConsumerIsLoggedAndNotCached() {
+        UserServiceImpl userService = spy(new UserServiceImpl());
+        UserLedgerService ledgerService = mock(UserLedgerService.class);
+        PriceIndex priceIndex = mock(PriceIndex.class);
+        when(priceIndex.version()).thenReturn(1L);
+        RebatePlanCache rebatePlanCache = new RebatePlanCache();
+        ReflectionTestUtils.setField(rebatePlanCache, "priceIndex", priceIndex);
+        ReflectionTestUtils.setField(userService, "ledgerService", ledgerService);
+        ReflectionTestUtils.setField(userService, "rebatePlanCache", rebatePlanCache);
+        ReflectionTestUtils.setField(userService, "pendingRebateService", mock(PendingRebateService.class));
+        doReturn(null).when(userService).getById(1L);
+
+        NumberRecord record = new NumberRecord();
+        record.setId(100L);
+        record.setUserId(1L);
+        record.setProjectId("1001");
+        record.setLineId(1);
+        record.setPrice(new BigDecimal("5.00"));
+
+        assertDoesNotThrow(() -> userService.processRebates(record));
+        assertDoesNotThrow(() -> userService.processRebates(record));
+
+        // 未缓存空计划，每次都重新查找消费用户
+        verify(userService, times(2)).getById(1L);
+        verify(ledgerService, never()).createCreditLedgersInBatch(anyList());
+    }
+
+    private static User user(Long id, String name, Long parentId, Long templateId) {
+        User user = new User();
+        user.setId(id);
+        user.setUserName(name);
+        user.setParentId(parentId);
+        user.setTemplateId(templateId);
+        return user;
+    }
+
+    private static PriceTemplateItem item(String price) {
+        PriceTemplateItem item = new PriceTemplateItem();
+        item.setPrice(new BigDecimal(price));
+        return item;
+    }
+}
@@ -0,0 +1,157 @@
+package com.wzz.smscode.service.impl;
+
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.conditions.Wrapper;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.wzz.smscode.entity.User;
+import com.wzz.smscode.mapper.NumberRecordMapper;
+import com.wzz.smscode.mapper.UserMapper;
+import com.wzz.smscode.service.UserService;
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * 用户取号/取码统计：增量更新的每日口径、每小时校对与累计计数校对
+ */
+class UserServiceImplStatsTest {
+
+    private final UserMapper userMapper = mock(UserMapper.class);
+    private final NumberRecordMapper numberRecordMapper = mock(NumberRecordMapper.class);
+    private final UserService self = mock(UserService.class);
+    private UserServiceImpl service;
+
+    @BeforeAll
+    static void initTableInfo() {
+        // 校对任务用 LambdaQueryWrapper 选列，需要实体的表信息
+        TableInfoHelper.initTableInfo(new MapperBuilderAssistant(new MybatisConfiguration(), ""), User.class);
+    }
+
+    @BeforeEach
+    void setUp() {
+        service = spy(new UserServiceImpl());
+        ReflectionTestUtils.setField(service, "userMapper", userMapper);
+        ReflectionTestUtils.setField(service, "numberRecordMapper", numberRecordMapper);
+        ReflectionTestUtils.setField(service, "self", self);
+    }
+
+    @Test
+    void todaysOrderCountsTowardsDailyAndTotal() {
+        service.applyStatsDelta(1L, 1, 0, LocalDate.now().atTime(0, 5));
+        verify(userMapper).applyStatsDelta(1L, 1, 1, 0, 0, LocalDate.now());
+
+        service.applyStatsDelta(1L, 0, 1, LocalDate.now().atTime(0, 5));
+        verify(userMapper).applyStatsDelta(1L, 0, 0, 1, 1, LocalDate.now());
+    }
+
+    @Test
+    void codeForYesterdaysOrderOnlyCountsTowardsTotal() {
+        // 昨天 23:59 取的号今天才回码：只计入累计，不计入今日
+        service.applyStatsDelta(1L, 0, 1, LocalDate.now().minusDays(1).atTime(23, 59));
+        verify(userMapper).applyStatsDelta(1L, 0, 0, 1, 0, LocalDate.now());
+
+        service.applyStatsDelta(1L, 0, -1, LocalDate.now().minusDays(1).atTime(23, 59));
+        verify(userMapper).applyStatsDelta(1L, 0, 0, -1, 0, LocalDate.now());
+    }
+
+    @Test
+    void emptyDeltaIsSkipped() {
+        service.applyStatsDelta(1L, 0, 0, LocalDate.now().atStartOfDay());
+        service.applyStatsDelta(null, 1, 0, LocalDate.now().atStartOfDay());
+        verifyNoInteractions(userMapper);
+    }
+
+    @Test
+    void driftRules() {
+        LocalDate today = LocalDate.of(2025, 6, 1);
+        Map<String, Object> twoOneToday = Map.of("dailyGetCount", 2L, "dailyCodeCount", 1L);
+
+        assertFalse(UserServiceImpl.dailyStatsDrifted(user(1L, today, 2, 1), twoOneToday, today));
+        assertTrue(UserServiceImpl.dailyStatsDrifted(user(1L, today, 3, 1), twoOneToday, today));
+        assertTrue(UserServiceImpl.dailyStatsDrifted(user(1L, today, 2, 1), Map.of(), today));
+        // 昨天的计数今天未清零是懒惰跨天的正常状态
+        assertFalse(UserServiceImpl.dailyStatsDrifted(user(1L, today.minusDays(1), 9, 9), Map.of(), today));
+        assertTrue(UserServiceImpl.dailyStatsDrifted(user(1L, today.minusDays(1), 9, 9), twoOneToday, today));
+        assertTrue(UserServiceImpl.dailyStatsDrifted(user(1L, null, 2, 1), twoOneToday, today));
+    }
+
+    @Test
+    void reconcileAggregatesOnlyTodayAndRecomputesDriftedUsers() {
+        LocalDate today = LocalDate.now();
+        when(numberRecordMapper.selectDailyUserStats(today.atStartOfDay())).thenReturn(List.of(
+                Map.of("userId", 1L, "dailyGetCount", 2L, "dailyCodeCount", 1L),
+                Map.of("userId", 2L, "dailyGetCount", 5L, "dailyCodeCount", 1L),
+                Map.of("userId", 4L, "dailyGetCount", 1L, "dailyCodeCount", 0L)));
+        List<User> users = List.of(
+                user(1L, today, 2, 1),
+                user(2L, today, 4, 1),
+                user(3L, today.minusDays(1), 7, 3),
+                user(4L, today.minusDays(1), 7, 3),
+                user(5L, null, 0, 0));
+        doReturn(users, List.of()).when(service).list(ArgumentMatchers.<Wrapper<User>>any());
+
+        service.reconcileUserStats();
+
+        verify(self).updateUserStats(2L);
+        verify(self).updateUserStats(4L);
+        verify(self).updateUserStats(5L);
+        verify(self, never()).updateUserStats(1L);
+        verify(self, never()).updateUserStats(3L);
+        verify(userMapper, never()).applyStatsDelta(anyLong(), anyInt(), anyInt(), anyInt(), anyInt(), ArgumentMatchers.any());
+    }
+
+    @Test
+    void totalsReconcileRecomputesUsersWhoseLifetimeCountersDrifted() {
+        when(numberRecordMapper.selectTotalUserStats(0L, 3L)).thenReturn(List.of(
+                Map.of("userId", 1L, "totalGetCount", 10L, "totalCodeCount", 4L),
+                Map.of("userId", 2L, "totalGetCount", 10L, "totalCodeCount", 4L)));
+        // 用户 2 删除过历史记录，用户 3 的订单已全部清理，当天计数都正常，只有累计计数偏差
+        List<User> users = List.of(
+                totals(1L, 10, 4),
+                totals(2L, 12, 5),
+                totals(3L, 3, 1));
+        doReturn(users, List.of()).when(service).list(ArgumentMatchers.<Wrapper<User>>any());
+
+        service.reconcileUserTotals();
+
+        verify(self).updateUserStats(2L);
+        verify(self).updateUserStats(3L);
+        verify(self, never()).updateUserStats(1L);
+    }
+
+    private static User totals(Long id, int totalGet, int totalCode) {
+        User user = new User();
+        user.setId(id);
+        user.setTotalGetCount(totalGet);
+        user.setTotalCodeCount(totalCode);
+        return user;
+    }
+
+    private static User user(Long id, LocalDate statsDate, int dailyGet, int dailyCode) {
+        User user = new User();
+        user.setId(id);
+        user.setStatsDate(statsDate);
+        user.setDailyGetCount(dailyGet);
+        user.setDailyCodeCount(dailyCode);
+        return user;
+    }
+}
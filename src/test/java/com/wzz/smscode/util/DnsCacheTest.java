@@ -0,0 +1,184 @@
+package com.wzz.smscode.util;
+
+import com.sun.net.httpserver.HttpServer;
+import com.wzz.smscode.config.WebClientConfig;
+import com.wzz.smscode.exception.BusinessException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.resolver.AddressResolver;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DnsCacheTest {
+
+    private static final InetAddress[] PUBLIC = {address(93, 184, 216, 34)};
+
+    private static InetAddress address(int a, int b, int c, int d) {
+        try {
+            return InetAddress.getByAddress(new byte[]{(byte) a, (byte) b, (byte) c, (byte) d});
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    void concurrentMissesResolveOnceAndLaterCallsHitCache() throws Exception {
+        AtomicInteger lookups = new AtomicInteger();
+        DnsCache cache = new DnsCache(host -> {
+            lookups.incrementAndGet();
+            sleep(100);
+            return PUBLIC;
+        }, Duration.ofMinutes(1), Duration.ofSeconds(10), 0.8);
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<InetAddress[]>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(pool.submit(() -> {
+                start.await();
+                return cache.resolve("API.Example.com");
+            }));
+        }
+        start.countDown();
+        for (Future<InetAddress[]> result : results) {
+            assertArrayEquals(PUBLIC, result.get(5, TimeUnit.SECONDS));
+        }
+        pool.shutdown();
+        assertArrayEquals(PUBLIC, cache.resolve("api.example.com"));
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    void failuresAreCachedForNegativeTtl() throws Exception {
+        AtomicInteger lookups = new AtomicInteger();
+        DnsCache cache = new DnsCache(host -> {
+            lookups.incrementAndGet();
+            return null;
+        }, Duration.ofMinutes(1), Duration.ofMillis(150), 0.8);
+
+        assertThrows(UnknownHostException.class, () -> cache.resolve("missing.example.com"));
+        assertThrows(UnknownHostException.class, () -> cache.resolve("missing.example.com"));
+        assertEquals(1, lookups.get());
+        Thread.sleep(200);
+        assertThrows(UnknownHostException.class, () -> cache.resolve("missing.example.com"));
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    void entryNearExpiryIsRefreshedInBackground() throws Exception {
+        AtomicInteger lookups = new AtomicInteger();
+        InetAddress[] second = {address(93, 184, 216, 35)};
+        DnsCache cache = new DnsCache(host -> lookups.incrementAndGet() == 1 ? PUBLIC : second,
+                Duration.ofMillis(500), Duration.ofSeconds(10), 0.2);
+
+        assertArrayEquals(PUBLIC, cache.resolve("api.example.com"));
+        Thread.sleep(150);
+        // 已进入提前刷新窗口：本次仍返回旧结果，刷新在后台完成
+        assertArrayEquals(PUBLIC, cache.resolve("api.example.com"));
+        long deadline = System.currentTimeMillis() + 2000;
+        while (lookups.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(20);
+        assertArrayEquals(second, cache.resolve("api.example.com"));
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    void asyncMissResolvesOffTheCallingThread() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        DnsCache cache = new DnsCache(host -> {
+            await(release);
+            return PUBLIC;
+        }, Duration.ofMinutes(1), Duration.ofSeconds(10), 0.8);
+
+        CompletableFuture<InetAddress[]> pending = cache.resolveAsync("api.example.com");
+        assertFalse(pending.isDone());
+        release.countDown();
+        assertArrayEquals(PUBLIC, pending.get(5, TimeUnit.SECONDS));
+        // 命中缓存时直接完成
+        assertTrue(cache.resolveAsync("api.example.com").isDone());
+    }
+
+    @Test
+    void resolveTimerHostTagIsBounded() throws Exception {
+        DnsCache cache = new DnsCache(host -> PUBLIC, Duration.ofMinutes(1), Duration.ofSeconds(10), 0.8);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        cache.bindTo(registry);
+
+        for (int i = 0; i < 150; i++) {
+            cache.resolve("host" + i + ".example.com");
+        }
+        assertEquals(101, registry.find("sms.dns.resolve").timers().size());
+        assertEquals(50, registry.get("sms.dns.resolve").tag("host", "other").timer().count());
+    }
+
+    @Test
+    void connectTimeResolutionRejectsPrivateAddresses() throws Exception {
+        NioEventLoopGroup group = new NioEventLoopGroup(1);
+        try {
+            AddressResolver<InetSocketAddress> resolver = ValidatedAddressResolverGroup.INSTANCE.getResolver(group.next());
+            Throwable cause = resolver.resolve(InetSocketAddress.createUnresolved("192.168.1.10", 80))
+                    .await().cause();
+            assertTrue(cause instanceof BusinessException, String.valueOf(cause));
+        } finally {
+            group.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS).await();
+        }
+    }
+
+    @Test
+    void webClientConnectsThroughValidatedResolver() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ping", exchange -> {
+            byte[] body = "pong".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        try {
+            String body = new WebClientConfig().webClient().get()
+                    .uri("http://localhost:" + server.getAddress().getPort() + "/ping")
+                    .retrieve().bodyToMono(String.class).block(Duration.ofSeconds(10));
+            assertEquals("pong", body);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.wzz.smscode.util;
+
+import com.jayway.jsonpath.JsonPath;
+import com.wzz.smscode.util.JsonExtractorTest.Payload;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 提取规则逐条解析响应体与单次解析 + 预编译 JsonPath 的耗时对比，只输出结果，不参与默认构建。
+ * <p>
+ * 运行：mvn test -Pbenchmark。响应体与结果一致性校验见 {@link JsonExtractorTest}。
+ * </p>
+ */
+@Tag("benchmark")
+class JsonExtractorBenchmarkTest {
+
+    private static final int ITERATIONS = 10_000;
+    private static final int ROUNDS = 5;
+
+    @Test
+    void singleParseVersusPerRuleParsing() {
+        for (Payload payload : JsonExtractorTest.payloads()) {
+            List<JsonPath> compiled = payload.paths().stream().map(JsonExtractor::compile).toList();
+            long bestLegacy = Long.MAX_VALUE;
+            long bestSingle = Long.MAX_VALUE;
+            int sink = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    sink += Objects.hashCode(JsonExtractorTest.legacy(payload).get(0));
+                }
+                bestLegacy = Math.min(bestLegacy, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    sink += Objects.hashCode(JsonExtractorTest.singleParse(payload, compiled).get(0));
+                }
+                bestSingle = Math.min(bestSingle, System.nanoTime() - start);
+            }
+            assertTrue(sink != 1);
+            double legacyNs = (double) bestLegacy / ITERATIONS;
+            double singleNs = (double) bestSingle / ITERATIONS;
+            System.out.printf("响应提取[%s] %d 字节 %d 条规则: 逐条解析=%.0fns 单次解析=%.0fns 加速=%.1fx%n", payload.name(),
+                    payload.body().length(), payload.paths().size(), legacyNs, singleNs, legacyNs / singleNs);
+        }
+    }
+}
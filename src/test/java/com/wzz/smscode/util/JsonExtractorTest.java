@@ -0,0 +1,84 @@
+package com.wzz.smscode.util;
+
+import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.Option;
+import com.jayway.jsonpath.ParseContext;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 单次解析 + 预编译 JsonPath 与原来逐条规则解析响应体的结果一致性。
+ * <p>
+ * 响应体按上游接口的实际形态构造：取号（手机号、订单号、余额三条规则）、取码（短信列表中取验证码）、
+ * 号码筛选（账号列表 30 条，读取账号数与全部状态）。
+ * </p>
+ */
+class JsonExtractorTest {
+
+    private static final ParseContext LEGACY_PARSER = JsonPath.using(Configuration.defaultConfiguration()
+            .addOptions(Option.SUPPRESS_EXCEPTIONS));
+
+    record Payload(String name, String body, List<String> paths) {
+    }
+
+    static List<Payload> payloads() {
+        String getNumber = "{\"code\":0,\"msg\":\"success\",\"data\":{\"mobile\":\"13812345678\",\"orderId\":\"202405011234567890\","
+                + "\"balance\":\"88.50\",\"area\":\"广东深圳\",\"operator\":\"移动\",\"expire\":1714550400}}";
+        StringBuilder sms = new StringBuilder("{\"code\":0,\"msg\":\"ok\",\"data\":{\"mobile\":\"13812345678\",\"list\":[");
+        for (int i = 0; i < 8; i++) {
+            sms.append(i == 0 ? "" : ",").append("{\"from\":\"1069").append(i).append("\",\"content\":\"【某平台】您的验证码为")
+                    .append(100000 + i).append("，5分钟内有效，请勿泄露。\",\"time\":\"2024-05-01 12:0").append(i).append(":00\"}");
+        }
+        sms.append("],\"code\":\"482913\"}}");
+        StringBuilder filter = new StringBuilder("{\"code\":200,\"msg\":\"\",\"userinfo\":{\"account\":30,\"data\":[");
+        for (int i = 0; i < 30; i++) {
+            filter.append(i == 0 ? "" : ",").append("{\"uid\":\"").append(900000 + i)
+                    .append("\",\"state\":\"%E5%B7%B2%E6%B3%A8%E5%86%8C\",\"platform\":\"p").append(i % 5).append("\"}");
+        }
+        filter.append("]}}");
+        return List.of(
+                new Payload("取号", getNumber, List.of("$.data.mobile", "$.data.orderId", "$.data.balance")),
+                new Payload("取码", sms.toString(), List.of("$.data.code")),
+                new Payload("筛选", filter.toString(), List.of("$.code", "$.userinfo.account", "$.userinfo.data[*].state")));
+    }
+
+    static List<Object> legacy(Payload payload) {
+        List<Object> values = new ArrayList<>();
+        for (String path : payload.paths()) {
+            values.add(LEGACY_PARSER.parse(payload.body()).read(path));
+        }
+        return values;
+    }
+
+    static List<Object> singleParse(Payload payload, List<JsonPath> compiled) {
+        DocumentContext document = JsonExtractor.parse(payload.body());
+        List<Object> values = new ArrayList<>(compiled.size());
+        for (JsonPath path : compiled) {
+            values.add(JsonExtractor.read(document, path));
+        }
+        return values;
+    }
+
+    @Test
+    void singleParseMatchesPerRuleParsing() {
+        for (Payload payload : payloads()) {
+            List<JsonPath> compiled = payload.paths().stream().map(JsonExtractor::compile).toList();
+            assertEquals(legacy(payload), singleParse(payload, compiled), payload.name());
+        }
+    }
+
+    @Test
+    void errorMessageFallsBackAcrossCommonFields() {
+        assertEquals("余额不足", JsonExtractor.errorMessage(JsonExtractor.parse("{\"message\":\"余额不足\"}")));
+        assertEquals("1001", JsonExtractor.errorMessage(JsonExtractor.parse("{\"msg\":\"\",\"result\":1001}")));
+        assertEquals(JsonExtractor.DEFAULT_ERROR_MESSAGE, JsonExtractor.errorMessage(JsonExtractor.parse("not json")));
+        assertNull(JsonExtractor.compile("$.data[?("));
+    }
+}
@@ -0,0 +1,46 @@
+package com.wzz.smscode.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScalableBloomFilterTest {
+
+    @Test
+    void noFalseNegativesAndBoundedFalsePositivesAcrossGrowth() {
+        double fpp = 0.001;
+        ScalableBloomFilter filter = new ScalableBloomFilter(1_000, fpp);
+        long base = 13_000_000_000L;
+        int inserted = 50_000;
+        for (int i = 0; i < inserted; i++) {
+            filter.put(base + i * 7L);
+        }
+        assertTrue(filter.sliceCount() > 1, "filter should have grown beyond the initial slice");
+        for (int i = 0; i < inserted; i++) {
+            assertTrue(filter.mightContain(base + i * 7L));
+        }
+
+        Random random = new Random(7);
+        int probes = 200_000;
+        int falsePositives = 0;
+        for (int i = 0; i < probes; i++) {
+            long key = 18_000_000_000L + random.nextInt(999_999_999);
+            if (filter.mightContain(key)) {
+                falsePositives++;
+            }
+        }
+        // 多分片整体误判率上界为 2 * fpp，留出统计波动余量
+        assertTrue((double) falsePositives / probes < 3 * fpp, "false positive rate too high: " + falsePositives);
+    }
+
+    @Test
+    void keyOfParsesPhoneNumbersAndHashesOthers() {
+        assertEquals(13812345678L, ScalableBloomFilter.keyOf("13812345678"));
+        assertNotEquals(ScalableBloomFilter.keyOf("+8613812345678"), ScalableBloomFilter.keyOf("+8613812345679"));
+        assertEquals(ScalableBloomFilter.keyOf("abc"), ScalableBloomFilter.keyOf("abc"));
+    }
+}
@@ -0,0 +1,78 @@
+package com.wzz.smscode.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class VariableTemplateTest {
+
+    private static final Pattern VARIABLE_PATTERN = Pattern.compile("\\{\\{(.+?)}}");
+    private static final Map<String, String> CONTEXT = Map.of(
+            "token", "t$1\\x", "phone", "13800000000", "id", "42", "a", "A", "{a", "B", "}", "C");
+
+    /**
+     * 原正则实现，作为对照
+     */
+    static String regexRender(String input, Map<String, String> context) {
+        if (input == null || input.isBlank()) {
+            return input;
+        }
+        Matcher matcher = VARIABLE_PATTERN.matcher(input);
+        StringBuffer sb = new StringBuffer();
+        while (matcher.find()) {
+            String key = matcher.group(1).trim();
+            matcher.appendReplacement(sb, Matcher.quoteReplacement(context.getOrDefault(key, "")));
+        }
+        matcher.appendTail(sb);
+        return sb.toString();
+    }
+
+    @Test
+    void matchesRegexImplementationOnEdgeCases() {
+        List<String> inputs = List.of("", "plain", "{{token}}", "x={{ token }}&p={{phone}}", "{{}}", "{{}}}",
+                "{{{a}}", "{{{{a}}", "{{a}}}", "{{a\n}}{{id}}", "{{missing}}-", "{{a}", "}}{{", "{{ }}",
+                "{{a}}{{a}}{{a}}", "http://h/{{id}}/{{phone}}?t={{token}}", "{{a b}}{{id}}");
+        StringBuilder buffer = new StringBuilder();
+        for (String input : inputs) {
+            VariableTemplate template = VariableTemplate.compile(input);
+            assertEquals(regexRender(input, CONTEXT), template.render(CONTEXT), input);
+            assertEquals(regexRender(input, CONTEXT), template.render(CONTEXT, buffer), input);
+        }
+    }
+
+    @Test
+    void matchesRegexImplementationOnRandomInputs() {
+        String alphabet = "{}a\n x";
+        Random random = new Random(11);
+        for (int i = 0; i < 20_000; i++) {
+            StringBuilder input = new StringBuilder();
+            int length = random.nextInt(16);
+            for (int j = 0; j < length; j++) {
+                input.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            String source = input.toString();
+            if (source.isBlank()) {
+                continue;
+            }
+            assertEquals(regexRender(source, CONTEXT), VariableTemplate.compile(source).render(CONTEXT), source);
+        }
+    }
+
+    @Test
+    void constantTemplatesReturnSourceWithoutCopying() {
+        String source = "https://api.example.com/getPhone";
+        VariableTemplate template = VariableTemplate.compile(source);
+        assertFalse(template.hasVariables());
+        assertSame(source, template.render(CONTEXT));
+        assertNull(VariableTemplate.compile(null).render(CONTEXT));
+    }
+}